@@ -0,0 +1,66 @@
+package org.bcard.drega.signal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link CombineOperator}, on its own and folded over the
+ * values of every dependency with
+ * {@link DependencyValues#combine(CombineOperator)}.
+ *
+ * @author bcard
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CombineOperatorBenchmark {
+
+	@Param({ "ADD", "SUBTRACT", "PRODUCT", "MIN", "MAX", "AVG" })
+	CombineOperator operator;
+
+	@Param({ "CHAIN", "DIAMOND", "LATTICE", "FAN_IN" })
+	Topology topology;
+
+	@Param({ "4", "32" })
+	int size;
+
+	private DependencyValues values;
+
+	private long a = 17;
+	private long b = 5;
+
+	@Setup
+	public void setup() {
+		SignalGraph graph = topology.build(size);
+		values = new DependencyValues(ConflictSet.of(graph));
+		SignalChain[] chains = Topology.dependencyChains(graph, 1);
+		for (int i = 0; i < chains.length; i++) {
+			values.update(i, i + 1, chains[i]);
+		}
+	}
+
+	@Benchmark
+	public long call() {
+		return operator.call(a, b);
+	}
+
+	@Benchmark
+	public long combine() {
+		return values.combine(operator);
+	}
+}
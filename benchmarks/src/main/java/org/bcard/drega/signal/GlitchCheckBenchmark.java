@@ -0,0 +1,84 @@
+package org.bcard.drega.signal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the glitch check a signal runs every time one of its
+ * dependencies updates, see {@link DependencyValues#hasGlitch()}. The values
+ * are set up so every dependency agrees, which is the case where every
+ * collision has to be checked.
+ *
+ * @author bcard
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlitchCheckBenchmark {
+
+	@Param({ "CHAIN", "DIAMOND", "LATTICE", "FAN_IN" })
+	Topology topology;
+
+	@Param({ "4", "32" })
+	int size;
+
+	private SignalGraph graph;
+
+	private DependencyValues values;
+
+	private SignalChain[] chains;
+
+	private int counter = 1;
+
+	@Setup
+	public void setup() {
+		graph = topology.build(size);
+		values = new DependencyValues(ConflictSet.of(graph));
+		chains = Topology.dependencyChains(graph, counter);
+		for (int i = 0; i < chains.length; i++) {
+			values.update(i, i, chains[i]);
+		}
+	}
+
+	@Benchmark
+	public boolean hasGlitch() {
+		return values.hasGlitch();
+	}
+
+	/**
+	 * The full path of an update that arrives from the first dependency.
+	 */
+	@Benchmark
+	public boolean updateAndCheck() {
+		values.update(0, 0, chains[0]);
+		return values.hasGlitch();
+	}
+
+	@Benchmark
+	public SignalChain mergeChains() {
+		return values.mergeChains();
+	}
+
+	/**
+	 * Done once for each signal when its graph arrives.
+	 */
+	@Benchmark
+	public ConflictSet conflictSet() {
+		return ConflictSet.of(graph);
+	}
+}
@@ -0,0 +1,171 @@
+package org.bcard.drega.signal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks one source update travelling through a graph of signals in the
+ * same host, see {@link LocalDispatcher}. The signals here are stripped down
+ * to what {@link Signal} does with an update: pass it on when there is one
+ * dependency, otherwise record it in {@link DependencyValues} and combine the
+ * values when there is no glitch.
+ * <ul>
+ * <li><b>HEIGHT</b> delivers updates in height order and combines once per
+ * tick, the way hosted signals work
+ * <li><b>COUNTERS</b> delivers updates in the order they are sent and checks
+ * for glitches after every update, the way signals in different processes
+ * work
+ * </ul>
+ *
+ * @author bcard
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalPropagationBenchmark {
+
+	public enum Scheduling {
+		HEIGHT, COUNTERS
+	}
+
+	@Param({ "DIAMOND", "LATTICE" })
+	Topology topology;
+
+	@Param({ "4", "16" })
+	int size;
+
+	@Param({ "HEIGHT", "COUNTERS" })
+	Scheduling scheduling;
+
+	private final LocalDispatcher dispatcher = new LocalDispatcher();
+
+	private Node root;
+
+	private Node source;
+
+	private int counter = 0;
+
+	@Setup
+	public void setup() {
+		SignalGraph graph = topology.build(size);
+		Map<String, Node> nodes = new HashMap<>();
+		root = new Node(graph, nodes);
+
+		// give every signal a value before measuring
+		for (Node node : nodes.values()) {
+			if (node.graph.getDependentSignals().isEmpty()) {
+				source = node;
+				node.send(0, new SignalChain(node.graph, ++counter));
+			}
+		}
+	}
+
+	/**
+	 * Updates one source and returns the value the root ends up with.
+	 */
+	@Benchmark
+	public long update() {
+		source.send(counter, new SignalChain(source.graph, ++counter));
+		return root.value;
+	}
+
+	/**
+	 * A signal in the benchmark graph.
+	 */
+	private class Node {
+		private final SignalGraph graph;
+		private final int height;
+		private final DependencyValues values;
+		private final List<Input> dependents = new ArrayList<>();
+		private boolean scheduled = false;
+		private long value;
+
+		Node(SignalGraph graph, Map<String, Node> nodes) {
+			this.graph = graph;
+			nodes.put(graph.getId(), this);
+			ConflictSet conflicts = ConflictSet.of(graph);
+			this.height = conflicts.getAnalysis().getHeight();
+			this.values = new DependencyValues(conflicts);
+
+			List<SignalGraph> dependencies = graph.getDependentSignals();
+			for (int i = 0; i < dependencies.size(); i++) {
+				SignalGraph dependency = dependencies.get(i);
+				Node node = nodes.get(dependency.getId());
+				if (node == null) {
+					node = new Node(dependency, nodes);
+				}
+				node.dependents.add(new Input(this, i));
+			}
+		}
+
+		void send(long newValue, SignalChain chain) {
+			value = newValue;
+			dispatcher.dispatch(dependents, newValue, chain, null, null, false);
+		}
+
+		void recompute() {
+			if (values.hasAllValues() && !values.hasGlitch()) {
+				send(values.combine(CombineOperator.ADD), values.mergeChains());
+			}
+		}
+	}
+
+	/**
+	 * One dependency of a {@link Node}.
+	 */
+	private class Input implements LocalDispatcher.Receiver {
+		private final Node node;
+		private final int dependency;
+
+		Input(Node node, int dependency) {
+			this.node = node;
+			this.dependency = dependency;
+		}
+
+		@Override
+		public int getHeight() {
+			return scheduling == Scheduling.HEIGHT ? node.height : 0;
+		}
+
+		@Override
+		public void receiveLocal(long value, SignalChain chain, Trace trace, List<Epoch> epochs, boolean stale) {
+			if (node.graph.getDependentSignals().size() == 1) {
+				node.send(value, chain);
+				return;
+			}
+
+			node.values.update(dependency, value, chain);
+			if (scheduling == Scheduling.COUNTERS) {
+				node.recompute();
+			} else if (!node.scheduled) {
+				node.scheduled = true;
+				dispatcher.schedule(this);
+			}
+		}
+
+		@Override
+		public void propagate() {
+			node.scheduled = false;
+			node.recompute();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.bcard.drega.signal;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link SignalChain}. The chains are the merged chains a
+ * signal at the root of each topology would publish, so they hold a counter
+ * for every signal in the graph.
+ *
+ * @author bcard
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignalChainBenchmark {
+
+	@Param({ "CHAIN", "DIAMOND", "LATTICE", "FAN_IN" })
+	Topology topology;
+
+	@Param({ "4", "32" })
+	int size;
+
+	private SignalChain chain;
+
+	/**
+	 * Same signals as {@link #chain} but with different counters.
+	 */
+	private SignalChain other;
+
+	private String json;
+
+	/**
+	 * The first and last signal in the chain.
+	 */
+	private String first;
+	private String last;
+
+	@Setup
+	public void setup() {
+		List<String> ids = GraphAnalysis.of(topology.build(size)).getIds();
+		chain = new SignalChain();
+		other = new SignalChain();
+		// reversed so the root is last, the way chains are built
+		for (int i = ids.size() - 1; i >= 0; i--) {
+			chain.append(ids.get(i), 1);
+			other.append(ids.get(i), 2);
+		}
+		json = chain.toJson();
+		first = ids.get(ids.size() - 1);
+		last = ids.get(0);
+	}
+
+	@Benchmark
+	public String toJson() {
+		return chain.toJson();
+	}
+
+	@Benchmark
+	public SignalChain fromJson() {
+		return SignalChain.fromJson(json);
+	}
+
+	@Benchmark
+	public List<String> getConflicts() {
+		return chain.getConflicts(other);
+	}
+
+	@Benchmark
+	public int getEventCounterForFirst() {
+		return chain.getEventCounterFor(first);
+	}
+
+	@Benchmark
+	public int getEventCounterForLast() {
+		return chain.getEventCounterFor(last);
+	}
+}
@@ -0,0 +1,114 @@
+package org.bcard.drega.signal;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for {@link SignalGraph}.
+ *
+ * @author bcard
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignalGraphBenchmark {
+
+	@Param({ "CHAIN", "DIAMOND", "LATTICE", "FAN_IN" })
+	Topology topology;
+
+	@Param({ "4", "12" })
+	int size;
+
+	private SignalGraph graph;
+
+	/**
+	 * A structurally equal graph that doesn't share any nodes with
+	 * {@link #graph}.
+	 */
+	private SignalGraph copy;
+
+	private String json;
+
+	/**
+	 * The ID of the signal furthest from the root, the worst case for
+	 * {@link SignalGraph#containsId(String)}.
+	 */
+	private String deepestId;
+
+	@Setup
+	public void setup() {
+		graph = topology.build(size);
+		json = graph.toJson();
+		copy = copy(graph);
+		List<String> ids = GraphAnalysis.of(graph).getIds();
+		deepestId = ids.get(ids.size() - 1);
+	}
+
+	@Benchmark
+	public List<SignalChain> allPaths() {
+		return graph.allPaths();
+	}
+
+	@Benchmark
+	public boolean containsId() {
+		return graph.containsId(deepestId);
+	}
+
+	@Benchmark
+	public boolean containsIdMissing() {
+		return graph.containsId("missing");
+	}
+
+	@Benchmark
+	public int hashCodeOfNewGraph() {
+		return copy(graph).hashCode();
+	}
+
+	@Benchmark
+	public boolean equalsStructuralCopy() {
+		return graph.equals(copy);
+	}
+
+	@Benchmark
+	public String toJson() {
+		return graph.toJson();
+	}
+
+	@Benchmark
+	public SignalGraph fromJson() {
+		return SignalGraph.fromJson(json);
+	}
+
+	@Benchmark
+	public SignalGraph jsonRoundTrip() {
+		return SignalGraph.fromJson(graph.toJson());
+	}
+
+	/**
+	 * Rebuilds a graph with the constructor so none of its nodes are interned.
+	 */
+	private static SignalGraph copy(SignalGraph graph) {
+		List<SignalGraph> dependencies = graph.getDependentSignals();
+		SignalGraph[] copies = new SignalGraph[dependencies.size()];
+		for (int i = 0; i < copies.length; i++) {
+			copies[i] = copy(dependencies.get(i));
+		}
+		return new SignalGraph(graph.getId(), copies);
+	}
+}
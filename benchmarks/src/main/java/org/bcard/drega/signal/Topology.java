@@ -0,0 +1,115 @@
+package org.bcard.drega.signal;
+
+import java.util.List;
+
+/**
+ * The dependency graph shapes the benchmarks are run over. Each topology is
+ * built with a size, what that means depends on the shape. The root of the
+ * returned graph is always the signal that would be doing the work.
+ *
+ * @author bcard
+ *
+ */
+public enum Topology {
+
+	/**
+	 * A single line of signals, {@code s0 <- s1 <- ... <- s[size]}.
+	 */
+	CHAIN {
+		@Override
+		public SignalGraph build(int size) {
+			SignalGraph graph = SignalGraph.of("s0");
+			for (int i = 1; i <= size; i++) {
+				graph = SignalGraph.of("s" + i, graph);
+			}
+			return graph;
+		}
+	},
+
+	/**
+	 * One source with {@code size} signals that depend on it and a root that
+	 * depends on all of those. Every dependency of the root collides on the
+	 * source.
+	 */
+	DIAMOND {
+		@Override
+		public SignalGraph build(int size) {
+			SignalGraph source = SignalGraph.of("src");
+			SignalGraph[] middle = new SignalGraph[size];
+			for (int i = 0; i < size; i++) {
+				middle[i] = SignalGraph.of("m" + i, source);
+			}
+			return SignalGraph.of("root", middle);
+		}
+	},
+
+	/**
+	 * {@code size} diamonds stacked on top of each other, each level has two
+	 * signals that depend on both signals of the level below. The number of
+	 * paths doubles with each level so keep this one small.
+	 */
+	LATTICE {
+		@Override
+		public SignalGraph build(int size) {
+			SignalGraph left = SignalGraph.of("l0");
+			SignalGraph right = SignalGraph.of("r0");
+			for (int i = 1; i <= size; i++) {
+				SignalGraph nextLeft = SignalGraph.of("l" + i, left, right);
+				SignalGraph nextRight = SignalGraph.of("r" + i, left, right);
+				left = nextLeft;
+				right = nextRight;
+			}
+			return SignalGraph.of("root", left, right);
+		}
+	},
+
+	/**
+	 * A root that depends on {@code size} independent sources, there are no
+	 * collisions at all.
+	 */
+	FAN_IN {
+		@Override
+		public SignalGraph build(int size) {
+			SignalGraph[] sources = new SignalGraph[size];
+			for (int i = 0; i < size; i++) {
+				sources[i] = SignalGraph.of("s" + i);
+			}
+			return SignalGraph.of("root", sources);
+		}
+	};
+
+	/**
+	 * Builds a graph with this shape.
+	 *
+	 * @param size
+	 *            the size of the graph
+	 * @return the root of the graph
+	 */
+	public abstract SignalGraph build(int size);
+
+	/**
+	 * Builds one chain for each immediate dependency of a graph, the chain
+	 * holds a counter of {@code counter} for every source reachable through
+	 * that dependency. This is what a signal would hold once all of its
+	 * dependencies have caught up with each other.
+	 *
+	 * @param graph
+	 *            the root of the graph
+	 * @param counter
+	 *            the counter to give every signal
+	 * @return a chain for each dependency
+	 */
+	public static SignalChain[] dependencyChains(SignalGraph graph, int counter) {
+		GraphAnalysis analysis = GraphAnalysis.of(graph);
+		List<SignalGraph> dependencies = graph.getDependentSignals();
+		SignalChain[] chains = new SignalChain[dependencies.size()];
+		for (int i = 0; i < chains.length; i++) {
+			String dependency = dependencies.get(i).getId();
+			chains[i] = new SignalChain();
+			for (String id : analysis.getSourcesThrough(dependency)) {
+				chains[i].append(id, counter);
+			}
+		}
+		return chains;
+	}
+}
@@ -3,14 +3,17 @@ package org.bcard.drega;
 import java.util.Scanner;
 
 import org.bcard.drega.command.CommandProcessor;
+import org.bcard.drega.signal.SignalHost;
+import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.platform.Verticle;
 
 /**
- * Main entry point into the application. This class starts the REPL and command
- * processing verticles.
+ * Main entry point into the application. This class starts the REPL, the
+ * {@link SignalHost} that runs our signals and the command processing
+ * verticles.
  * 
  * @author bcard
  * 
@@ -23,8 +26,15 @@ public class Main extends Verticle {
 	public void start() {
 		container.logger().info("Starting Application...");
 
-		// start command processor
-		container.deployVerticle(CommandProcessor.class.getName());
+		// start the host for our signals and then the command processor,
+		// which creates signals in the host
+		container.deployVerticle(SignalHost.class.getName(), new Handler<AsyncResult<String>>() {
+
+			@Override
+			public void handle(AsyncResult<String> event) {
+				container.deployVerticle(CommandProcessor.class.getName());
+			}
+		});
 
 		// command line interface
 		handler = new InputHandler(vertx);
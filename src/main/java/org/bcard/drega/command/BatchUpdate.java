@@ -0,0 +1,111 @@
+package org.bcard.drega.command;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bcard.drega.signal.Epoch;
+import org.bcard.drega.signal.Signal;
+import org.bcard.drega.signal.SignalHost;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.Container;
+
+/**
+ * A command that sets and adds to the values of many source signals with a
+ * single message per host. Each signal sends one update for the whole batch,
+ * see {@link Signal#BATCH_ADDRESS} and
+ * {@link SignalHost#sendBatch(Vertx, JsonObject)}.
+ * <p>
+ * A transactional batch is stamped with a new {@link Epoch}, so signals that
+ * depend on several of the updated sources compute their value once for the
+ * whole batch rather than once per source.
+ * 
+ * @author bcard
+ * 
+ */
+public class BatchUpdate implements ICommand {
+
+	private final Map<String, Long> values;
+
+	private final Map<String, Long> deltas;
+
+	private final boolean transactional;
+
+	/**
+	 * Creates a new {@link BatchUpdate} command.
+	 * 
+	 * @param values
+	 *            the new values of signals, by signal ID
+	 * @param deltas
+	 *            the amounts to add to signals, by signal ID. These are added
+	 *            after any new value is set
+	 */
+	public BatchUpdate(Map<String, Long> values, Map<String, Long> deltas) {
+		this(values, deltas, false);
+	}
+
+	/**
+	 * Creates a new {@link BatchUpdate} command.
+	 * 
+	 * @param values
+	 *            the new values of signals, by signal ID
+	 * @param deltas
+	 *            the amounts to add to signals, by signal ID. These are added
+	 *            after any new value is set
+	 * @param transactional
+	 *            {@code true} to apply the batch as a transaction
+	 */
+	public BatchUpdate(Map<String, Long> values, Map<String, Long> deltas, boolean transactional) {
+		this.values = values;
+		this.deltas = deltas;
+		this.transactional = transactional;
+	}
+
+	@Override
+	public void execute(Container container, Vertx vertx, Handler<AsyncResult<String>> done) {
+		JsonObject batch = new JsonObject();
+		batch.putObject("values", toJson(values));
+		batch.putObject("deltas", toJson(deltas));
+		if (transactional) {
+			Set<String> sources = new LinkedHashSet<>(values.keySet());
+			sources.addAll(deltas.keySet());
+			batch.putObject("epoch", Epoch.create(new ArrayList<>(sources)).toJson());
+		}
+		SignalHost.sendBatch(vertx, batch);
+		done.handle(new DefaultFutureResult<String>());
+	}
+
+	private static JsonObject toJson(Map<String, Long> amounts) {
+		JsonObject json = new JsonObject();
+		for (Map.Entry<String, Long> entry : amounts.entrySet()) {
+			json.putNumber(entry.getKey(), entry.getValue());
+		}
+		return json;
+	}
+
+	/**
+	 * @return the new values of signals, by signal ID
+	 */
+	public Map<String, Long> getValues() {
+		return values;
+	}
+
+	/**
+	 * @return the amounts to add to signals, by signal ID
+	 */
+	public Map<String, Long> getDeltas() {
+		return deltas;
+	}
+
+	/**
+	 * @return {@code true} if the batch is applied as a transaction
+	 */
+	public boolean isTransactional() {
+		return transactional;
+	}
+}
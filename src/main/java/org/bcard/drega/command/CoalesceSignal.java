@@ -0,0 +1,51 @@
+package org.bcard.drega.command;
+
+import org.bcard.drega.signal.Signal;
+import org.bcard.drega.signal.SignalHost;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.Container;
+
+/**
+ * A command that sets up update coalescing on a signal. A signal that
+ * coalesces updates holds back bursts of updates for up to {@code maxDelay}
+ * milliseconds and only sends the newest one.
+ * 
+ * @author bcard
+ * 
+ */
+public class CoalesceSignal implements ICommand {
+
+	private final String signal;
+	private final long maxDelay;
+	private final int maxBatch;
+
+	public CoalesceSignal(String signal, long maxDelay) {
+		this(signal, maxDelay, Signal.DEFAULT_MAX_BATCH);
+	}
+
+	public CoalesceSignal(String signal, long maxDelay, int maxBatch) {
+		this.signal = signal;
+		this.maxDelay = maxDelay;
+		this.maxBatch = maxBatch;
+	}
+
+	@Override
+	public void execute(Container container, final Vertx vertx, final Handler<AsyncResult<String>> done) {
+		final JsonObject msg = new JsonObject();
+		msg.putNumber("maxDelay", maxDelay);
+		msg.putNumber("maxBatch", maxBatch);
+		SignalHost.open(vertx, signal, new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> opened) {
+				vertx.eventBus().send("signals." + signal + ".coalesce", msg);
+				done.handle(new DefaultFutureResult<String>());
+			}
+		});
+	}
+
+}
@@ -1,7 +1,10 @@
 package org.bcard.drega.command;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.bcard.drega.signal.CombineOperator;
-import org.bcard.drega.signal.Signal;
+import org.bcard.drega.signal.SignalHost;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
@@ -10,38 +13,48 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.platform.Container;
 
 /**
- * Combine's two symbols together applying an operator that can be used for
- * the combination.
+ * Combines any number of symbols together applying an operator that can be
+ * used for the combination. The result is a single signal that depends on
+ * every symbol, no matter how many there are.
  * 
  * @author bcard
  *
  */
-public class CombineSymbols implements ICommand {
+public class CombineSymbols implements SignalDefinition {
 	
 	/*default for testing*/ final String target;
-	/*default for testing*/ final String symbol1;
-	/*default for testing*/ final String symbol2;
+	/*default for testing*/ final List<String> symbols;
 	/*default for testing*/ final CombineOperator operator;
 	
 	public CombineSymbols(String target, String symbol1, String symbol2,
 			CombineOperator operator) {
+		this(target, Arrays.asList(symbol1, symbol2), operator);
+	}
+
+	public CombineSymbols(String target, List<String> symbols,
+			CombineOperator operator) {
 		this.target = target;
-		this.symbol1 = symbol1;
-		this.symbol2 = symbol2;
+		this.symbols = symbols;
 		this.operator = operator;
 	}
 
 	@Override
 	public void execute(Container container, Vertx vertx,
 			Handler<AsyncResult<String>> done) {
+		SignalHost.deploySignal(container, vertx, toConfig(), done);
+	}
+
+	@Override
+	public JsonObject toConfig() {
 		JsonObject config = new JsonObject();
 		config.putString("id", target);
 		JsonArray array = new JsonArray();
-		array.addString(symbol1);
-		array.addString(symbol2);
+		for (String symbol : symbols) {
+			array.addString(symbol);
+		}
 		config.putArray("dependencies", array);
 		config.putString("operator", operator.name());
-		container.deployVerticle(Signal.class.getName(), config, done);
+		return config;
 	}
 
 }
@@ -1,8 +1,14 @@
 package org.bcard.drega.command;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.bcard.drega.signal.CombineOperator;
+import org.bcard.drega.signal.ConsistencyLevel;
+import org.bcard.drega.signal.Expression;
 
 /**
  * Parses command line input and turns it into a concrete command class.
@@ -24,13 +30,54 @@ public class CommandParser {
 	
 	public static final String INCREMENT = ASSIGNMENT_WITHOUT_VALUE+"\\+\\+";
 	
+	/**
+	 * Adds to or subtracts from a signal, {@code x += 10}.
+	 */
+	public static final String ADD = VARIABLE+WS+"[-+]="+WS+"-?\\d+";
+	
+	/**
+	 * A single update to a source signal, {@code x += 10} or {@code x = 3}.
+	 */
+	public static final String UPDATE = VARIABLE+WS+"[-+]?="+WS+"-?\\d+";
+	
+	/**
+	 * Several updates to source signals sent as one message,
+	 * {@code x += 10; y = 3}.
+	 */
+	public static final String BATCH = UPDATE+"("+WS+";"+WS+UPDATE+")+";
+	
+	public static final String BEGIN = "begin";
+	
+	public static final String COMMIT = "commit";
+	
+	public static final String ROLLBACK = "rollback";
+	
+	/**
+	 * {@code begin}, {@code commit} or {@code rollback} on its own, these only
+	 * mean something to whatever is collecting the lines of a transaction, see
+	 * {@link CommandProcessor}.
+	 */
+	public static final String TRANSACTION_KEYWORD = WS+"("+BEGIN+"|"+COMMIT+"|"+ROLLBACK+")"+WS;
+	
+	/**
+	 * Updates applied as one transaction, {@code begin; x += 10; y = 3; commit}.
+	 */
+	public static final String TRANSACTION = BEGIN+WS+";"+WS+UPDATE+"("+WS+";"+WS+UPDATE+")*"+WS+";"+WS+COMMIT;
+	
 	public static final String MAP_SIGNAL = VARIABLE+WS+"="+WS+VARIABLE;
 	
 	public static final String GRAPH = "graph "+VARIABLE;
 	
-	public static final String COMBINE_ADDITION = VARIABLE+WS+"="+WS+VARIABLE+WS+"\\+"+WS+VARIABLE;
+	/**
+	 * Two or more variables joined by the same operator, {@code t = a + b + c}.
+	 * The operator is captured so the rest of the expression has to match it.
+	 */
+	public static final String COMBINE_INFIX = VARIABLE+WS+"="+WS+VARIABLE+WS+"([-+*])"+WS+VARIABLE+"("+WS+"\\1"+WS+VARIABLE+")*";
 	
-	public static final String COMBINE_SUBTRACTION = VARIABLE+WS+"="+WS+VARIABLE+WS+"\\-"+WS+VARIABLE;
+	/**
+	 * An operator applied to a list of variables, {@code t = max(a, b, c)}.
+	 */
+	public static final String COMBINE_FUNCTION = VARIABLE+WS+"="+WS+"(sum|product|min|max|avg)\\("+WS+VARIABLE+"("+WS+","+WS+VARIABLE+")*"+WS+"\\)";
 	
 	public static final String BLOCK = "block "+VARIABLE;
 	
@@ -40,17 +87,46 @@ public class CommandParser {
 	
 	public static final String NOGLITCH = "noglitch "+VARIABLE;
 	
+	/**
+	 * Any other assignment, the right hand side is compiled as an
+	 * {@link Expression}.
+	 */
+	public static final String EXPRESSION = VARIABLE+WS+"=.+";
+	
+	public static final String DISTINCT = "distinct "+VARIABLE;
+	
+	public static final String NODISTINCT = "nodistinct "+VARIABLE;
+	
+	public static final String CONSISTENCY = "consistency "+VARIABLE+" (strict|bounded( \\d+)?|eventual)";
+	
+	public static final String COALESCE = "coalesce "+VARIABLE+" \\d+( \\d+)?";
+	
+	public static final String STATS = "stats "+VARIABLE;
+	
+	public static final String SAVE = "save \\S+";
+	
+	public static final String LOAD = "load \\S+";
+	
+	public static final String RUN = "run \\S+( \\d+)?";
+	
+	public static final String PLACEMENT = "placement";
+	
 	public static final String HELP = "help";
 	
 	public static ICommand parse(String input) {
 		ICommand command = null;
 		if (matches(HELP, input)) {
 			command = new PrintHelp();
+		} else if (matches(TRANSACTION_KEYWORD, input)) {
+			// not the name of a signal to print
+			throw new ParseException(input);
 		} else if (matches(ASSIGNMENT_WITH_VALUE, input)) {
 			String[] vals = input.split("=");
 			command = new CreateSignal(vals[0].trim(), Long.parseLong(vals[1].trim()));
 		} else if (matches(EXIT, input)) {
 			command = new Exit();
+		} else if (matches(PLACEMENT, input)) {
+			command = new PrintPlacement();
 		} else if (matches(ASSIGNMENT_WITHOUT_VALUE, input)) {
 			command = new PrintSignal(input.trim());
 		} else if (matches(INCREMENT, input)) {
@@ -58,6 +134,13 @@ public class CommandParser {
 			val = val.substring(0, val.length()-2);
 			val = val.trim();
 			command = new Increment(val);
+		} else if (matches(ADD, input)) {
+			command = add(input);
+		} else if (matches(BATCH, input)) {
+			command = batch(input, false);
+		} else if (matches(TRANSACTION, input)) {
+			String updates = input.substring(input.indexOf(';') + 1, input.lastIndexOf(';'));
+			command = batch(updates, true);
 		} else if (matches(MAP_SIGNAL, input)) {
 			String[] vals = input.split("=");
 			command = new MapSignal(vals[0].trim(), vals[1].trim());
@@ -70,18 +153,59 @@ public class CommandParser {
 		} else if (matches(UNBLOCK, input)) {
 			String[] vals = input.split(" ");
 			command = new BlockSignal(vals[1], false);
-		} else if (matches(COMBINE_ADDITION, input)) {
-			String[] vals = input.split("[=+]");
-			command = new CombineSymbols(vals[0].trim(), vals[1].trim(), vals[2].trim(), CombineOperator.ADD);
-		} else if (matches(COMBINE_SUBTRACTION, input)) {
-			String[] vals = input.split("[=-]");
-			command = new CombineSymbols(vals[0].trim(), vals[1].trim(), vals[2].trim(), CombineOperator.SUBTRACT);
+		} else if (matches(COMBINE_INFIX, input)) {
+			String[] vals = input.split("=");
+			CombineOperator operator = infixOperator(vals[1]);
+			command = new CombineSymbols(vals[0].trim(), symbols(vals[1].split("[-+*]")), operator);
+		} else if (matches(COMBINE_FUNCTION, input)) {
+			String[] vals = input.split("[=(]");
+			CombineOperator operator = functionOperator(vals[1].trim());
+			String args = vals[2].substring(0, vals[2].indexOf(')'));
+			command = new CombineSymbols(vals[0].trim(), symbols(args.split(",")), operator);
 		} else if (matches(GLITCH, input)) {
 			String[] vals = input.split(" ");
 			command = new GlitchSignal(vals[1], false);
 		} else if (matches(NOGLITCH, input)) {
 			String[] vals = input.split(" ");
 			command = new GlitchSignal(vals[1], true);
+		} else if (matches(DISTINCT, input)) {
+			String[] vals = input.split(" ");
+			command = new DistinctSignal(vals[1], true);
+		} else if (matches(NODISTINCT, input)) {
+			String[] vals = input.split(" ");
+			command = new DistinctSignal(vals[1], false);
+		} else if (matches(CONSISTENCY, input)) {
+			String[] vals = input.split(" ");
+			ConsistencyLevel level = ConsistencyLevel.fromName(vals[2]);
+			if (vals.length > 3) {
+				command = new ConsistencySignal(vals[1], level, Long.parseLong(vals[3]));
+			} else {
+				command = new ConsistencySignal(vals[1], level);
+			}
+		} else if (matches(COALESCE, input)) {
+			String[] vals = input.split(" ");
+			long maxDelay = Long.parseLong(vals[2]);
+			if (vals.length > 3) {
+				command = new CoalesceSignal(vals[1], maxDelay, Integer.parseInt(vals[3]));
+			} else {
+				command = new CoalesceSignal(vals[1], maxDelay);
+			}
+		} else if (matches(STATS, input)) {
+			String[] vals = input.split(" ");
+			command = new PrintStats(vals[1]);
+		} else if (matches(SAVE, input)) {
+			command = new SaveTopology(input.trim().substring(5).trim());
+		} else if (matches(LOAD, input)) {
+			command = new LoadTopology(input.trim().substring(5).trim());
+		} else if (matches(RUN, input)) {
+			String[] vals = input.split(" ");
+			if (vals.length > 2) {
+				command = new RunScript(vals[1], Integer.parseInt(vals[2]));
+			} else {
+				command = new RunScript(vals[1]);
+			}
+		} else if (matches(EXPRESSION, input)) {
+			command = expression(input);
 		}
 		
 		if (command == null) {
@@ -91,6 +215,99 @@ public class CommandParser {
 		return command;
 	}
 	
+	/**
+	 * Compiles an assignment like {@code z = (a + b) * c}. Expressions without
+	 * any variables just create a signal with the value of the expression.
+	 * 
+	 * @return the command, or {@code null} if the expression is invalid
+	 */
+	private static ICommand expression(String input) {
+		int equals = input.indexOf('=');
+		String target = input.substring(0, equals).trim();
+		Expression expression;
+		try {
+			expression = Expression.compile(input.substring(equals + 1));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (expression.isConstant()) {
+			try {
+				return new CreateSignal(target, expression.evaluate(new long[0]));
+			} catch (ArithmeticException e) {
+				return null;
+			}
+		}
+		return new CreateExpression(target, expression);
+	}
+	
+	/**
+	 * Parses an update like {@code x -= 10}.
+	 */
+	private static Increment add(String input) {
+		int equals = input.indexOf('=');
+		long amount = Long.parseLong(input.substring(equals + 1).trim());
+		if (input.charAt(equals - 1) == '-') {
+			amount = -amount;
+		}
+		return new Increment(input.substring(0, equals - 1).trim(), amount);
+	}
+	
+	/**
+	 * Parses updates like {@code x += 10; y = 3}. The updates are applied in
+	 * order, so setting a value replaces any amount added to it earlier.
+	 */
+	private static BatchUpdate batch(String input, boolean transactional) {
+		Map<String, Long> values = new LinkedHashMap<>();
+		Map<String, Long> deltas = new LinkedHashMap<>();
+		for (String update : input.split(";")) {
+			if (matches(ADD, update.trim())) {
+				Increment increment = add(update);
+				Long previous = deltas.get(increment.getId());
+				long amount = increment.getAmount() + (previous == null ? 0 : previous);
+				deltas.put(increment.getId(), amount);
+			} else {
+				String[] vals = update.split("=");
+				String id = vals[0].trim();
+				values.put(id, Long.parseLong(vals[1].trim()));
+				deltas.remove(id);
+			}
+		}
+		return new BatchUpdate(values, deltas, transactional);
+	}
+	
+	/**
+	 * Returns the operator used in an infix expression like {@code a + b}.
+	 */
+	private static CombineOperator infixOperator(String expression) {
+		if (expression.indexOf('+') >= 0) {
+			return CombineOperator.ADD;
+		} else if (expression.indexOf('*') >= 0) {
+			return CombineOperator.PRODUCT;
+		}
+		return CombineOperator.SUBTRACT;
+	}
+	
+	/**
+	 * Returns the operator for a function name like {@code sum}.
+	 */
+	private static CombineOperator functionOperator(String name) {
+		if (name.equals("sum")) {
+			return CombineOperator.ADD;
+		}
+		return CombineOperator.valueOf(name.toUpperCase());
+	}
+	
+	/**
+	 * Trims each symbol.
+	 */
+	private static List<String> symbols(String[] vals) {
+		List<String> symbols = new ArrayList<>(vals.length);
+		for (String val : vals) {
+			symbols.add(val.trim());
+		}
+		return symbols;
+	}
+	
 	/**
 	 * Returns {@code true} if the given regex {@code pattern} matches the given
 	 * {@code input}.
@@ -1,5 +1,7 @@
 package org.bcard.drega.command;
 
+import java.util.regex.Pattern;
+
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
@@ -9,12 +11,21 @@ import org.vertx.java.platform.Verticle;
  * The command processor parses and executes commands written to the
  * {@code command} address. See {@link CommandParser} for a description of the
  * command syntax.
+ * <p>
+ * A transaction can also be typed over several lines. After {@code begin} the
+ * processor collects updates like {@code x += 1} until {@code commit}, then
+ * runs them as one transaction. {@code rollback} throws them away.
  * 
  * @author bcard
  * 
  */
 public class CommandProcessor extends Verticle {
 
+	/**
+	 * The updates of the open transaction, or {@code null} if there isn't one.
+	 */
+	private StringBuilder transaction;
+
 	@Override
 	public void start() {
 		container.logger().info("Starting Command Processor...");
@@ -23,6 +34,17 @@ public class CommandProcessor extends Verticle {
 			@Override
 			public void handle(Message<String> event) {
 				String text = event.body();
+				if (transaction != null) {
+					text = continueTransaction(text.trim());
+					if (text == null) {
+						event.reply();
+						return;
+					}
+				} else if (text.trim().equals(CommandParser.BEGIN)) {
+					transaction = new StringBuilder(CommandParser.BEGIN);
+					event.reply();
+					return;
+				}
 				try {
 					ICommand command = CommandParser.parse(text);
 					
@@ -38,6 +60,30 @@ public class CommandProcessor extends Verticle {
 		
 	}
 	
+	/**
+	 * Adds a line to the open transaction.
+	 * 
+	 * @param line
+	 *            the line that was entered
+	 * @return the whole transaction once it is committed, otherwise
+	 *         {@code null}
+	 */
+	private String continueTransaction(String line) {
+		if (line.equals(CommandParser.COMMIT)) {
+			String text = transaction.append("; ").append(CommandParser.COMMIT).toString();
+			transaction = null;
+			return text;
+		} else if (line.equals(CommandParser.ROLLBACK)) {
+			container.logger().info("Transaction rolled back");
+			transaction = null;
+		} else if (Pattern.matches(CommandParser.UPDATE, line)) {
+			transaction.append("; ").append(line);
+		} else {
+			container.logger().error("Only updates are allowed in a transaction:"+line);
+		}
+		return null;
+	}
+	
 	private static class AsynchResultHandler implements Handler<AsyncResult<String>> {
 		
 		private final Message<String> event;
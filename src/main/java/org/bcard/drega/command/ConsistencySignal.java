@@ -0,0 +1,64 @@
+package org.bcard.drega.command;
+
+import org.bcard.drega.signal.ConsistencyLevel;
+import org.bcard.drega.signal.Signal;
+import org.bcard.drega.signal.SignalHost;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.Container;
+
+/**
+ * A command that sets how a signal handles glitches, see
+ * {@link ConsistencyLevel}.
+ * 
+ * @author bcard
+ * 
+ */
+public class ConsistencySignal implements ICommand {
+
+	private final String signal;
+	private final ConsistencyLevel level;
+	private final long maxStaleness;
+
+	public ConsistencySignal(String signal, ConsistencyLevel level) {
+		this(signal, level, Signal.DEFAULT_MAX_STALENESS);
+	}
+
+	public ConsistencySignal(String signal, ConsistencyLevel level, long maxStaleness) {
+		this.signal = signal;
+		this.level = level;
+		this.maxStaleness = maxStaleness;
+	}
+
+	@Override
+	public void execute(Container container, final Vertx vertx, final Handler<AsyncResult<String>> done) {
+		final JsonObject msg = new JsonObject();
+		msg.putString("level", level.name());
+		msg.putNumber("maxStaleness", maxStaleness);
+		SignalHost.open(vertx, signal, new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> opened) {
+				vertx.eventBus().send("signals." + signal + ".consistency", msg);
+				done.handle(new DefaultFutureResult<String>());
+			}
+		});
+	}
+
+	/**
+	 * @return the level the signal is set to
+	 */
+	public ConsistencyLevel getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the longest a bounded signal holds a value back, in milliseconds
+	 */
+	public long getMaxStaleness() {
+		return maxStaleness;
+	}
+}
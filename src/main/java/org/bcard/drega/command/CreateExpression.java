@@ -0,0 +1,48 @@
+package org.bcard.drega.command;
+
+import org.bcard.drega.signal.Expression;
+import org.bcard.drega.signal.SignalHost;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.Container;
+
+/**
+ * Creates a signal that evaluates an arithmetic expression over other
+ * signals, e.g. {@code z = (a + b) * c - d}. The whole expression is
+ * evaluated by one signal that depends on every signal in it.
+ * 
+ * @author bcard
+ *
+ */
+public class CreateExpression implements SignalDefinition {
+
+	/*default for testing*/ final String target;
+	/*default for testing*/ final Expression expression;
+
+	public CreateExpression(String target, Expression expression) {
+		this.target = target;
+		this.expression = expression;
+	}
+
+	@Override
+	public void execute(Container container, Vertx vertx, Handler<AsyncResult<String>> done) {
+		SignalHost.deploySignal(container, vertx, toConfig(), done);
+	}
+
+	@Override
+	public JsonObject toConfig() {
+		JsonObject config = new JsonObject();
+		config.putString("id", target);
+		config.putString("expression", expression.toString());
+		JsonArray array = new JsonArray();
+		for (String variable : expression.getVariables()) {
+			array.addString(variable);
+		}
+		config.putArray("dependencies", array);
+		return config;
+	}
+
+}
@@ -1,19 +1,29 @@
 package org.bcard.drega.command;
 
-import org.bcard.drega.signal.Signal;
+import org.bcard.drega.signal.SignalHost;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.eventbus.ReplyException;
+import org.vertx.java.core.eventbus.ReplyFailure;
+import org.vertx.java.core.impl.DefaultFutureResult;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.platform.Container;
 
 /**
- * A command to create a new signal with an initial value.
+ * A command to create a new signal with an initial value. If a source signal
+ * with the same ID already exists its value is set instead.
  * 
  * @author bcard
  * 
  */
-public class CreateSignal implements ICommand {
+public class CreateSignal implements SignalDefinition {
+
+	/**
+	 * How long to wait for an existing signal to reply, in milliseconds.
+	 */
+	private static final long TIMEOUT = 5000;
 
 	/**
 	 * The value for the signal.
@@ -39,11 +49,52 @@ public class CreateSignal implements ICommand {
 	}
 
 	@Override
-	public void execute(Container container, Vertx vertx, Handler<AsyncResult<String>> done) {
+	public void execute(final Container container, final Vertx vertx, final Handler<AsyncResult<String>> done) {
+		SignalHost.open(vertx, id, new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> opened) {
+				setOrDeploy(container, vertx, done);
+			}
+		});
+	}
+
+	private void setOrDeploy(final Container container, final Vertx vertx, final Handler<AsyncResult<String>> done) {
+		vertx.eventBus().sendWithTimeout("signals." + id + ".set", initialValue, TIMEOUT,
+				new Handler<AsyncResult<Message<String>>>() {
+
+					@Override
+					public void handle(AsyncResult<Message<String>> result) {
+						if (result.succeeded()) {
+							done.handle(new DefaultFutureResult<String>(id));
+						} else if (isNoHandlers(result.cause())) {
+							deploy(container, vertx, done);
+						} else {
+							done.handle(new DefaultFutureResult<String>(result.cause()));
+						}
+					}
+				});
+	}
+
+	private void deploy(Container container, Vertx vertx, Handler<AsyncResult<String>> done) {
+		SignalHost.deploySignal(container, vertx, toConfig(), done);
+	}
+
+	@Override
+	public JsonObject toConfig() {
 		JsonObject config = new JsonObject();
 		config.putString("id", id);
 		config.putNumber("initialValue", initialValue);
-		container.deployVerticle(Signal.class.getName(), config, done);
+		return config;
+	}
+
+	/**
+	 * @return {@code true} if the failure means nothing listens for the value,
+	 *         the signal doesn't exist yet
+	 */
+	private static boolean isNoHandlers(Throwable cause) {
+		return cause instanceof ReplyException
+				&& ((ReplyException) cause).failureType() == ReplyFailure.NO_HANDLERS;
 	}
 
 	/**
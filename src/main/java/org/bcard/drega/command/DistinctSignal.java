@@ -0,0 +1,40 @@
+package org.bcard.drega.command;
+
+import org.bcard.drega.signal.SignalHost;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.platform.Container;
+
+/**
+ * A command that can be used to turn on or off change suppression, a signal
+ * with change suppression on doesn't send updates that leave its value the
+ * same.
+ * 
+ * @author bcard
+ * 
+ */
+public class DistinctSignal implements ICommand {
+
+	private final String signal;
+	private final boolean distinct;
+
+	public DistinctSignal(String signal, boolean distinct) {
+		this.signal = signal;
+		this.distinct = distinct;
+	}
+
+	@Override
+	public void execute(Container container, final Vertx vertx, final Handler<AsyncResult<String>> done) {
+		SignalHost.open(vertx, signal, new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> opened) {
+				vertx.eventBus().send("signals." + signal + ".distinct", distinct);
+				done.handle(new DefaultFutureResult<String>());
+			}
+		});
+	}
+
+}
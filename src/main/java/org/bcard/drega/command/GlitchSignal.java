@@ -1,5 +1,6 @@
 package org.bcard.drega.command;
 
+import org.bcard.drega.signal.SignalHost;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
@@ -23,9 +24,15 @@ public class GlitchSignal implements ICommand {
 	}
 
 	@Override
-	public void execute(Container container, Vertx vertx, Handler<AsyncResult<String>> done) {
-		vertx.eventBus().send("signals."+signal+".glitchAvoidance", glitchAvoidanceEnabled);
-		done.handle(new DefaultFutureResult<String>());
+	public void execute(Container container, final Vertx vertx, final Handler<AsyncResult<String>> done) {
+		SignalHost.open(vertx, signal, new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> opened) {
+				vertx.eventBus().send("signals."+signal+".glitchAvoidance", glitchAvoidanceEnabled);
+				done.handle(new DefaultFutureResult<String>());
+			}
+		});
 	}
 
 }
@@ -1,5 +1,6 @@
 package org.bcard.drega.command;
 
+import org.bcard.drega.signal.SignalHost;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
@@ -7,7 +8,7 @@ import org.vertx.java.core.impl.DefaultFutureResult;
 import org.vertx.java.platform.Container;
 
 /**
- * A command that increments the value of a signal.
+ * A command that adds an amount, one by default, to the value of a signal.
  * 
  * @author bcard
  *
@@ -16,14 +17,41 @@ public class Increment implements ICommand {
 
 	private final String id;
 	
+	private final long amount;
+	
 	public Increment(String id) {
+		this(id, 1);
+	}
+	
+	public Increment(String id, long amount) {
 		this.id = id;
+		this.amount = amount;
 	}
 	
 	@Override
-	public void execute(Container container, Vertx vertx, Handler<AsyncResult<String>> done) {
-		vertx.eventBus().publish("signals."+id+".increment", "");
-		done.handle(new DefaultFutureResult<String>());
+	public void execute(Container container, final Vertx vertx, final Handler<AsyncResult<String>> done) {
+		SignalHost.open(vertx, id, new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> opened) {
+				vertx.eventBus().publish("signals."+id+".increment", amount);
+				done.handle(new DefaultFutureResult<String>());
+			}
+		});
+	}
+	
+	/**
+	 * @return the ID of the signal
+	 */
+	public String getId() {
+		return id;
+	}
+	
+	/**
+	 * @return the amount added to the signal
+	 */
+	public long getAmount() {
+		return amount;
 	}
 
 }
@@ -0,0 +1,51 @@
+package org.bcard.drega.command;
+
+import org.bcard.drega.signal.SignalHost;
+import org.bcard.drega.signal.TopologyImage;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.platform.Container;
+
+/**
+ * Deploys the signals saved in a {@link TopologyImage} to the
+ * {@link SignalHost}, see {@link SaveTopology}.
+ * 
+ * @author bcard
+ * 
+ */
+public class LoadTopology implements ICommand {
+
+	/**
+	 * The name of the file to read.
+	 */
+	private final String file;
+
+	public LoadTopology(String file) {
+		this.file = file;
+	}
+
+	@Override
+	public void execute(final Container container, Vertx vertx, final Handler<AsyncResult<String>> done) {
+		SignalHost.loadTopology(vertx, file, new Handler<AsyncResult<String>>() {
+
+			@Override
+			public void handle(AsyncResult<String> result) {
+				if (result.failed()) {
+					container.logger().error("Cannot load " + file + ": " + result.cause().getMessage());
+				} else {
+					container.logger().info("Loaded " + result.result() + " signals from " + file);
+				}
+				done.handle(new DefaultFutureResult<String>());
+			}
+		});
+	}
+
+	/**
+	 * @return the name of the file to read
+	 */
+	public String getFile() {
+		return file;
+	}
+}
@@ -1,6 +1,6 @@
 package org.bcard.drega.command;
 
-import org.bcard.drega.signal.Signal;
+import org.bcard.drega.signal.SignalHost;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
@@ -14,7 +14,7 @@ import org.vertx.java.platform.Container;
  * @author bcard
  *
  */
-public class MapSignal implements ICommand {
+public class MapSignal implements SignalDefinition {
 
 	private final String newSignal;
 	private final String upstreamSignal;
@@ -26,12 +26,17 @@ public class MapSignal implements ICommand {
 
 	@Override
 	public void execute(Container container, Vertx vertx, Handler<AsyncResult<String>> done) {
+		SignalHost.deploySignal(container, vertx, toConfig(), done);
+	}
+
+	@Override
+	public JsonObject toConfig() {
 		JsonObject config = new JsonObject();
 		config.putString("id", newSignal);
 		JsonArray array = new JsonArray();
 		array.addString(upstreamSignal);
 		config.putArray("dependencies", array);
-		container.deployVerticle(Signal.class.getName(), config, done);
+		return config;
 	}
 
 }
@@ -1,5 +1,6 @@
 package org.bcard.drega.command;
 
+import org.bcard.drega.signal.SignalHost;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
@@ -21,9 +22,15 @@ public class PrintGraph implements ICommand {
 	}
 	
 	@Override
-	public void execute(Container container, Vertx vertx, Handler<AsyncResult<String>> done) {
-		vertx.eventBus().send("signals."+id+".print.graph", "");
-		done.handle(new DefaultFutureResult<String>());
+	public void execute(Container container, final Vertx vertx, final Handler<AsyncResult<String>> done) {
+		SignalHost.open(vertx, id, new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> opened) {
+				vertx.eventBus().send("signals."+id+".print.graph", "");
+				done.handle(new DefaultFutureResult<String>());
+			}
+		});
 	}
 
 }
@@ -20,17 +20,44 @@ public class PrintHelp implements ICommand {
 		container.logger().info("    x=1");
 		container.logger().info(" Create a dependent signal by assigning a signal to a variable");
 		container.logger().info("    y=x");
-		container.logger().info(" Or by combining two signals using + or -");
-		container.logger().info("    z=x+y");
+		container.logger().info(" Or by combining any number of signals using +, - or *");
+		container.logger().info("    z=x+y+w");
+		container.logger().info(" Or with one of sum, product, min, max or avg");
+		container.logger().info("    z=max(x, y, w)");
+		container.logger().info(" Or with a formula using + - * / %, constants and parentheses");
+		container.logger().info("    z=(x + y) * 2 - w");
 		container.logger().info("");
 		container.logger().info(" Other commands:");
 		container.logger().info(" x           print the value of x");
 		container.logger().info(" x++         increment x by one");
+		container.logger().info(" x += 10     add to x, or subtract with -=");
+		container.logger().info(" x = 5       set the value of x if it already exists");
+		container.logger().info(" x += 10; y = 5");
+		container.logger().info("             update several signals with one message");
+		container.logger().info(" begin; x += 10; y = 5; commit");
+		container.logger().info("             update several signals as one transaction, signals that");
+		container.logger().info("             depend on both compute once. Can be typed over several");
+		container.logger().info("             lines, rollback discards an open transaction");
 		container.logger().info(" graph x     print the dependency graph of x");
 		container.logger().info(" block x     prevent x from sending any updates to other signals");
 		container.logger().info(" unblock x   allow x to send value to other signals");
 		container.logger().info(" glitch x    disable glitch avoidance");
 		container.logger().info(" noglitch x  enable glitch avoidance");
+		container.logger().info(" consistency x strict|bounded [ms]|eventual");
+		container.logger().info("             hold values back on a glitch until it clears, for at most ms");
+		container.logger().info("             milliseconds (default 100), or not at all");
+		container.logger().info(" distinct x  stop x from sending updates that don't change its value");
+		container.logger().info(" nodistinct x send every update from x");
+		container.logger().info(" coalesce x ms [n]");
+		container.logger().info("             send at most one update from x every ms milliseconds, or");
+		container.logger().info("             every n updates (default 100). 0 sends every update");
+		container.logger().info(" stats x     print the update latencies measured by x");
+		container.logger().info(" save file   save every signal in the host and its dependency graph");
+		container.logger().info(" load file   create the signals saved in a file in one pass");
+		container.logger().info(" run file [n]");
+		container.logger().info("             run the commands in a file, deploying up to n signals at once");
+		container.logger().info("             (default 64) in order of their dependencies");
+		container.logger().info(" placement   print the load of every host and the dependencies between hosts");
 		container.logger().info(" exit        exit the application- use ^C in cluster mode");
 		container.logger().info(" help        print this help");
 		done.handle(new DefaultFutureResult<String>());
@@ -0,0 +1,46 @@
+package org.bcard.drega.command;
+
+import org.bcard.drega.signal.Placement;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.platform.Container;
+
+/**
+ * Prints where signals run: the load and number of signals of every
+ * {@link org.bcard.drega.signal.SignalHost} and the dependencies between
+ * signals in different hosts. See {@link Placement#report()}.
+ *
+ * @author bcard
+ *
+ */
+public class PrintPlacement implements ICommand {
+
+	@Override
+	public void execute(Container container, Vertx vertx, Handler<AsyncResult<String>> done) {
+		Logger logger = container.logger();
+		JsonObject report = Placement.of(vertx).report();
+		JsonObject hosts = report.getObject("hosts");
+		if (hosts.size() == 0) {
+			logger.info("No signal hosts are running");
+			done.handle(new DefaultFutureResult<String>());
+			return;
+		}
+
+		logger.info(String.format(" %-12s %8s %10s", "host", "signals", "load"));
+		for (String hostId : hosts.getFieldNames()) {
+			JsonObject host = hosts.getObject(hostId);
+			logger.info(String.format(" %-12s %8d %10.1f", hostId, host.getInteger("signals"),
+					host.getNumber("load").doubleValue()));
+		}
+		logger.info(" " + report.getInteger("crossEdges") + " of " + report.getInteger("edges")
+				+ " dependencies cross hosts");
+		for (Object edge : report.getArray("cross")) {
+			logger.info("  " + edge);
+		}
+		done.handle(new DefaultFutureResult<String>());
+	}
+}
@@ -1,5 +1,6 @@
 package org.bcard.drega.command;
 
+import org.bcard.drega.signal.SignalHost;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
@@ -21,9 +22,15 @@ public class PrintSignal implements ICommand {
 	}
 
 	@Override
-	public void execute(Container container, Vertx vertx, Handler<AsyncResult<String>> done) {
-		vertx.eventBus().publish("signals."+id+".print", "");
-		done.handle(new DefaultFutureResult<String>());
+	public void execute(Container container, final Vertx vertx, final Handler<AsyncResult<String>> done) {
+		SignalHost.open(vertx, id, new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> opened) {
+				vertx.eventBus().publish("signals."+id+".print", "");
+				done.handle(new DefaultFutureResult<String>());
+			}
+		});
 	}
 
 }
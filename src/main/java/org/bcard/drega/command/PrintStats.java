@@ -0,0 +1,83 @@
+package org.bcard.drega.command;
+
+import org.bcard.drega.signal.SignalHost;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.platform.Container;
+
+/**
+ * Prints the propagation latencies recorded by a signal. Only sampled updates
+ * are measured, see the {@code traceSampleRate} config field of
+ * {@link org.bcard.drega.signal.Signal}, except for the time values are held
+ * back by glitch avoidance which is measured for every update.
+ * 
+ * @author bcard
+ * 
+ */
+public class PrintStats implements ICommand {
+
+	/**
+	 * How long to wait for the signal to reply, in milliseconds.
+	 */
+	private static final long TIMEOUT = 5000;
+
+	private static final String[] HISTOGRAMS = { "queueing", "glitchWait", "compute", "endToEnd", "held" };
+
+	private final String id;
+
+	public PrintStats(String id) {
+		this.id = id;
+	}
+
+	@Override
+	public void execute(final Container container, final Vertx vertx, final Handler<AsyncResult<String>> done) {
+		SignalHost.open(vertx, id, new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> opened) {
+				requestStats(container, vertx, done);
+			}
+		});
+	}
+
+	private void requestStats(final Container container, Vertx vertx, final Handler<AsyncResult<String>> done) {
+		vertx.eventBus().sendWithTimeout("signals." + id + ".metrics", "", TIMEOUT,
+				new Handler<AsyncResult<Message<JsonObject>>>() {
+
+					@Override
+					public void handle(AsyncResult<Message<JsonObject>> result) {
+						Logger logger = container.logger();
+						if (result.failed()) {
+							logger.error("No stats for " + id + ": " + result.cause().getMessage());
+						} else {
+							print(logger, result.result().body());
+						}
+						done.handle(new DefaultFutureResult<String>());
+					}
+				});
+	}
+
+	private void print(Logger logger, JsonObject stats) {
+		logger.info("Latencies of sampled updates reaching " + id + ", in microseconds");
+		logger.info(String.format(" %-11s %8s %10s %10s %10s %10s %10s", "", "count", "mean", "p50", "p99",
+				"p99.9", "max"));
+		for (String name : HISTOGRAMS) {
+			JsonObject histogram = stats.getObject(name);
+			logger.info(String.format(" %-11s %8d %10.1f %10.1f %10.1f %10.1f %10.1f", name,
+					histogram.getLong("count"), micros(histogram.getNumber("mean")),
+					micros(histogram.getNumber("p50")), micros(histogram.getNumber("p99")),
+					micros(histogram.getNumber("p999")), micros(histogram.getNumber("max"))));
+		}
+		logger.info(" consistency " + stats.getString("consistency").toLowerCase() + ", "
+				+ stats.getLong("inconsistentUpdates") + " possibly inconsistent updates");
+	}
+
+	private static double micros(Number nanos) {
+		return nanos.doubleValue() / 1000;
+	}
+}
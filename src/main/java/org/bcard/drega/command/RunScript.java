@@ -0,0 +1,421 @@
+package org.bcard.drega.command;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.Container;
+
+/**
+ * Runs a file of commands, one per line. Blank lines and lines starting with
+ * {@code #} are skipped.
+ * <p>
+ * Typed one at a time, every signal is deployed before the next command is
+ * read. A script is parsed up front instead and the signals it defines are
+ * grouped into levels: a signal with no dependencies defined in the script is
+ * on level 0, any other signal is one level above its highest dependency.
+ * The signals on a level don't depend on each other, so they are all deployed
+ * at once with at most {@code parallelism} deployments in flight, and the
+ * next level starts when the last one has finished. A signal whose
+ * dependency failed to deploy is skipped. Each signal is deployed by running
+ * its own command, so assigning a value to a source that already exists sets
+ * its value, the same as typing the assignment.
+ * <p>
+ * A source that is assigned again after it has been defined in the script is
+ * set to the new value rather than defined twice, see {@link SetSignal}. That
+ * and the other commands in the script, like updates, run one after another
+ * in the order they appear once every signal has been deployed. Updates
+ * therefore run after signals defined below them in the script have been
+ * deployed: in {@code x = 1; x += 4; y = x} the signal {@code y} starts with
+ * the value 1 and is then updated to 5, where typing the commands would
+ * create it with 5 straight away. A source that already exists is set when
+ * its level is deployed, before any update in the script.
+ * <p>
+ * A transaction can be written over several lines the same way it is typed,
+ * see {@link CommandProcessor}: the updates between {@code begin} and
+ * {@code commit} run as one command in its place among the other commands,
+ * and {@code rollback} drops them. Anything other than an update inside a
+ * transaction, and a transaction that is never committed, is a failure.
+ * <p>
+ * When the script is done the time it took and every failure, including
+ * commands that failed, are printed.
+ *
+ * @author bcard
+ *
+ */
+public class RunScript implements ICommand {
+
+	/**
+	 * The number of signals deployed at the same time if no parallelism is
+	 * given.
+	 */
+	public static final int DEFAULT_PARALLELISM = 64;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The name of the script file.
+	 */
+	private final String file;
+
+	/**
+	 * The most signals to deploy at the same time.
+	 */
+	private final int parallelism;
+
+	public RunScript(String file) {
+		this(file, DEFAULT_PARALLELISM);
+	}
+
+	public RunScript(String file, int parallelism) {
+		this.file = file;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	@Override
+	public void execute(Container container, Vertx vertx, Handler<AsyncResult<String>> done) {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(Paths.get(file), UTF_8);
+		} catch (IOException e) {
+			container.logger().error("Cannot read " + file + ": " + e.getMessage());
+			done.handle(new DefaultFutureResult<String>());
+			return;
+		}
+
+		List<String> failures = new ArrayList<>();
+		List<JsonObject> configs = new ArrayList<>();
+		Map<String, SignalDefinition> definitions = new HashMap<>();
+		List<ICommand> commands = new ArrayList<>();
+		// the updates of the open transaction and the line it began on
+		StringBuilder transaction = null;
+		int begun = 0;
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			if (transaction == null && line.equals(CommandParser.BEGIN)) {
+				transaction = new StringBuilder(CommandParser.BEGIN);
+				begun = i + 1;
+				continue;
+			} else if (transaction != null) {
+				if (line.equals(CommandParser.ROLLBACK)) {
+					transaction = null;
+					continue;
+				} else if (!line.equals(CommandParser.COMMIT)) {
+					if (Pattern.matches(CommandParser.UPDATE, line)) {
+						transaction.append("; ").append(line);
+					} else {
+						failures.add("line " + (i + 1) + ": only updates are allowed in a transaction " + line);
+					}
+					continue;
+				}
+				line = transaction.append("; ").append(CommandParser.COMMIT).toString();
+				transaction = null;
+			}
+			try {
+				ICommand command = CommandParser.parse(line);
+				if (command instanceof CreateSignal
+						&& definitions.containsKey(((CreateSignal) command).getId())) {
+					// a new value for a signal defined above, not a new signal
+					CreateSignal assignment = (CreateSignal) command;
+					commands.add(new SetSignal(assignment.getId(), assignment.getInitialValue()));
+				} else if (command instanceof SignalDefinition) {
+					SignalDefinition definition = (SignalDefinition) command;
+					JsonObject config = definition.toConfig();
+					configs.add(config);
+					if (!definitions.containsKey(config.getString("id"))) {
+						definitions.put(config.getString("id"), definition);
+					}
+				} else {
+					commands.add(command);
+				}
+			} catch (ParseException e) {
+				failures.add("line " + (i + 1) + ": invalid command " + line);
+			}
+		}
+		if (transaction != null) {
+			failures.add("line " + begun + ": transaction is never committed");
+		}
+
+		List<List<JsonObject>> levels = levels(configs, failures);
+		new Run(container, vertx, levels, definitions, commands, failures, done).deployLevel();
+	}
+
+	/**
+	 * Groups signal configs into levels, each level only depends on the
+	 * levels before it. Dependencies that aren't in {@code configs} are
+	 * expected to exist already.
+	 *
+	 * @param configs
+	 *            the configs of the signals to deploy
+	 * @param failures
+	 *            signals that are defined twice or are part of a cycle are
+	 *            added here and left out of the levels
+	 * @return the signals on each level
+	 */
+	static List<List<JsonObject>> levels(List<JsonObject> configs, List<String> failures) {
+		Map<String, JsonObject> byId = new LinkedHashMap<>();
+		for (JsonObject config : configs) {
+			String id = config.getString("id");
+			if (byId.containsKey(id)) {
+				failures.add(id + " is defined more than once");
+			} else {
+				byId.put(id, config);
+			}
+		}
+
+		// the signals waiting on each signal, and how many they wait on
+		Map<String, List<String>> dependents = new HashMap<>();
+		Map<String, Integer> waiting = new HashMap<>();
+		List<String> ready = new ArrayList<>();
+		for (Map.Entry<String, JsonObject> entry : byId.entrySet()) {
+			int count = 0;
+			for (String dependency : dependencies(entry.getValue())) {
+				if (byId.containsKey(dependency)) {
+					List<String> list = dependents.get(dependency);
+					if (list == null) {
+						list = new ArrayList<>();
+						dependents.put(dependency, list);
+					}
+					list.add(entry.getKey());
+					count++;
+				}
+			}
+			waiting.put(entry.getKey(), count);
+			if (count == 0) {
+				ready.add(entry.getKey());
+			}
+		}
+
+		List<List<JsonObject>> levels = new ArrayList<>();
+		int placed = 0;
+		while (!ready.isEmpty()) {
+			List<JsonObject> level = new ArrayList<>(ready.size());
+			List<String> next = new ArrayList<>();
+			for (String id : ready) {
+				level.add(byId.get(id));
+				List<String> list = dependents.get(id);
+				if (list == null) {
+					continue;
+				}
+				for (String dependent : list) {
+					int count = waiting.get(dependent) - 1;
+					waiting.put(dependent, count);
+					if (count == 0) {
+						next.add(dependent);
+					}
+				}
+			}
+			levels.add(level);
+			placed += level.size();
+			ready = next;
+		}
+
+		if (placed < byId.size()) {
+			for (Map.Entry<String, Integer> entry : waiting.entrySet()) {
+				if (entry.getValue() > 0) {
+					failures.add(entry.getKey() + " is part of or depends on a dependency cycle");
+				}
+			}
+		}
+		return levels;
+	}
+
+	private static List<String> dependencies(JsonObject config) {
+		List<String> dependencies = new ArrayList<>();
+		JsonArray array = config.getArray("dependencies");
+		if (array != null) {
+			for (Object dependency : array) {
+				dependencies.add((String) dependency);
+			}
+		}
+		return dependencies;
+	}
+
+	/**
+	 * @return the name of the script file
+	 */
+	public String getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the most signals deployed at the same time
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * The state of one run of a script. Everything happens on the event loop
+	 * of the command processor, so nothing here needs to be synchronized.
+	 *
+	 * @author bcard
+	 *
+	 */
+	private class Run {
+
+		private final Container container;
+		private final Vertx vertx;
+		private final List<List<JsonObject>> levels;
+
+		/**
+		 * The command that defines each signal, by signal ID.
+		 */
+		private final Map<String, SignalDefinition> definitions;
+		private final List<ICommand> commands;
+		private final List<String> failures;
+		private final Handler<AsyncResult<String>> done;
+		private final long started = System.nanoTime();
+
+		/**
+		 * The signals that weren't deployed, their dependents are skipped.
+		 */
+		private final Set<String> failed = new HashSet<>();
+
+		private int level = -1;
+		private Iterator<JsonObject> pending;
+		private int inFlight = 0;
+		private int deployed = 0;
+
+		/**
+		 * {@code true} while deployments are being started.
+		 */
+		private boolean starting = false;
+
+		Run(Container container, Vertx vertx, List<List<JsonObject>> levels,
+				Map<String, SignalDefinition> definitions, List<ICommand> commands, List<String> failures,
+				Handler<AsyncResult<String>> done) {
+			this.container = container;
+			this.vertx = vertx;
+			this.levels = levels;
+			this.definitions = definitions;
+			this.commands = commands;
+			this.failures = failures;
+			this.done = done;
+		}
+
+		/**
+		 * Starts the next level, or the other commands once every level has
+		 * been deployed.
+		 */
+		void deployLevel() {
+			level++;
+			if (level == levels.size()) {
+				runCommand(0);
+				return;
+			}
+			pending = levels.get(level).iterator();
+			deployMore();
+		}
+
+		/**
+		 * Starts deployments until {@link RunScript#parallelism} are in
+		 * flight or the level has run out.
+		 */
+		private void deployMore() {
+			if (starting) {
+				// a deployment finished straight away, the loop below carries on
+				return;
+			}
+			starting = true;
+			try {
+				startDeployments();
+			} finally {
+				starting = false;
+			}
+
+			if (inFlight == 0 && !pending.hasNext()) {
+				deployLevel();
+			}
+		}
+
+		private void startDeployments() {
+			while (inFlight < parallelism && pending.hasNext()) {
+				JsonObject config = pending.next();
+				final String id = config.getString("id");
+				String missing = failedDependency(config);
+				if (missing != null) {
+					failed.add(id);
+					failures.add(id + " skipped, " + missing + " failed");
+					continue;
+				}
+
+				inFlight++;
+				definitions.get(id).execute(container, vertx, new Handler<AsyncResult<String>>() {
+
+					@Override
+					public void handle(AsyncResult<String> result) {
+						inFlight--;
+						if (result.succeeded()) {
+							deployed++;
+						} else {
+							failed.add(id);
+							failures.add(id + ": " + result.cause().getMessage());
+						}
+						deployMore();
+					}
+				});
+			}
+		}
+
+		private String failedDependency(JsonObject config) {
+			for (String dependency : dependencies(config)) {
+				if (failed.contains(dependency)) {
+					return dependency;
+				}
+			}
+			return null;
+		}
+
+		private void runCommand(final int index) {
+			if (index == commands.size()) {
+				finish();
+				return;
+			}
+			commands.get(index).execute(container, vertx, new Handler<AsyncResult<String>>() {
+
+				@Override
+				public void handle(AsyncResult<String> result) {
+					if (result.failed()) {
+						failures.add(result.cause().getMessage());
+					}
+					runCommand(index + 1);
+				}
+			});
+		}
+
+		private void finish() {
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+			container.logger().info(
+					"Ran " + file + " in " + millis + " ms: deployed " + deployed + " signals on "
+							+ levels.size() + " levels and ran " + commands.size() + " commands");
+			if (!failures.isEmpty()) {
+				container.logger().error(failures.size() + " failures:");
+				for (String failure : failures) {
+					container.logger().error(" " + failure);
+				}
+			}
+			done.handle(new DefaultFutureResult<String>(file));
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package org.bcard.drega.command;
+
+import org.bcard.drega.signal.SignalHost;
+import org.bcard.drega.signal.TopologyImage;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.platform.Container;
+
+/**
+ * Saves the signals in the {@link SignalHost} to a {@link TopologyImage} so
+ * they can be deployed again with {@link LoadTopology}.
+ * 
+ * @author bcard
+ * 
+ */
+public class SaveTopology implements ICommand {
+
+	/**
+	 * The name of the file to write.
+	 */
+	private final String file;
+
+	public SaveTopology(String file) {
+		this.file = file;
+	}
+
+	@Override
+	public void execute(final Container container, Vertx vertx, final Handler<AsyncResult<String>> done) {
+		SignalHost.saveTopology(vertx, file, new Handler<AsyncResult<String>>() {
+
+			@Override
+			public void handle(AsyncResult<String> result) {
+				if (result.failed()) {
+					container.logger().error("Cannot save to " + file + ": " + result.cause().getMessage());
+				} else {
+					container.logger().info("Saved " + result.result() + " signals to " + file);
+				}
+				done.handle(new DefaultFutureResult<String>());
+			}
+		});
+	}
+
+	/**
+	 * @return the name of the file to write
+	 */
+	public String getFile() {
+		return file;
+	}
+}
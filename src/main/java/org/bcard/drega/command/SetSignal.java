@@ -0,0 +1,89 @@
+package org.bcard.drega.command;
+
+import org.bcard.drega.signal.SignalHost;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.eventbus.ReplyException;
+import org.vertx.java.core.eventbus.ReplyFailure;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.platform.Container;
+
+/**
+ * A command that sets the value of a source signal that already exists.
+ * {@link RunScript} uses it for a signal that is assigned again after it has
+ * been defined. The command fails if no signal takes the new value, or the
+ * signal rejects it because it has dependencies.
+ * 
+ * @author bcard
+ *
+ */
+public class SetSignal implements ICommand {
+
+	/**
+	 * How long to wait for the signal to reply, in milliseconds.
+	 */
+	private static final long TIMEOUT = 5000;
+
+	private final String id;
+
+	private final long value;
+
+	public SetSignal(String id, long value) {
+		this.id = id;
+		this.value = value;
+	}
+
+	@Override
+	public void execute(Container container, final Vertx vertx, final Handler<AsyncResult<String>> done) {
+		SignalHost.open(vertx, id, new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> opened) {
+				set(vertx, done);
+			}
+		});
+	}
+
+	private void set(Vertx vertx, final Handler<AsyncResult<String>> done) {
+		vertx.eventBus().sendWithTimeout("signals." + id + ".set", value, TIMEOUT,
+				new Handler<AsyncResult<Message<String>>>() {
+
+					@Override
+					public void handle(AsyncResult<Message<String>> result) {
+						if (result.succeeded()) {
+							done.handle(new DefaultFutureResult<String>(id));
+						} else if (isNoHandlers(result.cause())) {
+							done.handle(new DefaultFutureResult<String>(new IllegalStateException("No signal "
+									+ id + " to set")));
+						} else {
+							done.handle(new DefaultFutureResult<String>(result.cause()));
+						}
+					}
+				});
+	}
+
+	/**
+	 * @return {@code true} if the failure means nothing listens for the value,
+	 *         the signal doesn't exist
+	 */
+	private static boolean isNoHandlers(Throwable cause) {
+		return cause instanceof ReplyException
+				&& ((ReplyException) cause).failureType() == ReplyFailure.NO_HANDLERS;
+	}
+
+	/**
+	 * @return the ID of the signal
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the new value of the signal
+	 */
+	public long getValue() {
+		return value;
+	}
+}
@@ -0,0 +1,19 @@
+package org.bcard.drega.command;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * A command that creates a signal. Running the command deploys the signal
+ * straight away, {@link RunScript} collects the configs of many definitions
+ * first so it can deploy them in dependency order.
+ * 
+ * @author bcard
+ * 
+ */
+public interface SignalDefinition extends ICommand {
+
+	/**
+	 * @return the config of the signal this command creates
+	 */
+	public JsonObject toConfig();
+}
@@ -0,0 +1,91 @@
+package org.bcard.drega.signal;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultVertx;
+import org.vertx.java.core.spi.cluster.ClusterManager;
+
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+
+/**
+ * Finds maps that every signal host can see. When the given vertx instance
+ * runs in a cluster the maps are the Hazelcast maps of the cluster it joined,
+ * otherwise they are the shared data maps of this JVM. Other Hazelcast
+ * instances in the same JVM are never used.
+ *
+ * @author bcard
+ *
+ */
+final class ClusterMaps {
+
+	private ClusterMaps() {
+	}
+
+	/**
+	 * Returns a map shared by every host.
+	 *
+	 * @param vertx
+	 *            the current vertx instance
+	 * @param name
+	 *            the name of the map
+	 * @return the map in the cluster vertx joined, or in this JVM's shared
+	 *         data if it isn't clustered
+	 * @throws IllegalStateException
+	 *             if vertx is clustered but not with Hazelcast
+	 */
+	static <K, V> ConcurrentMap<K, V> get(Vertx vertx, String name) {
+		String nodeId = nodeId(vertx);
+		if (nodeId == null) {
+			return vertx.sharedData().getMap(name);
+		}
+		return hazelcast(nodeId).getMap(name);
+	}
+
+	/**
+	 * @param vertx
+	 *            the current vertx instance
+	 * @return the ID of the cluster node vertx runs as, or {@code null} if it
+	 *         isn't clustered
+	 */
+	static String nodeId(Vertx vertx) {
+		if (!(vertx instanceof DefaultVertx)) {
+			return null;
+		}
+		ClusterManager manager = ((DefaultVertx) vertx).clusterManager();
+		return manager == null ? null : manager.getNodeID();
+	}
+
+	/**
+	 * Returns a new ID for a host, so hosts that aren't given one don't
+	 * clash with each other in the cluster or this JVM.
+	 *
+	 * @param vertx
+	 *            the current vertx instance
+	 * @return the cluster node ID followed by a random part if vertx is
+	 *         clustered, a random UUID otherwise
+	 */
+	static String uniqueId(Vertx vertx) {
+		String random = UUID.randomUUID().toString();
+		String nodeId = nodeId(vertx);
+		return nodeId == null ? random : nodeId + "-" + random.substring(0, 8);
+	}
+
+	/**
+	 * @return the Hazelcast instance that is the given cluster node
+	 */
+	private static HazelcastInstance hazelcast(String nodeId) {
+		try {
+			for (HazelcastInstance instance : Hazelcast.getAllHazelcastInstances()) {
+				if (nodeId.equals(instance.getCluster().getLocalMember().getUuid())) {
+					return instance;
+				}
+			}
+		} catch (LinkageError e) {
+			// Hazelcast isn't on the classpath, some other cluster manager is
+		}
+		throw new IllegalStateException("Cluster node " + nodeId + " is not a Hazelcast member");
+	}
+}
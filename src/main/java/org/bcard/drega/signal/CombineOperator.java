@@ -1,26 +1,162 @@
 package org.bcard.drega.signal;
 
 /**
- * Operators that can be used to combine our signals.
- * 
+ * Operators that can be used to combine our signals. Every operator can be
+ * applied to two values with {@link #call(long, long)} or to the values of any
+ * number of signals at once with {@link #reduce(long[])}. A combine signal
+ * uses {@link #reduce(long[])}, so summing 50 signals is one signal and one
+ * pass over an array rather than a tree of 49 signals.
+ *
  * @author bcard
  *
  */
-public enum CombineOperator implements Func2<Long, Long, Long> {
+public enum CombineOperator implements LongFunc2 {
 	/**
-	 * An add function that adds two values.
+	 * An add function that adds two values. Reduces to the sum of all values.
 	 */
 	ADD {
 		@Override
-		public Long call(Long arg1, Long arg2) {
+		public long call(long arg1, long arg2) {
 			return arg1 + arg2;
 		}
+
+		@Override
+		public long reduce(long[] values) {
+			long result = 0;
+			for (int i = 0; i < values.length; i++) {
+				result += values[i];
+			}
+			return result;
+		}
 	},
+	/**
+	 * A subtract function that subtracts the second value from the first.
+	 * Reduces to the first value minus all of the others.
+	 */
 	SUBTRACT {
 		@Override
-		public Long call(Long arg1, Long arg2) {
+		public long call(long arg1, long arg2) {
 			return arg1 - arg2;
 		}
+
+		@Override
+		public long reduce(long[] values) {
+			long result = values[0];
+			for (int i = 1; i < values.length; i++) {
+				result -= values[i];
+			}
+			return result;
+		}
+	},
+	/**
+	 * Multiplies the values together. Overflow wraps around the same way it
+	 * does in Java.
+	 */
+	PRODUCT {
+		@Override
+		public long call(long arg1, long arg2) {
+			return arg1 * arg2;
+		}
+
+		@Override
+		public long reduce(long[] values) {
+			long result = 1;
+			for (int i = 0; i < values.length; i++) {
+				result *= values[i];
+			}
+			return result;
+		}
+	},
+	/**
+	 * The smallest value.
+	 */
+	MIN {
+		@Override
+		public long call(long arg1, long arg2) {
+			return Math.min(arg1, arg2);
+		}
+
+		@Override
+		public long reduce(long[] values) {
+			long result = values[0];
+			for (int i = 1; i < values.length; i++) {
+				if (values[i] < result) {
+					result = values[i];
+				}
+			}
+			return result;
+		}
+	},
+	/**
+	 * The largest value.
+	 */
+	MAX {
+		@Override
+		public long call(long arg1, long arg2) {
+			return Math.max(arg1, arg2);
+		}
+
+		@Override
+		public long reduce(long[] values) {
+			long result = values[0];
+			for (int i = 1; i < values.length; i++) {
+				if (values[i] > result) {
+					result = values[i];
+				}
+			}
+			return result;
+		}
+	},
+	/**
+	 * The mean of the values, rounded towards zero. Note that this isn't a
+	 * fold, averaging three values is not the same as averaging the average
+	 * of the first two with the third. The values are never added up, so the
+	 * mean is right even when their sum would overflow.
+	 */
+	AVG {
+		@Override
+		public long call(long arg1, long arg2) {
+			long floor = (arg1 >> 1) + (arg2 >> 1) + (arg1 & arg2 & 1);
+			// floor is half below the mean when exactly one is odd
+			if (floor < 0 && ((arg1 ^ arg2) & 1) != 0) {
+				floor++;
+			}
+			return floor;
+		}
+
+		@Override
+		public long reduce(long[] values) {
+			// the mean is quotient + remainder / n, with |remainder| < n
+			long n = values.length;
+			long quotient = 0;
+			long remainder = 0;
+			for (int i = 0; i < values.length; i++) {
+				quotient += values[i] / n;
+				remainder += values[i] % n;
+				if (remainder >= n || remainder <= -n) {
+					quotient += remainder / n;
+					remainder %= n;
+				}
+			}
+			// give both the same sign, the quotient is then the mean
+			// rounded towards zero
+			if (quotient > 0 && remainder < 0) {
+				quotient--;
+			} else if (quotient < 0 && remainder > 0) {
+				quotient++;
+			}
+			return quotient;
+		}
 	};
 
+	/**
+	 * Applies this operator to every value at once.
+	 *
+	 * @param values
+	 *            the values to combine, in the order the signal's dependencies
+	 *            are declared. Must not be empty
+	 * @return the combined value
+	 */
+	public abstract long reduce(long[] values);
+
 }
@@ -0,0 +1,170 @@
+package org.bcard.drega.signal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The points in a dependency graph where glitches can occur. A collision is a
+ * signal that reaches the owner of the graph along more than one path, so the
+ * owner must wait until every path has delivered the same event from that
+ * signal before it can calculate a new value.
+ * <p>
+ * The collisions only depend on the shape of the graph. A {@link ConflictSet}
+ * is calculated once for a graph, using a {@link GraphAnalysis} rather than
+ * enumerating paths, and reused for every update, leaving only the event
+ * counters to be compared when updates arrive.
+ * <p>
+ * Updates only carry the event counters of source signals, see
+ * {@link SignalChain}. A collision's value is decided by the source events it
+ * has seen, so instead of comparing the collisions themselves the counters of
+ * the <b>shared sources</b>, sources that reach the owner through more than
+ * one dependency, are compared. There are shared sources exactly when there
+ * are collisions. This class is immutable.
+ *
+ * @author bcard
+ *
+ */
+public class ConflictSet {
+
+	/**
+	 * The graph these conflicts were calculated from.
+	 */
+	private final SignalGraph graph;
+
+	/**
+	 * The analysis the conflicts were calculated from.
+	 */
+	private final GraphAnalysis analysis;
+
+	/**
+	 * Every collision in the graph.
+	 */
+	private final Set<String> collisions;
+
+	/**
+	 * The collisions reachable through each immediate dependency, in the same
+	 * order as {@link SignalGraph#getDependentSignals()}.
+	 */
+	private final List<List<String>> byDependency;
+
+	/**
+	 * The shared sources reachable through each immediate dependency, in the
+	 * same order as {@link SignalGraph#getDependentSignals()}.
+	 */
+	private final List<List<String>> sharedSources;
+
+	private ConflictSet(SignalGraph graph, GraphAnalysis analysis, Set<String> collisions,
+			List<List<String>> byDependency, List<List<String>> sharedSources) {
+		this.graph = graph;
+		this.analysis = analysis;
+		this.collisions = collisions;
+		this.byDependency = byDependency;
+		this.sharedSources = sharedSources;
+	}
+
+	/**
+	 * Calculates the conflicts for a graph.
+	 *
+	 * @param graph
+	 *            the dependency graph of a signal
+	 * @return the conflicts in that graph
+	 */
+	public static ConflictSet of(SignalGraph graph) {
+		GraphAnalysis analysis = GraphAnalysis.of(graph);
+		Set<String> collisions = analysis.getCollisions();
+
+		List<List<String>> byDependency = new ArrayList<>();
+		List<Set<String>> sourcesByDependency = new ArrayList<>();
+		Map<String, Integer> paths = new HashMap<>();
+		for (SignalGraph dependency : graph.getDependentSignals()) {
+			List<String> reachable = analysis.getCollisionsThrough(dependency.getId());
+			byDependency.add(Collections.unmodifiableList(reachable));
+
+			Set<String> sources = analysis.getSourcesThrough(dependency.getId());
+			sourcesByDependency.add(sources);
+			for (String source : sources) {
+				Integer count = paths.get(source);
+				paths.put(source, count == null ? 1 : count + 1);
+			}
+		}
+
+		List<List<String>> sharedSources = new ArrayList<>();
+		for (Set<String> sources : sourcesByDependency) {
+			List<String> shared = new ArrayList<>();
+			for (String source : sources) {
+				if (paths.get(source) > 1) {
+					shared.add(source);
+				}
+			}
+			sharedSources.add(Collections.unmodifiableList(shared));
+		}
+
+		return new ConflictSet(graph, analysis, Collections.unmodifiableSet(collisions),
+				Collections.unmodifiableList(byDependency), Collections.unmodifiableList(sharedSources));
+	}
+
+	/**
+	 * @return the graph these conflicts were calculated from
+	 */
+	public SignalGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @return the analysis of the graph, which numbers every signal in it
+	 */
+	public GraphAnalysis getAnalysis() {
+		return analysis;
+	}
+
+	/**
+	 * @return the IDs of every collision in the graph
+	 */
+	public Set<String> getCollisions() {
+		return collisions;
+	}
+
+	/**
+	 * Returns the collisions that can be reached through one of the graph's
+	 * immediate dependencies.
+	 *
+	 * @param dependency
+	 *            the index of the dependency, in the order the dependencies
+	 *            were declared
+	 * @return the IDs of the collisions upstream of that dependency
+	 */
+	public List<String> getCollisions(int dependency) {
+		return byDependency.get(dependency);
+	}
+
+	/**
+	 * Returns the sources that can be reached through one of the graph's
+	 * immediate dependencies and also through at least one other. Their
+	 * counters must agree before the dependencies' values can be combined.
+	 *
+	 * @param dependency
+	 *            the index of the dependency, in the order the dependencies
+	 *            were declared
+	 * @return the IDs of the shared sources upstream of that dependency
+	 */
+	public List<String> getSharedSources(int dependency) {
+		return sharedSources.get(dependency);
+	}
+
+	/**
+	 * @return {@code true} if there are no collisions and updates never have
+	 *         to be held back
+	 */
+	public boolean isEmpty() {
+		return collisions.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return collisions.toString();
+	}
+}
@@ -0,0 +1,45 @@
+package org.bcard.drega.signal;
+
+/**
+ * How a {@link Signal} with several dependencies handles a glitch, an update
+ * whose event counters don't line up with the values it has from its other
+ * dependencies.
+ * 
+ * @author bcard
+ * 
+ */
+public enum ConsistencyLevel {
+	/**
+	 * Hold the new value back until the counters line up, however long that
+	 * takes. This is the default, a signal never shows a value that mixes old
+	 * and new updates, but a lost or slow update stalls it.
+	 */
+	STRICT,
+
+	/**
+	 * Hold the new value back until the counters line up or
+	 * {@code maxStaleness} milliseconds have passed, whichever comes first. A
+	 * value sent because the wait ran out is marked as possibly inconsistent,
+	 * see {@link ValueMessage#isInconsistent()}.
+	 */
+	BOUNDED,
+
+	/**
+	 * Don't check for glitches, every update is combined and sent straight
+	 * away. The same as turning glitch avoidance off.
+	 */
+	EVENTUAL;
+
+	/**
+	 * Looks up a level by name, ignoring case.
+	 * 
+	 * @param name
+	 *            the name of the level, e.g. {@code bounded}
+	 * @return the matching level
+	 * @throws IllegalArgumentException
+	 *             if there is no level with the given name
+	 */
+	public static ConsistencyLevel fromName(String name) {
+		return valueOf(name.trim().toUpperCase());
+	}
+}
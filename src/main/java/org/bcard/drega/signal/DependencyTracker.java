@@ -41,6 +41,12 @@ public class DependencyTracker {
 	 */
 	private final List<String> dependencies = new ArrayList<>();
 	
+	/**
+	 * Where the graphs of dependencies are looked up first, {@code null} if
+	 * they are always asked for them.
+	 */
+	private GraphRegistry registry;
+	
 	/**
 	 * Creates a new {@link DependencyTracker}.
 	 * 
@@ -80,17 +86,92 @@ public class DependencyTracker {
 	 * 
 	 */
 	public void gatherDependencies(EventBus eventBus, Future<Void> doneHandler) {
-		if (dependencies.size() == 0) {
-			graph = new SignalGraph(id);
-			doneHandler.setResult(null);
-		} else {
-			for (int i=0; i<dependencies.size(); i++) {
-				String signal = (String)dependencies.get(i);
-			
-				// tell our dependencies to send us their graphs
-				eventBus.send("signals."+signal+".sendGraph", "", new GraphReceiver(i, doneHandler));
+		int requested = 0;
+		for (int i=0; i<dependencies.size(); i++) {
+			String signal = (String)dependencies.get(i);
+			if (registry != null) {
+				discoveredDependencies[i] = registry.resolve(signal);
+				if (discoveredDependencies[i] != null) {
+					continue;
+				}
 			}
+		
+			// tell our dependencies to send us their graphs
+			eventBus.send("signals."+signal+".sendGraph", "", new GraphReceiver(i, doneHandler));
+			requested++;
+		}
+		
+		if (requested == 0) {
+			finish(doneHandler);
+		}
+	}
+	
+	/**
+	 * Looks up the graphs of dependencies in a {@link GraphRegistry} before
+	 * asking the dependencies for them, and registers the dependencies of
+	 * this signal once its graph is known. Only dependencies that aren't in
+	 * the registry are asked for their graphs, and the graphs they send are
+	 * added to it.
+	 * 
+	 * @param registry
+	 *            the registry, or {@code null} to always ask
+	 */
+	public void setRegistry(GraphRegistry registry) {
+		this.registry = registry;
+	}
+	
+	/**
+	 * Builds the graph once every dependency's graph is known.
+	 */
+	private void finish(Future<Void> doneHandler) {
+		graph = SignalGraph.of(id, discoveredDependencies);
+		if (registry != null) {
+			registry.register(id, dependencies);
 		}
+		doneHandler.setResult(null);
+	}
+	
+	/**
+	 * Uses a graph that is already known, from a {@link TopologyImage} for
+	 * example, instead of asking the dependencies for theirs. The
+	 * {@code doneHandler} is called before this returns. If the graph doesn't
+	 * match the dependencies in the config it is ignored and the dependencies
+	 * are gathered over the event bus as usual.
+	 * 
+	 * @param eventBus
+	 *            the event bus used to communicate with other vertx signals
+	 * @param known
+	 *            the graph of the signal, {@code null} if it isn't known
+	 * @param doneHandler
+	 *            the handler to be called when all of the dependency
+	 *            information has been collected
+	 * @see #gatherDependencies(EventBus, Future)
+	 */
+	public void gatherDependencies(EventBus eventBus, SignalGraph known, Future<Void> doneHandler) {
+		if (known == null || !matches(known)) {
+			gatherDependencies(eventBus, doneHandler);
+			return;
+		}
+		
+		known.getDependentSignals().toArray(discoveredDependencies);
+		finish(doneHandler);
+	}
+	
+	/**
+	 * @return {@code true} if a graph is for this signal and has the
+	 *         dependencies from the config, in the same order
+	 */
+	private boolean matches(SignalGraph known) {
+		List<SignalGraph> knownDependencies = known.getDependentSignals();
+		if (!id.equals(known.getId()) || knownDependencies.size() != dependencies.size()) {
+			return false;
+		}
+		for (int i = 0; i < dependencies.size(); i++) {
+			if (!dependencies.get(i).equals(knownDependencies.get(i).getId())) {
+				return false;
+			}
+		}
+		return true;
 	}
 	
 	/**
@@ -149,6 +230,9 @@ public class DependencyTracker {
 			SignalGraph found = SignalGraph.fromJson(event
 					.body().encodePrettily());
 			discoveredDependencies[index] = found;
+			if (registry != null) {
+				registry.learn(found);
+			}
 
 			int size = 0;
 			for (int i=0; i<discoveredDependencies.length; i++) {
@@ -158,8 +242,7 @@ public class DependencyTracker {
 			}
 			
 			if (size >= dependencies.size()) {
-				graph = new SignalGraph(id, discoveredDependencies);
-				finishHandler.setResult(null);
+				finish(finishHandler);
 			}
 		}
 	}
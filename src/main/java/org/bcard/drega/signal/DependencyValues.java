@@ -0,0 +1,303 @@
+package org.bcard.drega.signal;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The last value received from each of a signal's immediate dependencies along
+ * with the event counters that came with it. Every signal in the dependency
+ * graph is given a dense index by a {@link GraphAnalysis}, so the counters are
+ * kept in {@code int} arrays and the values in a {@code long} array. Once
+ * created, recording updates, checking for glitches and combining the values
+ * does not allocate.
+ * <p>
+ * Dependencies are identified by their index, in the order they are declared
+ * in the signal's config.
+ * <p>
+ * Updates carry the counters of the sources upstream of them, so glitches are
+ * found by comparing the counters of the shared sources, see
+ * {@link ConflictSet#getSharedSources(int)}. A value forced by a
+ * {@link ConsistencyLevel#BOUNDED} timeout and the correction sent after it
+ * have the same counters, only the forced one is marked as possibly
+ * inconsistent. Dependencies that share a source must therefore agree on the
+ * mark as well as the counters, so a forced value and its correction are
+ * never combined with each other.
+ *
+ * @author bcard
+ *
+ */
+public class DependencyValues {
+
+	/**
+	 * Marks a counter that has not been received yet.
+	 */
+	public static final int NO_COUNTER = Integer.MIN_VALUE;
+
+	private final GraphAnalysis analysis;
+
+	/**
+	 * The last value received from each dependency.
+	 */
+	private final long[] values;
+
+	/**
+	 * Whether or not each dependency has sent a value yet.
+	 */
+	private final boolean[] received;
+
+	/**
+	 * The number of dependencies that have sent a value.
+	 */
+	private int numReceived;
+
+	/**
+	 * Whether or not the last value from each dependency was marked as
+	 * possibly inconsistent.
+	 */
+	private final boolean[] inconsistent;
+
+	/**
+	 * The number of dependencies whose last value is possibly inconsistent.
+	 */
+	private int numInconsistent;
+
+	/**
+	 * The highest event counter seen from each dependency for each signal in
+	 * the graph, indexed by dependency and then by signal.
+	 */
+	private final int[][] counters;
+
+	/**
+	 * The indices of the shared sources reachable through each dependency.
+	 */
+	private final int[][] shared;
+
+	/**
+	 * The indices of every source in the graph, the only counters that are
+	 * passed on by {@link #mergeChains()}.
+	 */
+	private final int[] sources;
+
+	/**
+	 * Scratch space for {@link #hasGlitch()}, holds the counter seen for each
+	 * signal while the dependencies are compared.
+	 */
+	private final int[] seen;
+
+	/**
+	 * Scratch space for {@link #hasGlitch()}, holds whether the value that
+	 * came with each counter in {@link #seen} is possibly inconsistent.
+	 */
+	private final boolean[] seenInconsistent;
+
+	/**
+	 * Creates a new {@link DependencyValues} for a signal.
+	 *
+	 * @param conflicts
+	 *            the conflicts in the signal's dependency graph
+	 */
+	public DependencyValues(ConflictSet conflicts) {
+		this.analysis = conflicts.getAnalysis();
+		int numDependencies = conflicts.getGraph().getDependentSignals().size();
+		int numSignals = analysis.size();
+
+		values = new long[numDependencies];
+		received = new boolean[numDependencies];
+		inconsistent = new boolean[numDependencies];
+		counters = new int[numDependencies][numSignals];
+		shared = new int[numDependencies][];
+		seen = new int[numSignals];
+		seenInconsistent = new boolean[numSignals];
+
+		for (int i = 0; i < numDependencies; i++) {
+			Arrays.fill(counters[i], NO_COUNTER);
+			shared[i] = indicesOf(conflicts.getSharedSources(i));
+		}
+		sources = indicesOf(analysis.getSources());
+	}
+
+	private int[] indicesOf(Collection<String> ids) {
+		int[] returnValue = new int[ids.size()];
+		int i = 0;
+		for (String id : ids) {
+			returnValue[i++] = analysis.indexOf(id);
+		}
+		return returnValue;
+	}
+
+	/**
+	 * Records an update from a dependency. Event counters are only ever moved
+	 * forward, so an update that arrives out of order can't roll a counter
+	 * back.
+	 *
+	 * @param dependency
+	 *            the index of the dependency that sent the update
+	 * @param value
+	 *            the new value of the dependency
+	 * @param chain
+	 *            the event counters that came with the value
+	 */
+	public void update(int dependency, long value, SignalChain chain) {
+		update(dependency, value, chain, false);
+	}
+
+	/**
+	 * Records an update from a dependency that may be marked as possibly
+	 * inconsistent.
+	 *
+	 * @param dependency
+	 *            the index of the dependency that sent the update
+	 * @param value
+	 *            the new value of the dependency
+	 * @param chain
+	 *            the event counters that came with the value
+	 * @param inconsistent
+	 *            {@code true} if the value is possibly inconsistent
+	 */
+	public void update(int dependency, long value, SignalChain chain, boolean inconsistent) {
+		if (this.inconsistent[dependency] != inconsistent) {
+			this.inconsistent[dependency] = inconsistent;
+			numInconsistent += inconsistent ? 1 : -1;
+		}
+		if (!received[dependency]) {
+			received[dependency] = true;
+			numReceived++;
+		}
+		values[dependency] = value;
+
+		int[] current = counters[dependency];
+		for (int i = 0; i < chain.size(); i++) {
+			int signal = analysis.indexOf(chain.idAt(i));
+			if (signal >= 0) {
+				int counter = chain.counterAt(i);
+				if (counter > current[signal]) {
+					current[signal] = counter;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if the last value from any dependency is possibly
+	 *         inconsistent
+	 */
+	public boolean isInconsistent() {
+		return numInconsistent > 0;
+	}
+
+	/**
+	 * @return {@code true} once every dependency has sent at least one value
+	 */
+	public boolean hasAllValues() {
+		return numReceived == values.length;
+	}
+
+	/**
+	 * Returns the last value received from a dependency.
+	 *
+	 * @param dependency
+	 *            the index of the dependency
+	 * @return the value, or 0 if nothing has been received
+	 */
+	public long getValue(int dependency) {
+		return values[dependency];
+	}
+
+	/**
+	 * Returns the highest event counter a dependency has reported for a
+	 * signal.
+	 *
+	 * @param dependency
+	 *            the index of the dependency
+	 * @param id
+	 *            the ID of a signal
+	 * @return the counter or {@link #NO_COUNTER} if the dependency hasn't
+	 *         reported one
+	 */
+	public int getCounter(int dependency, String id) {
+		int signal = analysis.indexOf(id);
+		return signal < 0 ? NO_COUNTER : counters[dependency][signal];
+	}
+
+	/**
+	 * Checks for glitches. For each shared source the counter must be the same
+	 * in every dependency that can reach it. If some counter is missing or doesn't
+	 * match then the update has to be held off until other updates are
+	 * received. Values with the same counters must also agree on whether they
+	 * are possibly inconsistent, otherwise one of them is a forced value and
+	 * the other its correction.
+	 *
+	 * @return {@code true} if there are glitches, {@code false} if the values
+	 *         are ok to combine
+	 */
+	public boolean hasGlitch() {
+		Arrays.fill(seen, NO_COUNTER);
+		for (int i = 0; i < shared.length; i++) {
+			for (int source : shared[i]) {
+				int counter = counters[i][source];
+				if (counter == NO_COUNTER) {
+					// missing an update, this is a glitch!
+					return true;
+				}
+				if (seen[source] == NO_COUNTER) {
+					seen[source] = counter;
+					seenInconsistent[source] = inconsistent[i];
+				} else if (seen[source] != counter || seenInconsistent[source] != inconsistent[i]) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Combines the values from every dependency with the given operator, see
+	 * {@link CombineOperator#reduce(long[])}.
+	 *
+	 * @param operator
+	 *            the operator to apply
+	 * @return the combined value
+	 */
+	public long combine(CombineOperator operator) {
+		return operator.reduce(values);
+	}
+
+	/**
+	 * Evaluates an expression over the values from every dependency. The
+	 * variables of the expression must be in the same order as the
+	 * dependencies.
+	 *
+	 * @param expression
+	 *            the expression to evaluate
+	 * @return the result
+	 * @throws ArithmeticException
+	 *             if the expression divides by zero
+	 */
+	public long evaluate(Expression expression) {
+		return expression.evaluate(values);
+	}
+
+	/**
+	 * Builds a chain holding the highest counter received for every source in
+	 * the graph. This is sent along with the combined value.
+	 *
+	 * @return the merged chain
+	 */
+	public SignalChain mergeChains() {
+		SignalChain returnValue = new SignalChain();
+		List<String> ids = analysis.getIds();
+		for (int signal : sources) {
+			int max = NO_COUNTER;
+			for (int i = 0; i < counters.length; i++) {
+				if (counters[i][signal] > max) {
+					max = counters[i][signal];
+				}
+			}
+			if (max != NO_COUNTER) {
+				returnValue.append(ids.get(signal), max);
+			}
+		}
+		return returnValue;
+	}
+}
@@ -0,0 +1,120 @@
+package org.bcard.drega.signal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * A committed transaction. Every source signal updated by the transaction
+ * stamps its update with the same epoch, and the epoch is passed on with every
+ * update computed from them. A signal that combines several dependencies uses
+ * the list of sources to work out which of its dependencies will send an
+ * update for the epoch, and waits for all of them before computing its value
+ * once. See {@link PendingEpochs}.
+ * <p>
+ * IDs are random UUIDs so epochs started on different cluster nodes don't
+ * collide. Epochs are immutable.
+ * 
+ * @author bcard
+ * 
+ */
+public class Epoch {
+
+	private final String id;
+
+	private final List<String> sources;
+
+	/**
+	 * Creates a new {@link Epoch}.
+	 * 
+	 * @param id
+	 *            the unique ID of the transaction
+	 * @param sources
+	 *            the IDs of the source signals the transaction updates
+	 */
+	public Epoch(String id, List<String> sources) {
+		this.id = id;
+		this.sources = Collections.unmodifiableList(new ArrayList<>(sources));
+	}
+
+	/**
+	 * Starts a new epoch with a random ID.
+	 * 
+	 * @param sources
+	 *            the IDs of the source signals the transaction updates
+	 * @return the new epoch
+	 */
+	public static Epoch create(List<String> sources) {
+		return new Epoch(UUID.randomUUID().toString(), sources);
+	}
+
+	/**
+	 * @return the unique ID of the transaction
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the IDs of the source signals the transaction updates
+	 */
+	public List<String> getSources() {
+		return sources;
+	}
+
+	/**
+	 * @return this epoch as JSON, {@code {"id": "...", "sources": ["a", "b"]}}
+	 */
+	public JsonObject toJson() {
+		JsonArray array = new JsonArray();
+		for (String source : sources) {
+			array.addString(source);
+		}
+		JsonObject json = new JsonObject();
+		json.putString("id", id);
+		json.putArray("sources", array);
+		return json;
+	}
+
+	/**
+	 * Reads an epoch written by {@link #toJson()}.
+	 * 
+	 * @param json
+	 *            the JSON form of an epoch
+	 * @return the epoch
+	 */
+	public static Epoch fromJson(JsonObject json) {
+		JsonArray array = json.getArray("sources");
+		List<String> sources = new ArrayList<>(array.size());
+		for (int i = 0; i < array.size(); i++) {
+			sources.add((String) array.get(i));
+		}
+		return new Epoch(json.getString("id"), sources);
+	}
+
+	@Override
+	public int hashCode() {
+		return id.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Epoch)) {
+			return false;
+		}
+		Epoch other = (Epoch) obj;
+		return id.equals(other.id) && sources.equals(other.sources);
+	}
+
+	@Override
+	public String toString() {
+		return id + sources;
+	}
+}
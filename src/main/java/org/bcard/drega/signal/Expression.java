@@ -0,0 +1,395 @@
+package org.bcard.drega.signal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An arithmetic formula over the values of other signals, e.g.
+ * {@code (a + b) * c - d}. A signal configured with an expression depends on
+ * every variable in it and evaluates the whole formula each time it updates,
+ * instead of needing an intermediate signal for each operator.
+ * <p>
+ * The grammar supports {@code + - * / %} with the usual precedence, unary
+ * minus, parentheses and integer constants. All arithmetic is done on
+ * {@code long}s, so division rounds towards zero and overflow wraps.
+ *
+ * <pre>
+ * expression := term (('+' | '-') term)*
+ * term       := unary (('*' | '/' | '%') unary)*
+ * unary      := '-' unary | primary
+ * primary    := number | variable | '(' expression ')'
+ * </pre>
+ *
+ * Expressions are compiled to a postfix program with constant sub-expressions
+ * folded ahead of time. {@link #evaluate(long[])} runs the program on a stack
+ * that is allocated once, so evaluating doesn't allocate. This also means an
+ * {@link Expression} is not thread safe.
+ *
+ * @author bcard
+ *
+ */
+public class Expression {
+
+	private static final int CONST = 0;
+	private static final int LOAD = 1;
+	private static final int NEG = 2;
+	private static final int ADD = 3;
+	private static final int SUB = 4;
+	private static final int MUL = 5;
+	private static final int DIV = 6;
+	private static final int MOD = 7;
+
+	/**
+	 * The source text of this expression.
+	 */
+	private final String text;
+
+	/**
+	 * The variables in this expression in the order they first appear.
+	 */
+	private final List<String> variables;
+
+	/**
+	 * The compiled program. {@link #CONST} and {@link #LOAD} are followed by
+	 * the index of the constant or variable they push.
+	 */
+	private final int[] code;
+
+	private final long[] constants;
+
+	private final long[] stack;
+
+	private Expression(String text, List<String> variables, int[] code, long[] constants, int maxStack) {
+		this.text = text;
+		this.variables = Collections.unmodifiableList(variables);
+		this.code = code;
+		this.constants = constants;
+		this.stack = new long[maxStack];
+	}
+
+	/**
+	 * Compiles an expression.
+	 *
+	 * @param text
+	 *            the expression to compile
+	 * @return the compiled expression
+	 * @throws IllegalArgumentException
+	 *             if the text isn't a valid expression, or it divides a
+	 *             constant by zero
+	 */
+	public static Expression compile(String text) {
+		Parser parser = new Parser(text);
+		Node root = parser.parseExpression();
+		if (parser.peek() != Parser.END) {
+			throw parser.error("Unexpected '" + (char) parser.peek() + "'");
+		}
+
+		Emitter emitter = new Emitter();
+		root.emit(emitter);
+		int[] code = new int[emitter.code.size()];
+		for (int i = 0; i < code.length; i++) {
+			code[i] = emitter.code.get(i);
+		}
+		long[] constants = new long[emitter.constants.size()];
+		for (int i = 0; i < constants.length; i++) {
+			constants[i] = emitter.constants.get(i);
+		}
+		return new Expression(text.trim(), parser.variables, code, constants, emitter.maxDepth);
+	}
+
+	/**
+	 * @return the variables in this expression in the order they first appear,
+	 *         this is the order values are passed to {@link #evaluate(long[])}
+	 *         in
+	 */
+	public List<String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Evaluates this expression.
+	 *
+	 * @param values
+	 *            the value of each variable, in the same order as
+	 *            {@link #getVariables()}
+	 * @return the result
+	 * @throws ArithmeticException
+	 *             if the expression divides by zero
+	 */
+	public long evaluate(long[] values) {
+		long[] stack = this.stack;
+		int sp = 0;
+		for (int pc = 0; pc < code.length; pc++) {
+			switch (code[pc]) {
+			case CONST:
+				stack[sp++] = constants[code[++pc]];
+				break;
+			case LOAD:
+				stack[sp++] = values[code[++pc]];
+				break;
+			case NEG:
+				stack[sp - 1] = -stack[sp - 1];
+				break;
+			case ADD:
+				sp--;
+				stack[sp - 1] += stack[sp];
+				break;
+			case SUB:
+				sp--;
+				stack[sp - 1] -= stack[sp];
+				break;
+			case MUL:
+				sp--;
+				stack[sp - 1] *= stack[sp];
+				break;
+			case DIV:
+				sp--;
+				stack[sp - 1] /= stack[sp];
+				break;
+			case MOD:
+				sp--;
+				stack[sp - 1] %= stack[sp];
+				break;
+			default:
+				throw new IllegalStateException("Bad instruction " + code[pc]);
+			}
+		}
+		return stack[0];
+	}
+
+	/**
+	 * @return {@code true} if this expression has no variables, it always
+	 *         evaluates to the same value
+	 */
+	public boolean isConstant() {
+		return variables.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	private static long apply(int op, long left, long right) {
+		switch (op) {
+		case ADD:
+			return left + right;
+		case SUB:
+			return left - right;
+		case MUL:
+			return left * right;
+		case DIV:
+			return left / right;
+		case MOD:
+			return left % right;
+		default:
+			throw new IllegalStateException("Bad operator " + op);
+		}
+	}
+
+	// ------------------ Compiler ---------------- //
+
+	/**
+	 * Collects the program while the syntax tree is walked.
+	 */
+	private static class Emitter {
+		private final List<Integer> code = new ArrayList<>();
+		private final List<Long> constants = new ArrayList<>();
+		private int depth = 0;
+		private int maxDepth = 0;
+
+		void push(int op, int operand) {
+			code.add(op);
+			code.add(operand);
+			depth++;
+			maxDepth = Math.max(depth, maxDepth);
+		}
+
+		void op(int op) {
+			code.add(op);
+			if (op != NEG) {
+				depth--;
+			}
+		}
+	}
+
+	private static abstract class Node {
+		abstract void emit(Emitter emitter);
+	}
+
+	private static class Constant extends Node {
+		private final long value;
+
+		Constant(long value) {
+			this.value = value;
+		}
+
+		@Override
+		void emit(Emitter emitter) {
+			emitter.push(CONST, emitter.constants.size());
+			emitter.constants.add(value);
+		}
+	}
+
+	private static class Variable extends Node {
+		private final int index;
+
+		Variable(int index) {
+			this.index = index;
+		}
+
+		@Override
+		void emit(Emitter emitter) {
+			emitter.push(LOAD, index);
+		}
+	}
+
+	private static class Negate extends Node {
+		private final Node operand;
+
+		Negate(Node operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		void emit(Emitter emitter) {
+			operand.emit(emitter);
+			emitter.op(NEG);
+		}
+	}
+
+	private static class Binary extends Node {
+		private final int op;
+		private final Node left;
+		private final Node right;
+
+		Binary(int op, Node left, Node right) {
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		void emit(Emitter emitter) {
+			left.emit(emitter);
+			right.emit(emitter);
+			emitter.op(op);
+		}
+	}
+
+	/**
+	 * A recursive descent parser for the grammar above. Constant
+	 * sub-expressions are folded as the tree is built.
+	 */
+	private static class Parser {
+		static final int END = -1;
+
+		private final String text;
+		private int pos = 0;
+		private final List<String> variables = new ArrayList<>();
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		Node parseExpression() {
+			Node node = parseTerm();
+			while (peek() == '+' || peek() == '-') {
+				int op = next() == '+' ? ADD : SUB;
+				node = binary(op, node, parseTerm());
+			}
+			return node;
+		}
+
+		private Node parseTerm() {
+			Node node = parseUnary();
+			while (peek() == '*' || peek() == '/' || peek() == '%') {
+				int c = next();
+				int op = c == '*' ? MUL : c == '/' ? DIV : MOD;
+				node = binary(op, node, parseUnary());
+			}
+			return node;
+		}
+
+		private Node parseUnary() {
+			if (peek() == '-') {
+				next();
+				Node operand = parseUnary();
+				if (operand instanceof Constant) {
+					return new Constant(-((Constant) operand).value);
+				}
+				return new Negate(operand);
+			}
+			return parsePrimary();
+		}
+
+		private Node parsePrimary() {
+			int c = peek();
+			if (c == '(') {
+				next();
+				Node node = parseExpression();
+				if (peek() != ')') {
+					throw error("Expected ')'");
+				}
+				next();
+				return node;
+			} else if (c >= '0' && c <= '9') {
+				int start = pos;
+				while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+					pos++;
+				}
+				try {
+					return new Constant(Long.parseLong(text.substring(start, pos)));
+				} catch (NumberFormatException e) {
+					throw error("Number too large");
+				}
+			} else if (Character.isLetter(c)) {
+				int start = pos;
+				while (pos < text.length() && Character.isLetterOrDigit(text.charAt(pos))) {
+					pos++;
+				}
+				String name = text.substring(start, pos);
+				int index = variables.indexOf(name);
+				if (index < 0) {
+					index = variables.size();
+					variables.add(name);
+				}
+				return new Variable(index);
+			}
+			throw error(c == END ? "Unexpected end of expression" : "Unexpected '" + (char) c + "'");
+		}
+
+		private Node binary(int op, Node left, Node right) {
+			if (left instanceof Constant && right instanceof Constant) {
+				try {
+					return new Constant(apply(op, ((Constant) left).value, ((Constant) right).value));
+				} catch (ArithmeticException e) {
+					throw error("Division by zero");
+				}
+			}
+			return new Binary(op, left, right);
+		}
+
+		/**
+		 * Returns the next character that isn't whitespace without consuming
+		 * it, or {@link #END}.
+		 */
+		int peek() {
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+				pos++;
+			}
+			return pos < text.length() ? text.charAt(pos) : END;
+		}
+
+		private int next() {
+			int c = peek();
+			pos++;
+			return c;
+		}
+
+		IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at position " + pos + " in '" + text + "'");
+		}
+	}
+}
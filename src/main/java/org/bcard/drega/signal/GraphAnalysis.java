@@ -0,0 +1,422 @@
+package org.bcard.drega.signal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Analyzes the shape of a {@link SignalGraph} without enumerating its paths.
+ * <p>
+ * The graph is flattened into a table with one row per signal ID, so shared
+ * ancestors are only visited once no matter how many paths lead to them. From
+ * that table this class calculates:
+ * <ul>
+ * <li>the <b>collisions</b>, signals whose events reach the root of the graph
+ * through more than one downstream signal. These are exactly the signals that
+ * {@link SignalChain#getConflicts(SignalChain)} reports when run over every
+ * pair of {@link SignalGraph#allPaths()}
+ * <li>the <b>reachability</b> of every signal, the set of signals upstream of
+ * it
+ * <li>the <b>sources</b>, signals with no dependencies of their own. Every
+ * event starts at a source, so the counters of the sources upstream of a
+ * signal identify which events its value reflects
+ * <li>the <b>height</b> of the root, the length of the longest path from the
+ * root to a source. A signal is always higher than every signal it depends on
+ * <li>the signals the root needs <b>every update</b> from, see
+ * {@link #getInterest()}
+ * </ul>
+ * Both take time polynomial in the number of signals and edges, where
+ * enumerating paths grows exponentially with the depth of the graph. This
+ * class is immutable.
+ *
+ * @author bcard
+ *
+ */
+public class GraphAnalysis {
+
+	/**
+	 * The ID of every signal in the graph, the root is always at index 0.
+	 */
+	private final List<String> ids;
+
+	/**
+	 * Looks up the index of a signal from its ID.
+	 */
+	private final Map<String, Integer> index;
+
+	/**
+	 * The immediate dependencies of each signal, by index.
+	 */
+	private final int[][] dependencies;
+
+	/**
+	 * The signals upstream of each signal, by index. A signal is not upstream
+	 * of itself.
+	 */
+	private final BitSet[] ancestors;
+
+	/**
+	 * The collisions in the graph.
+	 */
+	private final BitSet collisions;
+
+	/**
+	 * The sources in the graph.
+	 */
+	private final BitSet sources;
+
+	/**
+	 * The signals whose unchanged updates the root needs.
+	 */
+	private final BitSet interest;
+
+	/**
+	 * The height of the root.
+	 */
+	private final int height;
+
+	private GraphAnalysis(List<String> ids, Map<String, Integer> index, int[][] dependencies) {
+		this.ids = ids;
+		this.index = index;
+		this.dependencies = dependencies;
+		this.ancestors = new BitSet[ids.size()];
+		this.collisions = new BitSet(ids.size());
+		this.sources = new BitSet(ids.size());
+		this.interest = new BitSet(ids.size());
+
+		int[] order = topologicalOrder();
+		int[] heights = new int[ids.size()];
+		for (int node : order) {
+			BitSet reach = new BitSet(ids.size());
+			for (int dep : dependencies[node]) {
+				reach.set(dep);
+				reach.or(ancestors[dep]);
+				heights[node] = Math.max(heights[node], heights[dep] + 1);
+			}
+			ancestors[node] = reach;
+		}
+		this.height = heights[0];
+
+		findCollisions();
+		for (int node = 1; node < ids.size(); node++) {
+			if (dependencies[node].length == 0) {
+				sources.set(node);
+			}
+		}
+		findInterest(order);
+	}
+
+	/**
+	 * Analyzes a graph.
+	 *
+	 * @param graph
+	 *            the dependency graph of a signal
+	 * @return the analysis of that graph
+	 */
+	public static GraphAnalysis of(SignalGraph graph) {
+		List<String> ids = new ArrayList<>();
+		Map<String, Integer> index = new HashMap<>();
+		List<Set<Integer>> edges = new ArrayList<>();
+
+		Deque<SignalGraph> toVisit = new ArrayDeque<>();
+		addNode(graph.getId(), ids, index, edges);
+		toVisit.push(graph);
+		while (!toVisit.isEmpty()) {
+			SignalGraph current = toVisit.pop();
+			Set<Integer> currentEdges = edges.get(index.get(current.getId()));
+			for (SignalGraph dep : current.getDependentSignals()) {
+				boolean seen = index.containsKey(dep.getId());
+				currentEdges.add(addNode(dep.getId(), ids, index, edges));
+				if (!seen) {
+					toVisit.push(dep);
+				}
+			}
+		}
+
+		int[][] dependencies = new int[ids.size()][];
+		for (int i = 0; i < ids.size(); i++) {
+			Set<Integer> nodeEdges = edges.get(i);
+			dependencies[i] = new int[nodeEdges.size()];
+			int j = 0;
+			for (Integer edge : nodeEdges) {
+				dependencies[i][j++] = edge;
+			}
+		}
+
+		return new GraphAnalysis(Collections.unmodifiableList(ids), index, dependencies);
+	}
+
+	private static int addNode(String id, List<String> ids, Map<String, Integer> index,
+			List<Set<Integer>> edges) {
+		Integer existing = index.get(id);
+		if (existing != null) {
+			return existing;
+		}
+		int newIndex = ids.size();
+		ids.add(id);
+		index.put(id, newIndex);
+		edges.add(new LinkedHashSet<Integer>());
+		return newIndex;
+	}
+
+	/**
+	 * Orders the signals so that every signal comes after all of its
+	 * dependencies.
+	 */
+	private int[] topologicalOrder() {
+		int[] order = new int[ids.size()];
+		int next = 0;
+		boolean[] visited = new boolean[ids.size()];
+		Deque<int[]> stack = new ArrayDeque<>();
+		stack.push(new int[] { 0, 0 });
+		visited[0] = true;
+		while (!stack.isEmpty()) {
+			int[] frame = stack.peek();
+			int node = frame[0];
+			if (frame[1] < dependencies[node].length) {
+				int dep = dependencies[node][frame[1]++];
+				if (!visited[dep]) {
+					visited[dep] = true;
+					stack.push(new int[] { dep, 0 });
+				}
+			} else {
+				stack.pop();
+				order[next++] = node;
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * A signal is a collision when it sends events to two different signals
+	 * in the graph, or when it sends events to another signal as well as
+	 * directly to the root. Either way there are two paths through it that
+	 * split after it.
+	 */
+	private void findCollisions() {
+		int[] successors = new int[ids.size()];
+		for (int node = 0; node < ids.size(); node++) {
+			for (int dep : dependencies[node]) {
+				successors[dep]++;
+			}
+		}
+		for (int node = 1; node < ids.size(); node++) {
+			if (successors[node] > 1) {
+				collisions.set(node);
+			}
+		}
+	}
+
+	/**
+	 * A signal that drops an unchanged update hides an event of the sources
+	 * above it from every path through it. That is only safe if every path
+	 * from those sources to the root goes through it, otherwise the root sees
+	 * the event on one path and waits for it forever on another. So the root
+	 * needs every update from a signal that is downstream of a source but
+	 * doesn't dominate it, where a dominator of a signal is one that every
+	 * path from the signal to the root passes through.
+	 */
+	private void findInterest(int[] order) {
+		int[] dependents = new int[ids.size()];
+		for (int node = 0; node < ids.size(); node++) {
+			for (int dep : dependencies[node]) {
+				dependents[dep]++;
+			}
+		}
+		int[][] dependentsOf = new int[ids.size()][];
+		for (int node = 0; node < ids.size(); node++) {
+			dependentsOf[node] = new int[dependents[node]];
+			dependents[node] = 0;
+		}
+		for (int node = 0; node < ids.size(); node++) {
+			for (int dep : dependencies[node]) {
+				dependentsOf[dep][dependents[dep]++] = node;
+			}
+		}
+
+		// the immediate dominator of each signal, every dependent of a
+		// signal comes first when walking the order backwards
+		int[] dominator = new int[ids.size()];
+		int[] depth = new int[ids.size()];
+		dominator[0] = -1;
+		for (int i = order.length - 1; i >= 0; i--) {
+			int node = order[i];
+			if (node == 0) {
+				continue;
+			}
+			int common = -1;
+			for (int dependent : dependentsOf[node]) {
+				common = common < 0 ? dependent : commonDominator(common, dependent, dominator, depth);
+			}
+			dominator[node] = common;
+			depth[node] = depth[common] + 1;
+		}
+
+		for (int source = sources.nextSetBit(0); source >= 0; source = sources.nextSetBit(source + 1)) {
+			BitSet dominators = new BitSet(ids.size());
+			for (int node = dominator[source]; node >= 0; node = dominator[node]) {
+				dominators.set(node);
+			}
+			for (int node = 1; node < ids.size(); node++) {
+				if (ancestors[node].get(source) && !dominators.get(node)) {
+					interest.set(node);
+				}
+			}
+		}
+	}
+
+	private static int commonDominator(int a, int b, int[] dominator, int[] depth) {
+		while (a != b) {
+			if (depth[a] > depth[b]) {
+				a = dominator[a];
+			} else {
+				b = dominator[b];
+			}
+		}
+		return a;
+	}
+
+	/**
+	 * @return the number of distinct signals in the graph, including the root
+	 */
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * @return the length of the longest path from the root to a source, 0 if
+	 *         the root is a source
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the ID of every signal in the graph, starting with the root
+	 */
+	public List<String> getIds() {
+		return ids;
+	}
+
+	/**
+	 * Returns the index of a signal in this analysis.
+	 *
+	 * @param id
+	 *            the ID of a signal
+	 * @return the index of that signal or -1 if it is not in the graph
+	 */
+	public int indexOf(String id) {
+		Integer returnValue = index.get(id);
+		return returnValue == null ? -1 : returnValue;
+	}
+
+	/**
+	 * @return the IDs of the collisions in the graph
+	 */
+	public Set<String> getCollisions() {
+		return toIds(collisions);
+	}
+
+	/**
+	 * Returns the signals that must send the root every update, even ones
+	 * that don't change their value, or the root could wait on a glitch
+	 * forever. These are the signals between a source and the root that not
+	 * every path from that source goes through. Signals above the point where
+	 * the paths from a source split can drop unchanged updates, the root
+	 * doesn't see the event on any path.
+	 *
+	 * @return the IDs of the signals, empty if there are no collisions
+	 */
+	public Set<String> getInterest() {
+		return toIds(interest);
+	}
+
+	/**
+	 * Returns the collisions that can be reached through one of the root's
+	 * immediate dependencies, including the dependency itself.
+	 *
+	 * @param dependency
+	 *            the ID of an immediate dependency of the root
+	 * @return the IDs of the collisions upstream of that dependency
+	 */
+	public List<String> getCollisionsThrough(String dependency) {
+		List<String> returnValue = new ArrayList<>();
+		int dep = indexOf(dependency);
+		if (dep < 0) {
+			return returnValue;
+		}
+
+		BitSet reach = (BitSet) ancestors[dep].clone();
+		reach.set(dep);
+		reach.and(collisions);
+		for (int i = reach.nextSetBit(0); i >= 0; i = reach.nextSetBit(i + 1)) {
+			returnValue.add(ids.get(i));
+		}
+		return returnValue;
+	}
+
+	/**
+	 * @return the IDs of the sources in the graph, signals that have no
+	 *         dependencies. The root is never a source of its own graph
+	 */
+	public Set<String> getSources() {
+		return toIds(sources);
+	}
+
+	/**
+	 * Returns the sources that can be reached through one of the root's
+	 * immediate dependencies, including the dependency itself.
+	 *
+	 * @param dependency
+	 *            the ID of an immediate dependency of the root
+	 * @return the IDs of the sources upstream of that dependency
+	 */
+	public Set<String> getSourcesThrough(String dependency) {
+		int dep = indexOf(dependency);
+		if (dep < 0) {
+			return new LinkedHashSet<>();
+		}
+
+		BitSet reach = (BitSet) ancestors[dep].clone();
+		reach.set(dep);
+		reach.and(sources);
+		return toIds(reach);
+	}
+
+	private Set<String> toIds(BitSet signals) {
+		Set<String> returnValue = new LinkedHashSet<>();
+		for (int i = signals.nextSetBit(0); i >= 0; i = signals.nextSetBit(i + 1)) {
+			returnValue.add(ids.get(i));
+		}
+		return returnValue;
+	}
+
+	/**
+	 * Returns {@code true} if the signal {@code upstream} is the same as, or
+	 * sends events to, the signal {@code downstream}. This is the same answer
+	 * as {@link SignalGraph#containsId(String)} on the graph of
+	 * {@code downstream}.
+	 *
+	 * @param downstream
+	 *            the ID of a signal in the graph
+	 * @param upstream
+	 *            the ID of the signal to look for
+	 * @return {@code true} if {@code upstream} is in the graph of
+	 *         {@code downstream}
+	 */
+	public boolean reaches(String downstream, String upstream) {
+		int down = indexOf(downstream);
+		int up = indexOf(upstream);
+		if (down < 0 || up < 0) {
+			return false;
+		}
+		return down == up || ancestors[down].get(up);
+	}
+}
@@ -0,0 +1,351 @@
+package org.bcard.drega.signal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * A shared record of the immediate dependencies of every signal. A signal
+ * asking each dependency for its {@link SignalGraph} gets back the whole tree
+ * upstream of it, so a deep ancestor is sent once for every signal below it.
+ * With a registry each signal stores only its own edges when it starts, and
+ * a new signal builds the graphs of its dependencies from the edges of their
+ * ancestors instead of sending any messages.
+ * <p>
+ * The edges are kept in the {@link #MAP_NAME} map, which every signal host can
+ * see, see {@link ClusterMaps}. Each entry holds a version that goes
+ * up whenever a signal registers different dependencies than before, like
+ * when it is deleted and created again.
+ * <p>
+ * Graphs are built with {@link SignalGraph#of(String, SignalGraph...)} and
+ * cached locally, so an ancestor is decoded and built once per registry no
+ * matter how many signals it is upstream of. A signal's version alone can't
+ * say whether something upstream of it has changed, so the map also holds a
+ * generation under {@link #GENERATION_KEY} that goes up whenever any entry
+ * gets a new version. A cached graph resolved in the current generation is
+ * returned after reading only its own entry and the generation. Otherwise
+ * the entry of every ancestor is read again, once each, and cached graphs
+ * are reused for the ancestors whose entries haven't changed. An ancestor
+ * that is created again with different dependencies, like after a
+ * {@code load} or a host restart, is picked up by every signal below it.
+ * This class is not thread safe.
+ *
+ * @author bcard
+ *
+ */
+public class GraphRegistry {
+
+	/**
+	 * The name of the map that holds the edges, keyed by signal ID.
+	 */
+	public static final String MAP_NAME = "drega.graphs";
+
+	/**
+	 * The key of the generation in {@link #MAP_NAME}. Signal IDs can't be
+	 * empty, so it can't clash with the entry of a signal.
+	 */
+	static final String GENERATION_KEY = "";
+
+	/**
+	 * The edges of every signal, encoded as a {@link JsonObject} with a
+	 * {@code version} and an array of {@code dependencies}. Values are
+	 * strings so they can be stored in shared data and sent across the
+	 * cluster as they are.
+	 */
+	private final ConcurrentMap<String, String> edges;
+
+	/**
+	 * The signals read from {@link #edges} so far, by ID.
+	 */
+	private final Map<String, Node> cache = new HashMap<>();
+
+	/**
+	 * Creates a registry backed by a map.
+	 *
+	 * @param edges
+	 *            the shared map of edges
+	 */
+	public GraphRegistry(ConcurrentMap<String, String> edges) {
+		this.edges = edges;
+	}
+
+	/**
+	 * Returns a registry backed by the cluster if vertx is clustered, or by
+	 * the shared data of this JVM if it isn't.
+	 *
+	 * @param vertx
+	 *            the current vertx instance
+	 * @return a new registry with an empty cache
+	 */
+	public static GraphRegistry of(Vertx vertx) {
+		ConcurrentMap<String, String> edges = ClusterMaps.get(vertx, MAP_NAME);
+		return new GraphRegistry(edges);
+	}
+
+	/**
+	 * Records the immediate dependencies of a signal.
+	 *
+	 * @param id
+	 *            the ID of the signal
+	 * @param dependencies
+	 *            the IDs of its dependencies, in the order they are declared
+	 * @return the version of the signal's entry, which only changes if the
+	 *         dependencies are different from the last time it registered
+	 */
+	public int register(String id, List<String> dependencies) {
+		while (true) {
+			String existing = edges.get(id);
+			if (existing == null) {
+				if (edges.putIfAbsent(id, encode(1, dependencies)) == null) {
+					return 1;
+				}
+				continue;
+			}
+
+			Node node = decode(id, existing);
+			if (node.dependencies.equals(dependencies)) {
+				return node.version;
+			}
+			int version = node.version + 1;
+			if (edges.replace(id, existing, encode(version, dependencies))) {
+				cache.remove(id);
+				nextGeneration();
+				return version;
+			}
+		}
+	}
+
+	/**
+	 * Moves the registry on to a new generation, so graphs cached by every
+	 * registry are checked again before they are used.
+	 */
+	private void nextGeneration() {
+		while (true) {
+			String generation = edges.get(GENERATION_KEY);
+			if (generation == null) {
+				if (edges.putIfAbsent(GENERATION_KEY, "1") == null) {
+					return;
+				}
+			} else if (edges.replace(GENERATION_KEY, generation, Long.toString(Long.parseLong(generation) + 1))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the current generation, {@code "0"} if no entry has changed
+	 *         version yet
+	 */
+	private String generation() {
+		String generation = edges.get(GENERATION_KEY);
+		return generation == null ? "0" : generation;
+	}
+
+	/**
+	 * Records the edges of every signal in a graph that hasn't registered,
+	 * such as the graph received from a dependency that doesn't use the
+	 * registry. Signals that have registered are left as they are.
+	 *
+	 * @param graph
+	 *            a graph received from a signal
+	 */
+	public void learn(SignalGraph graph) {
+		Deque<SignalGraph> toVisit = new ArrayDeque<>();
+		Set<String> seen = new HashSet<>();
+		toVisit.push(graph);
+		seen.add(graph.getId());
+		while (!toVisit.isEmpty()) {
+			SignalGraph current = toVisit.pop();
+			List<String> dependencies = new ArrayList<>();
+			for (SignalGraph dependency : current.getDependentSignals()) {
+				dependencies.add(dependency.getId());
+				if (seen.add(dependency.getId())) {
+					toVisit.push(dependency);
+				}
+			}
+			edges.putIfAbsent(current.getId(), encode(1, dependencies));
+		}
+	}
+
+	/**
+	 * Builds the graph of a signal from the edges of it and its ancestors.
+	 *
+	 * @param id
+	 *            the ID of the signal
+	 * @return the graph of the signal or {@code null} if it, or any signal
+	 *         upstream of it, hasn't registered yet
+	 */
+	public SignalGraph resolve(String id) {
+		String generation = generation();
+		Node cached = cache.get(id);
+		if (cached != null && generation.equals(cached.generation) && cached.encoded.equals(edges.get(id))) {
+			// nothing has changed version since this graph was resolved
+			return cached.graph;
+		}
+
+		// the entries read from the map by this call, each is read once
+		Map<String, Node> current = new HashMap<>();
+		Node root = refresh(id, current);
+		if (root == null) {
+			return null;
+		}
+
+		// depth first without recursion, long chains would overflow the stack
+		Deque<Node> toVisit = new ArrayDeque<>();
+		Set<String> visiting = new HashSet<>();
+		Set<String> resolved = new HashSet<>();
+		toVisit.push(root);
+		visiting.add(root.id);
+		while (!toVisit.isEmpty()) {
+			Node node = toVisit.peek();
+			Node unresolved = null;
+			for (String dependency : node.dependencies) {
+				if (resolved.contains(dependency)) {
+					continue;
+				}
+				Node upstream = refresh(dependency, current);
+				if (upstream == null || visiting.contains(dependency)) {
+					// not registered, or a cycle
+					return null;
+				}
+				unresolved = upstream;
+				break;
+			}
+
+			if (unresolved != null) {
+				toVisit.push(unresolved);
+				visiting.add(unresolved.id);
+				continue;
+			}
+			SignalGraph[] graphs = new SignalGraph[node.dependencies.size()];
+			boolean changed = node.graph == null;
+			for (int i = 0; i < graphs.length; i++) {
+				graphs[i] = current.get(node.dependencies.get(i)).graph;
+				if (!changed && node.graph.getDependentSignals().get(i) != graphs[i]) {
+					changed = true;
+				}
+			}
+			if (changed) {
+				node.graph = SignalGraph.of(node.id, graphs);
+			}
+			node.generation = generation;
+			resolved.add(node.id);
+			toVisit.pop();
+			visiting.remove(node.id);
+		}
+		return root.graph;
+	}
+
+	/**
+	 * Reads the entry of a signal from the map, keeping the cached entry and
+	 * its graph if the entry hasn't changed.
+	 *
+	 * @return the entry or {@code null} if the signal hasn't registered
+	 */
+	private Node refresh(String id, Map<String, Node> current) {
+		Node node = current.get(id);
+		if (node != null) {
+			return node;
+		}
+		String encoded = edges.get(id);
+		if (encoded == null) {
+			cache.remove(id);
+			return null;
+		}
+		node = cache.get(id);
+		if (node == null || !node.encoded.equals(encoded)) {
+			node = decode(id, encoded);
+			cache.put(id, node);
+		}
+		current.put(id, node);
+		return node;
+	}
+
+	/**
+	 * Returns the immediate dependencies a signal registered.
+	 *
+	 * @param id
+	 *            the ID of the signal
+	 * @return the IDs of its dependencies or {@code null} if it hasn't
+	 *         registered
+	 */
+	public List<String> getDependencies(String id) {
+		String encoded = edges.get(id);
+		return encoded == null ? null : decode(id, encoded).dependencies;
+	}
+
+	/**
+	 * Returns the version of a signal's entry.
+	 *
+	 * @param id
+	 *            the ID of the signal
+	 * @return the version or 0 if it hasn't registered
+	 */
+	public int getVersion(String id) {
+		String encoded = edges.get(id);
+		return encoded == null ? 0 : decode(id, encoded).version;
+	}
+
+	private static String encode(int version, List<String> dependencies) {
+		JsonArray array = new JsonArray();
+		for (String dependency : dependencies) {
+			array.addString(dependency);
+		}
+		JsonObject json = new JsonObject();
+		json.putNumber("version", version);
+		json.putArray("dependencies", array);
+		return json.encode();
+	}
+
+	private static Node decode(String id, String encoded) {
+		JsonObject json = new JsonObject(encoded);
+		List<String> dependencies = new ArrayList<>();
+		for (Object dependency : json.getArray("dependencies")) {
+			dependencies.add((String) dependency);
+		}
+		return new Node(id, encoded, json.getInteger("version"), dependencies);
+	}
+
+	/**
+	 * The entry of one signal.
+	 */
+	private static class Node {
+		private final String id;
+
+		/**
+		 * The entry as it was read from the map.
+		 */
+		private final String encoded;
+		private final int version;
+		private final List<String> dependencies;
+
+		/**
+		 * The graph of the signal, {@code null} until it has been resolved.
+		 */
+		private SignalGraph graph;
+
+		/**
+		 * The generation {@link #graph} was last resolved in, {@code null}
+		 * until it has been resolved.
+		 */
+		private String generation;
+
+		Node(String id, String encoded, int version, List<String> dependencies) {
+			this.id = id;
+			this.encoded = encoded;
+			this.version = version;
+			this.dependencies = Collections.unmodifiableList(dependencies);
+		}
+	}
+}
@@ -38,4 +38,14 @@ public abstract class HandlerApplicator<T> implements Handler<Message<T>> {
 		bus.registerHandler(address, this);
 	}
 
+	/**
+	 * Registers this listener with a {@link HandlerRegistry}.
+	 * 
+	 * @param registry
+	 *            the registry to add this listener to
+	 */
+	public void apply(HandlerRegistry registry) {
+		registry.registerHandler(address, this);
+	}
+
 }
@@ -0,0 +1,26 @@
+package org.bcard.drega.signal;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+
+/**
+ * Something that message handlers can be registered with. Signals that run
+ * inside a {@link SignalHost} register their handlers with the host rather
+ * than directly with the event bus so the host can share registrations between
+ * them.
+ * 
+ * @author bcard
+ * 
+ */
+public interface HandlerRegistry {
+
+	/**
+	 * Registers a handler for messages sent to an address.
+	 * 
+	 * @param address
+	 *            the event bus address
+	 * @param handler
+	 *            the handler to call when a message arrives
+	 */
+	public void registerHandler(String address, Handler<? extends Message<?>> handler);
+}
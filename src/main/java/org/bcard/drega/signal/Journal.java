@@ -0,0 +1,381 @@
+package org.bcard.drega.signal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Durable state for the signals in a {@link SignalHost}. Two files are kept in
+ * a directory:
+ * <ul>
+ * <li><b>journal</b>, an append-only log of every update made to a source
+ * signal. The file is memory mapped, so appending is a few writes to memory
+ * and never waits for the disk
+ * <li><b>snapshot</b>, the value and event counter of every signal at some
+ * point in time. Writing a snapshot empties the journal
+ * </ul>
+ * On startup the snapshot is loaded and the journal is replayed on top of it,
+ * see {@link #getRecovered(String)}. A record in the journal is only applied
+ * when its counter is newer than the snapshot's, so a crash between writing a
+ * snapshot and emptying the journal doesn't roll values back.
+ * <p>
+ * Records are not flushed to disk one at a time. The owner calls
+ * {@link #sync()} periodically and every record appended since the last call
+ * is flushed together, a group commit. Records still in memory survive the
+ * process dying, but not the machine.
+ * <p>
+ * A record is the ID of the signal, the value as a {@code long} and the
+ * counter as an {@code int}. Every record is followed by a zero length which
+ * marks the end of the journal. IDs are written the same way in both files,
+ * as an unsigned 2 byte length and the UTF-8 bytes, so an ID can be at most
+ * {@link #MAX_ID_LENGTH} bytes. An empty ID would read as the end marker, so
+ * it can't be journaled. This class is not thread safe.
+ *
+ * @author bcard
+ *
+ */
+public class Journal {
+
+	/**
+	 * The default size of the journal file, 64MB.
+	 */
+	public static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+
+	private static final int JOURNAL_MAGIC = 0x44524a31; // DRJ1
+
+	private static final int SNAPSHOT_MAGIC = 0x44525332; // DRS2
+
+	/**
+	 * The most bytes of UTF-8 a signal ID can take.
+	 */
+	public static final int MAX_ID_LENGTH = 0xFFFF;
+
+	private static final int HEADER = 4;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The value and event counter of a signal.
+	 */
+	public static class Entry {
+		private final long value;
+		private final int counter;
+
+		public Entry(long value, int counter) {
+			this.value = value;
+			this.counter = counter;
+		}
+
+		public long getValue() {
+			return value;
+		}
+
+		public int getCounter() {
+			return counter;
+		}
+	}
+
+	private final File snapshotFile;
+
+	private final RandomAccessFile file;
+
+	private final MappedByteBuffer buffer;
+
+	/**
+	 * The state read from disk when the journal was opened, by signal ID.
+	 */
+	private final Map<String, Entry> recovered;
+
+	/**
+	 * {@code true} if records have been appended since the last sync.
+	 */
+	private boolean dirty = false;
+
+	private Journal(File snapshotFile, RandomAccessFile file, MappedByteBuffer buffer,
+			Map<String, Entry> recovered) {
+		this.snapshotFile = snapshotFile;
+		this.file = file;
+		this.buffer = buffer;
+		this.recovered = recovered;
+	}
+
+	/**
+	 * Opens the journal in a directory, creating it if it doesn't exist, and
+	 * recovers the state stored there.
+	 *
+	 * @param directory
+	 *            the directory holding the journal and snapshot
+	 * @param capacity
+	 *            the size of the journal file in bytes, an existing journal
+	 *            keeps its size if it is bigger
+	 * @return the opened journal
+	 * @throws IOException
+	 *             if the files can't be read or created
+	 */
+	public static Journal open(File directory, int capacity) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create journal directory " + directory);
+		}
+		File snapshotFile = new File(directory, "snapshot");
+		Map<String, Entry> recovered = readSnapshot(snapshotFile);
+
+		RandomAccessFile file = new RandomAccessFile(new File(directory, "journal"), "rw");
+		boolean created = file.length() < HEADER;
+		int size = (int) Math.max(capacity, file.length());
+		MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		if (created || buffer.getInt(0) != JOURNAL_MAGIC) {
+			buffer.putInt(0, JOURNAL_MAGIC);
+			buffer.putShort(HEADER, (short) 0);
+			buffer.position(HEADER);
+		} else {
+			replay(buffer, recovered);
+		}
+
+		return new Journal(snapshotFile, file, buffer, recovered);
+	}
+
+	private static Map<String, Entry> readSnapshot(File snapshotFile) throws IOException {
+		Map<String, Entry> recovered = new HashMap<>();
+		if (!snapshotFile.exists()) {
+			return recovered;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+				snapshotFile)))) {
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException(snapshotFile + " is not a snapshot");
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String id = readId(in);
+				long value = in.readLong();
+				int counter = in.readInt();
+				recovered.put(id, new Entry(value, counter));
+			}
+		}
+		return recovered;
+	}
+
+	/**
+	 * Applies the records in the journal, leaving the buffer positioned at the
+	 * end marker. Stops at the first record that is cut short.
+	 */
+	private static void replay(MappedByteBuffer buffer, Map<String, Entry> recovered) {
+		buffer.position(HEADER);
+		byte[] scratch = new byte[64];
+		while (true) {
+			int start = buffer.position();
+			try {
+				int length = buffer.getShort() & 0xFFFF;
+				if (length == 0) {
+					buffer.position(start);
+					return;
+				}
+				if (length > scratch.length) {
+					scratch = new byte[length];
+				}
+				buffer.get(scratch, 0, length);
+				String id = new String(scratch, 0, length, UTF_8);
+				long value = buffer.getLong();
+				int counter = buffer.getInt();
+
+				Entry existing = recovered.get(id);
+				if (existing == null || counter > existing.getCounter()) {
+					recovered.put(id, new Entry(value, counter));
+				}
+			} catch (BufferUnderflowException e) {
+				// a torn record at the end of the file
+				buffer.position(start);
+				buffer.putShort(start, (short) 0);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the state of a signal as it was when the journal was opened.
+	 *
+	 * @param id
+	 *            the ID of a signal
+	 * @return the signal's value and counter or {@code null} if nothing was
+	 *         stored for it
+	 */
+	public Entry getRecovered(String id) {
+		return recovered.get(id);
+	}
+
+	/**
+	 * @return every recovered state, by signal ID
+	 */
+	public Map<String, Entry> getRecovered() {
+		return Collections.unmodifiableMap(recovered);
+	}
+
+	/**
+	 * Appends an update to the journal. The update isn't guaranteed to be on
+	 * disk until the next {@link #sync()}.
+	 *
+	 * @param id
+	 *            the ID of the signal that updated
+	 * @param value
+	 *            the new value
+	 * @param counter
+	 *            the event counter of the update
+	 * @return {@code false} if the journal is full, write a
+	 *         {@link #snapshot(Map)} to empty it
+	 * @throws IllegalArgumentException
+	 *             if the ID is empty or longer than {@link #MAX_ID_LENGTH}
+	 *             bytes
+	 */
+	public boolean append(String id, long value, int counter) {
+		byte[] bytes = idBytes(id);
+		if (bytes.length == 0) {
+			// a zero length marks the end of the journal
+			throw new IllegalArgumentException("An empty signal ID can't be journaled");
+		}
+		// the record and the next end marker
+		int size = 2 + bytes.length + 8 + 4 + 2;
+		if (buffer.remaining() < size) {
+			return false;
+		}
+		int start = buffer.position();
+		buffer.position(start + 2);
+		buffer.put(bytes);
+		buffer.putLong(value);
+		buffer.putInt(counter);
+		buffer.putShort(buffer.position(), (short) 0);
+		// the length goes last so a half written record is never read
+		buffer.putShort(start, (short) bytes.length);
+		dirty = true;
+		return true;
+	}
+
+	/**
+	 * @return the UTF-8 bytes of an ID
+	 * @throws IllegalArgumentException
+	 *             if the ID is longer than {@link #MAX_ID_LENGTH} bytes
+	 */
+	private static byte[] idBytes(String id) {
+		byte[] bytes = id.getBytes(UTF_8);
+		if (bytes.length > MAX_ID_LENGTH) {
+			throw new IllegalArgumentException("Signal ID is " + bytes.length + " bytes, at most "
+					+ MAX_ID_LENGTH + " can be stored");
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes an ID as an unsigned 2 byte length and its UTF-8 bytes, the way
+	 * IDs are stored in every file drega writes.
+	 *
+	 * @param out
+	 *            where to write the ID
+	 * @param id
+	 *            the ID of a signal
+	 * @throws IOException
+	 *             if the ID can't be written
+	 * @throws IllegalArgumentException
+	 *             if the ID is longer than {@link #MAX_ID_LENGTH} bytes
+	 */
+	static void writeId(DataOutput out, String id) throws IOException {
+		byte[] bytes = idBytes(id);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads an ID written by {@link #writeId(DataOutput, String)}.
+	 *
+	 * @param in
+	 *            where to read the ID from
+	 * @return the ID
+	 * @throws IOException
+	 *             if the ID can't be read
+	 */
+	static String readId(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readUnsignedShort()];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Flushes every record appended since the last call to disk.
+	 */
+	public void sync() {
+		if (dirty) {
+			buffer.force();
+			dirty = false;
+		}
+	}
+
+	/**
+	 * Writes a snapshot and empties the journal. The snapshot is written to a
+	 * temporary file and moved into place, so there is always one complete
+	 * snapshot on disk.
+	 *
+	 * @param state
+	 *            the value and counter of every signal, by ID
+	 * @throws IOException
+	 *             if the snapshot can't be written, the journal is left as
+	 *             it was
+	 * @throws IllegalArgumentException
+	 *             if an ID is longer than {@link #MAX_ID_LENGTH} bytes, the
+	 *             journal is left as it was
+	 */
+	public void snapshot(Map<String, Entry> state) throws IOException {
+		File temp = new File(snapshotFile.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temp);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(state.size());
+			for (Map.Entry<String, Entry> entry : state.entrySet()) {
+				writeId(out, entry.getKey());
+				out.writeLong(entry.getValue().getValue());
+				out.writeInt(entry.getValue().getCounter());
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		buffer.putShort(HEADER, (short) 0);
+		buffer.position(HEADER);
+		buffer.force();
+		dirty = false;
+	}
+
+	/**
+	 * @return the number of bytes of records in the journal
+	 */
+	public int size() {
+		return buffer.position() - HEADER;
+	}
+
+	/**
+	 * Flushes the journal and closes the file.
+	 *
+	 * @throws IOException
+	 *             if the file can't be closed
+	 */
+	public void close() throws IOException {
+		sync();
+		file.close();
+	}
+}
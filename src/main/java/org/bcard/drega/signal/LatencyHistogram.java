@@ -0,0 +1,175 @@
+package org.bcard.drega.signal;
+
+import java.util.Arrays;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * A histogram of latencies in nanoseconds, laid out like an HDR histogram.
+ * Values below 32 each get their own bucket. Above that every power of two is
+ * split into 16 linear buckets, so a recorded value is off by at most 1/16th
+ * of itself no matter how big it is. Values over about 73 minutes are recorded as
+ * {@link #MAX_VALUE}.
+ * <p>
+ * Recording a value is a few shifts and an array increment, it doesn't
+ * allocate. This class is not thread safe, it is meant to be used from a
+ * signal's event loop.
+ * 
+ * @author bcard
+ * 
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The number of bits of precision kept, each power of two is split into
+	 * 2^(SUB_BITS-1) buckets.
+	 */
+	private static final int SUB_BITS = 5;
+
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	private static final int HALF_COUNT = SUB_COUNT >> 1;
+
+	/**
+	 * The largest value that can be recorded, bigger values are clamped to
+	 * this. About 73 minutes.
+	 */
+	public static final long MAX_VALUE = (1L << 42) - 1;
+
+	private final long[] counts = new long[indexOf(MAX_VALUE) + 1];
+
+	private long count;
+
+	private long min = Long.MAX_VALUE;
+
+	private long max;
+
+	private long sum;
+
+	/**
+	 * Records a latency. Negative values, which can show up when comparing
+	 * times from different JVMs, are recorded as 0.
+	 * 
+	 * @param nanos
+	 *            the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+		counts[indexOf(value)]++;
+		count++;
+		sum += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the smallest value recorded, or 0 if nothing has been recorded
+	 */
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	/**
+	 * @return the largest value recorded
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the mean of the values recorded, or 0 if nothing has been
+	 *         recorded
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * Returns the value at a percentile, e.g. {@code 99.9}. The result is the
+	 * upper end of the bucket the percentile falls in, capped at the largest
+	 * value recorded.
+	 * 
+	 * @param percentile
+	 *            a percentile between 0 and 100
+	 * @return the value at the percentile, or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(count * Math.min(percentile, 100) / 100);
+		target = Math.max(target, 1);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= target) {
+				return Math.min(upperBoundOf(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Clears every recorded value.
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	/**
+	 * @return a summary of this histogram with the count, min, max, mean and
+	 *         the 50th, 90th, 99th and 99.9th percentiles in nanoseconds
+	 */
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.putNumber("count", count);
+		json.putNumber("min", getMin());
+		json.putNumber("max", max);
+		json.putNumber("mean", getMean());
+		json.putNumber("p50", getValueAtPercentile(50));
+		json.putNumber("p90", getValueAtPercentile(90));
+		json.putNumber("p99", getValueAtPercentile(99));
+		json.putNumber("p999", getValueAtPercentile(99.9));
+		return json;
+	}
+
+	/**
+	 * Returns the bucket a value falls in.
+	 */
+	static int indexOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+		int shift = msb - (SUB_BITS - 1);
+		return SUB_COUNT + (shift - 1) * HALF_COUNT + (int) ((value >> shift) - HALF_COUNT);
+	}
+
+	/**
+	 * Returns the largest value that falls in a bucket.
+	 */
+	static long upperBoundOf(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int offset = index - SUB_COUNT;
+		int shift = offset / HALF_COUNT + 1;
+		long sub = offset % HALF_COUNT + HALF_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,370 @@
+package org.bcard.drega.signal;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Delivers value updates between signals running in the same
+ * {@link SignalHost} without going through the event bus. If delivering an
+ * update causes more updates to be sent they are queued rather than delivered
+ * recursively, so a long chain of signals doesn't grow the stack.
+ * <p>
+ * Updates are delivered in order of the height of the receiving signal, the
+ * length of the longest path from it to a source, and in the order they were
+ * sent when the heights are the same. Once a tick has started, everything it
+ * sends to a signal arrives before that signal is asked to
+ * {@link Receiver#propagate() propagate}, because every signal is higher than
+ * its dependencies. A signal that combines several local dependencies
+ * therefore sees all of their new values at once and calculates a single
+ * consistent value per tick, instead of holding back a glitch after each
+ * update like it has to for updates from other processes.
+ * <p>
+ * Heights are small, so the queue keeps a FIFO list of entries for each
+ * height rather than sorting them. The entries are kept in parallel arrays,
+ * queuing an update does not allocate unless the queue has to grow. This
+ * class is not thread safe, it must only be used from the host's event loop.
+ *
+ * @author bcard
+ *
+ */
+public class LocalDispatcher {
+
+	/**
+	 * A signal that receives updates from a {@link LocalDispatcher}.
+	 *
+	 * @author bcard
+	 *
+	 */
+	public interface Receiver {
+
+		/**
+		 * @return the height of the receiving signal in its dependency graph,
+		 *         see {@link GraphAnalysis#getHeight()}
+		 */
+		int getHeight();
+
+		/**
+		 * Receives an update.
+		 *
+		 * @param value
+		 *            the new value
+		 * @param chain
+		 *            the event counters for the value, must not be modified
+		 * @param trace
+		 *            the timing of the update, {@code null} if it isn't
+		 *            sampled
+		 * @param epochs
+		 *            the transactions the update completes, {@code null} if
+		 *            it isn't part of one
+		 * @param stale
+		 *            {@code true} if the value is possibly inconsistent
+		 */
+		void receiveLocal(long value, SignalChain chain, Trace trace, List<Epoch> epochs, boolean stale);
+
+		/**
+		 * Called after every update queued for this receiver's height has
+		 * been delivered, when the receiver asked for it with
+		 * {@link LocalDispatcher#schedule(Receiver)}.
+		 */
+		void propagate();
+	}
+
+	private Receiver[] receivers = new Receiver[16];
+
+	private long[] values = new long[16];
+
+	private SignalChain[] chains = new SignalChain[16];
+
+	private Trace[] traces = new Trace[16];
+
+	private List<Epoch>[] epochs = newEpochs(16);
+
+	private boolean[] inconsistent = new boolean[16];
+
+	/**
+	 * Whether each entry is a call to {@link Receiver#propagate()} rather
+	 * than an update.
+	 */
+	private boolean[] propagate = new boolean[16];
+
+	/**
+	 * The entry queued after each entry at the same level, -1 for the last
+	 * one.
+	 */
+	private int[] next = new int[16];
+
+	/**
+	 * The first and last entry queued at each level, -1 when there are none.
+	 * Updates for a height {@code h} are at level {@code 2h} and calls to
+	 * {@link Receiver#propagate()} at level {@code 2h + 1}.
+	 */
+	private int[] firsts = newLevels(8);
+
+	private int[] lasts = newLevels(8);
+
+	/**
+	 * No level below this one has any entries.
+	 */
+	private int lowest = 0;
+
+	/**
+	 * The indices of the unused entries, the first
+	 * {@code receivers.length - size} are valid.
+	 */
+	private int[] free = new int[16];
+
+	/**
+	 * The number of queued entries.
+	 */
+	private int size = 0;
+
+	/**
+	 * {@code true} while the queue is being drained.
+	 */
+	private boolean dispatching = false;
+
+	public LocalDispatcher() {
+		for (int i = 0; i < free.length; i++) {
+			free[i] = free.length - 1 - i;
+		}
+	}
+
+	/**
+	 * Sends an update to a signal. If no other updates are being delivered
+	 * this delivers the update, and any updates sent as a result of it, before
+	 * returning.
+	 *
+	 * @param receiver
+	 *            the receiving signal
+	 * @param value
+	 *            the new value
+	 * @param chain
+	 *            the event counters for the value, the receiver must not
+	 *            modify this
+	 * @param trace
+	 *            the timing of the update, {@code null} if it isn't sampled
+	 * @param epochs
+	 *            the transactions the update completes, {@code null} if it
+	 *            isn't part of one
+	 * @param inconsistent
+	 *            {@code true} if the value is possibly inconsistent
+	 */
+	public void dispatch(Receiver receiver, long value, SignalChain chain, Trace trace, List<Epoch> epochs,
+			boolean inconsistent) {
+		int entry = add(receiver, false);
+		values[entry] = value;
+		chains[entry] = chain;
+		traces[entry] = trace;
+		this.epochs[entry] = epochs;
+		this.inconsistent[entry] = inconsistent;
+
+		if (!dispatching) {
+			drain();
+		}
+	}
+
+	/**
+	 * Sends an update to several signals. Every update is queued before any
+	 * of them are delivered, so they all belong to the same tick.
+	 *
+	 * @param receivers
+	 *            the receiving signals
+	 * @param value
+	 *            the new value
+	 * @param chain
+	 *            the event counters for the value, the receivers must not
+	 *            modify this
+	 * @param trace
+	 *            the timing of the update, {@code null} if it isn't sampled
+	 * @param epochs
+	 *            the transactions the update completes, {@code null} if it
+	 *            isn't part of one
+	 * @param inconsistent
+	 *            {@code true} if the value is possibly inconsistent
+	 * @see #dispatch(Receiver, long, SignalChain, Trace, List, boolean)
+	 */
+	public void dispatch(List<? extends Receiver> receivers, long value, SignalChain chain, Trace trace,
+			List<Epoch> epochs, boolean inconsistent) {
+		boolean wasDispatching = dispatching;
+		dispatching = true;
+		try {
+			for (int i = 0; i < receivers.size(); i++) {
+				dispatch(receivers.get(i), value, chain, trace, epochs, inconsistent);
+			}
+		} finally {
+			dispatching = wasDispatching;
+		}
+
+		if (!dispatching) {
+			drain();
+		}
+	}
+
+	/**
+	 * Runs code that sends updates, such as setting the values of several
+	 * sources, and delivers everything it sends as a single tick once it
+	 * returns. A signal that depends on more than one of the updated sources
+	 * receives all of their updates before it is asked to propagate.
+	 *
+	 * @param sends
+	 *            the code to run
+	 */
+	public void tick(Runnable sends) {
+		boolean wasDispatching = dispatching;
+		dispatching = true;
+		try {
+			sends.run();
+		} finally {
+			dispatching = wasDispatching;
+		}
+
+		if (!dispatching) {
+			drain();
+		}
+	}
+
+	/**
+	 * Asks for {@link Receiver#propagate()} to be called once every update
+	 * for the receiver's height has been delivered. Receivers are expected to
+	 * only schedule themselves once per tick.
+	 *
+	 * @param receiver
+	 *            the signal to call back
+	 */
+	public void schedule(Receiver receiver) {
+		add(receiver, true);
+
+		if (!dispatching) {
+			drain();
+		}
+	}
+
+	/**
+	 * @return the number of updates waiting to be delivered
+	 */
+	public int size() {
+		return size;
+	}
+
+	private int add(Receiver receiver, boolean propagate) {
+		if (size == receivers.length) {
+			grow();
+		}
+		int entry = free[receivers.length - 1 - size];
+		size++;
+		receivers[entry] = receiver;
+		this.propagate[entry] = propagate;
+
+		int level = receiver.getHeight() * 2 + (propagate ? 1 : 0);
+		if (level >= firsts.length) {
+			growLevels(level);
+		}
+		next[entry] = -1;
+		if (firsts[level] < 0) {
+			firsts[level] = entry;
+		} else {
+			next[lasts[level]] = entry;
+		}
+		lasts[level] = entry;
+		if (level < lowest) {
+			lowest = level;
+		}
+		return entry;
+	}
+
+	private int poll() {
+		while (firsts[lowest] < 0) {
+			lowest++;
+		}
+		int entry = firsts[lowest];
+		firsts[lowest] = next[entry];
+		size--;
+		free[receivers.length - 1 - size] = entry;
+		return entry;
+	}
+
+	private void drain() {
+		dispatching = true;
+		try {
+			while (size > 0) {
+				int entry = poll();
+				Receiver receiver = receivers[entry];
+				long value = values[entry];
+				SignalChain chain = chains[entry];
+				Trace trace = traces[entry];
+				List<Epoch> transactions = epochs[entry];
+				boolean stale = inconsistent[entry];
+				receivers[entry] = null;
+				chains[entry] = null;
+				traces[entry] = null;
+				epochs[entry] = null;
+
+				if (propagate[entry]) {
+					receiver.propagate();
+				} else {
+					receiver.receiveLocal(value, chain, trace, transactions, stale);
+				}
+			}
+		} finally {
+			dispatching = false;
+		}
+	}
+
+	private void grow() {
+		int capacity = receivers.length * 2;
+		Receiver[] newReceivers = new Receiver[capacity];
+		long[] newValues = new long[capacity];
+		SignalChain[] newChains = new SignalChain[capacity];
+		Trace[] newTraces = new Trace[capacity];
+		List<Epoch>[] newEpochs = newEpochs(capacity);
+		boolean[] newInconsistent = new boolean[capacity];
+		boolean[] newPropagate = new boolean[capacity];
+		int[] newNext = new int[capacity];
+		int[] newFree = new int[capacity];
+
+		// the queue is full, so entries keep their index and the new ones
+		// are free
+		System.arraycopy(receivers, 0, newReceivers, 0, size);
+		System.arraycopy(values, 0, newValues, 0, size);
+		System.arraycopy(chains, 0, newChains, 0, size);
+		System.arraycopy(traces, 0, newTraces, 0, size);
+		System.arraycopy(epochs, 0, newEpochs, 0, size);
+		System.arraycopy(inconsistent, 0, newInconsistent, 0, size);
+		System.arraycopy(propagate, 0, newPropagate, 0, size);
+		System.arraycopy(next, 0, newNext, 0, size);
+		for (int i = 0; i < capacity - size; i++) {
+			newFree[i] = capacity - 1 - i;
+		}
+
+		receivers = newReceivers;
+		values = newValues;
+		chains = newChains;
+		traces = newTraces;
+		epochs = newEpochs;
+		inconsistent = newInconsistent;
+		propagate = newPropagate;
+		next = newNext;
+		free = newFree;
+	}
+
+	private void growLevels(int level) {
+		int capacity = Math.max(firsts.length * 2, level + 1);
+		int[] newFirsts = newLevels(capacity);
+		int[] newLasts = newLevels(capacity);
+		System.arraycopy(firsts, 0, newFirsts, 0, firsts.length);
+		System.arraycopy(lasts, 0, newLasts, 0, lasts.length);
+		firsts = newFirsts;
+		lasts = newLasts;
+	}
+
+	private static int[] newLevels(int capacity) {
+		int[] levels = new int[capacity];
+		Arrays.fill(levels, -1);
+		return levels;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static List<Epoch>[] newEpochs(int capacity) {
+		return new List[capacity];
+	}
+}
@@ -0,0 +1,23 @@
+package org.bcard.drega.signal;
+
+/**
+ * Function with two {@code long} arguments that returns a {@code long}. This is
+ * the primitive version of {@link Func2}, use it on paths where boxing every
+ * value would create garbage.
+ * 
+ * @author bcard
+ * 
+ */
+public interface LongFunc2 {
+
+	/**
+	 * Call the function
+	 * 
+	 * @param arg1
+	 *            the first argument
+	 * @param arg2
+	 *            the second argument
+	 * @return a value
+	 */
+	public long call(long arg1, long arg2);
+}
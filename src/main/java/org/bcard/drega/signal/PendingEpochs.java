@@ -0,0 +1,179 @@
+package org.bcard.drega.signal;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The transactions a signal with several dependencies is part way through
+ * receiving. When the first update for an {@link Epoch} arrives, every
+ * dependency that has one of the epoch's sources upstream of it is expected
+ * to send an update for the epoch as well. The signal holds off computing its
+ * value until all of those updates have arrived, so it computes once for the
+ * whole transaction instead of once per source.
+ * <p>
+ * Epochs stay here once they are complete until {@link #drain()} hands them
+ * over to be sent on with the computed value. If several transactions
+ * overlap the signal waits for all of them and sends them on together. The
+ * IDs of the last {@value #FINISHED_LIMIT} drained epochs are remembered so an
+ * update that arrives after its epoch was given up on doesn't start it again.
+ * 
+ * @author bcard
+ * 
+ */
+public class PendingEpochs {
+
+	/**
+	 * The number of drained epoch IDs to remember.
+	 */
+	static final int FINISHED_LIMIT = 256;
+
+	private final GraphAnalysis analysis;
+
+	/**
+	 * The ID of each dependency, in the order they are declared.
+	 */
+	private final List<String> dependencies;
+
+	/**
+	 * The epochs received so far, by ID.
+	 */
+	private final Map<String, Epoch> epochs = new LinkedHashMap<>();
+
+	/**
+	 * The dependencies each epoch is still waiting on, by epoch ID.
+	 */
+	private final Map<String, BitSet> waiting = new LinkedHashMap<>();
+
+	/**
+	 * The IDs of the most recently drained epochs, oldest first.
+	 */
+	private final Set<String> finished = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > FINISHED_LIMIT;
+		}
+	});
+
+	/**
+	 * The number of epochs still waiting on a dependency.
+	 */
+	private int incomplete = 0;
+
+	/**
+	 * Creates a new {@link PendingEpochs} for a signal.
+	 * 
+	 * @param conflicts
+	 *            the conflicts in the signal's dependency graph
+	 */
+	public PendingEpochs(ConflictSet conflicts) {
+		this.analysis = conflicts.getAnalysis();
+		this.dependencies = new ArrayList<>();
+		for (SignalGraph dependency : conflicts.getGraph().getDependentSignals()) {
+			dependencies.add(dependency.getId());
+		}
+	}
+
+	/**
+	 * Records that a dependency has sent its update for an epoch.
+	 * 
+	 * @param dependency
+	 *            the index of the dependency
+	 * @param epoch
+	 *            the epoch that came with the update
+	 * @return {@code true} if this is the first update seen for the epoch,
+	 *         {@code false} if it isn't or the epoch has already been drained
+	 */
+	public boolean received(int dependency, Epoch epoch) {
+		if (finished.contains(epoch.getId())) {
+			// late, the epoch has already been sent on without it
+			return false;
+		}
+		BitSet remaining = waiting.get(epoch.getId());
+		boolean first = remaining == null;
+		if (first) {
+			remaining = affected(epoch);
+			epochs.put(epoch.getId(), epoch);
+			waiting.put(epoch.getId(), remaining);
+		} else if (!remaining.isEmpty()) {
+			incomplete--;
+		}
+		remaining.clear(dependency);
+		if (!remaining.isEmpty()) {
+			incomplete++;
+		}
+		return first;
+	}
+
+	/**
+	 * Stops waiting for the rest of an epoch's updates, used when they are
+	 * taking too long to arrive.
+	 * 
+	 * @param id
+	 *            the ID of the epoch
+	 * @return {@code true} if the epoch was still waiting on a dependency
+	 */
+	public boolean abandon(String id) {
+		BitSet remaining = waiting.get(id);
+		if (remaining == null || remaining.isEmpty()) {
+			return false;
+		}
+		remaining.clear();
+		incomplete--;
+		return true;
+	}
+
+	/**
+	 * @return {@code true} if no epoch is waiting on a dependency
+	 */
+	public boolean isComplete() {
+		return incomplete == 0;
+	}
+
+	/**
+	 * Removes every complete epoch.
+	 * 
+	 * @return the epochs in the order they were first received, or
+	 *         {@code null} if there aren't any
+	 */
+	public List<Epoch> drain() {
+		if (epochs.isEmpty()) {
+			return null;
+		}
+		List<Epoch> returnValue = new ArrayList<>(epochs.size());
+		for (Epoch epoch : epochs.values()) {
+			if (waiting.get(epoch.getId()).isEmpty()) {
+				returnValue.add(epoch);
+			}
+		}
+		for (Epoch epoch : returnValue) {
+			epochs.remove(epoch.getId());
+			waiting.remove(epoch.getId());
+			finished.add(epoch.getId());
+		}
+		return returnValue.isEmpty() ? null : returnValue;
+	}
+
+	/**
+	 * Returns the dependencies that have one of the epoch's sources upstream.
+	 */
+	private BitSet affected(Epoch epoch) {
+		BitSet returnValue = new BitSet(dependencies.size());
+		for (int i = 0; i < dependencies.size(); i++) {
+			for (String source : epoch.getSources()) {
+				if (analysis.reaches(dependencies.get(i), source)) {
+					returnValue.set(i);
+					break;
+				}
+			}
+		}
+		return returnValue;
+	}
+}
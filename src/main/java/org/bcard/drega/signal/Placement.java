@@ -0,0 +1,309 @@
+package org.bcard.drega.signal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Decides which {@link SignalHost} a new signal runs in. An update between two
+ * signals in the same host is a method call, between two hosts on different
+ * nodes of a cluster it crosses the network, so signals should run next to
+ * the signals they depend on as long as that doesn't overload one host.
+ * <p>
+ * Signals are placed one at a time as they are deployed, with the linear
+ * deterministic greedy rule for streaming graph partitioning. A host scores
+ * the number of the new signal's dependencies it already runs, scaled down by
+ * how full it is:
+ *
+ * <pre>
+ * score = dependencies on host * (1 - load of host / capacity)
+ * capacity = (total load + 1) / number of hosts * (1 + {@link #SLACK})
+ * </pre>
+ *
+ * The host with the highest score wins, and the least loaded one when no
+ * host runs any of the dependencies. A host already at capacity is only
+ * picked if every host is.
+ * <p>
+ * The load of a signal is its update rate times its fan-out, the number of
+ * deliveries each update costs its host, see {@link #load(double, int)}. Each
+ * host measures the load of its signals and publishes the total in the
+ * {@link #HOSTS_MAP} every {@code placementInterval} milliseconds, along with
+ * the address it creates signals on. The host of every signal is kept in the
+ * {@link #LOCATIONS_MAP}. Both maps are shared by the whole cluster, see
+ * {@link ClusterMaps}, and the dependencies of a signal come from the
+ * {@link GraphRegistry}.
+ *
+ * @author bcard
+ *
+ */
+public class Placement {
+
+	/**
+	 * The name of the map of every host in the cluster, keyed by host ID.
+	 * Values are a {@link JsonObject} with the {@code address} the host
+	 * creates signals on, its {@code load} and the number of {@code signals}
+	 * it runs.
+	 */
+	public static final String HOSTS_MAP = "drega.placement.hosts";
+
+	/**
+	 * The name of the map of the host each signal runs in, keyed by signal
+	 * ID.
+	 */
+	public static final String LOCATIONS_MAP = "drega.placement.locations";
+
+	/**
+	 * How far over an even share of the load a host can go, as a fraction.
+	 */
+	public static final double SLACK = 0.1;
+
+	/**
+	 * The placement built for each vertx instance, for each thread. A
+	 * verticle always runs on the same event loop, so the graphs cached by
+	 * the registry of a placement are kept from one deployment to the next
+	 * without being shared between threads, see {@link GraphRegistry}.
+	 */
+	private static final ThreadLocal<Map<Vertx, Placement>> PLACEMENTS = new ThreadLocal<Map<Vertx, Placement>>() {
+
+		@Override
+		protected Map<Vertx, Placement> initialValue() {
+			return new WeakHashMap<>();
+		}
+	};
+
+	private final ConcurrentMap<String, String> hosts;
+
+	private final ConcurrentMap<String, String> locations;
+
+	private final GraphRegistry registry;
+
+	/**
+	 * Creates a placement backed by the given maps.
+	 *
+	 * @param hosts
+	 *            the hosts in the cluster, see {@link #HOSTS_MAP}
+	 * @param locations
+	 *            the host of every signal, see {@link #LOCATIONS_MAP}
+	 * @param registry
+	 *            the registry the dependencies of placed signals are read
+	 *            from
+	 */
+	public Placement(ConcurrentMap<String, String> hosts, ConcurrentMap<String, String> locations,
+			GraphRegistry registry) {
+		this.hosts = hosts;
+		this.locations = locations;
+		this.registry = registry;
+	}
+
+	/**
+	 * Returns the placement for every host that can see the same cluster, or
+	 * the same JVM when vertx isn't clustered. It is only built the first time
+	 * it is asked for on each thread.
+	 *
+	 * @param vertx
+	 *            the current vertx instance
+	 * @return the placement
+	 */
+	public static Placement of(Vertx vertx) {
+		Map<Vertx, Placement> placements = PLACEMENTS.get();
+		Placement placement = placements.get(vertx);
+		if (placement == null) {
+			ConcurrentMap<String, String> hosts = ClusterMaps.get(vertx, HOSTS_MAP);
+			ConcurrentMap<String, String> locations = ClusterMaps.get(vertx, LOCATIONS_MAP);
+			placement = new Placement(hosts, locations, GraphRegistry.of(vertx));
+			placements.put(vertx, placement);
+		}
+		return placement;
+	}
+
+	/**
+	 * The load a signal puts on its host.
+	 *
+	 * @param rate
+	 *            the number of updates the signal sends per second
+	 * @param fanOut
+	 *            the number of deliveries per update
+	 * @return the rate times the fan-out, each counted as at least 1 so idle
+	 *         signals still spread evenly
+	 */
+	public static double load(double rate, int fanOut) {
+		return Math.max(1, rate) * Math.max(1, fanOut);
+	}
+
+	/**
+	 * Advertises a host, or updates its load.
+	 *
+	 * @param hostId
+	 *            the ID of the host
+	 * @param address
+	 *            the address the host creates signals on
+	 * @param load
+	 *            the total load of the host's signals
+	 * @param signals
+	 *            the number of signals running in the host
+	 */
+	public void putHost(String hostId, String address, double load, int signals) {
+		JsonObject json = new JsonObject();
+		json.putString("address", address);
+		json.putNumber("load", load);
+		json.putNumber("signals", signals);
+		hosts.put(hostId, json.encode());
+	}
+
+	/**
+	 * Removes a host and the locations of its signals.
+	 *
+	 * @param hostId
+	 *            the ID of the host
+	 * @param signals
+	 *            the IDs of the signals it ran
+	 */
+	public void removeHost(String hostId, Iterable<String> signals) {
+		hosts.remove(hostId);
+		for (String signal : signals) {
+			locations.remove(signal, hostId);
+		}
+	}
+
+	/**
+	 * Records the host a signal runs in.
+	 *
+	 * @param signal
+	 *            the ID of the signal
+	 * @param hostId
+	 *            the ID of the host
+	 */
+	public void setLocation(String signal, String hostId) {
+		locations.put(signal, hostId);
+	}
+
+	/**
+	 * @param signal
+	 *            the ID of a signal
+	 * @return the ID of the host it runs in or {@code null} if it isn't
+	 *         running in a host
+	 */
+	public String getLocation(String signal) {
+		return locations.get(signal);
+	}
+
+	/**
+	 * @param hostId
+	 *            the ID of a host
+	 * @return the address the host creates signals on, or {@code null} if
+	 *         there is no such host
+	 */
+	public String getAddress(String hostId) {
+		String host = hosts.get(hostId);
+		return host == null ? null : new JsonObject(host).getString("address");
+	}
+
+	/**
+	 * Picks the host for a new signal.
+	 *
+	 * @param dependencies
+	 *            the IDs of the signal's dependencies
+	 * @return the ID of the host to deploy the signal to, or {@code null} if
+	 *         there are no hosts
+	 */
+	public String choose(List<String> dependencies) {
+		// sorted so ties are broken the same way everywhere
+		Map<String, Double> loads = new TreeMap<>();
+		double total = 1;
+		for (Map.Entry<String, String> host : hosts.entrySet()) {
+			double load = new JsonObject(host.getValue()).getNumber("load").doubleValue();
+			loads.put(host.getKey(), load);
+			total += load;
+		}
+		if (loads.isEmpty()) {
+			return null;
+		}
+		double capacity = total / loads.size() * (1 + SLACK);
+
+		Map<String, Integer> neighbours = new HashMap<>();
+		for (String dependency : dependencies) {
+			String location = locations.get(dependency);
+			if (location != null && loads.containsKey(location)) {
+				Integer count = neighbours.get(location);
+				neighbours.put(location, count == null ? 1 : count + 1);
+			}
+		}
+
+		String best = null;
+		boolean bestFits = false;
+		double bestScore = 0;
+		double bestLoad = 0;
+		for (Map.Entry<String, Double> host : loads.entrySet()) {
+			double load = host.getValue();
+			boolean fits = load < capacity;
+			Integer count = neighbours.get(host.getKey());
+			double score = count == null || !fits ? 0 : count * (1 - load / capacity);
+			if (best == null || (fits && !bestFits) || (fits == bestFits && score > bestScore)
+					|| (fits == bestFits && score == bestScore && load < bestLoad)) {
+				best = host.getKey();
+				bestFits = fits;
+				bestScore = score;
+				bestLoad = load;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Describes the current placement: the load and number of signals of
+	 * every host and the dependencies that cross from one host to another.
+	 *
+	 * @return a {@link JsonObject} with a {@code hosts} object keyed by host
+	 *         ID, the number of {@code edges} between signals in hosts, the
+	 *         number of {@code crossEdges} and a {@code cross} array of the
+	 *         crossing dependencies as {@code "dependency -> signal"}
+	 */
+	public JsonObject report() {
+		JsonObject hostReport = new JsonObject();
+		for (Map.Entry<String, String> host : new TreeMap<>(hosts).entrySet()) {
+			JsonObject json = new JsonObject(host.getValue());
+			json.removeField("address");
+			hostReport.putObject(host.getKey(), json);
+		}
+
+		int edges = 0;
+		List<String> cross = new ArrayList<>();
+		for (Map.Entry<String, String> location : new TreeMap<>(locations).entrySet()) {
+			List<String> dependencies = registry.getDependencies(location.getKey());
+			if (dependencies == null) {
+				continue;
+			}
+			for (String dependency : dependencies) {
+				String dependencyHost = locations.get(dependency);
+				if (dependencyHost == null) {
+					continue;
+				}
+				edges++;
+				if (!dependencyHost.equals(location.getValue())) {
+					cross.add(dependency + " -> " + location.getKey());
+				}
+			}
+		}
+		Collections.sort(cross);
+
+		JsonArray crossArray = new JsonArray();
+		for (String edge : cross) {
+			crossArray.addString(edge);
+		}
+		JsonObject report = new JsonObject();
+		report.putObject("hosts", hostReport);
+		report.putNumber("edges", edges);
+		report.putNumber("crossEdges", cross.size());
+		report.putArray("cross", crossArray);
+		return report;
+	}
+}
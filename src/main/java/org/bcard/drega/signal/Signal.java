@@ -1,15 +1,17 @@
 package org.bcard.drega.signal;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import org.vertx.java.core.Future;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.platform.Verticle;
 
@@ -26,23 +28,54 @@ import org.vertx.java.platform.Verticle;
  * value to the logger
  * <li><b>.print.graph</b> String message, causes the signal to print it's
  * current dependency graph to the logger
- * <li><b>.increment</b> String message, causes the signal to increment it's
- * current value and send an update to all dependent signals
+ * <li><b>.increment</b> message, increments the value of the signal by a
+ * Number body, or by one for anything else
+ * <li><b>.set</b> Number message, sets the value of the signal, see
+ * {@link SetHandler}
  * <li><b>.sendGraph</b> String message, causes this signal to reply with the
  * current {@link SignalGraph} in serialized JSON form
- * <li><b>.block</b> Boolean message, blocks the current signal from sending any
- * more value updates. Dependency graph updates are still sent. Set the message
- * to {@code true} to block this signal, {@code false} to unblock it.
- * <li><b>.glitchAvoidance</b> Boolean message, enables or disables glitch
- * avoidance. Set the message body to {@code true} to enable glitch avoidance.
- * Set to {@code false} to disable glitch avoidance.
+ * <li><b>.get</b> String message, replies with the last published value, see
+ * {@link GetHandler}
+ * <li><b>.block</b> Boolean message, {@code true} stops this signal from
+ * sending value updates, {@code false} lets it send them again. Dependency
+ * graph updates are still sent
+ * <li><b>.glitchAvoidance</b> Boolean message, the same as setting the
+ * consistency level to strict ({@code true}) or eventual ({@code false})
+ * <li><b>.consistency</b> JsonObject message, see {@link ConsistencyHandler}
+ * <li><b>.format</b> String message, see {@link FormatHandler}
+ * <li><b>.distinct</b> Boolean message, see {@link DistinctHandler}
+ * <li><b>.interest</b> JsonObject message, see {@link InterestHandler}
+ * <li><b>.coalesce</b> JsonObject message, see {@link CoalesceHandler}
+ * <li><b>.metrics</b> String message, causes this signal to reply with its
+ * latency histograms as a {@link JsonObject}, see {@link SignalMetrics}
  * </ul>
  * 
+ * Value updates are published on <b>.value</b> as a {@link ValueMessage}.
+ * Signals that combine other signals either apply an {@code operator} or
+ * evaluate an {@code expression}. Source signals also take batches of
+ * updates, see {@link #BATCH_ADDRESS}.
+ * <p>
+ * A signal can be deployed as its own verticle or run alongside many others
+ * inside a {@link SignalHost}, the addresses above are the same either way.
+ * 
  * @author bcard
  * 
  */
 public class Signal extends Verticle {
 
+	/**
+	 * The address signals that aren't in a host, and every host, listen on
+	 * for batches of updates. A batch is a JsonObject with a {@code values}
+	 * object of new values and a {@code deltas} object of amounts to add, both
+	 * keyed by signal ID. A signal named in a batch applies its new value and
+	 * then its delta, and sends a single update for the whole batch. Hosted
+	 * signals are handed their part of a batch by their {@link SignalHost},
+	 * see {@link SignalHost#sendBatch(org.vertx.java.core.Vertx, JsonObject)}.
+	 * A batch with an {@code epoch} field is a transaction, see
+	 * {@link #pendingEpochs}.
+	 */
+	public static final String BATCH_ADDRESS = "signals.batch";
+
 	/**
 	 * The current value tracked by this signal.
 	 */
@@ -53,6 +86,16 @@ public class Signal extends Verticle {
 	 */
 	private String id;
 
+	/**
+	 * The address this signal publishes value updates on.
+	 */
+	private String valueAddress;
+
+	/**
+	 * The config this signal was started with.
+	 */
+	private JsonObject config;
+
 	/**
 	 * A {@link DependencyTracker} that handles this signal's dependencies.
 	 */
@@ -60,9 +103,37 @@ public class Signal extends Verticle {
 
 	/**
 	 * Any values that this signal has received from other signals and the event
-	 * counters for their dependencies.
+	 * counters for their dependencies. {@code null} until the dependency graph
+	 * has been gathered.
+	 */
+	private DependencyValues lastValues;
+
+	/**
+	 * The transactions this signal is part way through receiving, set up
+	 * along with {@link #lastValues}. The updates from the sources of a
+	 * transaction carry its {@link Epoch} downstream and a signal with several
+	 * dependencies waits until every dependency with one of those sources
+	 * upstream has sent its update for the epoch, then computes once. Updates
+	 * that are part of a transaction are never suppressed or coalesced.
+	 */
+	private PendingEpochs pendingEpochs;
+
+	/**
+	 * How long to wait for every update of a transaction before giving up on
+	 * the rest, in milliseconds. Set with the {@code transactionTimeout}
+	 * config field.
 	 */
-	private final Map<SignalGraph, ChainValueMap> lastValues = new HashMap<SignalGraph, ChainValueMap>();
+	private long transactionTimeout = DEFAULT_TRANSACTION_TIMEOUT;
+
+	/**
+	 * The {@link EpochTimeout} timer of each pending transaction, by epoch ID.
+	 */
+	private final Map<String, Long> epochTimers = new HashMap<>();
+
+	/**
+	 * The default for {@link #transactionTimeout}.
+	 */
+	public static final long DEFAULT_TRANSACTION_TIMEOUT = 5000;
 
 	/**
 	 * The {@link CombineOperator} to use to calculate the value to send. May be
@@ -70,6 +141,20 @@ public class Signal extends Verticle {
 	 */
 	private CombineOperator operator;
 
+	/**
+	 * The formula used to calculate the value to send, used instead of
+	 * {@link #operator} when set. May be {@code null}. A signal with an
+	 * expression depends on every variable in it, its {@code dependencies}
+	 * are taken from the expression.
+	 */
+	private Expression expression;
+
+	/**
+	 * Holds the value of the dependency when {@link #expression} only has one
+	 * variable.
+	 */
+	private final long[] argument = new long[1];
+
 	/**
 	 * Whether or not this signal is blocked from sending out value updates.
 	 * {@code true} if it is blocked {@code false} if it is not blocked.
@@ -84,45 +169,348 @@ public class Signal extends Verticle {
 	private int eventCounter = 0;
 
 	/**
-	 * A flag that's used to enable or disable glitch avoidance.
+	 * How glitches are handled, set with the {@code consistency} config field.
+	 * {@link ConsistencyLevel#STRICT} holds values back for as long as it
+	 * takes, {@link ConsistencyLevel#BOUNDED} for at most
+	 * {@link #maxStaleness} before sending a value marked as possibly
+	 * inconsistent, and {@link ConsistencyLevel#EVENTUAL} doesn't check at
+	 * all. Values computed from a possibly inconsistent value are marked as
+	 * well. Every hold is recorded in {@link #metrics}.
+	 */
+	private ConsistencyLevel consistency = ConsistencyLevel.STRICT;
+
+	/**
+	 * How long a {@link ConsistencyLevel#BOUNDED} signal holds a value back,
+	 * in milliseconds.
+	 */
+	private long maxStaleness = DEFAULT_MAX_STALENESS;
+
+	/**
+	 * The default for {@link #maxStaleness}.
+	 */
+	public static final long DEFAULT_MAX_STALENESS = 100;
+
+	/**
+	 * The time glitch avoidance started holding back a value, 0 if nothing
+	 * is held.
+	 */
+	private long heldSince = 0;
+
+	/**
+	 * The timer that ends the hold of a {@link ConsistencyLevel#BOUNDED}
+	 * signal, or {@link #NO_TIMER}.
+	 */
+	private long staleTimer = NO_TIMER;
+
+	/**
+	 * {@code true} if the current value may mix old and new updates.
+	 */
+	private boolean inconsistent = false;
+
+	/**
+	 * {@code true} if the last value published was possibly inconsistent.
+	 */
+	private boolean publishedInconsistent = false;
+
+	/**
+	 * Whether or not updates that don't change the value are suppressed, set
+	 * with the {@code distinct} config field. Unchanged updates are still sent
+	 * while a signal downstream is {@link #interested}.
+	 */
+	private boolean distinct = false;
+
+	/**
+	 * The IDs of the signals downstream that need every update from this
+	 * signal, see {@link InterestHandler}.
+	 */
+	private final Set<String> interested = new HashSet<>();
+
+	/**
+	 * {@code true} if the last update was suppressed.
+	 */
+	private boolean suppressed = false;
+
+	/**
+	 * The chain that came with the last suppressed update, {@code null} if
+	 * that update was an increment.
+	 */
+	private SignalChain suppressedChain;
+
+	/**
+	 * Marks that no coalescing window is open.
+	 */
+	private static final long NO_TIMER = -1;
+
+	/**
+	 * The longest an update is held back to be coalesced with newer ones, in
+	 * milliseconds. 0 turns coalescing off. The first update is sent straight
+	 * away and opens a window of this long. Updates during the window are held
+	 * back and only the newest is sent when the window closes, then a new
+	 * window opens. A window that closes without holding anything back isn't
+	 * reopened, so coalescing only kicks in once updates come faster than one
+	 * per window. The event counter only counts updates that are sent, so
+	 * dependents see one event per batch.
+	 */
+	private long maxDelay = 0;
+
+	/**
+	 * The most updates coalesced into one before it is sent regardless of
+	 * {@link #maxDelay}.
+	 */
+	private int maxBatch = DEFAULT_MAX_BATCH;
+
+	/**
+	 * The default for {@link #maxBatch}.
+	 */
+	public static final int DEFAULT_MAX_BATCH = 100;
+
+	/**
+	 * The timer for the open coalescing window, or {@link #NO_TIMER}.
+	 */
+	private long batchTimer = NO_TIMER;
+
+	/**
+	 * The number of updates held back in the open window.
+	 */
+	private int batchSize = 0;
+
+	/**
+	 * The chain of the newest update held back.
+	 */
+	private SignalChain batchChain;
+
+	/**
+	 * The first sampled trace held back, and when work on it started.
+	 */
+	private Trace batchTrace;
+	private long batchStart;
+
+	/**
+	 * The format used to publish value updates, set with the
+	 * {@code wireFormat} config field.
+	 */
+	private WireFormat wireFormat = WireFormat.BINARY;
+
+	/**
+	 * The format of the copies of each update published for readers that
+	 * asked for the other format with <b>.format</b>, {@code null} if none
+	 * have.
+	 */
+	private WireFormat copyFormat;
+
+	/**
+	 * The glitch collisions in this signal's dependency graph. Calculated once
+	 * per graph, see {@link #getConflicts(SignalGraph)}.
+	 */
+	private ConflictSet conflicts;
+
+	/**
+	 * The height of this signal in its dependency graph, used to order local
+	 * updates, see {@link LocalDispatcher}.
+	 */
+	private int height;
+
+	/**
+	 * {@code true} while this signal is waiting for the {@link SignalHost}
+	 * to finish delivering the updates of the current tick before it
+	 * recomputes.
+	 */
+	private boolean scheduled = false;
+
+	/**
+	 * The last value published by this signal, sent in reply to get requests.
+	 */
+	private long publishedValue;
+
+	/**
+	 * The chain published with {@link #publishedValue}, {@code null} if this
+	 * signal hasn't published anything yet.
+	 */
+	private SignalChain publishedChain;
+
+	/**
+	 * The {@link SignalHost} running this signal, or {@code null} if this
+	 * signal was deployed as its own verticle and registers directly with the
+	 * event bus.
+	 */
+	private SignalHost host;
+
+	/**
+	 * {@code true} if this signal doesn't publish its updates on the event
+	 * bus because only signals in the same host read it. Hosted signals hand
+	 * their updates to dependents in the same host directly. One that just
+	 * passes on the value of another signal in the same host is fused, it
+	 * keeps its value and event counter up to date but doesn't publish until
+	 * something outside of the host reads it with <b>.get</b>. Copies for
+	 * <b>.format</b> are still published.
 	 */
-	private boolean glitchAvoidanceEnabled = true;
+	private boolean fused = false;
 
 	/**
-	 * Used to respond to get requests from other signals.  Stores and resends the last value.
+	 * Stamp every n-th increment with a {@link Trace}, 0 turns tracing off.
+	 * Set with the {@code traceSampleRate} config field on a source signal.
+	 * The trace follows the update downstream and each signal it reaches
+	 * records how long it took to get there in its {@link #metrics}. Updates
+	 * that aren't sampled are not timed at all.
 	 */
-	private ResendHandler resendHandler;
+	private int traceSampleRate = 0;
+
+	/**
+	 * Latencies of the sampled updates that reach this signal.
+	 */
+	private final SignalMetrics metrics = new SignalMetrics();
+
+	/**
+	 * The first sampled update received since the last time the values of
+	 * the dependencies were combined, {@code null} if there isn't one.
+	 */
+	private Trace pendingTrace;
+
+	/**
+	 * The time {@link #pendingTrace} was received.
+	 */
+	private long pendingSince;
 
 	@Override
 	public void start(final Future<Void> startedResult) {
-		JsonObject config = container.config();
+		start(container.config(), null, startedResult);
+	}
+
+	/**
+	 * Starts this signal. Signals deployed as verticles use their container's
+	 * config, signals run by a {@link SignalHost} are handed theirs by the host.
+	 * 
+	 * @param config
+	 *            the config for this signal
+	 * @param host
+	 *            the host running this signal, or {@code null} to register
+	 *            handlers directly on the event bus
+	 * @param startedResult
+	 *            completed once the dependencies have been gathered
+	 */
+	void start(JsonObject config, final SignalHost host, final Future<Void> startedResult) {
+		start(config, host, null, startedResult);
+	}
+
+	/**
+	 * Starts this signal with a dependency graph that is already known, so it
+	 * doesn't have to ask its dependencies for theirs, see
+	 * {@link TopologyImage}.
+	 * 
+	 * @param config
+	 *            the config for this signal
+	 * @param host
+	 *            the host running this signal, or {@code null} to register
+	 *            handlers directly on the event bus
+	 * @param graph
+	 *            the graph of this signal, or {@code null} to gather it from
+	 *            the dependencies
+	 * @param startedResult
+	 *            completed once the dependencies have been gathered
+	 */
+	void start(JsonObject config, final SignalHost host, SignalGraph graph,
+			final Future<Void> startedResult) {
+		this.host = host;
+		this.config = config;
 		id = config.getString("id");
+		valueAddress = "signals." + id + ".value";
 		container.logger().info("Starting Signal " + id);
 
 		if (config.getField("initialValue") != null) {
 			value = config.getLong("initialValue");
 		}
 
+		Journal.Entry recovered = host == null ? null : host.getRecovered(id);
+		if (recovered != null) {
+			// carry on from where we were before the host restarted
+			value = recovered.getValue();
+			eventCounter = recovered.getCounter();
+		}
+
 		if (config.getField("operator") != null) {
 			String name = config.getString("operator");
 			operator = CombineOperator.valueOf(name);
 		}
 
+		if (config.getField("expression") != null) {
+			// the variables of the expression are our dependencies
+			expression = Expression.compile(config.getString("expression"));
+			JsonArray dependencies = new JsonArray();
+			for (String variable : expression.getVariables()) {
+				dependencies.addString(variable);
+			}
+			config = config.copy();
+			config.putArray("dependencies", dependencies);
+		}
+
+		if (config.getField("wireFormat") != null) {
+			wireFormat = WireFormat.fromName(config.getString("wireFormat"));
+		}
+
+		if (config.getField("distinct") != null) {
+			distinct = config.getBoolean("distinct");
+		}
+
+		if (config.getField("maxDelay") != null) {
+			maxDelay = config.getLong("maxDelay");
+		}
+
+		if (config.getField("maxBatch") != null) {
+			maxBatch = config.getInteger("maxBatch");
+		}
+
+		if (config.getField("consistency") != null) {
+			consistency = ConsistencyLevel.fromName(config.getString("consistency"));
+		}
+
+		if (config.getField("maxStaleness") != null) {
+			maxStaleness = config.getLong("maxStaleness");
+		}
+
+		if (config.getField("transactionTimeout") != null) {
+			transactionTimeout = config.getLong("transactionTimeout");
+		}
+
+		if (config.getField("traceSampleRate") != null) {
+			traceSampleRate = config.getInteger("traceSampleRate");
+		}
+
 		tracker = new DependencyTracker(id, config);
-		tracker.gatherDependencies(vertx.eventBus(), new DefaultFutureResult<Void>() {
+		if (host != null) {
+			tracker.setRegistry(host.getRegistry());
+		}
+		tracker.gatherDependencies(vertx.eventBus(), graph, new DefaultFutureResult<Void>() {
 
 			@Override
 			public DefaultFutureResult<Void> setResult(Void result) {
+				// the graph won't change from here on so work out where
+				// glitches can occur up front
+				lastValues = new DependencyValues(getConflicts(tracker.getGraph()));
+				height = conflicts.getAnalysis().getHeight();
+				pendingEpochs = new PendingEpochs(conflicts);
+
 				// now that all of our dependencies have been calculated we
 				// should be able to subscribe for updates
 
-				for (SignalGraph dep : tracker.getDependencies()) {
+				for (String upstream : conflicts.getAnalysis().getInterest()) {
+					// we need the counters that come through these even
+					// when their values don't change
+					sendInterest(upstream, true);
+				}
+
+				List<SignalGraph> dependencies = tracker.getDependencies();
+				for (int i = 0; i < dependencies.size(); i++) {
+					SignalGraph dep = dependencies.get(i);
 					DependencyUpdateHandler handler = new DependencyUpdateHandler("signals." + dep.getId()
-							+ ".value", dep);
-					handler.apply(vertx.eventBus());
-					// request updates from our dependencies so we can have a
-					// good initial value
-					vertx.eventBus().send("signals." + dep.getId() + ".get", "");
+							+ ".value", i);
+					if (host == null) {
+						register(handler);
+						// ask our dependency for its current value so we can
+						// have a good initial value
+						vertx.eventBus().send("signals." + dep.getId() + ".get", "", handler);
+					} else {
+						host.subscribe(dep.getId(), handler);
+					}
 				}
 
 				startedResult.setResult(result);
@@ -136,18 +524,141 @@ public class Signal extends Verticle {
 		IncrementHandler incrementer = new IncrementHandler("signals." + id + ".increment");
 		GraphHandler grapher = new GraphHandler("signals." + id + ".sendGraph");
 		BlockHandler blocker = new BlockHandler("signals." + id + ".block");
-		resendHandler = new ResendHandler("signals." + id + ".get");
+		GetHandler getter = new GetHandler("signals." + id + ".get");
 		GlitchAvoidanceHandler glitchHandler = new GlitchAvoidanceHandler("signals." + id
 				+ ".glitchAvoidance");
+		FormatHandler formatHandler = new FormatHandler("signals." + id + ".format");
+		DistinctHandler distinctHandler = new DistinctHandler("signals." + id + ".distinct");
+		InterestHandler interestHandler = new InterestHandler("signals." + id + ".interest");
+		ConsistencyHandler consistencyHandler = new ConsistencyHandler("signals." + id + ".consistency");
+		SetHandler setter = new SetHandler("signals." + id + ".set");
+		CoalesceHandler coalesceHandler = new CoalesceHandler("signals." + id + ".coalesce");
+		MetricsHandler metricsHandler = new MetricsHandler("signals." + id + ".metrics");
+
+		// other signals use these
+		register(getter);
+		register(grapher);
+		register(interestHandler);
+		if (host == null) {
+			// a host takes batches for all of its signals at once
+			new BatchHandler(BATCH_ADDRESS).apply(vertx.eventBus());
+		}
+
+		registerOnDemand(incrementer);
+		registerOnDemand(setter);
+		registerOnDemand(printer);
+		registerOnDemand(printGraph);
+		registerOnDemand(blocker);
+		registerOnDemand(glitchHandler);
+		registerOnDemand(formatHandler);
+		registerOnDemand(distinctHandler);
+		registerOnDemand(consistencyHandler);
+		registerOnDemand(coalesceHandler);
+		registerOnDemand(metricsHandler);
+		publishedValue = value;
+	}
+
+	/**
+	 * @return the config this signal was started with
+	 */
+	JsonObject getConfig() {
+		return config;
+	}
+
+	/**
+	 * @return the dependency graph of this signal, {@code null} until its
+	 *         dependencies have been gathered
+	 */
+	SignalGraph getGraph() {
+		return tracker == null ? null : tracker.getGraph();
+	}
+
+	/**
+	 * @return the number of updates this signal has sent
+	 */
+	int getEventCounter() {
+		return eventCounter;
+	}
+
+	/**
+	 * @return the ID of this signal
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return {@code true} if this signal forwards the value of its only
+	 *         dependency without changing it
+	 */
+	boolean isPassThrough() {
+		return tracker.getNumberOfDependencies() == 1 && expression == null;
+	}
+
+	/**
+	 * @return {@code true} if this signal isn't publishing its updates on the
+	 *         event bus
+	 */
+	boolean isFused() {
+		return fused;
+	}
+
+	/**
+	 * Stops this signal from publishing its updates on the event bus, called
+	 * by the host for pass-through signals that are only read by other
+	 * signals in the host.
+	 */
+	void fuse() {
+		fused = true;
+	}
+
+	/**
+	 * Called when something outside of the host reads this signal, from here
+	 * on its updates are published.
+	 */
+	private void unfuse() {
+		if (fused) {
+			fused = false;
+			container.logger().info(id + " has a reader outside of its host, publishing updates");
+		}
+	}
+
+	/**
+	 * @return the latencies of the sampled updates that reached this signal
+	 */
+	SignalMetrics getMetrics() {
+		return metrics;
+	}
 
-		incrementer.apply(vertx.eventBus());
-		printer.apply(vertx.eventBus());
-		grapher.apply(vertx.eventBus());
-		printGraph.apply(vertx.eventBus());
-		blocker.apply(vertx.eventBus());
-		resendHandler.apply(vertx.eventBus());
-		glitchHandler.apply(vertx.eventBus());
-		resendHandler.setLastValue(value, null);
+	/**
+	 * Registers a handler with the host running this signal or with the event
+	 * bus if there is no host.
+	 * 
+	 * @param handler
+	 *            the handler to register
+	 */
+	private void register(HandlerApplicator<?> handler) {
+		if (host == null) {
+			handler.apply(vertx.eventBus());
+		} else {
+			handler.apply(host);
+		}
+	}
+
+	/**
+	 * Registers a handler that only has to be on the event bus once something
+	 * outside of the host asks for it, see
+	 * {@link SignalHost#open(org.vertx.java.core.Vertx, String, Handler)}.
+	 * 
+	 * @param handler
+	 *            the handler to register
+	 */
+	private void registerOnDemand(HandlerApplicator<?> handler) {
+		if (host == null) {
+			handler.apply(vertx.eventBus());
+		} else {
+			handler.apply(host.onDemand(id));
+		}
 	}
 
 	private class PrintHandler extends HandlerApplicator<String> {
@@ -158,7 +669,7 @@ public class Signal extends Verticle {
 
 		@Override
 		public void handle(Message<String> event) {
-			container.logger().info(id + ": " + value);
+			printValue();
 		}
 	}
 
@@ -174,22 +685,113 @@ public class Signal extends Verticle {
 		}
 	}
 
-	private class IncrementHandler extends HandlerApplicator<String> {
+	/**
+	 * Sets the value of this signal from outside of the graph.
+	 * 
+	 * @param newValue
+	 *            the new value
+	 * @param epochs
+	 *            the transaction the update is part of, or {@code null}
+	 * @return {@code false} if this signal has dependencies, its value can't
+	 *         be set
+	 */
+	private boolean setSourceValue(long newValue, List<Epoch> epochs) {
+		if (!tracker.getGraph().getDependentSignals().isEmpty()) {
+			container.logger().info("Cannot change the value of " + id + ", it has dependencies");
+			return false;
+		}
+		Trace trace = null;
+		long start = 0;
+		if (traceSampleRate > 0 && (eventCounter + 1) % traceSampleRate == 0) {
+			start = System.nanoTime();
+			trace = Trace.start(id, start);
+		}
+		updateValue(newValue, null, trace, start, epochs, false);
+		return true;
+	}
+
+	private class IncrementHandler extends HandlerApplicator<Object> {
 
 		public IncrementHandler(String address) {
 			super(address);
 		}
 
 		@Override
-		public void handle(Message<String> event) {
-			if (!tracker.getGraph().getDependentSignals().isEmpty()) {
-				container.logger().info("Cannot increment a signal with dependencies");
+		public void handle(Message<Object> event) {
+			Object body = event.body();
+			long delta = body instanceof Number ? ((Number) body).longValue() : 1;
+			setSourceValue(value + delta, null);
+		}
+	}
+
+	/**
+	 * Sets the value of the signal and sends an update to all dependent
+	 * signals. Replies with the ID of the signal, or fails the message if the
+	 * signal has dependencies.
+	 */
+	private class SetHandler extends HandlerApplicator<Number> {
+
+		public SetHandler(String address) {
+			super(address);
+		}
+
+		@Override
+		public void handle(Message<Number> event) {
+			if (setSourceValue(event.body().longValue(), null)) {
+				event.reply(id);
 			} else {
-				updateValue(value + 1, null);
+				event.fail(0, id + " has dependencies");
 			}
 		}
 	}
 
+	private class BatchHandler extends HandlerApplicator<JsonObject> {
+
+		public BatchHandler(String address) {
+			super(address);
+		}
+
+		@Override
+		public void handle(Message<JsonObject> event) {
+			applyBatch(event.body(), batchEpochs(event.body()));
+		}
+	}
+
+	/**
+	 * Applies this signal's part of a batch, see {@link #BATCH_ADDRESS}.
+	 * 
+	 * @param batch
+	 *            the batch
+	 * @param epochs
+	 *            the transaction the batch is part of, see
+	 *            {@link #batchEpochs(JsonObject)}
+	 */
+	void applyBatch(JsonObject batch, List<Epoch> epochs) {
+		JsonObject values = batch.getObject("values");
+		JsonObject deltas = batch.getObject("deltas");
+		Number newValue = values == null ? null : values.<Number> getField(id);
+		Number delta = deltas == null ? null : deltas.<Number> getField(id);
+		if (newValue == null && delta == null) {
+			return;
+		}
+		long result = newValue == null ? value : newValue.longValue();
+		if (delta != null) {
+			result += delta.longValue();
+		}
+		setSourceValue(result, epochs);
+	}
+
+	/**
+	 * @param batch
+	 *            a batch of updates, see {@link #BATCH_ADDRESS}
+	 * @return the transaction the batch is part of, {@code null} if it isn't
+	 *         a transaction
+	 */
+	static List<Epoch> batchEpochs(JsonObject batch) {
+		JsonObject epoch = batch.getObject("epoch");
+		return epoch == null ? null : Collections.singletonList(Epoch.fromJson(epoch));
+	}
+
 	private class GraphHandler extends HandlerApplicator<String> {
 
 		public GraphHandler(String address) {
@@ -230,177 +832,586 @@ public class Signal extends Verticle {
 		public void handle(Message<Boolean> event) {
 			String msg = event.body() ? "enabled" : "disabled";
 			container.logger().info("Glitch avoidance " + msg + " on " + id);
-			glitchAvoidanceEnabled = event.body();
+			setConsistency(event.body() ? ConsistencyLevel.STRICT : ConsistencyLevel.EVENTUAL);
 		}
 	}
 
-	private class ResendHandler extends HandlerApplicator<String> {
+	/**
+	 * Changes the {@link #consistency} of the signal. The message has a
+	 * {@code level} field naming a {@link ConsistencyLevel}, and an optional
+	 * {@code maxStaleness} field for the bounded level.
+	 */
+	private class ConsistencyHandler extends HandlerApplicator<JsonObject> {
 
-		private Long result;
-		private SignalChain chain;
+		public ConsistencyHandler(String address) {
+			super(address);
+		}
+
+		@Override
+		public void handle(Message<JsonObject> event) {
+			ConsistencyLevel level;
+			try {
+				level = ConsistencyLevel.fromName(event.body().getString("level", ""));
+			} catch (IllegalArgumentException e) {
+				container.logger().error("Unknown consistency level " + event.body().getString("level"));
+				return;
+			}
+			maxStaleness = event.body().getLong("maxStaleness", DEFAULT_MAX_STALENESS);
+			if (level == ConsistencyLevel.BOUNDED) {
+				container.logger().info(id + " holds values back for at most " + maxStaleness + "ms");
+			} else {
+				container.logger().info(id + " consistency is " + level.name().toLowerCase());
+			}
+			setConsistency(level);
+		}
+	}
+
+	/**
+	 * Turns {@link #distinct change suppression} on or off.
+	 */
+	private class DistinctHandler extends HandlerApplicator<Boolean> {
+
+		public DistinctHandler(String address) {
+			super(address);
+		}
+
+		@Override
+		public void handle(Message<Boolean> event) {
+			String msg = event.body() ? "enabled" : "disabled";
+			container.logger().info("Change suppression " + msg + " on " + id);
+			distinct = event.body();
+		}
+	}
+
+	/**
+	 * Sets up update coalescing. The message has a {@link #maxDelay} and a
+	 * {@link #maxBatch} field, a {@code maxDelay} of 0 turns coalescing off and
+	 * sends anything held back.
+	 */
+	private class CoalesceHandler extends HandlerApplicator<JsonObject> {
+
+		public CoalesceHandler(String address) {
+			super(address);
+		}
+
+		@Override
+		public void handle(Message<JsonObject> event) {
+			maxDelay = event.body().getLong("maxDelay", 0);
+			maxBatch = event.body().getInteger("maxBatch", DEFAULT_MAX_BATCH);
+			if (maxDelay > 0) {
+				container.logger().info(id + " coalesces updates for up to " + maxDelay + "ms or "
+						+ maxBatch + " updates");
+			} else {
+				container.logger().info(id + " sends every update");
+				if (batchTimer != NO_TIMER) {
+					vertx.cancelTimer(batchTimer);
+					batchTimer = NO_TIMER;
+				}
+				flushBatch();
+			}
+		}
+	}
+
+	/**
+	 * Tells this signal whether a signal downstream needs its event counters
+	 * even when its value doesn't change. The message has the {@code id} of
+	 * the signal downstream and an {@code interested} flag.
+	 * <p>
+	 * A signal with two paths back to the same ancestor compares the event
+	 * counters that come down each path to avoid glitches, so it can't wait
+	 * on a dependency that has stopped sending because its value didn't
+	 * change. Such signals register interest with the signals between the
+	 * fork and themselves when they start, see
+	 * {@link GraphAnalysis#getInterest()}, and withdraw it when they stop.
+	 */
+	private class InterestHandler extends HandlerApplicator<JsonObject> {
+
+		public InterestHandler(String address) {
+			super(address);
+		}
+
+		@Override
+		public void handle(Message<JsonObject> event) {
+			setInterest(event.body().getString("id"), event.body().getBoolean("interested", true));
+		}
+	}
+
+	/**
+	 * Tells a signal upstream whether this signal needs all of its updates,
+	 * see {@link GraphAnalysis#getInterest()}. Signals in the same host are
+	 * told directly.
+	 * 
+	 * @param upstream
+	 *            the ID of the signal upstream
+	 * @param interest
+	 *            {@code true} to ask for every update, {@code false} to stop
+	 *            asking
+	 */
+	private void sendInterest(String upstream, boolean interest) {
+		Signal local = host == null ? null : host.getSignal(upstream);
+		if (local != null) {
+			local.setInterest(id, interest);
+		} else {
+			JsonObject msg = new JsonObject();
+			msg.putString("id", id);
+			msg.putBoolean("interested", interest);
+			vertx.eventBus().send("signals." + upstream + ".interest", msg);
+		}
+	}
+
+	/**
+	 * Called when a signal downstream starts or stops needing every update
+	 * from this signal. If an update was just suppressed it is sent as soon
+	 * as someone is interested, so the new reader isn't left waiting.
+	 * 
+	 * @param dependent
+	 *            the ID of the signal downstream
+	 * @param interest
+	 *            {@code true} if it needs every update
+	 */
+	void setInterest(String dependent, boolean interest) {
+		if (!interest) {
+			interested.remove(dependent);
+		} else if (interested.add(dependent) && suppressed) {
+			updateValue(value, suppressedChain, null, 0, null, inconsistent);
+		}
+	}
+
+	/**
+	 * @return {@code true} if a signal downstream needs every update from
+	 *         this signal
+	 */
+	boolean isInterested() {
+		return !interested.isEmpty();
+	}
+
+	/**
+	 * Withdraws the interest this signal registered upstream, so those
+	 * signals can go back to suppressing unchanged updates, and cancels the
+	 * timers of any transactions still waiting on updates.
+	 */
+	@Override
+	public void stop() {
+		if (lastValues != null) {
+			for (String upstream : conflicts.getAnalysis().getInterest()) {
+				sendInterest(upstream, false);
+			}
+		}
+		for (Long timer : epochTimers.values()) {
+			vertx.cancelTimer(timer);
+		}
+		epochTimers.clear();
+	}
+
+	/**
+	 * Replies with the address updates are published on in the
+	 * {@link WireFormat} named by the message. That is <b>.value</b> for the
+	 * signal's own format. For the other format the signal starts publishing
+	 * a copy of every update on <b>.value.[format]</b>, like
+	 * {@code signals.x.value.json}, so clients that can only read JSON don't
+	 * change what everyone else on <b>.value</b> receives.
+	 */
+	private class FormatHandler extends HandlerApplicator<String> {
 
-		public ResendHandler(String address) {
+		public FormatHandler(String address) {
 			super(address);
 		}
 
 		@Override
 		public void handle(Message<String> event) {
-			if (result != null) {
-				updateValue(result, chain);
+			WireFormat format;
+			try {
+				format = WireFormat.fromName(event.body());
+			} catch (IllegalArgumentException e) {
+				container.logger().error("Unknown wire format " + event.body());
+				event.fail(1, "Unknown wire format " + event.body());
+				return;
 			}
+			if (format == wireFormat) {
+				event.reply(valueAddress);
+				return;
+			}
+			if (copyFormat == null) {
+				copyFormat = format;
+				container.logger().info(id + " is also publishing " + format + " updates");
+			}
+			event.reply(copyAddress());
 		}
+	}
 
-		/**
-		 * Sets the last value that was sent by this signal. If other signals
-		 * ask for a resend then this value and signal chain will be submitted.
-		 * 
-		 * @param result
-		 *            the last result that was sent
-		 * @param chain
-		 *            the last chain that was sent
-		 */
-		public void setLastValue(Long result, SignalChain chain) {
-			this.result = result;
-			this.chain = chain;
+	private class MetricsHandler extends HandlerApplicator<String> {
+
+		public MetricsHandler(String address) {
+			super(address);
+		}
+
+		@Override
+		public void handle(Message<String> event) {
+			JsonObject reply = metrics.toJson();
+			reply.putString("id", id);
+			reply.putNumber("traceSampleRate", traceSampleRate);
+			reply.putString("consistency", consistency.name());
+			event.reply(reply);
+		}
+	}
+
+	/**
+	 * Replies with the last published value as a {@link ValueMessage}. Only
+	 * the sender gets the value, nothing is published and the event counter
+	 * is not changed. The message can name the {@link WireFormat} of the
+	 * reply, otherwise the signal's own format is used.
+	 */
+	private class GetHandler extends HandlerApplicator<String> {
+
+		public GetHandler(String address) {
+			super(address);
 		}
 
+		@Override
+		public void handle(Message<String> event) {
+			// local dependents never ask, only readers outside of the host
+			unfuse();
+			WireFormat format = wireFormat;
+			String body = event.body();
+			if (body != null && !body.trim().isEmpty()) {
+				try {
+					format = WireFormat.fromName(body);
+				} catch (IllegalArgumentException e) {
+					// not a format, reply in our own
+				}
+			}
+			ValueMessage current = getCurrentValue();
+			if (format == WireFormat.BINARY) {
+				event.reply(current.toBuffer());
+			} else {
+				event.reply(current.toJsonObject());
+			}
+		}
+	}
+
+	/**
+	 * Returns the last value this signal published along with its chain. If
+	 * nothing has been published yet the chain holds this signal's event
+	 * counter if it is a source and is empty otherwise. This doesn't change
+	 * the event counter so it can be sent to a new subscriber without
+	 * disturbing the existing ones.
+	 * 
+	 * @return the current value of this signal
+	 */
+	ValueMessage getCurrentValue() {
+		SignalChain chain = publishedChain;
+		if (chain == null) {
+			chain = tracker.getGraph() == null || tracker.getNumberOfDependencies() > 0 ? new SignalChain()
+					: new SignalChain(tracker.getGraph(), eventCounter);
+		}
+		return new ValueMessage(publishedValue, chain, null, null, publishedInconsistent);
 	}
 
 	/**
 	 * Tracks update for a single dependency. This class will listen on a
 	 * dependency's publish channel for updates and record the values as they
 	 * are received. This class is where most of the glitch avoidance logic is
-	 * performed. The {@link SignalChain}s for the events are processed and
-	 * compared to the chains of other update to look for glitches. If a glitch
-	 * is detected and glitch avoidance is on then no updates are sent.
+	 * performed. The {@link SignalChain}s for the events are recorded in
+	 * {@link DependencyValues} and compared to the chains of other updates to
+	 * look for glitches. If a glitch is detected and glitch avoidance is on
+	 * then no updates are sent.
+	 * <p>
+	 * Updates from signals in the same {@link SignalHost} are delivered in
+	 * height order. They are recorded as they arrive and the value is only
+	 * recomputed once the tick has delivered everything below this signal, so
+	 * a local dependency graph doesn't produce glitches to hold back.
 	 * 
 	 * @author bcard
 	 * 
 	 */
-	/* protected for testing */class DependencyUpdateHandler extends HandlerApplicator<JsonObject> {
+	/* protected for testing */class DependencyUpdateHandler extends HandlerApplicator<Object> implements
+			LocalDispatcher.Receiver {
 
-		private final SignalGraph symbol;
+		/**
+		 * The index of the dependency, in the order they are declared.
+		 */
+		private final int dependency;
 
-		public DependencyUpdateHandler(String address, SignalGraph symbol) {
+		public DependencyUpdateHandler(String address, int dependency) {
 			super(address);
-			this.symbol = symbol;
+			this.dependency = dependency;
+		}
+
+		/**
+		 * @return the signal this handler updates
+		 */
+		Signal getSignal() {
+			return Signal.this;
 		}
 
 		@Override
-		public void handle(Message<JsonObject> event) {
-			JsonObject obj = event.body();
-			Long newValue = obj.getLong("value");
-			SignalChain chain = SignalChain.fromJson(obj.getObject("chain").toString());
+		public void handle(Message<Object> event) {
+			ValueMessage update;
+			try {
+				update = ValueMessage.decode(event.body());
+			} catch (IllegalArgumentException e) {
+				container.logger().error("Ignoring bad update for " + id + ": " + e.getMessage());
+				return;
+			}
+			receive(update.getValue(), update.getChain(), update.getTrace(), update.getEpochs(),
+					update.isInconsistent(), false);
+		}
+
+		/**
+		 * Receives an update directly from a signal running in the same
+		 * {@link SignalHost}. The chain is shared with the sender's other
+		 * dependents, which is safe because only sources create chains and
+		 * nothing modifies one once it has been sent.
+		 * 
+		 * @param newValue
+		 *            the new value of the dependency
+		 * @param chain
+		 *            the event counters that came with the value, must not be
+		 *            modified
+		 * @param trace
+		 *            the timing of the update, {@code null} if it isn't
+		 *            sampled
+		 * @param epochs
+		 *            the transactions the update completes, {@code null} if
+		 *            it isn't part of one
+		 * @param stale
+		 *            {@code true} if the value is possibly inconsistent
+		 */
+		@Override
+		public void receiveLocal(long newValue, SignalChain chain, Trace trace, List<Epoch> epochs,
+				boolean stale) {
+			receive(newValue, chain, trace, epochs, stale, true);
+		}
+
+		@Override
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public void propagate() {
+			scheduled = false;
+			recompute();
+		}
+
+		private void receive(long newValue, SignalChain chain, Trace trace, List<Epoch> epochs,
+				boolean stale, boolean local) {
 			// enable this line to see the message passing output
 			// container.logger().info(chain.getLast()+"->"+id+" value:"+newValue+" chain:"+chain);
-			ChainValueMap valueMap;
-			if (lastValues.containsKey(symbol)) {
-				valueMap = lastValues.get(symbol);
-			} else {
-				valueMap = new ChainValueMap();
-				lastValues.put(symbol, valueMap);
-			}
 
-			valueMap.merge(chain);
-			valueMap.value = newValue;
+			long received = 0;
+			if (trace != null) {
+				received = System.nanoTime();
+				metrics.recordReceived(trace, received);
+			}
 
 			if (tracker.getNumberOfDependencies() == 1) {
-				updateValue(newValue, chain);
+				if (expression != null) {
+					argument[0] = newValue;
+					try {
+						newValue = expression.evaluate(argument);
+					} catch (ArithmeticException e) {
+						logEvaluationError(e);
+						return;
+					}
+				}
+				updateValue(newValue, chain, trace, received, epochs, stale);
 				return;
 			}
 
-			if (lastValues.size() == tracker.getNumberOfDependencies()) {
-				// we've received an update from each dependency so
-				// we should be clear to calculate the value if there
-				// are no glitches.
+			if (lastValues == null) {
+				// still gathering the dependency graph
+				return;
+			}
 
-				if (!glitchAvoidanceEnabled || !checkForGlitches(tracker.getGraph(), lastValues)) {
-					List<SignalGraph> graphs = tracker.getDependencies();
-					Long[] args = new Long[tracker.getNumberOfDependencies()];
-					for (int i = 0; i < tracker.getNumberOfDependencies(); i++) {
-						SignalGraph currentGraph = graphs.get(i);
-						args[i] = lastValues.get(currentGraph).value;
-					}
+			lastValues.update(dependency, newValue, chain, stale);
+			if (trace != null && pendingTrace == null) {
+				pendingTrace = trace;
+				pendingSince = received;
+			}
 
-					// just two values for now
-					Long result = operator.call(args[0], args[1]);
-					SignalChain allUpdates = new SignalChain();
-					for (ChainValueMap map : lastValues.values()) {
-						for (Entry<String, Integer> entry : map.counterMap.entrySet()) {
-							allUpdates.chain(new SignalGraph(entry.getKey()), entry.getValue());
-						}
+			if (epochs != null) {
+				for (int i = 0; i < epochs.size(); i++) {
+					Epoch epoch = epochs.get(i);
+					if (pendingEpochs.received(dependency, epoch)) {
+						long timer = vertx.setTimer(transactionTimeout, new EpochTimeout(epoch.getId()));
+						epochTimers.put(epoch.getId(), timer);
 					}
+				}
+			}
 
-					updateValue(result, allUpdates);
+			if (!local) {
+				recompute();
+			} else if (!scheduled) {
+				// wait for the rest of the tick
+				scheduled = true;
+				host.schedule(this);
+			}
+		}
+	}
+
+	/**
+	 * Combines the values of the dependencies and sends the result on, unless
+	 * a dependency hasn't sent a value yet, there is a glitch or a
+	 * transaction is still waiting on some of its updates. A glitch holds the
+	 * value back according to the {@link ConsistencyLevel} of this signal.
+	 */
+	private void recompute() {
+		if (lastValues.hasAllValues() && pendingEpochs.isComplete()) {
+			// we've received an update from each dependency so
+			// we should be clear to calculate the value if there
+			// are no glitches.
+
+			if (consistency != ConsistencyLevel.EVENTUAL && lastValues.hasGlitch()) {
+				if (heldSince == 0) {
+					heldSince = System.nanoTime();
+					if (consistency == ConsistencyLevel.BOUNDED) {
+						staleTimer = vertx.setTimer(maxStaleness, new StalenessTimeout());
+					}
+				} else if (consistency == ConsistencyLevel.BOUNDED && staleTimer == NO_TIMER) {
+					// held back for long enough already
+					compute(true);
 				}
+				return;
 			}
+			compute(false);
 		}
 	}
 
 	/**
-	 * Checks for glitches. Returns {@code true} if a glitch is detected,
-	 * {@code false} if there are no glitches and the values are ok to update.
+	 * Combines the values of the dependencies and sends the result on.
 	 * 
-	 * @param graph
-	 *            the dependency graph for this signal
-	 * @param lastUpdates
-	 *            the recorded values for each dependent signal
-	 * @return {@code true} if there are glitches, {@code false} if there are
-	 *         not
-	 */
-	private boolean checkForGlitches(SignalGraph graph, Map<SignalGraph, ChainValueMap> lastUpdates) {
-		List<SignalChain> allPaths = graph.allPaths();
-		Set<String> collisions = new HashSet<>();
-		for (SignalChain chain1 : allPaths) {
-			for (SignalChain chain2 : allPaths) {
-				if (!chain1.equals(chain2) && !chain1.getConflicts(chain2).isEmpty()) {
-					// candidate for a collision, we still need to check to see
-					// if the _next_
-					// signal in the chain is different
-					collisions.addAll(chain1.getConflicts(chain2));
+	 * @param forced
+	 *            {@code true} if the value is sent even though there is a
+	 *            glitch
+	 */
+	private void compute(boolean forced) {
+		if (heldSince != 0) {
+			metrics.recordHeld(System.nanoTime() - heldSince, forced);
+			heldSince = 0;
+			if (staleTimer != NO_TIMER) {
+				vertx.cancelTimer(staleTimer);
+				staleTimer = NO_TIMER;
+			}
+		}
+		Trace sampled = pendingTrace;
+		long start = 0;
+		if (sampled != null) {
+			start = System.nanoTime();
+			metrics.recordGlitchWait(start - pendingSince);
+			pendingTrace = null;
+		}
+		List<Epoch> epochs = pendingEpochs.drain();
+		if (epochs != null) {
+			for (int i = 0; i < epochs.size(); i++) {
+				Long timer = epochTimers.remove(epochs.get(i).getId());
+				if (timer != null) {
+					vertx.cancelTimer(timer);
 				}
 			}
 		}
+		long result;
+		try {
+			result = expression != null ? lastValues.evaluate(expression) : lastValues.combine(operator);
+		} catch (ArithmeticException e) {
+			logEvaluationError(e);
+			return;
+		}
+		updateValue(result, lastValues.mergeChains(), sampled, start, epochs, forced
+				|| lastValues.isInconsistent());
+	}
 
-		// Need to track counters from each signal. Once we have that then we
-		// should
-		// be able to take our conflicts, search through all of our chains that
-		// we've
-		// received and make sure that the numbers for the conflicts line up for
-		// all events. If some number doesn't match, then we have an issue and
-		// need
-		// to hold off until other updates are received.
-
-		boolean returnValue = false;
-		Map<String, Integer> counterMap = new HashMap<>();
-		for (Entry<SignalGraph, ChainValueMap> entry : lastUpdates.entrySet()) {
-			for (String collision : collisions) {
-				SignalGraph depGraph = entry.getKey();
-				if (depGraph.containsId(collision)) {
-					// make sure we have an update for this collision
-					// otherwise we can't trust the last update value
-
-					ChainValueMap map = entry.getValue();
-					Integer counter = map.get(collision);
-					if (counter == null) {
-						// missing an update, this is a glitch!
-						returnValue = true;
-					} else {
-						// from here we need to verify that the counter
-						// is the same as any other occurrence of that collision
-						if (!counterMap.containsKey(collision)) {
-							counterMap.put(collision, counter);
-						} else {
-							// counter must line up
-							int existing = counterMap.get(collision);
-							returnValue |= existing != counter;
-						}
-					}
-				}
+	/**
+	 * Changes how glitches are handled. A value that is being held back is
+	 * looked at again under the new level.
+	 */
+	private void setConsistency(ConsistencyLevel level) {
+		consistency = level;
+		if (staleTimer != NO_TIMER) {
+			vertx.cancelTimer(staleTimer);
+			staleTimer = NO_TIMER;
+		}
+		if (heldSince != 0) {
+			if (level == ConsistencyLevel.BOUNDED) {
+				staleTimer = vertx.setTimer(maxStaleness, new StalenessTimeout());
 			}
+			recompute();
 		}
+	}
 
-		return returnValue;
+	/**
+	 * Ends the wait of a {@link ConsistencyLevel#BOUNDED} signal that has
+	 * held a value back for {@link #maxStaleness} milliseconds. The value is
+	 * sent as soon as there is one to send, marked as possibly inconsistent
+	 * if the glitch is still there.
+	 */
+	private class StalenessTimeout implements Handler<Long> {
+
+		@Override
+		public void handle(Long timerId) {
+			if (staleTimer != timerId) {
+				return;
+			}
+			staleTimer = NO_TIMER;
+			recompute();
+		}
+	}
+
+	/**
+	 * Gives up waiting for the rest of a transaction's updates. Updates can
+	 * go missing if a signal upstream is blocked, or isn't a source signal but
+	 * was named in the transaction anyway.
+	 */
+	private class EpochTimeout implements Handler<Long> {
+
+		private final String epoch;
+
+		public EpochTimeout(String epoch) {
+			this.epoch = epoch;
+		}
+
+		@Override
+		public void handle(Long timerId) {
+			epochTimers.remove(epoch);
+			if (pendingEpochs.abandon(epoch)) {
+				container.logger().error(id + " gave up waiting for all of transaction " + epoch);
+				recompute();
+			}
+		}
+	}
+
+	/**
+	 * Returns the {@link ConflictSet} for the given graph, calculating it only
+	 * if the graph has changed since the last time it was requested.
+	 * 
+	 * @param graph
+	 *            the dependency graph for this signal
+	 * @return the conflicts in the graph
+	 */
+	private ConflictSet getConflicts(SignalGraph graph) {
+		if (conflicts == null || conflicts.getGraph() != graph) {
+			conflicts = ConflictSet.of(graph);
+		}
+		return conflicts;
+	}
+
+	/**
+	 * Logs an expression that couldn't be evaluated. The signal keeps its
+	 * current value until the next update.
+	 */
+	private void logEvaluationError(ArithmeticException e) {
+		container.logger().error("Cannot evaluate " + id + " = " + expression + ": " + e.getMessage());
+	}
+
+	/**
+	 * Logs the current value of this signal.
+	 */
+	private void printValue() {
+		if (inconsistent) {
+			container.logger().info(id + ": " + value + " (possibly inconsistent)");
+		} else {
+			container.logger().info(id + ": " + value);
+		}
 	}
 
 	/**
@@ -413,70 +1424,153 @@ public class Signal extends Verticle {
 	 *            list of current event counters known to this signal. This list
 	 *            is updated with the current signal's event counter before
 	 *            being published.
+	 * @param trace
+	 *            the timing of a sampled update, this signal adds its own hop
+	 *            before sending it on. {@code null} if the update isn't sampled
+	 * @param computeStart
+	 *            the time this signal started working on a sampled update
+	 * @param epochs
+	 *            the transactions the update completes, {@code null} if it
+	 *            isn't part of one. These updates are always sent right away
+	 *            since signals downstream are waiting on them
+	 * @param stale
+	 *            {@code true} if the new value is possibly inconsistent
 	 */
-	private void updateValue(long newValue, SignalChain chain) {
+	private void updateValue(long newValue, SignalChain chain, Trace trace, long computeStart,
+			List<Epoch> epochs, boolean stale) {
+		boolean unchanged = newValue == value && stale == inconsistent && publishedChain != null;
 		value = newValue;
-		new PrintHandler(null).handle(null);
+		inconsistent = stale;
+		printValue();
 		if (!blocked && tracker.getGraph() != null) {
-			eventCounter++;
-			if (chain == null) {
-				chain = new SignalChain(tracker.getGraph(), eventCounter);
-			} else {
-				chain.chain(tracker.getGraph(), eventCounter);
+			if (distinct && unchanged && interested.isEmpty() && epochs == null) {
+				// nothing downstream needs to hear about this
+				suppressed = true;
+				suppressedChain = chain;
+				return;
 			}
-			JsonObject msg = new JsonObject();
-			msg.putNumber("value", value);
-			JsonObject chainJson = new JsonObject(chain.toJson());
-			msg.putObject("chain", chainJson);
-			vertx.eventBus().publish("signals." + id + ".value", msg);
-			resendHandler.setLastValue(value, chain);
+			suppressed = false;
+			suppressedChain = null;
+
+			if (maxDelay > 0) {
+				if (epochs != null) {
+					// newer than anything held back
+					batchChain = null;
+					batchTrace = null;
+					batchSize = 0;
+				} else if (batchTimer != NO_TIMER) {
+					// sent something recently, hold on to this one
+					if (batchSize == 0 || batchTrace == null) {
+						batchTrace = trace;
+						batchStart = computeStart;
+					}
+					batchChain = chain;
+					batchSize++;
+					if (batchSize >= maxBatch) {
+						flushBatch();
+					}
+					return;
+				} else {
+					batchTimer = vertx.setTimer(maxDelay, new BatchTimer());
+				}
+			}
+			send(chain, trace, computeStart, epochs);
 		}
 	}
 
 	/**
-	 * A map that holds a signal's ID and the current event counter value.
-	 * 
-	 * @author bcard
+	 * Sends the current value of this signal to every dependent.
 	 * 
+	 * @param chain
+	 *            the counters that came with the value, {@code null} for an
+	 *            increment
+	 * @param trace
+	 *            the timing of a sampled update or {@code null}
+	 * @param computeStart
+	 *            the time this signal started working on a sampled update
+	 * @param epochs
+	 *            the transactions the update completes or {@code null}
 	 */
-	private class ChainValueMap {
+	private void send(SignalChain chain, Trace trace, long computeStart, List<Epoch> epochs) {
+		eventCounter++;
+		if (chain == null) {
+			// only sources add their counter, everyone else passes on the
+			// counters of the sources they've seen
+			chain = new SignalChain(tracker.getGraph(), eventCounter);
+			if (host != null) {
+				host.record(id, value, eventCounter);
+			}
+		}
+		if (trace != null) {
+			long sent = System.nanoTime();
+			trace = trace.hop(id, sent);
+			metrics.recordCompute(sent - computeStart);
+		}
+		if (host != null) {
+			host.dispatch(id, value, chain, trace, epochs, inconsistent);
+		}
+		if (!fused || copyFormat != null) {
+			ValueMessage msg = new ValueMessage(value, chain, trace, epochs, inconsistent);
+			if (!fused) {
+				publish(valueAddress, msg, wireFormat);
+			}
+			if (copyFormat != null) {
+				publish(copyAddress(), msg, copyFormat);
+			}
+		}
+		publishedValue = value;
+		publishedChain = chain;
+		publishedInconsistent = inconsistent;
+	}
 
-		private Map<String, Integer> counterMap = new HashMap<>();
-		
-		private Long value;
+	private void publish(String address, ValueMessage msg, WireFormat format) {
+		if (format == WireFormat.BINARY) {
+			vertx.eventBus().publish(address, msg.toBuffer());
+		} else {
+			vertx.eventBus().publish(address, msg.toJsonObject());
+		}
+	}
 
-		/**
-		 * Merges in a {@link SignalChain} from a signal and stores the event
-		 * counters for that chain, updating any existing values as needed.
-		 * 
-		 * @param chain the {@link SignalChain} from an event
-		 */
-		public void merge(SignalChain chain) {
-			for (String signal : chain.toList()) {
-				Integer counter = chain.getEventCounterFor(signal);
-				if (!counterMap.containsKey(signal)) {
-					counterMap.put(signal, counter);
-				} else {
-					// TODO this is accounting for out of order signal updates,
-					// should be a
-					// unit test for this.
-					Integer existing = counterMap.get(signal);
-					if (counter.compareTo(existing) > 0) {
-						counterMap.put(signal, counter);
-					}
-				}
+	/**
+	 * @return the address copies of updates are published on in
+	 *         {@link #copyFormat}
+	 */
+	private String copyAddress() {
+		return valueAddress + "." + copyFormat.name().toLowerCase();
+	}
+
+	/**
+	 * Sends the newest of the updates held back since the last send, if there
+	 * are any.
+	 */
+	private void flushBatch() {
+		if (batchSize > 0) {
+			SignalChain chain = batchChain;
+			Trace trace = batchTrace;
+			batchChain = null;
+			batchTrace = null;
+			batchSize = 0;
+			if (!blocked) {
+				send(chain, trace, batchStart, null);
 			}
 		}
+	}
 
-		/**
-		 * Returns the event counter for a signal
-		 * 
-		 * @param signal
-		 *            the ID of a signal
-		 * @return the event counter for that signal
-		 */
-		public Integer get(String signal) {
-			return counterMap.get(signal);
+	/**
+	 * Ends the coalescing window. If updates were held back during the window
+	 * the newest is sent and a new window is started, otherwise the next
+	 * update is sent straight away.
+	 */
+	private class BatchTimer implements Handler<Long> {
+
+		@Override
+		public void handle(Long timerId) {
+			if (batchSize > 0) {
+				flushBatch();
+				batchTimer = vertx.setTimer(maxDelay, this);
+			} else {
+				batchTimer = NO_TIMER;
+			}
 		}
 	}
 
@@ -2,7 +2,6 @@ package org.bcard.drega.signal;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -12,7 +11,6 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.ObjectCodec;
-import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -28,6 +26,12 @@ import com.google.common.collect.Iterables;
  * This is to make this class more space efficient. The entire chain is not
  * necessary because each signal has the graphs of all of it's dependencies.
  * <p>
+ * Signals only add themselves to a chain when they are a source. Any other
+ * signal passes on the chain it received, or when it combines several
+ * dependencies, a merged chain with the newest counter of each source. A
+ * chain therefore works like a vector clock with one entry per upstream
+ * source, its size doesn't grow with the depth of the graph.
+ * <p>
  * Note that this class is mutable.
  * @author bcard
  * 
@@ -36,8 +40,14 @@ import com.google.common.collect.Iterables;
 @JsonInclude(Include.NON_EMPTY)
 public class SignalChain {
 
+	/**
+	 * Shared mapper, {@link ObjectMapper}s are thread safe once configured and
+	 * expensive to create.
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
 	@JsonProperty
-	private final List<GraphAndCounter> entries = new LinkedList<>();
+	private final List<GraphAndCounter> entries = new ArrayList<>();
 
 	/**
 	 * Creates an empty chain with no dependencies.
@@ -161,7 +171,50 @@ public class SignalChain {
 	 *            the event counter for the given {@code link}
 	 */
 	public void chain(SignalGraph link, int eventCounter) {
-		entries.add(new GraphAndCounter(link.getId(), eventCounter));
+		append(link.getId(), eventCounter);
+	}
+
+	/**
+	 * Adds a signal ID to the head of this chain without requiring a
+	 * {@link SignalGraph}. Used when decoding chains from the wire.
+	 * 
+	 * @param id
+	 *            the ID of the signal to add
+	 * @param eventCounter
+	 *            the event counter for that signal
+	 */
+	void append(String id, int eventCounter) {
+		entries.add(new GraphAndCounter(id, eventCounter));
+	}
+
+	/**
+	 * @return the number of signals in this chain
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the ID of the signal at the given position, 0 being the first
+	 * signal the event passed through.
+	 * 
+	 * @param index
+	 *            the position in the chain
+	 * @return the signal ID at that position
+	 */
+	String idAt(int index) {
+		return entries.get(index).getId();
+	}
+
+	/**
+	 * Returns the event counter of the signal at the given position.
+	 * 
+	 * @param index
+	 *            the position in the chain
+	 * @return the event counter at that position
+	 */
+	int counterAt(int index) {
+		return entries.get(index).getCounter();
 	}
 
 	/**
@@ -195,10 +248,9 @@ public class SignalChain {
 	 * @return a JSON representation of this object
 	 */
 	public String toJson() {
-		ObjectMapper mapper = new ObjectMapper();
 		String returnValue = "";
 		try {
-			returnValue = mapper.writer(new DefaultPrettyPrinter()).writeValueAsString(this);
+			returnValue = MAPPER.writeValueAsString(this);
 		} catch (JsonProcessingException e) {
 			e.printStackTrace();
 		}
@@ -215,10 +267,9 @@ public class SignalChain {
 	 * @return the JSON converted to a new {@link SignalChain}
 	 */
 	public static SignalChain fromJson(String json) {
-		ObjectMapper mapper = new ObjectMapper();
 		SignalChain chain = null;
 		try {
-			chain = mapper.readValue(json, SignalChain.class);
+			chain = MAPPER.readValue(json, SignalChain.class);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -289,8 +340,7 @@ public class SignalChain {
 				JsonProcessingException {
 			ObjectCodec oc = parser.getCodec();
 			JsonNode node = oc.readTree(parser);
-			SignalChain returnValue = new SignalChain(new SignalGraph(""));
-			returnValue.entries.clear();
+			SignalChain returnValue = new SignalChain();
 			JsonNode entries = node.get("entries");
 			for (JsonNode entry : entries) {
 				String id = entry.get("id").asText();
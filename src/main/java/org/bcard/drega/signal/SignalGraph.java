@@ -1,13 +1,19 @@
 package org.bcard.drega.signal;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.annotation.JsonInclude.Include;
-import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.ObjectCodec;
@@ -15,30 +21,58 @@ import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 /**
  * Dependency graph for signals. This class allows us to find common ancestors
  * which can be used to avoid glitches. This class is immutable.
+ * <p>
+ * Graphs are DAGs, a signal that is reached through several dependencies is
+ * represented by a single node that is shared by each of them. Use
+ * {@link #of(String, SignalGraph...)} to create graphs, it returns the
+ * canonical instance for a given ID and set of dependencies so equal graphs
+ * are usually the same object. The hash code is calculated once when the graph
+ * is created and {@link #equals(Object)} checks for identity first, so graphs
+ * are cheap to use as map keys no matter how deep they are.
  * 
  * @author bcard
  * 
  */
 @JsonDeserialize(using = SignalGraph.Deserializer.class)
-@JsonInclude(Include.NON_EMPTY)
+@JsonSerialize(using = SignalGraph.Serializer.class)
 public class SignalGraph {
 
-	@JsonProperty("dependencies")
-	List<SignalGraph> immediateDependencies = new ArrayList<SignalGraph>();
+	/**
+	 * Holds the canonical instance of every graph that is in use.
+	 */
+	private static final Interner<SignalGraph> INTERNER = Interners.newWeakInterner();
+
+	private final List<SignalGraph> immediateDependencies;
 
-	@JsonProperty
 	private final String id;
 
+	/**
+	 * The hash code of this graph, graphs are immutable so this only needs to
+	 * be calculated once.
+	 */
+	private final int hash;
+
 	/**
 	 * Creates a new {@link SignalGraph}. This graph will use the following
 	 * {@code id} as its id and will have the given graphs as upstream
 	 * dependencies if applicable (assuming data flows upstream to downstream).
+	 * <p>
+	 * The new graph is not interned and neither are its dependencies, so it
+	 * is never the same object as an equal graph and doesn't share nodes with
+	 * other graphs. Comparing it is slower and it is kept in memory once for
+	 * each copy. Use {@link #of(String, SignalGraph...)} instead unless a
+	 * separate copy is needed.
 	 * 
 	 * @param id
 	 *            the id of this graph
@@ -47,9 +81,34 @@ public class SignalGraph {
 	 */
 	public SignalGraph(String id, SignalGraph... immediateDependencies) {
 		this.id = id;
-		for (SignalGraph graph : immediateDependencies) {
-			this.immediateDependencies.add(graph);
+		this.immediateDependencies = Collections.unmodifiableList(new ArrayList<SignalGraph>(
+				Arrays.asList(immediateDependencies)));
+
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		result = prime * result + this.immediateDependencies.hashCode();
+		this.hash = result;
+	}
+
+	/**
+	 * Returns the canonical {@link SignalGraph} with the given {@code id} and
+	 * dependencies. The dependencies are made canonical as well, so a graph
+	 * built entirely from this method shares every node with the other graphs
+	 * built this way.
+	 * 
+	 * @param id
+	 *            the id of the graph
+	 * @param immediateDependencies
+	 *            the graph's upstream dependencies
+	 * @return the canonical graph
+	 */
+	public static SignalGraph of(String id, SignalGraph... immediateDependencies) {
+		SignalGraph[] canonical = new SignalGraph[immediateDependencies.length];
+		for (int i = 0; i < canonical.length; i++) {
+			canonical[i] = INTERNER.intern(immediateDependencies[i]);
 		}
+		return INTERNER.intern(new SignalGraph(id, canonical));
 	}
 
 	/**
@@ -57,6 +116,10 @@ public class SignalGraph {
 	 * down to their lowest dependency. Each chain will list signals in the
 	 * <i>order of event propagation</i>, so they will start at the leaf nodes
 	 * and end with the direct dependencies.
+	 * <p>
+	 * The number of paths grows exponentially with the depth of a graph that
+	 * shares ancestors. Use {@link GraphAnalysis} to find collisions or
+	 * reachability in large graphs.
 	 * 
 	 * @return
 	 */
@@ -105,11 +168,10 @@ public class SignalGraph {
 	 * dependencies, i.e. observables that this observable is receiving values
 	 * from.
 	 * 
-	 * @return all
+	 * @return all, the returned list cannot be modified
 	 */
-	@JsonIgnore
 	public List<SignalGraph> getDependentSignals() {
-		return new ArrayList<SignalGraph>(immediateDependencies);
+		return immediateDependencies;
 	}
 
 	/**
@@ -122,13 +184,18 @@ public class SignalGraph {
 	 *         {@code false} otherwise
 	 */
 	public boolean containsId(String id2) {
-		if (id2.equals(id)) {
-			return true;
-		} else {
-			for (SignalGraph graph : immediateDependencies) {
-				boolean contains = graph.containsId(id2);
-				if (contains) {
-					return contains;
+		// each signal is only visited once, even if many paths lead to it
+		Set<String> visited = new HashSet<>();
+		Deque<SignalGraph> toVisit = new ArrayDeque<>();
+		toVisit.push(this);
+		while (!toVisit.isEmpty()) {
+			SignalGraph current = toVisit.pop();
+			if (id2.equals(current.id)) {
+				return true;
+			}
+			for (SignalGraph graph : current.immediateDependencies) {
+				if (visited.add(graph.id)) {
+					toVisit.push(graph);
 				}
 			}
 		}
@@ -138,11 +205,7 @@ public class SignalGraph {
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((id == null) ? 0 : id.hashCode());
-		result = prime * result + ((immediateDependencies == null) ? 0 : immediateDependencies.hashCode());
-		return result;
+		return hash;
 	}
 
 	@Override
@@ -154,22 +217,23 @@ public class SignalGraph {
 		if (getClass() != obj.getClass())
 			return false;
 		SignalGraph other = (SignalGraph) obj;
+		if (hash != other.hash)
+			return false;
 		if (id == null) {
 			if (other.id != null)
 				return false;
 		} else if (!id.equals(other.id))
 			return false;
-		if (immediateDependencies == null) {
-			if (other.immediateDependencies != null)
-				return false;
-		} else if (!immediateDependencies.equals(other.immediateDependencies))
+		if (!immediateDependencies.equals(other.immediateDependencies))
 			return false;
 		return true;
 	}
 
 	/**
 	 * Converts this graph to a JSON string. Use the {@link #fromJson(String)}
-	 * method to turn this string back into a {@link SignalGraph} object.
+	 * method to turn this string back into a {@link SignalGraph} object. The
+	 * dependencies of a shared signal are only written the first time it
+	 * appears, later occurrences just contain its ID.
 	 * 
 	 * @return JSON representation of this object or an empty string if there
 	 *         was a problem with serialization
@@ -192,7 +256,7 @@ public class SignalGraph {
 	 * 
 	 * @param json
 	 *            a JSON representation of a {@link SignalGraph}
-	 * @return a serialized {@link SignalGraph} or {@code null} if there was a
+	 * @return the canonical {@link SignalGraph} or {@code null} if there was a
 	 *         problem deserializing the object
 	 */
 	public static SignalGraph fromJson(String json) {
@@ -206,9 +270,23 @@ public class SignalGraph {
 		return null;
 	}
 
+	/**
+	 * Returns the graph as indented text, every path through the graph is
+	 * written out in full so a shared signal appears with its dependencies
+	 * under each signal that depends on it.
+	 */
 	@Override
 	public String toString() {
-		String json = toJson();
+		StringWriter writer = new StringWriter();
+		try {
+			JsonGenerator gen = new ObjectMapper().getFactory().createGenerator(writer);
+			gen.setPrettyPrinter(new DefaultPrettyPrinter());
+			Serializer.writeRecursive(this, gen, null);
+			gen.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		String json = writer.toString();
 
 		// simplify the json further by removing control structures,
 		// we will infer this from the indentation
@@ -226,7 +304,48 @@ public class SignalGraph {
 	}
 
 	/**
-	 * A class for deserializing {@link SignalGraph}s from JSON.
+	 * A class for serializing {@link SignalGraph}s to JSON. Each signal's
+	 * dependencies are written once so the JSON grows with the number of
+	 * signals rather than the number of paths through the graph.
+	 * 
+	 * @author bcard
+	 * 
+	 */
+	public static class Serializer extends JsonSerializer<SignalGraph> {
+
+		@Override
+		public void serialize(SignalGraph value, JsonGenerator gen, SerializerProvider provider)
+				throws IOException, JsonProcessingException {
+			writeRecursive(value, gen, new HashSet<String>());
+		}
+
+		/**
+		 * Writes a graph and its dependencies.
+		 * 
+		 * @param written
+		 *            the IDs of the signals written so far, or {@code null} to
+		 *            write the dependencies of a shared signal every time it
+		 *            appears
+		 */
+		static void writeRecursive(SignalGraph graph, JsonGenerator gen, Set<String> written)
+				throws IOException {
+			gen.writeStartObject();
+			gen.writeStringField("id", graph.id);
+			if ((written == null || written.add(graph.id)) && !graph.immediateDependencies.isEmpty()) {
+				gen.writeArrayFieldStart("dependencies");
+				for (SignalGraph dependency : graph.immediateDependencies) {
+					writeRecursive(dependency, gen, written);
+				}
+				gen.writeEndArray();
+			}
+			gen.writeEndObject();
+		}
+	}
+
+	/**
+	 * A class for deserializing {@link SignalGraph}s from JSON. The graph is
+	 * rebuilt with canonical nodes, a signal that appears more than once in
+	 * the JSON becomes a single shared node.
 	 * 
 	 * @author bcard
 	 * 
@@ -239,7 +358,7 @@ public class SignalGraph {
 			ObjectCodec oc = parser.getCodec();
 			JsonNode node = oc.readTree(parser);
 
-			SignalGraph graph = buildRecursive(node);
+			SignalGraph graph = buildRecursive(node, new HashMap<String, SignalGraph>());
 
 			return graph;
 		}
@@ -252,21 +371,28 @@ public class SignalGraph {
 		 * 
 		 * @param node
 		 *            a {@link JsonNode} containing the serialized JSON object
+		 * @param built
+		 *            the graphs built so far, by ID
 		 * @return a {@link SignalGraph} build from the json
 		 */
-		private SignalGraph buildRecursive(JsonNode node) {
+		private SignalGraph buildRecursive(JsonNode node, Map<String, SignalGraph> built) {
 			String id = node.get("id").asText();
+			SignalGraph existing = built.get(id);
+			if (existing != null) {
+				return existing;
+			}
 
 			List<SignalGraph> dependencies = new ArrayList<SignalGraph>();
 			if (node.has("dependencies")) {
 				for (JsonNode dependency : node.get("dependencies")) {
-					SignalGraph graph = buildRecursive(dependency);
+					SignalGraph graph = buildRecursive(dependency, built);
 					dependencies.add(graph);
 				}
 			}
 
 			SignalGraph[] graphs = dependencies.toArray(new SignalGraph[dependencies.size()]);
-			SignalGraph returnValue = new SignalGraph(id, graphs);
+			SignalGraph returnValue = SignalGraph.of(id, graphs);
+			built.put(id, returnValue);
 
 			return returnValue;
 		}
@@ -0,0 +1,1068 @@
+package org.bcard.drega.signal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bcard.drega.signal.Signal.DependencyUpdateHandler;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Future;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.Container;
+import org.vertx.java.platform.Verticle;
+
+/**
+ * Runs many {@link Signal}s inside a single verticle. Creating a signal in a
+ * host adds a row to the host's table instead of deploying a new verticle, and
+ * the host only registers one handler on the event bus for each address, no
+ * matter how many of its signals listen there. Signals that depend on the same
+ * signal share a single subscription to its <b>.value</b> address, which is
+ * fanned out to each of them in memory. Updates between two signals in the
+ * same host don't touch the event bus at all, they are handed over by a
+ * {@link LocalDispatcher} on the host's event loop. Updates are still
+ * published so signals and clients outside of the host see them.
+ * <p>
+ * Hosts listen on {@code hosts.[id].create} for a signal config, the same
+ * {@link JsonObject} that would be passed to a {@link Signal} verticle. The
+ * host replies with {@code {"status": "ok", "id": [signal id]}} once the signal
+ * has started or {@code {"status": "error", "message": [reason]}} if it can't
+ * be created. Use {@link #deploySignal(Container, Vertx, JsonObject, Handler)}
+ * rather than sending to this address directly, it falls back to deploying a
+ * verticle when no host is running.
+ * <p>
+ * Only the addresses other signals use, <b>.get</b>, <b>.sendGraph</b> and
+ * <b>.interest</b>, are registered when a signal starts. The rest, like
+ * <b>.increment</b> or <b>.print</b>, are registered the first time something
+ * asks for them by sending the signal's ID to {@code hosts.[id].open}, so a
+ * signal that is never driven or inspected from outside of the host costs
+ * three registrations instead of one for every address. The host replies
+ * like the create address once the addresses are registered. Use
+ * {@link #open(Vertx, String, Handler)} before sending to any other address
+ * of a signal, it finds the host from the {@link Placement}. Hosts that take
+ * no part in placement can't be found that way and register every address
+ * straight away, as do hosts with the {@code lazyAddresses} config field set
+ * to {@code false}.
+ * <p>
+ * Batches of updates to source signals, see {@link Signal#BATCH_ADDRESS}, are
+ * taken by the host rather than by each signal. A host listens for them on
+ * {@code hosts.[id].batch} as well as on the shared batch address and looks
+ * the signals named in a batch up in its table, so a batch costs the host the
+ * number of signals in it rather than the number of signals it runs. Every
+ * source in the batch is set before any update is delivered inside the host,
+ * so a signal that depends on several of them computes and sends once per
+ * batch, like for a transaction. Use {@link #sendBatch(Vertx, JsonObject)} to
+ * send a batch, it splits it up by the host each signal runs in.
+ * <p>
+ * Chains of signals that just pass on the value of another signal in the host,
+ * like {@code b = a} and {@code c = b}, are fused. A fused signal still tracks
+ * its value, event counter and graph, so prints, graph queries and the chains
+ * sent downstream are the same, but it doesn't publish its updates on the
+ * event bus. The first time anything outside of the host asks a fused signal
+ * for its value with <b>.get</b> it starts publishing again. Clients that only
+ * listen on <b>.value</b> without asking should turn fusion off by setting the
+ * {@code fusion} config field to {@code false}.
+ * <p>
+ * Setting the {@code journal} config field to a directory makes the state of
+ * the host's signals durable, see {@link Journal}. Every update to a source is
+ * appended to the journal, which is flushed to disk every
+ * {@code syncInterval} milliseconds, and the value and counter of every
+ * signal is written to a snapshot every {@code snapshotInterval}
+ * milliseconds, when the journal fills up and when the host stops. A signal
+ * created with the same ID after a restart starts from its recovered value
+ * and counter instead of its {@code initialValue}.
+ * <p>
+ * Signals in a host record their immediate dependencies in a
+ * {@link GraphRegistry}, which is shared by every host in the JVM or the
+ * cluster. A new signal builds the graphs of its dependencies from the
+ * registry and only asks a dependency for its graph over the event bus when
+ * the dependency isn't registered, like a {@link Signal} deployed as its own
+ * verticle. Set the {@code graphRegistry} config field to {@code false} to
+ * always ask.
+ * <p>
+ * Hosts advertise themselves in a {@link Placement} and
+ * {@link #deploySignal(Container, Vertx, JsonObject, Handler)} asks it which
+ * host a new signal should run in, so signals end up next to their
+ * dependencies without any host taking more than its share of the load. Every
+ * {@code placementInterval} milliseconds a host measures the update rate of
+ * each of its signals and publishes its load. Set the {@code placement} config
+ * field to {@code false} to keep a host out of placement, signals are then
+ * only deployed to it when no other host is running.
+ * <p>
+ * The signals in a host can be saved to a {@link TopologyImage} by sending
+ * the name of a file to {@code hosts.[id].save}, and a saved image is deployed
+ * by sending its name to {@code hosts.[id].load}. Loading creates every signal
+ * in the image with the graph it had when it was saved, without asking any
+ * dependency for its graph, so a large network starts in a single pass. Both
+ * reply with {@code {"status": "ok", "count": [number of signals]}} or an
+ * error like the create address. Use {@link #saveTopology(Vertx, String, Handler)}
+ * and {@link #loadTopology(Vertx, String, Handler)} to send them.
+ * <p>
+ * The ID of the host is read from the {@code id} config field. Every host in
+ * a cluster needs its own ID, so a host without one makes one up from the
+ * ID of its cluster node, see {@link ClusterMaps#uniqueId(Vertx)}.
+ *
+ * @author bcard
+ *
+ */
+public class SignalHost extends Verticle implements HandlerRegistry {
+
+	/**
+	 * The name of the shared map that holds the create address of every host
+	 * running in this JVM, keyed by host ID.
+	 */
+	public static final String HOSTS_MAP = "drega.hosts";
+
+	/**
+	 * The default time between flushes of the journal to disk, in
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_SYNC_INTERVAL = 100;
+
+	/**
+	 * The default time between snapshots, in milliseconds.
+	 */
+	public static final long DEFAULT_SNAPSHOT_INTERVAL = 60000;
+
+	/**
+	 * The default time between measurements of the load of a host, in
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_PLACEMENT_INTERVAL = 5000;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The ID of this host.
+	 */
+	private String hostId;
+
+	/**
+	 * The signals running in this host, by signal ID.
+	 */
+	private final Map<String, Signal> signals = new HashMap<>();
+
+	/**
+	 * The handlers registered on the event bus by this host, by address.
+	 */
+	private final Map<String, Route> routes = new HashMap<>();
+
+	/**
+	 * The handlers each signal has for addresses that haven't been registered
+	 * on the event bus yet, by signal ID, see {@link #open(String)}. A signal
+	 * is removed once its addresses are registered. {@code null} if every
+	 * address is registered straight away.
+	 */
+	private Map<String, List<Registration>> unopened;
+
+	/**
+	 * The dependents in this host of each signal in this host, by the ID of
+	 * the signal they depend on.
+	 */
+	private final Map<String, List<DependencyUpdateHandler>> localSubscribers = new HashMap<>();
+
+	/**
+	 * Delivers updates between signals in this host.
+	 */
+	private final LocalDispatcher dispatcher = new LocalDispatcher();
+
+	/**
+	 * Whether or not pass-through signals are fused.
+	 */
+	private boolean fusion = true;
+
+	/**
+	 * The durable state of the signals in this host, {@code null} if it isn't
+	 * kept.
+	 */
+	private Journal journal;
+
+	/**
+	 * Where the signals in this host look up the graphs of their
+	 * dependencies, {@code null} if they ask their dependencies instead.
+	 */
+	private GraphRegistry registry;
+
+	/**
+	 * Where this host advertises its load and signals, {@code null} if it
+	 * takes no part in placement.
+	 */
+	private Placement placement;
+
+	/**
+	 * The load of this host as last published to {@link #placement}.
+	 */
+	private double load = 0;
+
+	/**
+	 * The event counter of each signal when the load was last measured, by
+	 * signal ID.
+	 */
+	private final Map<String, Integer> measuredCounters = new HashMap<>();
+
+	@Override
+	public void start(Future<Void> startedResult) {
+		JsonObject config = container.config();
+		hostId = config == null ? null : config.getString("id");
+		if (hostId == null) {
+			hostId = ClusterMaps.uniqueId(vertx);
+		}
+		fusion = config == null ? true : config.getBoolean("fusion", true);
+		if (config == null || config.getBoolean("graphRegistry", true)) {
+			registry = GraphRegistry.of(vertx);
+		}
+		container.logger().info("Starting Signal Host " + hostId);
+
+		if (config != null && config.getString("journal") != null) {
+			File directory = new File(config.getString("journal"));
+			int capacity = config.getInteger("journalSize", Journal.DEFAULT_CAPACITY);
+			try {
+				journal = Journal.open(directory, capacity);
+			} catch (IOException e) {
+				container.logger().error("Cannot open journal in " + directory, e);
+				startedResult.setFailure(e);
+				return;
+			}
+			container.logger().info("Recovered " + journal.getRecovered().size() + " signals from "
+					+ directory);
+
+			long syncInterval = config.getLong("syncInterval", DEFAULT_SYNC_INTERVAL);
+			vertx.setPeriodic(syncInterval, new Handler<Long>() {
+
+				@Override
+				public void handle(Long event) {
+					journal.sync();
+				}
+			});
+			long snapshotInterval = config.getLong("snapshotInterval", DEFAULT_SNAPSHOT_INTERVAL);
+			vertx.setPeriodic(snapshotInterval, new Handler<Long>() {
+
+				@Override
+				public void handle(Long event) {
+					snapshot();
+				}
+			});
+		}
+
+		String address = createAddress(hostId);
+		vertx.eventBus().registerHandler(address, new CreateHandler());
+		vertx.eventBus().registerHandler("hosts." + hostId + ".save", new SaveHandler());
+		vertx.eventBus().registerHandler("hosts." + hostId + ".load", new LoadHandler());
+		vertx.eventBus().registerHandler(openAddress(hostId), new OpenHandler());
+		BatchHandler batcher = new BatchHandler();
+		vertx.eventBus().registerHandler(batchAddress(hostId), batcher);
+		vertx.eventBus().registerHandler(Signal.BATCH_ADDRESS, batcher);
+		hosts(vertx).put(hostId, address);
+
+		if (config == null || config.getBoolean("placement", true)) {
+			placement = Placement.of(vertx);
+			placement.putHost(hostId, address, load, 0);
+			final long interval = config == null ? DEFAULT_PLACEMENT_INTERVAL : config.getLong(
+					"placementInterval", DEFAULT_PLACEMENT_INTERVAL);
+			vertx.setPeriodic(interval, new Handler<Long>() {
+
+				@Override
+				public void handle(Long event) {
+					measureLoad(interval);
+				}
+			});
+			if (config == null || config.getBoolean("lazyAddresses", true)) {
+				// only hosts in placement can be found by open(Vertx, ...)
+				unopened = new HashMap<>();
+			}
+		}
+
+		startedResult.setResult(null);
+	}
+
+	@Override
+	public void stop() {
+		for (Signal signal : signals.values()) {
+			signal.stop();
+		}
+		hosts(vertx).remove(hostId);
+		if (placement != null) {
+			placement.removeHost(hostId, signals.keySet());
+		}
+		if (journal != null) {
+			snapshot();
+			try {
+				journal.close();
+			} catch (IOException e) {
+				container.logger().error("Cannot close journal", e);
+			}
+			journal = null;
+		}
+	}
+
+	/**
+	 * Returns the state a signal had when this host last stopped, or crashed.
+	 * 
+	 * @param id
+	 *            the ID of a signal
+	 * @return the recovered value and counter or {@code null} if there is no
+	 *         journal or nothing was stored for the signal
+	 */
+	Journal.Entry getRecovered(String id) {
+		return journal == null ? null : journal.getRecovered(id);
+	}
+
+	/**
+	 * @return the registry the signals in this host look up graphs in, or
+	 *         {@code null} if it is turned off
+	 */
+	GraphRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Appends an update to a source signal to the journal, if there is one.
+	 * Called by hosted sources whenever they send a new value.
+	 * 
+	 * @param id
+	 *            the ID of the source
+	 * @param value
+	 *            the new value
+	 * @param counter
+	 *            the event counter of the update
+	 */
+	void record(String id, long value, int counter) {
+		if (journal != null && !journal.append(id, value, counter)) {
+			// full, the snapshot includes this update
+			snapshot();
+		}
+	}
+
+	/**
+	 * Writes the value and counter of every signal in this host to a
+	 * snapshot, which empties the journal.
+	 */
+	void snapshot() {
+		Map<String, Journal.Entry> state = new HashMap<>(signals.size() * 2);
+		for (Map.Entry<String, Signal> entry : signals.entrySet()) {
+			Signal signal = entry.getValue();
+			state.put(entry.getKey(), new Journal.Entry(signal.value, signal.getEventCounter()));
+		}
+		try {
+			journal.snapshot(state);
+		} catch (IOException e) {
+			container.logger().error("Cannot write snapshot", e);
+		}
+	}
+
+	/**
+	 * Measures the load of every signal in this host from the updates it sent
+	 * since the last measurement and publishes the total, see
+	 * {@link Placement#load(double, int)}. The fan-out of a signal is its
+	 * dependents in this host plus one for publishing on the event bus.
+	 * 
+	 * @param interval
+	 *            the time since the last measurement, in milliseconds
+	 */
+	void measureLoad(long interval) {
+		double total = 0;
+		for (Map.Entry<String, Signal> entry : signals.entrySet()) {
+			String id = entry.getKey();
+			int counter = entry.getValue().getEventCounter();
+			Integer last = measuredCounters.put(id, counter);
+			double rate = last == null ? 0 : (counter - last) * 1000.0 / interval;
+			List<DependencyUpdateHandler> subscribers = localSubscribers.get(id);
+			int fanOut = 1 + (subscribers == null ? 0 : subscribers.size());
+			total += Placement.load(rate, fanOut);
+		}
+		load = total;
+		placement.putHost(hostId, createAddress(hostId), load, signals.size());
+	}
+
+	/**
+	 * @return the load of this host as last published
+	 */
+	double getLoad() {
+		return load;
+	}
+
+	/**
+	 * Deploys a signal. If a {@link SignalHost} is running in the cluster or
+	 * this JVM the signal is created in the host picked by the
+	 * {@link Placement}, otherwise it is deployed as its own {@link Signal}
+	 * verticle.
+	 *
+	 * @param container
+	 *            the container to deploy verticles with
+	 * @param vertx
+	 *            the current vertx instance
+	 * @param config
+	 *            the config for the new signal
+	 * @param done
+	 *            called with the ID of the signal or deployment when it has
+	 *            started, fails if several hosts run in this JVM and none of
+	 *            them takes part in placement
+	 */
+	public static void deploySignal(Container container, Vertx vertx, JsonObject config,
+			final Handler<AsyncResult<String>> done) {
+		String address = null;
+		Placement placement = Placement.of(vertx);
+		String chosen = placement.choose(dependencies(config));
+		if (chosen != null) {
+			address = placement.getAddress(chosen);
+		}
+		if (address == null) {
+			ConcurrentMap<String, String> hosts = hosts(vertx);
+			if (hosts.isEmpty()) {
+				container.deployVerticle(Signal.class.getName(), config, done);
+				return;
+			} else if (hosts.size() > 1) {
+				done.handle(new DefaultFutureResult<String>(new IllegalStateException("Cannot choose between "
+						+ hosts.size() + " signal hosts outside of placement")));
+				return;
+			}
+			address = hosts.values().iterator().next();
+		}
+
+		vertx.eventBus().send(address, config, new Handler<Message<JsonObject>>() {
+
+			@Override
+			public void handle(Message<JsonObject> event) {
+				JsonObject reply = event.body();
+				if ("ok".equals(reply.getString("status"))) {
+					done.handle(new DefaultFutureResult<String>(reply.getString("id")));
+				} else {
+					done.handle(new DefaultFutureResult<String>(new IllegalStateException(reply
+							.getString("message"))));
+				}
+			}
+		});
+	}
+
+	private static List<String> dependencies(JsonObject config) {
+		List<String> dependencies = new ArrayList<>();
+		JsonArray array = config.getArray("dependencies");
+		if (array != null) {
+			for (Object dependency : array) {
+				dependencies.add((String) dependency);
+			}
+		}
+		return dependencies;
+	}
+
+	/**
+	 * Makes sure every address of a signal is registered on the event bus. A
+	 * signal running in a host only registers most of its addresses once it
+	 * is asked to, so call this before sending to any address other than
+	 * <b>.get</b>, <b>.sendGraph</b> or <b>.interest</b>. Signals that aren't
+	 * running in a host in placement always have their addresses registered.
+	 *
+	 * @param vertx
+	 *            the current vertx instance
+	 * @param signal
+	 *            the ID of the signal
+	 * @param done
+	 *            called once the addresses are registered
+	 */
+	public static void open(Vertx vertx, String signal, final Handler<AsyncResult<Void>> done) {
+		ConcurrentMap<String, String> locations = ClusterMaps.get(vertx, Placement.LOCATIONS_MAP);
+		String hostId = locations.get(signal);
+		if (hostId == null) {
+			// a verticle, in a host outside of placement or not running
+			done.handle(new DefaultFutureResult<Void>().setResult(null));
+			return;
+		}
+		vertx.eventBus().send(openAddress(hostId), signal, new Handler<Message<JsonObject>>() {
+
+			@Override
+			public void handle(Message<JsonObject> event) {
+				done.handle(new DefaultFutureResult<Void>().setResult(null));
+			}
+		});
+	}
+
+	/**
+	 * Sends a batch of updates to source signals. The part of the batch for
+	 * the signals in each host in placement goes to that host, the rest is
+	 * published on {@link Signal#BATCH_ADDRESS} for signals deployed as
+	 * verticles and hosts outside of placement. Every part keeps the
+	 * {@code epoch} of a transaction.
+	 *
+	 * @param vertx
+	 *            the current vertx instance
+	 * @param batch
+	 *            the batch, see {@link Signal#BATCH_ADDRESS}
+	 */
+	public static void sendBatch(Vertx vertx, JsonObject batch) {
+		ConcurrentMap<String, String> locations = ClusterMaps.get(vertx, Placement.LOCATIONS_MAP);
+		// by host ID, null for the signals that aren't placed
+		Map<String, JsonObject> parts = new HashMap<>();
+		for (String field : new String[] { "values", "deltas" }) {
+			JsonObject amounts = batch.getObject(field);
+			if (amounts == null) {
+				continue;
+			}
+			for (String signal : amounts.getFieldNames()) {
+				String hostId = locations.get(signal);
+				JsonObject part = parts.get(hostId);
+				if (part == null) {
+					part = new JsonObject();
+					part.putObject("values", new JsonObject());
+					part.putObject("deltas", new JsonObject());
+					if (batch.getObject("epoch") != null) {
+						part.putObject("epoch", batch.getObject("epoch"));
+					}
+					parts.put(hostId, part);
+				}
+				part.getObject(field).putNumber(signal, amounts.<Number> getField(signal));
+			}
+		}
+
+		for (Map.Entry<String, JsonObject> part : parts.entrySet()) {
+			if (part.getKey() == null) {
+				vertx.eventBus().publish(Signal.BATCH_ADDRESS, part.getValue());
+			} else {
+				vertx.eventBus().send(batchAddress(part.getKey()), part.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Saves the signals of the {@link SignalHost} running in this JVM to a
+	 * {@link TopologyImage}.
+	 * 
+	 * @param vertx
+	 *            the current vertx instance
+	 * @param file
+	 *            the name of the file to write
+	 * @param done
+	 *            called with the number of signals saved, fails if no host or
+	 *            more than one host is running or the file can't be written
+	 */
+	public static void saveTopology(Vertx vertx, String file, Handler<AsyncResult<String>> done) {
+		sendToHost(vertx, "save", file, done);
+	}
+
+	/**
+	 * Deploys the signals in a {@link TopologyImage} to the
+	 * {@link SignalHost} running in this JVM.
+	 * 
+	 * @param vertx
+	 *            the current vertx instance
+	 * @param file
+	 *            the name of the file to read
+	 * @param done
+	 *            called with the number of signals created, fails if no host
+	 *            or more than one host is running, the file can't be read or
+	 *            a signal can't be created
+	 */
+	public static void loadTopology(Vertx vertx, String file, Handler<AsyncResult<String>> done) {
+		sendToHost(vertx, "load", file, done);
+	}
+
+	private static void sendToHost(Vertx vertx, String action, String file,
+			final Handler<AsyncResult<String>> done) {
+		ConcurrentMap<String, String> hosts = hosts(vertx);
+		if (hosts.isEmpty()) {
+			done.handle(new DefaultFutureResult<String>(new IllegalStateException(
+					"No signal host is running")));
+			return;
+		} else if (hosts.size() > 1) {
+			done.handle(new DefaultFutureResult<String>(new IllegalStateException("Cannot choose between "
+					+ hosts.size() + " signal hosts " + hosts.keySet())));
+			return;
+		}
+
+		String hostId = hosts.keySet().iterator().next();
+		vertx.eventBus().send("hosts." + hostId + "." + action, file, new Handler<Message<JsonObject>>() {
+
+			@Override
+			public void handle(Message<JsonObject> event) {
+				JsonObject reply = event.body();
+				if ("ok".equals(reply.getString("status"))) {
+					done.handle(new DefaultFutureResult<String>(String.valueOf(reply.getInteger("count"))));
+				} else {
+					done.handle(new DefaultFutureResult<String>(new IllegalStateException(reply
+							.getString("message"))));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the address a host listens on for the IDs of signals whose
+	 * addresses should be registered.
+	 *
+	 * @param hostId
+	 *            the ID of the host
+	 * @return the address to send signal IDs to
+	 */
+	public static String openAddress(String hostId) {
+		return "hosts." + hostId + ".open";
+	}
+
+	/**
+	 * Returns the address a host listens on for the parts of batches meant
+	 * for its signals.
+	 *
+	 * @param hostId
+	 *            the ID of the host
+	 * @return the address to send batches to
+	 */
+	public static String batchAddress(String hostId) {
+		return "hosts." + hostId + ".batch";
+	}
+
+	/**
+	 * Returns the address a host listens on for new signals.
+	 *
+	 * @param hostId
+	 *            the ID of the host
+	 * @return the address to send signal configs to
+	 */
+	public static String createAddress(String hostId) {
+		return "hosts." + hostId + ".create";
+	}
+
+	private static ConcurrentMap<String, String> hosts(Vertx vertx) {
+		return vertx.sharedData().getMap(HOSTS_MAP);
+	}
+
+	/**
+	 * @return the number of signals running in this host
+	 */
+	public int size() {
+		return signals.size();
+	}
+
+	/**
+	 * Returns a signal running in this host.
+	 *
+	 * @param id
+	 *            the ID of the signal
+	 * @return the signal or {@code null} if it isn't running here
+	 */
+	public Signal getSignal(String id) {
+		return signals.get(id);
+	}
+
+	/**
+	 * Subscribes a signal in this host to the value updates of another signal
+	 * and sends it the other signal's current value. If the other signal is
+	 * also in this host the updates are handed over directly, otherwise they
+	 * come from the event bus. A pass-through signal subscribing to a signal
+	 * in this host is fused.
+	 * 
+	 * @param producer
+	 *            the ID of the signal to subscribe to
+	 * @param handler
+	 *            the handler of the subscribing signal
+	 */
+	void subscribe(String producer, DependencyUpdateHandler handler) {
+		Signal signal = signals.get(producer);
+		if (signal != null) {
+			List<DependencyUpdateHandler> subscribers = localSubscribers.get(producer);
+			if (subscribers == null) {
+				subscribers = new ArrayList<>(1);
+				localSubscribers.put(producer, subscribers);
+			}
+			subscribers.add(handler);
+			Signal subscriber = handler.getSignal();
+			if (fusion && subscriber.isPassThrough()) {
+				subscriber.fuse();
+			}
+			ValueMessage current = signal.getCurrentValue();
+			dispatcher.dispatch(handler, current.getValue(), current.getChain(), null, null,
+					current.isInconsistent());
+		} else {
+			registerHandler("signals." + producer + ".value", handler);
+			vertx.eventBus().send("signals." + producer + ".get", "", handler);
+		}
+	}
+
+	/**
+	 * Delivers a value update to the dependents of a signal that run in this
+	 * host. Called by hosted signals whenever they publish a new value.
+	 * 
+	 * @param producer
+	 *            the ID of the signal that updated
+	 * @param value
+	 *            the new value
+	 * @param chain
+	 *            the event counters for the value
+	 * @param trace
+	 *            the timing of the update, {@code null} if it isn't sampled
+	 * @param epochs
+	 *            the transactions the update completes, {@code null} if it
+	 *            isn't part of one
+	 * @param inconsistent
+	 *            {@code true} if the value is possibly inconsistent
+	 */
+	void dispatch(String producer, long value, SignalChain chain, Trace trace, List<Epoch> epochs,
+			boolean inconsistent) {
+		List<DependencyUpdateHandler> subscribers = localSubscribers.get(producer);
+		if (subscribers != null) {
+			dispatcher.dispatch(subscribers, value, chain, trace, epochs, inconsistent);
+		}
+	}
+
+	/**
+	 * Calls back a hosted signal once the updates being delivered for its
+	 * height have all arrived, see {@link LocalDispatcher#schedule}.
+	 * 
+	 * @param handler
+	 *            a handler of the signal to call back
+	 */
+	void schedule(DependencyUpdateHandler handler) {
+		dispatcher.schedule(handler);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void registerHandler(String address, Handler<? extends Message<?>> handler) {
+		Route route = routes.get(address);
+		if (route == null) {
+			route = new Route();
+			routes.put(address, route);
+			vertx.eventBus().registerHandler(address, route);
+		}
+		route.handlers.add((Handler<Message<Object>>) handler);
+	}
+
+	/**
+	 * Returns where a signal in this host registers the handlers of addresses
+	 * that only need to be on the event bus once something outside of the
+	 * host asks for them, see {@link #open(String)}.
+	 *
+	 * @param signal
+	 *            the ID of the signal
+	 * @return a registry that holds on to the handlers until the signal is
+	 *         opened, or this host if it registers them straight away
+	 */
+	HandlerRegistry onDemand(final String signal) {
+		if (unopened == null) {
+			return this;
+		}
+		return new HandlerRegistry() {
+
+			@Override
+			public void registerHandler(String address, Handler<? extends Message<?>> handler) {
+				List<Registration> pending = unopened.get(signal);
+				if (pending == null) {
+					// already opened
+					SignalHost.this.registerHandler(address, handler);
+				} else {
+					pending.add(new Registration(address, handler));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Registers every address of a signal on the event bus.
+	 *
+	 * @param id
+	 *            the ID of the signal
+	 * @return {@code false} if the signal isn't running in this host
+	 */
+	boolean open(String id) {
+		if (!signals.containsKey(id)) {
+			return false;
+		}
+		List<Registration> pending = unopened == null ? null : unopened.remove(id);
+		if (pending != null) {
+			for (Registration registration : pending) {
+				registerHandler(registration.address, registration.handler);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A handler waiting to be registered on an address.
+	 */
+	private static class Registration {
+		private final String address;
+		private final Handler<? extends Message<?>> handler;
+
+		Registration(String address, Handler<? extends Message<?>> handler) {
+			this.address = address;
+			this.handler = handler;
+		}
+	}
+
+	/**
+	 * The single event bus handler for an address, passes each message on to
+	 * every signal in this host that listens there.
+	 *
+	 * @author bcard
+	 *
+	 */
+	private static class Route implements Handler<Message<Object>> {
+
+		private final List<Handler<Message<Object>>> handlers = new ArrayList<>(1);
+
+		@Override
+		public void handle(Message<Object> event) {
+			for (int i = 0; i < handlers.size(); i++) {
+				handlers.get(i).handle(event);
+			}
+		}
+	}
+
+	/**
+	 * Creates a signal in this host.
+	 * 
+	 * @param config
+	 *            the config of the signal
+	 * @param graph
+	 *            the graph of the signal if it is already known, otherwise
+	 *            {@code null}
+	 * @param reply
+	 *            called with the reply for the create address once the
+	 *            signal has started, or straight away if it can't be created
+	 */
+	private void createSignal(JsonObject config, SignalGraph graph, final Handler<JsonObject> reply) {
+		final String id = config.getString("id");
+		if (id == null || id.isEmpty()) {
+			reply.handle(error("A signal needs an id"));
+			return;
+		} else if (signals.containsKey(id)) {
+			reply.handle(error("Signal " + id + " already exists"));
+			return;
+		} else if (journal != null && id.getBytes(UTF_8).length > Journal.MAX_ID_LENGTH) {
+			reply.handle(error("Signal ID " + id.substring(0, 16) + "... is too long to journal"));
+			return;
+		}
+
+		Signal signal = new Signal();
+		signal.setVertx(vertx);
+		signal.setContainer(container);
+		signals.put(id, signal);
+		if (unopened != null) {
+			unopened.put(id, new ArrayList<Registration>());
+		}
+
+		DefaultFutureResult<Void> started = new DefaultFutureResult<>();
+		started.setHandler(new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> result) {
+				placed(id);
+				JsonObject ok = new JsonObject();
+				ok.putString("status", "ok");
+				ok.putString("id", id);
+				reply.handle(ok);
+			}
+		});
+		try {
+			signal.start(config, this, graph, started);
+		} catch (RuntimeException e) {
+			if (started.complete()) {
+				// the reply has been sent, the signal is running
+				container.logger().error("Signal " + id + " failed after starting", e);
+				return;
+			}
+			// bad operator, expression or format, or a config field of the
+			// wrong type
+			signals.remove(id);
+			if (unopened != null) {
+				unopened.remove(id);
+			}
+			String reason = e.getMessage();
+			if (!(e instanceof IllegalArgumentException)) {
+				container.logger().error("Cannot create " + id, e);
+				reason = e.toString();
+			}
+			reply.handle(error("Cannot create " + id + ": " + reason));
+		}
+	}
+
+	/**
+	 * Records that a signal now runs in this host and counts it towards the
+	 * load, so signals deployed before the next measurement are spread out.
+	 */
+	private void placed(String id) {
+		if (placement != null) {
+			placement.setLocation(id, hostId);
+			load += Placement.load(0, 1);
+			placement.putHost(hostId, createAddress(hostId), load, signals.size());
+		}
+	}
+
+	private JsonObject error(String message) {
+		container.logger().error(message);
+		JsonObject reply = new JsonObject();
+		reply.putString("status", "error");
+		reply.putString("message", message);
+		return reply;
+	}
+
+	private static JsonObject count(int count) {
+		JsonObject reply = new JsonObject();
+		reply.putString("status", "ok");
+		reply.putNumber("count", count);
+		return reply;
+	}
+
+	/**
+	 * Creates new signals in this host.
+	 *
+	 * @author bcard
+	 *
+	 */
+	private class CreateHandler implements Handler<Message<JsonObject>> {
+
+		@Override
+		public void handle(final Message<JsonObject> event) {
+			createSignal(event.body(), null, new Handler<JsonObject>() {
+
+				@Override
+				public void handle(JsonObject reply) {
+					event.reply(reply);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Registers the addresses of a signal in this host, see
+	 * {@link SignalHost#open(String)}.
+	 *
+	 * @author bcard
+	 *
+	 */
+	private class OpenHandler implements Handler<Message<String>> {
+
+		@Override
+		public void handle(Message<String> event) {
+			String id = event.body();
+			if (open(id)) {
+				JsonObject ok = new JsonObject();
+				ok.putString("status", "ok");
+				ok.putString("id", id);
+				event.reply(ok);
+			} else {
+				event.reply(error("Signal " + id + " is not running in host " + hostId));
+			}
+		}
+	}
+
+	/**
+	 * Applies a batch of updates to the signals in this host that it names,
+	 * all in one tick of the {@link LocalDispatcher}.
+	 *
+	 * @author bcard
+	 *
+	 */
+	private class BatchHandler implements Handler<Message<JsonObject>> {
+
+		@Override
+		public void handle(Message<JsonObject> event) {
+			final JsonObject batch = event.body();
+			final List<Epoch> epochs = Signal.batchEpochs(batch);
+			final Set<String> named = new LinkedHashSet<>();
+			for (String field : new String[] { "values", "deltas" }) {
+				JsonObject amounts = batch.getObject(field);
+				if (amounts != null) {
+					named.addAll(amounts.getFieldNames());
+				}
+			}
+			dispatcher.tick(new Runnable() {
+
+				@Override
+				public void run() {
+					for (String id : named) {
+						Signal signal = signals.get(id);
+						if (signal != null) {
+							signal.applyBatch(batch, epochs);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Saves the signals in this host to a {@link TopologyImage}.
+	 *
+	 * @author bcard
+	 *
+	 */
+	private class SaveHandler implements Handler<Message<String>> {
+
+		@Override
+		public void handle(Message<String> event) {
+			File file = new File(event.body());
+			TopologyImage image = new TopologyImage();
+			for (Signal signal : signals.values()) {
+				if (signal.getGraph() != null) {
+					image.add(signal.getConfig(), signal.getGraph());
+				}
+			}
+			try {
+				image.write(file);
+			} catch (IOException e) {
+				event.reply(error("Cannot write " + file + ": " + e.getMessage()));
+				return;
+			}
+			container.logger().info("Saved " + image.size() + " signals to " + file);
+			event.reply(count(image.size()));
+		}
+	}
+
+	/**
+	 * Creates the signals in a {@link TopologyImage}. Signals are created in
+	 * dependency order with the graphs stored in the image, so each one has
+	 * started before the signals that depend on it are created.
+	 *
+	 * @author bcard
+	 *
+	 */
+	private class LoadHandler implements Handler<Message<String>> {
+
+		@Override
+		public void handle(final Message<String> event) {
+			File file = new File(event.body());
+			final TopologyImage image;
+			try {
+				image = TopologyImage.read(file);
+			} catch (IOException e) {
+				event.reply(error("Cannot read " + file + ": " + e.getMessage()));
+				return;
+			}
+
+			final List<String> failures = new ArrayList<>();
+			final int[] remaining = { image.size() };
+			Handler<JsonObject> created = new Handler<JsonObject>() {
+
+				@Override
+				public void handle(JsonObject reply) {
+					if (!"ok".equals(reply.getString("status"))) {
+						failures.add(reply.getString("message"));
+					}
+					if (--remaining[0] == 0) {
+						if (failures.isEmpty()) {
+							event.reply(count(image.size()));
+						} else {
+							event.reply(error(failures.size() + " signals failed to load: " + failures));
+						}
+					}
+				}
+			};
+			if (image.size() == 0) {
+				event.reply(count(0));
+				return;
+			}
+			for (JsonObject config : image.getConfigs()) {
+				createSignal(config, image.getGraph(config.getString("id")), created);
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package org.bcard.drega.signal;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Latency histograms for the sampled updates that pass through a signal, see
+ * {@link Trace}. Four things are measured, all in nanoseconds:
+ * 
+ * <ul>
+ * <li><b>queueing</b> from the time the previous signal sent the update to the
+ * time this signal received it, the time spent on the event bus or in the
+ * host's queue
+ * <li><b>glitchWait</b> from the time this signal received the update to the
+ * time it was cleared to combine its values, the time spent waiting for other
+ * dependencies to catch up. Only recorded by signals with more than one
+ * dependency
+ * <li><b>compute</b> from the time this signal started working out its new
+ * value to the time it sent the update on
+ * <li><b>endToEnd</b> from the time the update left its origin to the time
+ * this signal received it, this is the freshness of the signal's value
+ * </ul>
+ * 
+ * Histograms are created the first time a sampled update comes through, so
+ * signals that never see one don't pay for them.
+ * <p>
+ * Every time glitch avoidance holds a value back, sampled or not, the time
+ * until the value is sent is recorded in the <b>held</b> histogram, created
+ * the first time a value is held. The number of values sent before their
+ * dependencies agreed, see {@link ConsistencyLevel#BOUNDED}, is counted as
+ * well.
+ * 
+ * @author bcard
+ * 
+ */
+public class SignalMetrics {
+
+	private LatencyHistogram queueing;
+
+	private LatencyHistogram glitchWait;
+
+	private LatencyHistogram compute;
+
+	private LatencyHistogram endToEnd;
+
+	private LatencyHistogram held;
+
+	private long inconsistentUpdates = 0;
+
+	/**
+	 * Records the arrival of a sampled update.
+	 * 
+	 * @param trace
+	 *            the trace that came with the update
+	 * @param received
+	 *            the time the update was received
+	 */
+	public void recordReceived(Trace trace, long received) {
+		init();
+		queueing.record(received - trace.getLastTime());
+		endToEnd.record(received - trace.getOriginTime());
+	}
+
+	/**
+	 * Records the time a sampled update was held back by glitch avoidance.
+	 * 
+	 * @param nanos
+	 *            the time waited
+	 */
+	public void recordGlitchWait(long nanos) {
+		init();
+		glitchWait.record(nanos);
+	}
+
+	/**
+	 * Records the time taken to work out and send a new value for a sampled
+	 * update.
+	 * 
+	 * @param nanos
+	 *            the time taken
+	 */
+	public void recordCompute(long nanos) {
+		init();
+		compute.record(nanos);
+	}
+
+	/**
+	 * Records the time a value was held back by glitch avoidance.
+	 * 
+	 * @param nanos
+	 *            the time from the first glitch to the value being sent
+	 * @param inconsistent
+	 *            {@code true} if the value was sent before the glitch cleared
+	 */
+	public void recordHeld(long nanos, boolean inconsistent) {
+		if (held == null) {
+			held = new LatencyHistogram();
+		}
+		held.record(nanos);
+		if (inconsistent) {
+			inconsistentUpdates++;
+		}
+	}
+
+	/**
+	 * @return the held histogram, or {@code null} if nothing has been held
+	 */
+	public LatencyHistogram getHeld() {
+		return held;
+	}
+
+	/**
+	 * @return the number of values sent before glitch avoidance could confirm
+	 *         them
+	 */
+	public long getInconsistentUpdates() {
+		return inconsistentUpdates;
+	}
+
+	/**
+	 * @return the queueing histogram, or {@code null} if nothing has been
+	 *         recorded
+	 */
+	public LatencyHistogram getQueueing() {
+		return queueing;
+	}
+
+	/**
+	 * @return the glitch wait histogram, or {@code null} if nothing has been
+	 *         recorded
+	 */
+	public LatencyHistogram getGlitchWait() {
+		return glitchWait;
+	}
+
+	/**
+	 * @return the compute histogram, or {@code null} if nothing has been
+	 *         recorded
+	 */
+	public LatencyHistogram getCompute() {
+		return compute;
+	}
+
+	/**
+	 * @return the end to end histogram, or {@code null} if nothing has been
+	 *         recorded
+	 */
+	public LatencyHistogram getEndToEnd() {
+		return endToEnd;
+	}
+
+	/**
+	 * @return a summary of each histogram, see
+	 *         {@link LatencyHistogram#toJson()}. Histograms that haven't been
+	 *         created yet are summarized as empty ones
+	 */
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.putObject("queueing", toJson(queueing));
+		json.putObject("glitchWait", toJson(glitchWait));
+		json.putObject("compute", toJson(compute));
+		json.putObject("endToEnd", toJson(endToEnd));
+		json.putObject("held", toJson(held));
+		json.putNumber("inconsistentUpdates", inconsistentUpdates);
+		return json;
+	}
+
+	private static JsonObject toJson(LatencyHistogram histogram) {
+		return (histogram == null ? new LatencyHistogram() : histogram).toJson();
+	}
+
+	private void init() {
+		if (queueing == null) {
+			queueing = new LatencyHistogram();
+			glitchWait = new LatencyHistogram();
+			compute = new LatencyHistogram();
+			endToEnd = new LatencyHistogram();
+		}
+	}
+}
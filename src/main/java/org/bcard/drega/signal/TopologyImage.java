@@ -0,0 +1,242 @@
+package org.bcard.drega.signal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * A saved network of signals: the config of every signal and the dependency
+ * graph it ended up with. Deploying from an image hands each signal its graph
+ * up front, so no signal has to ask its dependencies for their graphs and the
+ * whole network starts in one pass instead of one round trip per level.
+ * <p>
+ * The file starts with a table of every signal that appears in any of the
+ * graphs, each row holding the ID of a signal and the rows of its immediate
+ * dependencies. A row only refers to rows before it, so the table is in
+ * dependency order and each graph is rebuilt with
+ * {@link SignalGraph#of(String, SignalGraph...)} from graphs that have already
+ * been read, sharing nodes the same way the graphs that were saved did. The
+ * table is followed by the signals, each the row of its graph and its config
+ * as JSON, in the same order. Signals read from a file are therefore always
+ * after the signals they depend on.
+ * <p>
+ * IDs are stored the same way as in the {@link Journal}, so an ID can be at
+ * most {@link Journal#MAX_ID_LENGTH} bytes of UTF-8.
+ * <p>
+ * Graphs can mention signals that aren't in the image, like dependencies that
+ * run in another process. They are kept in the table so the graphs are
+ * complete, but only signals added with {@link #add(JsonObject, SignalGraph)}
+ * are deployed.
+ *
+ * @author bcard
+ *
+ */
+public class TopologyImage {
+
+	private static final int MAGIC = 0x44525431; // DRT1
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The config of each signal in the image, by ID.
+	 */
+	private final Map<String, JsonObject> configs = new LinkedHashMap<>();
+
+	/**
+	 * The graph of each signal in the image, by ID.
+	 */
+	private final Map<String, SignalGraph> graphs = new HashMap<>();
+
+	/**
+	 * Adds a signal to this image. Adding a signal with the same ID again
+	 * replaces it.
+	 *
+	 * @param config
+	 *            the config the signal was created with
+	 * @param graph
+	 *            the signal's dependency graph
+	 */
+	public void add(JsonObject config, SignalGraph graph) {
+		String id = graph.getId();
+		configs.remove(id);
+		configs.put(id, config);
+		graphs.put(id, graph);
+	}
+
+	/**
+	 * @return the number of signals in this image
+	 */
+	public int size() {
+		return configs.size();
+	}
+
+	/**
+	 * @return the config of every signal in this image. Signals read from a
+	 *         file are in dependency order, otherwise they are in the order
+	 *         they were added
+	 */
+	public List<JsonObject> getConfigs() {
+		return Collections.unmodifiableList(new ArrayList<>(configs.values()));
+	}
+
+	/**
+	 * Returns the graph of a signal in this image.
+	 *
+	 * @param id
+	 *            the ID of the signal
+	 * @return the graph or {@code null} if the signal isn't in this image
+	 */
+	public SignalGraph getGraph(String id) {
+		return graphs.get(id);
+	}
+
+	/**
+	 * Writes this image to a file. The image is written to a temporary file
+	 * and moved into place, so the file is never left half written.
+	 *
+	 * @param file
+	 *            the file to write
+	 * @throws IOException
+	 *             if the file can't be written
+	 * @throws IllegalArgumentException
+	 *             if an ID is longer than {@link Journal#MAX_ID_LENGTH} bytes
+	 */
+	public void write(File file) throws IOException {
+		// number the nodes of every graph so dependencies come first
+		Map<SignalGraph, Integer> rows = new LinkedHashMap<>();
+		for (SignalGraph graph : graphs.values()) {
+			number(graph, rows);
+		}
+		List<String> order = new ArrayList<>(configs.keySet());
+		final Map<String, Integer> signalRows = new HashMap<>();
+		for (String id : order) {
+			signalRows.put(id, rows.get(graphs.get(id)));
+		}
+		Collections.sort(order, new Comparator<String>() {
+
+			@Override
+			public int compare(String a, String b) {
+				return signalRows.get(a).compareTo(signalRows.get(b));
+			}
+		});
+
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temp);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+			out.writeInt(MAGIC);
+			out.writeInt(rows.size());
+			for (SignalGraph node : rows.keySet()) {
+				Journal.writeId(out, node.getId());
+				List<SignalGraph> dependencies = node.getDependentSignals();
+				out.writeInt(dependencies.size());
+				for (SignalGraph dependency : dependencies) {
+					out.writeInt(rows.get(dependency));
+				}
+			}
+
+			out.writeInt(order.size());
+			for (String id : order) {
+				out.writeInt(signalRows.get(id));
+				byte[] config = configs.get(id).encode().getBytes(UTF_8);
+				out.writeInt(config.length);
+				out.write(config);
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Gives a row to every node of a graph that doesn't have one yet, after
+	 * the rows of its dependencies.
+	 */
+	private static void number(SignalGraph graph, Map<SignalGraph, Integer> rows) {
+		// depth first without recursion, long chains would overflow the stack
+		Deque<SignalGraph> toVisit = new ArrayDeque<>();
+		toVisit.push(graph);
+		while (!toVisit.isEmpty()) {
+			SignalGraph current = toVisit.peek();
+			if (rows.containsKey(current)) {
+				toVisit.pop();
+				continue;
+			}
+			SignalGraph unnumbered = null;
+			for (SignalGraph dependency : current.getDependentSignals()) {
+				if (!rows.containsKey(dependency)) {
+					unnumbered = dependency;
+					break;
+				}
+			}
+			if (unnumbered == null) {
+				toVisit.pop();
+				rows.put(current, rows.size());
+			} else {
+				toVisit.push(unnumbered);
+			}
+		}
+	}
+
+	/**
+	 * Reads an image from a file.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @return the image
+	 * @throws IOException
+	 *             if the file can't be read or isn't an image
+	 */
+	public static TopologyImage read(File file) throws IOException {
+		TopologyImage image = new TopologyImage();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a topology image");
+			}
+			SignalGraph[] rows = new SignalGraph[in.readInt()];
+			for (int i = 0; i < rows.length; i++) {
+				String id = Journal.readId(in);
+				SignalGraph[] dependencies = new SignalGraph[in.readInt()];
+				for (int j = 0; j < dependencies.length; j++) {
+					int row = in.readInt();
+					if (row < 0 || row >= i) {
+						throw new IOException("Bad dependency " + row + " for " + id + " in " + file);
+					}
+					dependencies[j] = rows[row];
+				}
+				rows[i] = SignalGraph.of(id, dependencies);
+			}
+
+			int signals = in.readInt();
+			for (int i = 0; i < signals; i++) {
+				int row = in.readInt();
+				if (row < 0 || row >= rows.length) {
+					throw new IOException("Bad signal " + row + " in " + file);
+				}
+				byte[] config = new byte[in.readInt()];
+				in.readFully(config);
+				image.add(new JsonObject(new String(config, UTF_8)), rows[row]);
+			}
+		}
+		return image;
+	}
+}
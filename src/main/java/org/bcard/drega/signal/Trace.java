@@ -0,0 +1,144 @@
+package org.bcard.drega.signal;
+
+import java.util.Arrays;
+
+/**
+ * Timing information carried along with a sampled value update. A trace is
+ * started when a source signal is incremented, that is the first hop. Every
+ * signal that sends the update on, the source included, then adds a hop with
+ * the time it sent it.
+ * <p>
+ * Times are {@link System#nanoTime()} readings, so they are only comparable
+ * between signals running in the same JVM. Hops that cross JVMs in a cluster
+ * still report times, but the differences between them include the clock
+ * offset between the two machines.
+ * <p>
+ * Traces are immutable, {@link #hop(String, long)} returns a new trace. Only
+ * sampled updates carry one so the copy doesn't matter.
+ * 
+ * @author bcard
+ * 
+ */
+public class Trace {
+
+	private final String[] ids;
+
+	private final long[] times;
+
+	private Trace(String[] ids, long[] times) {
+		this.ids = ids;
+		this.times = times;
+	}
+
+	/**
+	 * Starts a new trace.
+	 * 
+	 * @param origin
+	 *            the ID of the signal the update started at
+	 * @param time
+	 *            the time the update was sent
+	 * @return a trace with a single hop
+	 */
+	public static Trace start(String origin, long time) {
+		return new Trace(new String[] { origin }, new long[] { time });
+	}
+
+	/**
+	 * Creates a trace from decoded hops, the arrays are not copied.
+	 */
+	static Trace of(String[] ids, long[] times) {
+		return new Trace(ids, times);
+	}
+
+	/**
+	 * Returns a copy of this trace with one more hop.
+	 * 
+	 * @param id
+	 *            the ID of the signal sending the update on
+	 * @param time
+	 *            the time it was sent
+	 * @return the new trace
+	 */
+	public Trace hop(String id, long time) {
+		String[] newIds = Arrays.copyOf(ids, ids.length + 1);
+		long[] newTimes = Arrays.copyOf(times, times.length + 1);
+		newIds[ids.length] = id;
+		newTimes[times.length] = time;
+		return new Trace(newIds, newTimes);
+	}
+
+	/**
+	 * @return the ID of the signal the update started at
+	 */
+	public String getOrigin() {
+		return ids[0];
+	}
+
+	/**
+	 * @return the time the update left its origin
+	 */
+	public long getOriginTime() {
+		return times[0];
+	}
+
+	/**
+	 * @return the time the update was last sent on
+	 */
+	public long getLastTime() {
+		return times[times.length - 1];
+	}
+
+	/**
+	 * @return the number of hops, including the origin
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @param index
+	 *            the index of a hop, 0 is the origin
+	 * @return the ID of the signal that sent the hop
+	 */
+	public String idAt(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * @param index
+	 *            the index of a hop, 0 is the origin
+	 * @return the time the hop was sent
+	 */
+	public long timeAt(int index) {
+		return times[index];
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(ids) + Arrays.hashCode(times);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		}
+		Trace other = (Trace) obj;
+		return Arrays.equals(ids, other.ids) && Arrays.equals(times, other.times);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < ids.length; i++) {
+			if (i > 0) {
+				builder.append(" -> ");
+			}
+			builder.append(ids[i]).append('@').append(times[i]);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,555 @@
+package org.bcard.drega.signal;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * A value update sent from a signal to the signals that depend on it. An update
+ * is made up of the new value and the {@link SignalChain} of event counters
+ * that produced it. Updates can be encoded in either {@link WireFormat}:
+ *
+ * <ul>
+ * <li><b>JSON</b> {@code {"value": 1, "chain": {"entries": [{"id": "x",
+ * "counter": 1}], "last": "x"}}}, the same layout as {@link SignalChain#toJson()}
+ * <li><b>BINARY</b> a version byte, a flags byte, the value as an 8 byte long,
+ * the number of chain entries as a 4 byte int and then each entry as a 2 byte
+ * length, the UTF-8 bytes of the ID and a 4 byte event counter.
+ * </ul>
+ *
+ * Sampled updates also carry a {@link Trace}. In JSON it is a {@code trace}
+ * field, {@code {"hops": [{"id": "x", "time": 123}]}}. In binary the
+ * {@link #FLAG_TRACED} flag is set and the trace follows the chain as a 4 byte
+ * count and then each hop as a 2 byte length, the UTF-8 bytes of the ID and an
+ * 8 byte time.
+ * <p>
+ * Updates that are part of a transaction carry the {@link Epoch}s they
+ * complete. In JSON they are an {@code epochs} array of
+ * {@link Epoch#toJson()} objects. In binary the {@link #FLAG_EPOCHS} flag is
+ * set and they follow the trace, if there is one, as a 4 byte count and then
+ * each epoch as a length prefixed ID, a 4 byte count of sources and each
+ * source as a length prefixed ID. IDs are written the same way as in the
+ * chain.
+ * <p>
+ * A value sent before glitch avoidance could confirm it, see
+ * {@link ConsistencyLevel#BOUNDED}, is marked as possibly inconsistent. In
+ * JSON this is an {@code inconsistent} field set to {@code true}, in binary
+ * the {@link #FLAG_INCONSISTENT} flag is set. The corrected value that follows
+ * has the same counters without the mark, which is how signals downstream
+ * tell the two apart, see {@link DependencyValues#hasGlitch()}.
+ *
+ * {@link #decode(Object)} accepts either format so signals can always read
+ * each other's updates regardless of how the sender was configured.
+ * <p>
+ * IDs are limited to 65535 bytes of UTF-8 in the binary format, encoding an
+ * update with a longer ID throws an {@link IllegalArgumentException}. Binary
+ * updates with a different version, with flags this class doesn't know or
+ * that are cut short are rejected with an {@link IllegalArgumentException}
+ * rather than misread.
+ *
+ * @author bcard
+ *
+ */
+public class ValueMessage {
+
+	/**
+	 * The version of the binary format written by this class. Bump this if the
+	 * layout changes.
+	 */
+	public static final byte VERSION = 2;
+
+	/**
+	 * Set in the flags byte of the binary format when a {@link Trace} follows
+	 * the chain.
+	 */
+	public static final byte FLAG_TRACED = 0x01;
+
+	/**
+	 * Set in the flags byte of the binary format when {@link Epoch}s follow
+	 * the chain and trace.
+	 */
+	public static final byte FLAG_EPOCHS = 0x02;
+
+	/**
+	 * Set in the flags byte of the binary format when the value is possibly
+	 * inconsistent.
+	 */
+	public static final byte FLAG_INCONSISTENT = 0x04;
+
+	/**
+	 * Every flag in this version of the binary format.
+	 */
+	private static final byte KNOWN_FLAGS = FLAG_TRACED | FLAG_EPOCHS | FLAG_INCONSISTENT;
+
+	/**
+	 * The most bytes an ID can take in the binary format.
+	 */
+	public static final int MAX_ID_LENGTH = 0xFFFF;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final long value;
+
+	private final SignalChain chain;
+
+	private final Trace trace;
+
+	private final List<Epoch> epochs;
+
+	private final boolean inconsistent;
+
+	/**
+	 * Creates a new {@link ValueMessage}.
+	 *
+	 * @param value
+	 *            the value being sent
+	 * @param chain
+	 *            the event counters of the signals that produced the value
+	 */
+	public ValueMessage(long value, SignalChain chain) {
+		this(value, chain, null);
+	}
+
+	/**
+	 * Creates a new {@link ValueMessage} for a sampled update.
+	 *
+	 * @param value
+	 *            the value being sent
+	 * @param chain
+	 *            the event counters of the signals that produced the value
+	 * @param trace
+	 *            the timing of the update, may be {@code null}
+	 */
+	public ValueMessage(long value, SignalChain chain, Trace trace) {
+		this(value, chain, trace, null);
+	}
+
+	/**
+	 * Creates a new {@link ValueMessage} for an update that may be part of a
+	 * transaction.
+	 *
+	 * @param value
+	 *            the value being sent
+	 * @param chain
+	 *            the event counters of the signals that produced the value
+	 * @param trace
+	 *            the timing of the update, may be {@code null}
+	 * @param epochs
+	 *            the transactions the update completes, may be {@code null}
+	 */
+	public ValueMessage(long value, SignalChain chain, Trace trace, List<Epoch> epochs) {
+		this(value, chain, trace, epochs, false);
+	}
+
+	/**
+	 * Creates a new {@link ValueMessage}.
+	 *
+	 * @param value
+	 *            the value being sent
+	 * @param chain
+	 *            the event counters of the signals that produced the value
+	 * @param trace
+	 *            the timing of the update, may be {@code null}
+	 * @param epochs
+	 *            the transactions the update completes, may be {@code null}
+	 * @param inconsistent
+	 *            {@code true} if the value may mix old and new updates
+	 */
+	public ValueMessage(long value, SignalChain chain, Trace trace, List<Epoch> epochs, boolean inconsistent) {
+		this.value = value;
+		this.chain = chain;
+		this.trace = trace;
+		this.epochs = epochs;
+		this.inconsistent = inconsistent;
+	}
+
+	/**
+	 * @return the value carried by this update
+	 */
+	public long getValue() {
+		return value;
+	}
+
+	/**
+	 * @return the event counters of the signals that produced the value
+	 */
+	public SignalChain getChain() {
+		return chain;
+	}
+
+	/**
+	 * @return the timing of this update, or {@code null} if it wasn't sampled
+	 */
+	public Trace getTrace() {
+		return trace;
+	}
+
+	/**
+	 * @return the transactions this update completes, or {@code null} if it
+	 *         isn't part of one
+	 */
+	public List<Epoch> getEpochs() {
+		return epochs;
+	}
+
+	/**
+	 * @return {@code true} if the value was sent before the signal could
+	 *         confirm that its dependencies agreed, it may mix old and new
+	 *         updates
+	 */
+	public boolean isInconsistent() {
+		return inconsistent;
+	}
+
+	/**
+	 * Encodes this update in the given format.
+	 *
+	 * @param format
+	 *            the format to use
+	 * @return a {@link Buffer} or a {@link JsonObject} depending on the format
+	 */
+	public Object encode(WireFormat format) {
+		return format == WireFormat.BINARY ? toBuffer() : toJsonObject();
+	}
+
+	/**
+	 * @return this update in the {@link WireFormat#BINARY} format
+	 */
+	public Buffer toBuffer() {
+		int size = 14;
+		byte[][] ids = new byte[chain.size()][];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = idBytes(chain.idAt(i));
+			size += 6 + ids[i].length;
+		}
+		byte[][] hops = null;
+		if (trace != null) {
+			hops = new byte[trace.size()][];
+			size += 4;
+			for (int i = 0; i < hops.length; i++) {
+				hops[i] = idBytes(trace.idAt(i));
+				size += 10 + hops[i].length;
+			}
+		}
+
+		byte[][][] epochIds = null;
+		if (epochs != null) {
+			epochIds = new byte[epochs.size()][][];
+			size += 4;
+			for (int i = 0; i < epochIds.length; i++) {
+				List<String> sources = epochs.get(i).getSources();
+				epochIds[i] = new byte[sources.size() + 1][];
+				epochIds[i][0] = idBytes(epochs.get(i).getId());
+				size += 6 + epochIds[i][0].length;
+				for (int j = 0; j < sources.size(); j++) {
+					epochIds[i][j + 1] = idBytes(sources.get(j));
+					size += 2 + epochIds[i][j + 1].length;
+				}
+			}
+		}
+
+		byte flags = 0;
+		if (trace != null) {
+			flags |= FLAG_TRACED;
+		}
+		if (epochs != null) {
+			flags |= FLAG_EPOCHS;
+		}
+		if (inconsistent) {
+			flags |= FLAG_INCONSISTENT;
+		}
+		Buffer buffer = new Buffer(size);
+		buffer.appendByte(VERSION);
+		buffer.appendByte(flags);
+		buffer.appendLong(value);
+		buffer.appendInt(ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			buffer.appendShort((short) ids[i].length);
+			buffer.appendBytes(ids[i]);
+			buffer.appendInt(chain.counterAt(i));
+		}
+		if (hops != null) {
+			buffer.appendInt(hops.length);
+			for (int i = 0; i < hops.length; i++) {
+				buffer.appendShort((short) hops[i].length);
+				buffer.appendBytes(hops[i]);
+				buffer.appendLong(trace.timeAt(i));
+			}
+		}
+		if (epochIds != null) {
+			buffer.appendInt(epochIds.length);
+			for (byte[][] epoch : epochIds) {
+				buffer.appendShort((short) epoch[0].length);
+				buffer.appendBytes(epoch[0]);
+				buffer.appendInt(epoch.length - 1);
+				for (int j = 1; j < epoch.length; j++) {
+					buffer.appendShort((short) epoch[j].length);
+					buffer.appendBytes(epoch[j]);
+				}
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * @return the UTF-8 bytes of an ID
+	 * @throws IllegalArgumentException
+	 *             if the ID doesn't fit in a length prefix
+	 */
+	private static byte[] idBytes(String id) {
+		byte[] bytes = id.getBytes(UTF8);
+		if (bytes.length > MAX_ID_LENGTH) {
+			throw new IllegalArgumentException("ID is " + bytes.length + " bytes, at most " + MAX_ID_LENGTH
+					+ " can be encoded");
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return this update in the {@link WireFormat#JSON} format
+	 */
+	public JsonObject toJsonObject() {
+		JsonArray entries = new JsonArray();
+		for (int i = 0; i < chain.size(); i++) {
+			JsonObject entry = new JsonObject();
+			entry.putString("id", chain.idAt(i));
+			entry.putNumber("counter", chain.counterAt(i));
+			entries.addObject(entry);
+		}
+		JsonObject chainJson = new JsonObject();
+		chainJson.putArray("entries", entries);
+		if (chain.size() > 0) {
+			chainJson.putString("last", chain.getLast());
+		}
+
+		JsonObject msg = new JsonObject();
+		msg.putNumber("value", value);
+		msg.putObject("chain", chainJson);
+		if (trace != null) {
+			JsonArray hops = new JsonArray();
+			for (int i = 0; i < trace.size(); i++) {
+				JsonObject hop = new JsonObject();
+				hop.putString("id", trace.idAt(i));
+				hop.putNumber("time", trace.timeAt(i));
+				hops.addObject(hop);
+			}
+			JsonObject traceJson = new JsonObject();
+			traceJson.putArray("hops", hops);
+			msg.putObject("trace", traceJson);
+		}
+		if (epochs != null) {
+			JsonArray array = new JsonArray();
+			for (Epoch epoch : epochs) {
+				array.addObject(epoch.toJson());
+			}
+			msg.putArray("epochs", array);
+		}
+		if (inconsistent) {
+			msg.putBoolean("inconsistent", true);
+		}
+		return msg;
+	}
+
+	/**
+	 * Decodes an update from a message body. The body may be in either
+	 * {@link WireFormat}.
+	 *
+	 * @param body
+	 *            a {@link Buffer} or {@link JsonObject} message body
+	 * @return the decoded update
+	 * @throws IllegalArgumentException
+	 *             if the body is not a recognized update
+	 */
+	public static ValueMessage decode(Object body) {
+		if (body instanceof Buffer) {
+			return fromBuffer((Buffer) body);
+		} else if (body instanceof JsonObject) {
+			return fromJsonObject((JsonObject) body);
+		}
+		throw new IllegalArgumentException("Unknown value message: " + body);
+	}
+
+	/**
+	 * Decodes an update written by {@link #toBuffer()}.
+	 *
+	 * @param buffer
+	 *            the encoded update
+	 * @return the decoded update
+	 * @throws IllegalArgumentException
+	 *             if the update has a different version or unknown flags, or
+	 *             is cut short
+	 */
+	public static ValueMessage fromBuffer(Buffer buffer) {
+		Reader in = new Reader(buffer);
+		byte version = in.readByte();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported value message version " + version);
+		}
+
+		byte flags = in.readByte();
+		if ((flags & ~KNOWN_FLAGS) != 0) {
+			throw new IllegalArgumentException("Unsupported value message flags " + flags);
+		}
+		long value = in.readLong();
+		// each entry takes at least 6 bytes
+		int count = in.readCount(6);
+		SignalChain chain = new SignalChain();
+		for (int i = 0; i < count; i++) {
+			String id = in.readId();
+			chain.append(id, in.readInt());
+		}
+
+		Trace trace = null;
+		if ((flags & FLAG_TRACED) != 0) {
+			int hops = in.readCount(10);
+			String[] ids = new String[hops];
+			long[] times = new long[hops];
+			for (int i = 0; i < hops; i++) {
+				ids[i] = in.readId();
+				times[i] = in.readLong();
+			}
+			trace = Trace.of(ids, times);
+		}
+
+		List<Epoch> epochs = null;
+		if ((flags & FLAG_EPOCHS) != 0) {
+			int numEpochs = in.readCount(6);
+			epochs = new ArrayList<>(numEpochs);
+			for (int i = 0; i < numEpochs; i++) {
+				String id = in.readId();
+				int numSources = in.readCount(2);
+				List<String> sources = new ArrayList<>(numSources);
+				for (int j = 0; j < numSources; j++) {
+					sources.add(in.readId());
+				}
+				epochs.add(new Epoch(id, sources));
+			}
+		}
+		return new ValueMessage(value, chain, trace, epochs, (flags & FLAG_INCONSISTENT) != 0);
+	}
+
+	/**
+	 * Reads the binary format, checking that each field is there before it
+	 * is read.
+	 */
+	private static class Reader {
+		private final Buffer buffer;
+		private int pos = 0;
+
+		Reader(Buffer buffer) {
+			this.buffer = buffer;
+		}
+
+		private void require(int bytes) {
+			if (pos + bytes > buffer.length()) {
+				throw new IllegalArgumentException("Value message is cut short at byte " + pos + " of "
+						+ buffer.length());
+			}
+		}
+
+		byte readByte() {
+			require(1);
+			return buffer.getByte(pos++);
+		}
+
+		int readInt() {
+			require(4);
+			int result = buffer.getInt(pos);
+			pos += 4;
+			return result;
+		}
+
+		long readLong() {
+			require(8);
+			long result = buffer.getLong(pos);
+			pos += 8;
+			return result;
+		}
+
+		/**
+		 * Reads the number of items that follow, each at least
+		 * {@code itemSize} bytes long.
+		 */
+		int readCount(int itemSize) {
+			int count = readInt();
+			if (count < 0 || (long) count * itemSize > buffer.length() - pos) {
+				throw new IllegalArgumentException("Value message has a bad count " + count + " at byte "
+						+ (pos - 4));
+			}
+			return count;
+		}
+
+		String readId() {
+			require(2);
+			int length = buffer.getShort(pos) & 0xFFFF;
+			pos += 2;
+			require(length);
+			String id = new String(buffer.getBytes(pos, pos + length), UTF8);
+			pos += length;
+			return id;
+		}
+	}
+
+	/**
+	 * Decodes an update written by {@link #toJsonObject()}.
+	 *
+	 * @param json
+	 *            the encoded update
+	 * @return the decoded update
+	 */
+	public static ValueMessage fromJsonObject(JsonObject json) {
+		SignalChain chain = new SignalChain();
+		JsonObject chainJson = json.getObject("chain");
+		JsonArray entries = chainJson == null ? null : chainJson.getArray("entries");
+		if (entries != null) {
+			for (Object entry : entries) {
+				JsonObject obj = (JsonObject) entry;
+				chain.append(obj.getString("id"), obj.getInteger("counter"));
+			}
+		}
+
+		Trace trace = null;
+		JsonObject traceJson = json.getObject("trace");
+		JsonArray hops = traceJson == null ? null : traceJson.getArray("hops");
+		if (hops != null) {
+			String[] ids = new String[hops.size()];
+			long[] times = new long[hops.size()];
+			for (int i = 0; i < ids.length; i++) {
+				JsonObject hop = (JsonObject) hops.get(i);
+				ids[i] = hop.getString("id");
+				times[i] = hop.getLong("time");
+			}
+			trace = Trace.of(ids, times);
+		}
+
+		List<Epoch> epochs = null;
+		JsonArray epochsJson = json.getArray("epochs");
+		if (epochsJson != null) {
+			epochs = new ArrayList<>(epochsJson.size());
+			for (int i = 0; i < epochsJson.size(); i++) {
+				epochs.add(Epoch.fromJson((JsonObject) epochsJson.get(i)));
+			}
+		}
+		boolean inconsistent = json.getBoolean("inconsistent", false);
+		return new ValueMessage(json.getLong("value"), chain, trace, epochs, inconsistent);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder().append(value).append(' ').append(chain);
+		if (trace != null) {
+			builder.append(' ').append(trace);
+		}
+		if (epochs != null) {
+			builder.append(' ').append(epochs);
+		}
+		if (inconsistent) {
+			builder.append(" inconsistent");
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,37 @@
+package org.bcard.drega.signal;
+
+/**
+ * The encodings a {@link Signal} can use when publishing value updates on its
+ * {@code signals.[id].value} address. See {@link ValueMessage} for the layout
+ * of each format.
+ * 
+ * @author bcard
+ * 
+ */
+public enum WireFormat {
+	/**
+	 * A {@link org.vertx.java.core.json.JsonObject} with {@code value} and
+	 * {@code chain} fields. Slower, but readable by clients written in any of
+	 * the vert.x languages.
+	 */
+	JSON,
+
+	/**
+	 * A compact, versioned {@link org.vertx.java.core.buffer.Buffer}. This is
+	 * the default format used between signals.
+	 */
+	BINARY;
+
+	/**
+	 * Looks up a format by name, ignoring case.
+	 * 
+	 * @param name
+	 *            the name of the format, e.g. {@code json}
+	 * @return the matching format
+	 * @throws IllegalArgumentException
+	 *             if there is no format with the given name
+	 */
+	public static WireFormat fromName(String name) {
+		return valueOf(name.trim().toUpperCase());
+	}
+}
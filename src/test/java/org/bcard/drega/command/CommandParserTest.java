@@ -2,20 +2,33 @@ package org.bcard.drega.command;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
+import org.bcard.drega.command.BatchUpdate;
 import org.bcard.drega.command.BlockSignal;
 import org.bcard.drega.command.CombineSymbols;
 import org.bcard.drega.command.CommandParser;
+import org.bcard.drega.command.CreateExpression;
 import org.bcard.drega.command.CreateSignal;
+import org.bcard.drega.command.CoalesceSignal;
+import org.bcard.drega.command.ConsistencySignal;
+import org.bcard.drega.command.DistinctSignal;
 import org.bcard.drega.command.Exit;
 import org.bcard.drega.command.GlitchSignal;
 import org.bcard.drega.command.ICommand;
 import org.bcard.drega.command.Increment;
+import org.bcard.drega.command.LoadTopology;
 import org.bcard.drega.command.MapSignal;
 import org.bcard.drega.command.ParseException;
 import org.bcard.drega.command.PrintGraph;
 import org.bcard.drega.command.PrintHelp;
 import org.bcard.drega.command.PrintSignal;
+import org.bcard.drega.command.PrintPlacement;
+import org.bcard.drega.command.PrintStats;
+import org.bcard.drega.command.RunScript;
+import org.bcard.drega.command.SaveTopology;
 import org.bcard.drega.signal.CombineOperator;
+import org.bcard.drega.signal.ConsistencyLevel;
 import org.junit.Test;
 import static org.hamcrest.core.IsInstanceOf.*;
 
@@ -129,16 +142,76 @@ public class CommandParserTest {
 	public void testSubtractingSignalsWithSpacesTrimsInput() {
 		CombineSymbols command = (CombineSymbols)parse("x = y - z");
 		assertEquals("x", command.target);
-		assertEquals("y", command.symbol1);
-		assertEquals("z", command.symbol2);
+		assertEquals(Arrays.asList("y", "z"), command.symbols);
 	}
 	
 	@Test
 	public void testAddingSignalsWithSpacesTrimsInput() {
 		CombineSymbols command = (CombineSymbols)parse("x = y + z");
 		assertEquals("x", command.target);
-		assertEquals("y", command.symbol1);
-		assertEquals("z", command.symbol2);
+		assertEquals(Arrays.asList("y", "z"), command.symbols);
+	}
+	
+	@Test
+	public void testAddingManySignals() {
+		CombineSymbols command = (CombineSymbols)parse("t = a + b + c + d");
+		
+		assertEquals(CombineOperator.ADD, command.operator);
+		assertEquals("t", command.target);
+		assertEquals(Arrays.asList("a", "b", "c", "d"), command.symbols);
+	}
+	
+	@Test
+	public void testMultiplyingSignals() {
+		CombineSymbols command = (CombineSymbols)parse("t=a*b*c");
+		
+		assertEquals(CombineOperator.PRODUCT, command.operator);
+		assertEquals(Arrays.asList("a", "b", "c"), command.symbols);
+	}
+	
+	@Test
+	public void testFunctions() {
+		assertEquals(CombineOperator.ADD, ((CombineSymbols)parse("t = sum(a, b, c)")).operator);
+		assertEquals(CombineOperator.PRODUCT, ((CombineSymbols)parse("t = product(a,b)")).operator);
+		assertEquals(CombineOperator.MIN, ((CombineSymbols)parse("t = min(a, b)")).operator);
+		assertEquals(CombineOperator.MAX, ((CombineSymbols)parse("t = max(a, b)")).operator);
+		assertEquals(CombineOperator.AVG, ((CombineSymbols)parse("t = avg(a, b)")).operator);
+	}
+	
+	@Test
+	public void testFunctionTrimsInput() {
+		CombineSymbols command = (CombineSymbols)parse("t = max( a , b ,c )");
+		
+		assertEquals("t", command.target);
+		assertEquals(Arrays.asList("a", "b", "c"), command.symbols);
+	}
+	
+	@Test
+	public void testExpression() {
+		CreateExpression command = (CreateExpression)parse("z = (a + b) * c - d");
+		
+		assertEquals("z", command.target);
+		assertEquals(Arrays.asList("a", "b", "c", "d"), command.expression.getVariables());
+	}
+	
+	@Test
+	public void testMixedOperatorsAreAnExpression() {
+		assertThat(parse("t = a + b - c"), instanceOf(CreateExpression.class));
+	}
+	
+	@Test
+	public void testConstantExpressionCreatesSignal() {
+		assertCreateParsesToIdAndValue("x = (1 + 2) * 3", "x", 9);
+	}
+	
+	@Test(expected=ParseException.class)
+	public void testInvalidExpression() {
+		parse("z = (a + b");
+	}
+	
+	@Test(expected=ParseException.class)
+	public void testConstantDivideByZero() {
+		parse("z = 1 / 0");
 	}
 	
 	@Test
@@ -161,11 +234,140 @@ public class CommandParserTest {
 		assertThat(parse("noglitch x"), instanceOf(GlitchSignal.class));
 	}
 	
+	@Test
+	public void testDistinct() {
+		assertThat(parse("distinct x"), instanceOf(DistinctSignal.class));
+		assertThat(parse("nodistinct x"), instanceOf(DistinctSignal.class));
+	}
+	
+	@Test
+	public void testConsistency() {
+		ConsistencySignal cmd = (ConsistencySignal) parse("consistency x bounded 250");
+		assertEquals(ConsistencyLevel.BOUNDED, cmd.getLevel());
+		assertEquals(250, cmd.getMaxStaleness());
+		assertEquals(ConsistencyLevel.STRICT, ((ConsistencySignal) parse("consistency x strict")).getLevel());
+		assertEquals(ConsistencyLevel.EVENTUAL, ((ConsistencySignal) parse("consistency x eventual")).getLevel());
+	}
+	
+	@Test(expected=ParseException.class)
+	public void testUnknownConsistency() {
+		parse("consistency x sometimes");
+	}
+	
+	@Test
+	public void testCoalesce() {
+		assertThat(parse("coalesce x 10"), instanceOf(CoalesceSignal.class));
+		assertThat(parse("coalesce x 10 50"), instanceOf(CoalesceSignal.class));
+	}
+	
+	@Test(expected=ParseException.class)
+	public void testCoalesceNeedsDelay() {
+		parse("coalesce x");
+	}
+	
+	@Test
+	public void testStatsCommand() {
+		assertThat(parse("stats x"), instanceOf(PrintStats.class));
+	}
+	
+	@Test
+	public void testSaveCommand() {
+		SaveTopology command = (SaveTopology) parse("save /tmp/network.img");
+		assertEquals("/tmp/network.img", command.getFile());
+	}
+	
+	@Test
+	public void testLoadCommand() {
+		LoadTopology command = (LoadTopology) parse("load network.img");
+		assertEquals("network.img", command.getFile());
+	}
+	
+	@Test
+	public void testRunCommand() {
+		RunScript command = (RunScript) parse("run network.drega");
+		assertEquals("network.drega", command.getFile());
+		assertEquals(RunScript.DEFAULT_PARALLELISM, command.getParallelism());
+		
+		command = (RunScript) parse("run network.drega 8");
+		assertEquals(8, command.getParallelism());
+	}
+	
+	@Test
+	public void testPlacementCommand() {
+		assertThat(parse("placement"), instanceOf(PrintPlacement.class));
+	}
+	
 	@Test
 	public void testHelpCommand() {
 		assertThat(parse("help"), instanceOf(PrintHelp.class));
 	}
 	
+	@Test
+	public void testAdd() {
+		Increment cmd = (Increment) parse("x += 10");
+		assertEquals("x", cmd.getId());
+		assertEquals(10, cmd.getAmount());
+	}
+	
+	@Test
+	public void testSubtract() {
+		Increment cmd = (Increment) parse("x-=10");
+		assertEquals("x", cmd.getId());
+		assertEquals(-10, cmd.getAmount());
+	}
+	
+	@Test
+	public void testBatch() {
+		BatchUpdate cmd = (BatchUpdate) parse("x += 10; y = 3; x -= 4");
+		assertEquals(Long.valueOf(6), cmd.getDeltas().get("x"));
+		assertEquals(Long.valueOf(3), cmd.getValues().get("y"));
+		assertFalse(cmd.getDeltas().containsKey("y"));
+	}
+	
+	@Test
+	public void testBatchSetReplacesEarlierDelta() {
+		BatchUpdate cmd = (BatchUpdate) parse("x += 10;x = 3");
+		assertEquals(Long.valueOf(3), cmd.getValues().get("x"));
+		assertFalse(cmd.getDeltas().containsKey("x"));
+	}
+	
+	@Test
+	public void testTransaction() {
+		BatchUpdate cmd = (BatchUpdate) parse("begin; a += 1; b = 2; commit");
+		assertTrue(cmd.isTransactional());
+		assertEquals(Long.valueOf(1), cmd.getDeltas().get("a"));
+		assertEquals(Long.valueOf(2), cmd.getValues().get("b"));
+		assertFalse(((BatchUpdate) parse("a += 1; b = 2")).isTransactional());
+	}
+	
+	@Test
+	public void testTransactionWithOneUpdate() {
+		assertThat(parse("begin;a+=1;commit"), instanceOf(BatchUpdate.class));
+	}
+	
+	@Test(expected=ParseException.class)
+	public void testTransactionNeedsCommit() {
+		parse("begin; a += 1");
+	}
+	
+	@Test
+	public void testTransactionKeywordsAreNotSignals() {
+		for (String keyword : new String[] { "begin", "commit", " rollback " }) {
+			try {
+				parse(keyword);
+				fail(keyword + " parsed");
+			} catch (ParseException e) {
+				// expected
+			}
+		}
+		assertThat(parse("beginning"), instanceOf(PrintSignal.class));
+	}
+	
+	@Test(expected=ParseException.class)
+	public void testBatchNeedsValues() {
+		parse("x += 1; y");
+	}
+	
 	/// ------------- Helper methods --------------- /// 
 	
 	private ICommand parse(String input) {
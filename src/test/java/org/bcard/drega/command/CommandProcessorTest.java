@@ -1,19 +1,28 @@
 package org.bcard.drega.command;
 
 import static org.mockito.Matchers.any;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.bcard.drega.command.CommandProcessor;
+import org.bcard.drega.signal.Signal;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.shareddata.SharedData;
 import org.vertx.java.platform.Container;
 
 /**
@@ -40,6 +49,7 @@ public class CommandProcessorTest {
 	public void setup() {
 		MockitoAnnotations.initMocks(this);
 		when(vertx.eventBus()).thenReturn(eventBus);
+		when(vertx.sharedData()).thenReturn(new SharedData());
 		when(container.logger()).thenReturn(logger);
 	}
 	
@@ -54,4 +64,28 @@ public class CommandProcessorTest {
 		
 		verify(eventBus).registerLocalHandler(eq("command"), any(Handler.class));
 	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void testTransactionOverSeveralLines() {
+		CommandProcessor processor = new CommandProcessor();
+		processor.setVertx(vertx);
+		processor.setContainer(container);
+		processor.start();
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).registerLocalHandler(eq("command"), captor.capture());
+		
+		for (String line : new String[] { "begin", "a += 1", "b = 2", "commit" }) {
+			Message<String> message = mock(Message.class);
+			when(message.body()).thenReturn(line);
+			captor.getValue().handle(message);
+			verify(message).reply();
+			verify(eventBus, line.equals("commit") ? times(1) : never()).publish(eq(Signal.BATCH_ADDRESS),
+					any(JsonObject.class));
+		}
+		
+		ArgumentCaptor<JsonObject> batch = ArgumentCaptor.forClass(JsonObject.class);
+		verify(eventBus).publish(eq(Signal.BATCH_ADDRESS), batch.capture());
+		assertEquals(2, batch.getValue().getObject("epoch").getArray("sources").size());
+	}
 }
@@ -0,0 +1,303 @@
+package org.bcard.drega.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bcard.drega.signal.Signal;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.eventbus.ReplyException;
+import org.vertx.java.core.eventbus.ReplyFailure;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.shareddata.SharedData;
+import org.vertx.java.platform.Container;
+
+/**
+ * Tests for the {@link RunScript} command.
+ * 
+ * @author bcard
+ * 
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class RunScriptTest {
+
+	@Mock
+	Vertx vertx;
+
+	@Mock
+	EventBus eventBus;
+
+	@Mock
+	Container container;
+
+	@Mock
+	Logger logger;
+
+	@Mock
+	Handler<AsyncResult<String>> done;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		when(vertx.eventBus()).thenReturn(eventBus);
+		// no host, so signals are deployed as verticles
+		when(vertx.sharedData()).thenReturn(new SharedData());
+		when(container.logger()).thenReturn(logger);
+		answerSets(false);
+	}
+
+	@Test
+	public void testLevels() {
+		List<String> failures = new ArrayList<>();
+		List<List<JsonObject>> levels = RunScript.levels(
+				Arrays.asList(config("c", "a", "b"), config("a"), config("b", "a"), config("d", "x")), failures);
+
+		assertEquals(3, levels.size());
+		assertEquals(Arrays.asList(config("a"), config("d", "x")), levels.get(0));
+		assertEquals(Arrays.asList(config("b", "a")), levels.get(1));
+		assertEquals(Arrays.asList(config("c", "a", "b")), levels.get(2));
+		assertTrue(failures.isEmpty());
+	}
+
+	@Test
+	public void testCyclesAndDuplicatesFail() {
+		List<String> failures = new ArrayList<>();
+		List<List<JsonObject>> levels = RunScript.levels(
+				Arrays.asList(config("a"), config("a"), config("b", "c"), config("c", "b")), failures);
+
+		assertEquals(Arrays.asList(Arrays.asList(config("a"))), levels);
+		assertEquals(3, failures.size());
+	}
+
+	@Test
+	public void testDeploysLevelsInOrder() throws IOException {
+		run(new RunScript(script("a=1", "b=2", "# a comment", "", "c=a+b"), 64));
+
+		List<Handler> first = deployments(2);
+		verify(container, never()).deployVerticle(eq(Signal.class.getName()), eq(config("c", "a", "b")
+				.putString("operator", "ADD")), any(Handler.class));
+
+		first.get(0).handle(new DefaultFutureResult<String>("a"));
+		first.get(1).handle(new DefaultFutureResult<String>("b"));
+		List<Handler> second = deployments(3);
+		verify(done, never()).handle(any(AsyncResult.class));
+
+		second.get(2).handle(new DefaultFutureResult<String>("c"));
+		verify(done).handle(any(AsyncResult.class));
+	}
+
+	@Test
+	public void testParallelismIsBounded() throws IOException {
+		run(new RunScript(script("a=1", "b=2", "c=3"), 2));
+
+		List<Handler> handlers = deployments(2);
+		handlers.get(0).handle(new DefaultFutureResult<String>("a"));
+		deployments(3);
+	}
+
+	@Test
+	public void testDependentsOfFailuresAreSkipped() throws IOException {
+		run(new RunScript(script("a=1", "b=a", "c=b"), 64));
+
+		deployments(1).get(0).handle(new DefaultFutureResult<String>(new IllegalStateException("broken")));
+
+		deployments(1);
+		verify(done).handle(any(AsyncResult.class));
+		verify(logger).error(" a: broken");
+		verify(logger).error(" b skipped, a failed");
+		verify(logger).error(" c skipped, b failed");
+	}
+
+	@Test
+	public void testOtherCommandsRunAfterDeploying() throws IOException {
+		run(new RunScript(script("a=1", "a++"), 64));
+		verify(eventBus, never()).publish(eq("signals.a.increment"), any(Long.class));
+
+		deployments(1).get(0).handle(new DefaultFutureResult<String>("a"));
+
+		verify(eventBus).publish("signals.a.increment", 1L);
+		verify(done).handle(any(AsyncResult.class));
+	}
+
+	@Test
+	public void testReassignmentIsSetInScriptOrder() throws IOException {
+		run(new RunScript(script("a=1", "a++", "a=5", "b=a"), 64));
+
+		List<Handler> first = deployments(1);
+		first.get(0).handle(new DefaultFutureResult<String>("a"));
+		// a has been deployed now
+		answerSets(true);
+		deployments(2).get(1).handle(new DefaultFutureResult<String>("b"));
+
+		InOrder inOrder = inOrder(eventBus);
+		inOrder.verify(eventBus).publish("signals.a.increment", 1L);
+		inOrder.verify(eventBus).sendWithTimeout(eq("signals.a.set"), eq(5L), anyLong(), any(Handler.class));
+		verify(logger, never()).error(anyString());
+		verify(done).handle(any(AsyncResult.class));
+	}
+
+	@Test
+	public void testSetWithoutSignalFails() throws IOException {
+		run(new RunScript(script("a=1", "a=5"), 64));
+
+		// nothing answers the set
+		deployments(1).get(0).handle(new DefaultFutureResult<String>("a"));
+
+		verify(logger).error(" No signal a to set");
+		verify(done).handle(any(AsyncResult.class));
+	}
+
+	@Test
+	public void testExistingSourceIsSet() throws IOException {
+		answerSets(true);
+
+		run(new RunScript(script("a=5", "a++"), 64));
+
+		verify(eventBus).sendWithTimeout(eq("signals.a.set"), eq(5L), anyLong(), any(Handler.class));
+		verify(container, never()).deployVerticle(anyString(), any(JsonObject.class), any(Handler.class));
+		verify(eventBus).publish("signals.a.increment", 1L);
+		verify(logger, never()).error(anyString());
+		verify(done).handle(any(AsyncResult.class));
+	}
+
+	@Test
+	public void testTransactionRunsAsOneCommand() throws IOException {
+		run(new RunScript(script("a=1", "begin", "a += 2", "a = 5", "commit", "a++"), 64));
+
+		deployments(1).get(0).handle(new DefaultFutureResult<String>("a"));
+
+		ArgumentCaptor<JsonObject> captor = ArgumentCaptor.forClass(JsonObject.class);
+		InOrder inOrder = inOrder(eventBus);
+		inOrder.verify(eventBus).publish(eq(Signal.BATCH_ADDRESS), captor.capture());
+		inOrder.verify(eventBus).publish("signals.a.increment", 1L);
+		assertEquals(new JsonObject().putNumber("a", 5L), captor.getValue().getObject("values"));
+		assertNotNull(captor.getValue().getObject("epoch"));
+		verify(logger, never()).error(anyString());
+	}
+
+	@Test
+	public void testRolledBackTransactionDropped() throws IOException {
+		run(new RunScript(script("a=1", "begin", "a += 2", "rollback"), 64));
+
+		deployments(1).get(0).handle(new DefaultFutureResult<String>("a"));
+
+		verify(eventBus, never()).publish(eq(Signal.BATCH_ADDRESS), any(JsonObject.class));
+		verify(logger, never()).error(anyString());
+		verify(done).handle(any(AsyncResult.class));
+	}
+
+	@Test
+	public void testBadTransactionsFail() throws IOException {
+		run(new RunScript(script("commit", "begin", "a = b", "a += 1"), 64));
+
+		verify(eventBus, never()).publish(eq(Signal.BATCH_ADDRESS), any(JsonObject.class));
+		verify(logger).error(" line 1: invalid command commit");
+		verify(logger).error(" line 3: only updates are allowed in a transaction a = b");
+		verify(logger).error(" line 2: transaction is never committed");
+		verify(done).handle(any(AsyncResult.class));
+	}
+
+	@Test
+	public void testMissingFile() {
+		run(new RunScript(new File(folder.getRoot(), "missing").getPath()));
+
+		verify(container, never()).deployVerticle(anyString(), any(JsonObject.class), any(Handler.class));
+		verify(done).handle(any(AsyncResult.class));
+	}
+
+	// ------------------ Helper Methods ---------------- //
+
+	private void run(RunScript command) {
+		command.execute(container, vertx, done);
+	}
+
+	/**
+	 * Answers every attempt to set a source, as if it exists or as if
+	 * nothing listens for it.
+	 */
+	private void answerSets(final boolean exists) {
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				Handler<AsyncResult<Message>> handler = (Handler<AsyncResult<Message>>) invocation.getArguments()[3];
+				if (exists) {
+					handler.handle(new DefaultFutureResult<Message>(mock(Message.class)));
+				} else {
+					handler.handle(new DefaultFutureResult<Message>(new ReplyException(ReplyFailure.NO_HANDLERS,
+							"no handlers")));
+				}
+				return null;
+			}
+		}).when(eventBus).sendWithTimeout(anyString(), anyLong(), anyLong(), any(Handler.class));
+	}
+
+	/**
+	 * Returns the handler of every deployment, after checking how many there
+	 * have been.
+	 */
+	private List<Handler> deployments(int count) {
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(container, times(count)).deployVerticle(eq(Signal.class.getName()), any(JsonObject.class),
+				captor.capture());
+		return captor.getAllValues();
+	}
+
+	private String script(String... lines) throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), Arrays.asList(lines), Charset.forName("UTF-8"));
+		return file.getPath();
+	}
+
+	private static JsonObject config(String id, String... dependencies) {
+		JsonObject config = new JsonObject();
+		config.putString("id", id);
+		if (dependencies.length > 0) {
+			JsonArray array = new JsonArray();
+			for (String dependency : dependencies) {
+				array.addString(dependency);
+			}
+			config.putArray("dependencies", array);
+		}
+		return config;
+	}
+}
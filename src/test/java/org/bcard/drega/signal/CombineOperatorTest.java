@@ -0,0 +1,43 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link CombineOperator} enum.
+ *
+ * @author bcard
+ *
+ */
+public class CombineOperatorTest {
+
+	@Test
+	public void testAverageRoundsTowardsZero() {
+		assertEquals(3, CombineOperator.AVG.call(3, 4));
+		assertEquals(-3, CombineOperator.AVG.call(-3, -4));
+		assertEquals(0, CombineOperator.AVG.call(-1, 0));
+		assertEquals(-1, CombineOperator.AVG.call(1, -4));
+		assertEquals(3, CombineOperator.AVG.reduce(new long[] { 3, 4 }));
+		assertEquals(-3, CombineOperator.AVG.reduce(new long[] { -3, -4 }));
+		assertEquals(0, CombineOperator.AVG.reduce(new long[] { -1, 0 }));
+		assertEquals(-1, CombineOperator.AVG.reduce(new long[] { 1, -4 }));
+		assertEquals(1, CombineOperator.AVG.reduce(new long[] { 4, 1, -1 }));
+	}
+
+	@Test
+	public void testAverageNearLongLimits() {
+		long max = Long.MAX_VALUE;
+		long min = Long.MIN_VALUE;
+
+		assertEquals(max, CombineOperator.AVG.call(max, max));
+		assertEquals(max - 1, CombineOperator.AVG.call(max, max - 1));
+		assertEquals(min, CombineOperator.AVG.call(min, min));
+		assertEquals(0, CombineOperator.AVG.call(max, min));
+		assertEquals(max, CombineOperator.AVG.reduce(new long[] { max, max, max }));
+		assertEquals(max - 1, CombineOperator.AVG.reduce(new long[] { max, max, max - 3 }));
+		assertEquals(min, CombineOperator.AVG.reduce(new long[] { min, min, min }));
+		assertEquals(min + 1, CombineOperator.AVG.reduce(new long[] { min, min, min + 3 }));
+		assertEquals(0, CombineOperator.AVG.reduce(new long[] { max, min, 1 }));
+	}
+}
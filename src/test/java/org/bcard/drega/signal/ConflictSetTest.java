@@ -0,0 +1,153 @@
+package org.bcard.drega.signal;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ConflictSet} class.
+ * 
+ * @author bcard
+ *
+ */
+public class ConflictSetTest {
+
+	@Test
+	public void testNoDependenciesHasNoConflicts() {
+		ConflictSet conflicts = ConflictSet.of(new SignalGraph("x"));
+		
+		assertTrue(conflicts.isEmpty());
+	}
+	
+	@Test
+	public void testStickHasNoConflicts() {
+		SignalGraph g0 = new SignalGraph("0");
+		SignalGraph g1 = new SignalGraph("1", g0);
+		SignalGraph g2 = new SignalGraph("2", g1);
+		
+		assertTrue(ConflictSet.of(g2).isEmpty());
+	}
+	
+	@Test
+	public void testSimpleDiamond() {
+		/*
+		 * x1 = 0
+		 * x2 = x1
+		 * x3 = x2 + x1
+		 */
+		SignalGraph x1 = new SignalGraph("x1");
+		SignalGraph x2 = new SignalGraph("x2", x1);
+		SignalGraph x3 = new SignalGraph("x3", x2, x1);
+		
+		ConflictSet conflicts = ConflictSet.of(x3);
+		
+		assertThat(conflicts.getCollisions()).containsOnly("x1");
+		assertThat(conflicts.getCollisions(0)).containsOnly("x1");
+		assertThat(conflicts.getCollisions(1)).containsOnly("x1");
+	}
+	
+	@Test
+	public void testCollisionsByDependency() {
+		/*
+		 *              6
+		 *             / \
+		 *      7     1   5
+		 *       \  /  \ /  
+		 *        2     3
+		 *         \   /
+		 *          \ /
+		 *           4
+		 */
+		SignalGraph graph7 = new SignalGraph("7");
+		SignalGraph graph6 = new SignalGraph("6");
+		SignalGraph graph1 = new SignalGraph("1", graph6);
+		SignalGraph graph5 = new SignalGraph("5", graph6);
+		SignalGraph graph2 = new SignalGraph("2", graph7, graph1);
+		SignalGraph graph3 = new SignalGraph("3", graph1, graph5);
+		SignalGraph graph4 = new SignalGraph("4", graph2, graph3);
+		
+		ConflictSet conflicts = ConflictSet.of(graph4);
+		
+		assertThat(conflicts.getCollisions()).containsOnly("1", "6");
+		assertThat(conflicts.getCollisions(0)).containsOnly("1", "6");
+		assertThat(conflicts.getCollisions(1)).containsOnly("1", "6");
+	}
+	
+	@Test
+	public void testDependencyOutsideCollisionHasNoCollisions() {
+		SignalGraph a = new SignalGraph("a");
+		SignalGraph b = new SignalGraph("b", a);
+		SignalGraph c = new SignalGraph("c", a);
+		SignalGraph d = new SignalGraph("d");
+		SignalGraph e = new SignalGraph("e", b, c, d);
+		
+		ConflictSet conflicts = ConflictSet.of(e);
+		
+		assertThat(conflicts.getCollisions(0)).containsOnly("a");
+		assertThat(conflicts.getCollisions(1)).containsOnly("a");
+		assertThat(conflicts.getCollisions(2)).isEmpty();
+	}
+	
+	@Test
+	public void testSharedSources() {
+		/*
+		 * a = 0, b = 0, d = 0
+		 * c = a + b
+		 * e = c + a + d
+		 */
+		SignalGraph a = new SignalGraph("a");
+		SignalGraph b = new SignalGraph("b");
+		SignalGraph c = new SignalGraph("c", a, b);
+		SignalGraph d = new SignalGraph("d");
+		SignalGraph e = new SignalGraph("e", c, a, d);
+
+		ConflictSet conflicts = ConflictSet.of(e);
+
+		assertThat(conflicts.getSharedSources(0)).containsOnly("a");
+		assertThat(conflicts.getSharedSources(1)).containsOnly("a");
+		assertThat(conflicts.getSharedSources(2)).isEmpty();
+	}
+
+	@Test
+	public void testSharedSourcesAboveCollision() {
+		/*
+		 * a = 0, b = 0
+		 * c = a + b
+		 * d = c, f = c
+		 * g = d + f
+		 */
+		SignalGraph a = new SignalGraph("a");
+		SignalGraph b = new SignalGraph("b");
+		SignalGraph c = new SignalGraph("c", a, b);
+		SignalGraph d = new SignalGraph("d", c);
+		SignalGraph f = new SignalGraph("f", c);
+		SignalGraph g = new SignalGraph("g", d, f);
+
+		ConflictSet conflicts = ConflictSet.of(g);
+
+		assertThat(conflicts.getCollisions()).contains("c");
+		assertThat(conflicts.getSharedSources(0)).containsOnly("a", "b");
+		assertThat(conflicts.getSharedSources(1)).containsOnly("a", "b");
+	}
+
+	@Test
+	public void testNoCollisionsHasNoSharedSources() {
+		SignalGraph a = new SignalGraph("a");
+		SignalGraph b = new SignalGraph("b", a);
+		SignalGraph c = new SignalGraph("c");
+		ConflictSet conflicts = ConflictSet.of(new SignalGraph("d", b, c));
+
+		assertTrue(conflicts.isEmpty());
+		assertThat(conflicts.getSharedSources(0)).isEmpty();
+		assertThat(conflicts.getSharedSources(1)).isEmpty();
+	}
+
+	@Test
+	public void testKeepsGraph() {
+		SignalGraph graph = new SignalGraph("x");
+		
+		assertSame(graph, ConflictSet.of(graph).getGraph());
+	}
+}
@@ -2,10 +2,15 @@ package org.bcard.drega.signal;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.bcard.drega.signal.DependencyTracker;
 import org.bcard.drega.signal.SignalGraph;
@@ -124,6 +129,48 @@ public class DependencyTrackerTest {
 		assertEquals("z", deps.get(1).getId());
 	}
 	
+	@Test
+	public void testKnownGraphSkipsRequests() {
+		DependencyTracker tracker = newTrackerWithTwoDependencies();
+		SignalGraph known = new SignalGraph("x", new SignalGraph("y"), new SignalGraph("z"));
+		tracker.gatherDependencies(eventBus, known, doneHandler);
+		
+		verify(eventBus, never()).send(anyString(), eq(""), Matchers.<Handler<Message<String>>> any());
+		verify(doneHandler).setResult(null);
+		assertEquals(known, tracker.getGraph());
+		assertEquals(known.getDependentSignals(), tracker.getDependencies());
+	}
+	
+	@Test
+	public void testMismatchedKnownGraphIsIgnored() {
+		DependencyTracker tracker = newTrackerWithTwoDependencies();
+		SignalGraph known = new SignalGraph("x", new SignalGraph("z"), new SignalGraph("y"));
+		tracker.gatherDependencies(eventBus, known, doneHandler);
+		
+		verify(eventBus).send(eq("signals.y.sendGraph"), eq(""), Matchers.<Handler<Message<String>>> any());
+		verify(eventBus).send(eq("signals.z.sendGraph"), eq(""), Matchers.<Handler<Message<String>>> any());
+		assertNull(tracker.getGraph());
+	}
+	
+	@Test
+	public void testRegistryResolvesDependencies() {
+		GraphRegistry registry = new GraphRegistry(new ConcurrentHashMap<String, String>());
+		registry.register("y", new ArrayList<String>());
+		DependencyTracker tracker = newTrackerWithTwoDependencies();
+		tracker.setRegistry(registry);
+		tracker.gatherDependencies(eventBus, doneHandler);
+		
+		// only z has to be asked
+		verify(eventBus, never()).send(eq("signals.y.sendGraph"), eq(""), Matchers.<Handler<Message<String>>> any());
+		verify(eventBus).send(eq("signals.z.sendGraph"), eq(""), captor.capture());
+		JsonObject zObj = new JsonObject(new SignalGraph("z").toJson());
+		captor.getValue().handle(new JsonObjectMessage(true, "signals.z.sendGraph", zObj));
+		
+		verify(doneHandler).setResult(null);
+		assertEquals(new SignalGraph("x", new SignalGraph("y"), new SignalGraph("z")), tracker.getGraph());
+		assertEquals(Arrays.asList("y", "z"), registry.getDependencies("x"));
+	}
+	
 	// ----------------- Helper Methods ------------------//
 	
 	private DependencyTracker newTrackerWithNoDependencies() {
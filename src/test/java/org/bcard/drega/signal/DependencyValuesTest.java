@@ -0,0 +1,210 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link DependencyValues} class.
+ *
+ * @author bcard
+ *
+ */
+public class DependencyValuesTest {
+
+	private DependencyValues values;
+
+	/*
+	 * x1 = 0
+	 * x2 = x1
+	 * x3 = x2 - x1
+	 */
+	@Before
+	public void setup() {
+		SignalGraph x1 = new SignalGraph("x1");
+		SignalGraph x2 = new SignalGraph("x2", x1);
+		SignalGraph x3 = new SignalGraph("x3", x2, x1);
+
+		values = new DependencyValues(ConflictSet.of(x3));
+	}
+
+	@Test
+	public void testHasAllValuesOnceEachDependencyUpdates() {
+		values.update(0, 1, chain("x1", 1, "x2", 1));
+		assertFalse(values.hasAllValues());
+
+		values.update(0, 2, chain("x1", 2, "x2", 2));
+		assertFalse(values.hasAllValues());
+
+		values.update(1, 2, chain("x1", 2));
+		assertTrue(values.hasAllValues());
+	}
+
+	@Test
+	public void testCountersOnlyMoveForward() {
+		values.update(1, 5, chain("x1", 5));
+		values.update(1, 4, chain("x1", 4));
+
+		assertEquals(5, values.getCounter(1, "x1"));
+		assertEquals(4, values.getValue(1));
+	}
+
+	@Test
+	public void testInconsistentUntilDependencySendsConsistentValue() {
+		values.update(0, 1, chain("x1", 1, "x2", 1), true);
+		values.update(1, 1, chain("x1", 1), true);
+		assertTrue(values.isInconsistent());
+
+		values.update(0, 2, chain("x1", 2, "x2", 2));
+		assertTrue(values.isInconsistent());
+
+		values.update(1, 2, chain("x1", 2), false);
+		assertFalse(values.isInconsistent());
+	}
+
+	@Test
+	public void testMissingCounter() {
+		assertEquals(DependencyValues.NO_COUNTER, values.getCounter(0, "x1"));
+		assertEquals(DependencyValues.NO_COUNTER, values.getCounter(0, "missing"));
+	}
+
+	@Test
+	public void testGlitchWhenCountersDisagree() {
+		values.update(0, 1, chain("x1", 1, "x2", 1));
+		values.update(1, 1, chain("x1", 1));
+		assertFalse(values.hasGlitch());
+
+		values.update(1, 2, chain("x1", 2));
+		assertTrue(values.hasGlitch());
+
+		values.update(0, 2, chain("x1", 2, "x2", 2));
+		assertFalse(values.hasGlitch());
+	}
+
+	@Test
+	public void testGlitchWhenCounterMissing() {
+		values.update(0, 1, chain("x2", 1));
+		values.update(1, 1, chain("x1", 1));
+
+		assertTrue(values.hasGlitch());
+	}
+
+	@Test
+	public void testCombineManyDependencies() {
+		SignalGraph[] inputs = new SignalGraph[5];
+		for (int i = 0; i < inputs.length; i++) {
+			inputs[i] = new SignalGraph("a" + i);
+		}
+		DependencyValues wide = new DependencyValues(ConflictSet.of(new SignalGraph("t", inputs)));
+		for (int i = 0; i < inputs.length; i++) {
+			wide.update(i, i + 1, chain("a" + i, 1));
+		}
+
+		assertEquals(15, wide.combine(CombineOperator.ADD));
+		assertEquals(-13, wide.combine(CombineOperator.SUBTRACT));
+		assertEquals(120, wide.combine(CombineOperator.PRODUCT));
+		assertEquals(1, wide.combine(CombineOperator.MIN));
+		assertEquals(5, wide.combine(CombineOperator.MAX));
+		assertEquals(3, wide.combine(CombineOperator.AVG));
+	}
+
+	@Test
+	public void testCombineFoldsLeftToRight() {
+		values.update(0, 10, chain("x1", 1, "x2", 1));
+		values.update(1, 3, chain("x1", 1));
+
+		assertEquals(7, values.combine(CombineOperator.SUBTRACT));
+		assertEquals(13, values.combine(CombineOperator.ADD));
+	}
+
+	@Test
+	public void testMergeChainsKeepsHighestCounters() {
+		values.update(0, 1, chain("x1", 1));
+		values.update(1, 1, chain("x1", 2));
+
+		SignalChain merged = values.mergeChains();
+
+		assertEquals(1, merged.size());
+		assertEquals(2, merged.getEventCounterFor("x1"));
+	}
+
+	@Test
+	public void testMergeChainsOnlyKeepsSources() {
+		values.update(0, 1, chain("x1", 1, "x2", 3));
+		values.update(1, 1, chain("x1", 1));
+
+		SignalChain merged = values.mergeChains();
+
+		assertEquals(1, merged.size());
+		assertEquals(-1, merged.getEventCounterFor("x2"));
+	}
+
+	@Test
+	public void testGlitchComparesSharedSources() {
+		/*
+		 * a = 0, b = 0
+		 * c = a + b
+		 * d = a
+		 * e = c + d
+		 */
+		SignalGraph a = new SignalGraph("a");
+		SignalGraph b = new SignalGraph("b");
+		SignalGraph c = new SignalGraph("c", a, b);
+		SignalGraph d = new SignalGraph("d", a);
+		DependencyValues e = new DependencyValues(ConflictSet.of(new SignalGraph("e", c, d)));
+
+		e.update(0, 2, chain("a", 1, "b", 1));
+		e.update(1, 1, chain("a", 1));
+		assertFalse(e.hasGlitch());
+
+		// b only reaches e through c so it can move on its own
+		e.update(0, 3, chain("a", 1, "b", 2));
+		assertFalse(e.hasGlitch());
+
+		e.update(0, 4, chain("a", 2, "b", 2));
+		assertTrue(e.hasGlitch());
+	}
+
+	@Test
+	public void testForcedAndCorrectedValuesAreNotCombined() {
+		/*
+		 * a = 0
+		 * b = a, c = a
+		 * j = b + c, held back with bounded consistency
+		 * x = j, y = j
+		 * z = x + y
+		 */
+		SignalGraph a = new SignalGraph("a");
+		SignalGraph j = new SignalGraph("j", new SignalGraph("b", a), new SignalGraph("c", a));
+		DependencyValues z = new DependencyValues(ConflictSet.of(new SignalGraph("z",
+				new SignalGraph("x", j), new SignalGraph("y", j))));
+
+		// j timed out waiting for c and forced a value for a's 2nd event
+		z.update(0, 1, chain("a", 2), true);
+		z.update(1, 1, chain("a", 2), true);
+		assertFalse(z.hasGlitch());
+
+		// then c caught up and j sent the corrected value with the same
+		// counters, only y has it so far
+		z.update(1, 0, chain("a", 2));
+		assertTrue(z.hasGlitch());
+
+		z.update(0, 0, chain("a", 2));
+		assertFalse(z.hasGlitch());
+		assertEquals(1, z.mergeChains().size());
+	}
+
+	/**
+	 * Builds a chain from pairs of signal IDs and counters.
+	 */
+	private static SignalChain chain(Object... idsAndCounters) {
+		SignalChain chain = new SignalChain();
+		for (int i = 0; i < idsAndCounters.length; i += 2) {
+			chain.append((String) idsAndCounters[i], (Integer) idsAndCounters[i + 1]);
+		}
+		return chain;
+	}
+}
@@ -0,0 +1,106 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link Expression} class.
+ *
+ * @author bcard
+ *
+ */
+public class ExpressionTest {
+
+	@Test
+	public void testPrecedence() {
+		assertEquals(7, eval("1 + 2 * 3"));
+		assertEquals(9, eval("(1 + 2) * 3"));
+		assertEquals(1, eval("7 - 3 - 3"));
+		assertEquals(2, eval("12 / 3 / 2"));
+		assertEquals(1, eval("7 % 3"));
+	}
+
+	@Test
+	public void testUnaryMinus() {
+		assertEquals(-3, eval("-3"));
+		assertEquals(3, eval("--3"));
+		assertEquals(-9, eval("-(1 + 2) * 3"));
+		assertEquals(5, eval("2 - -3"));
+	}
+
+	@Test
+	public void testVariables() {
+		Expression expression = Expression.compile("(a + b) * c - d");
+
+		assertEquals(Arrays.asList("a", "b", "c", "d"), expression.getVariables());
+		assertEquals(11, expression.evaluate(new long[] { 1, 2, 4, 1 }));
+	}
+
+	@Test
+	public void testRepeatedVariableIsOneDependency() {
+		Expression expression = Expression.compile("a * a + b - a");
+
+		assertEquals(Arrays.asList("a", "b"), expression.getVariables());
+		assertEquals(8, expression.evaluate(new long[] { 3, 2 }));
+	}
+
+	@Test
+	public void testNegatedVariable() {
+		assertEquals(-4, Expression.compile("-x").evaluate(new long[] { 4 }));
+	}
+
+	@Test
+	public void testConstant() {
+		assertTrue(Expression.compile("2 * (3 + 4)").isConstant());
+		assertFalse(Expression.compile("2 * x").isConstant());
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testDivideByZeroAtRuntime() {
+		Expression.compile("a / b").evaluate(new long[] { 1, 0 });
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testModuloByZeroAtRuntime() {
+		Expression.compile("a % b").evaluate(new long[] { 1, 0 });
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstantDivideByZero() {
+		Expression.compile("a + 1 / 0");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnbalancedParentheses() {
+		Expression.compile("(a + b");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTrailingOperator() {
+		Expression.compile("a +");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownCharacter() {
+		Expression.compile("a ^ b");
+	}
+
+	@Test
+	public void testDeepExpression() {
+		StringBuilder text = new StringBuilder("x");
+		for (int i = 0; i < 100; i++) {
+			text.insert(0, "(").append(" + 1)");
+		}
+
+		assertEquals(100, Expression.compile(text.toString()).evaluate(new long[] { 0 }));
+	}
+
+	private static long eval(String text) {
+		return Expression.compile(text).evaluate(new long[0]);
+	}
+}
@@ -0,0 +1,230 @@
+package org.bcard.drega.signal;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link GraphAnalysis} class. Most of these check that the
+ * analysis agrees with enumerating every path of the graph.
+ *
+ * @author bcard
+ *
+ */
+public class GraphAnalysisTest {
+
+	@Test
+	public void testSharedAncestorsAreOnlyCountedOnce() {
+		SignalGraph a = new SignalGraph("a");
+		SignalGraph b = new SignalGraph("b", a);
+		SignalGraph c = new SignalGraph("c", a);
+		SignalGraph d = new SignalGraph("d", b, c);
+
+		GraphAnalysis analysis = GraphAnalysis.of(d);
+
+		assertEquals(4, analysis.size());
+		assertEquals("d", analysis.getIds().get(0));
+	}
+
+	@Test
+	public void testSimpleDiamond() {
+		SignalGraph x1 = new SignalGraph("x1");
+		SignalGraph x2 = new SignalGraph("x2", x1);
+		SignalGraph x3 = new SignalGraph("x3", x2, x1);
+
+		GraphAnalysis analysis = GraphAnalysis.of(x3);
+
+		assertThat(analysis.getCollisions()).containsOnly("x1");
+	}
+
+	@Test
+	public void testSources() {
+		SignalGraph g0 = new SignalGraph("0");
+		SignalGraph g1 = new SignalGraph("1");
+		SignalGraph g2 = new SignalGraph("2", g0, g1);
+		SignalGraph g3 = new SignalGraph("3", g1);
+		SignalGraph g4 = new SignalGraph("4", g2, g3);
+
+		GraphAnalysis analysis = GraphAnalysis.of(g4);
+
+		assertThat(analysis.getSources()).containsOnly("0", "1");
+		assertThat(analysis.getSourcesThrough("2")).containsOnly("0", "1");
+		assertThat(analysis.getSourcesThrough("3")).containsOnly("1");
+		assertThat(analysis.getSourcesThrough("missing")).isEmpty();
+	}
+
+	@Test
+	public void testInterestStopsWherePathsSplit() {
+		SignalGraph s0 = new SignalGraph("s0");
+		SignalGraph s1 = new SignalGraph("s1", s0);
+		SignalGraph s2 = new SignalGraph("s2", s1);
+		SignalGraph b = new SignalGraph("b", s2);
+		SignalGraph c = new SignalGraph("c", s2);
+		SignalGraph z = new SignalGraph("z", b, c);
+
+		assertThat(GraphAnalysis.of(z).getInterest()).containsOnly("b", "c");
+	}
+
+	@Test
+	public void testInterestWhenSourceBypassesFork() {
+		// s reaches z through x and directly, so x can't drop updates either
+		SignalGraph s = new SignalGraph("s");
+		SignalGraph x = new SignalGraph("x", s);
+		SignalGraph p = new SignalGraph("p", x);
+		SignalGraph q = new SignalGraph("q", x);
+		SignalGraph z = new SignalGraph("z", p, q, s);
+
+		assertThat(GraphAnalysis.of(z).getInterest()).containsOnly("x", "p", "q");
+	}
+
+	@Test
+	public void testNoInterestWithoutCollisions() {
+		SignalGraph a = new SignalGraph("a");
+		SignalGraph b = new SignalGraph("b");
+		SignalGraph c = new SignalGraph("c", a);
+
+		assertThat(GraphAnalysis.of(new SignalGraph("z", c, b)).getInterest()).isEmpty();
+	}
+
+	@Test
+	public void testRootIsNotASource() {
+		assertThat(GraphAnalysis.of(new SignalGraph("x")).getSources()).isEmpty();
+	}
+
+	@Test
+	public void testReaches() {
+		SignalGraph g0 = new SignalGraph("0");
+		SignalGraph g1 = new SignalGraph("1");
+		SignalGraph g2 = new SignalGraph("2", g0, g1);
+		SignalGraph g3 = new SignalGraph("3", g1);
+		SignalGraph g4 = new SignalGraph("4", g2, g3);
+
+		GraphAnalysis analysis = GraphAnalysis.of(g4);
+
+		assertTrue(analysis.reaches("4", "1"));
+		assertTrue(analysis.reaches("2", "0"));
+		assertTrue(analysis.reaches("3", "3"));
+		assertFalse(analysis.reaches("3", "0"));
+		assertFalse(analysis.reaches("0", "2"));
+		assertFalse(analysis.reaches("4", "missing"));
+	}
+
+	@Test
+	public void testReachesMatchesContainsId() {
+		Random random = new Random(7);
+		for (int i = 0; i < 20; i++) {
+			List<SignalGraph> nodes = randomDag(random, 12);
+			SignalGraph root = nodes.get(nodes.size() - 1);
+			GraphAnalysis analysis = GraphAnalysis.of(root);
+			for (SignalGraph down : nodes) {
+				if (analysis.indexOf(down.getId()) < 0) {
+					continue;
+				}
+				for (SignalGraph up : nodes) {
+					assertEquals(down.containsId(up.getId()), analysis.reaches(down.getId(), up.getId()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCollisionsMatchAllPaths() {
+		Random random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			List<SignalGraph> nodes = randomDag(random, 10);
+			SignalGraph root = nodes.get(nodes.size() - 1);
+
+			assertEquals(collisionsFromPaths(root), GraphAnalysis.of(root).getCollisions());
+		}
+	}
+
+	@Test
+	public void testCollisionsThroughMatchContainsId() {
+		Random random = new Random(3);
+		for (int i = 0; i < 100; i++) {
+			List<SignalGraph> nodes = randomDag(random, 10);
+			SignalGraph root = nodes.get(nodes.size() - 1);
+			Set<String> collisions = collisionsFromPaths(root);
+			GraphAnalysis analysis = GraphAnalysis.of(root);
+
+			for (SignalGraph dep : root.getDependentSignals()) {
+				Set<String> expected = new HashSet<>();
+				for (String collision : collisions) {
+					if (dep.containsId(collision)) {
+						expected.add(collision);
+					}
+				}
+				assertEquals(expected, new HashSet<>(analysis.getCollisionsThrough(dep.getId())));
+			}
+		}
+	}
+
+	@Test(timeout = 5000)
+	public void testDeepLatticeDoesNotEnumeratePaths() {
+		/*
+		 * 40 levels of diamonds, there are 2^40 paths from the top to the
+		 * bottom of this graph.
+		 */
+		SignalGraph left = new SignalGraph("source");
+		SignalGraph right = left;
+		for (int level = 0; level < 40; level++) {
+			SignalGraph newLeft = new SignalGraph("l" + level, left, right);
+			SignalGraph newRight = new SignalGraph("r" + level, left, right);
+			left = newLeft;
+			right = newRight;
+		}
+		SignalGraph root = new SignalGraph("root", left, right);
+
+		GraphAnalysis analysis = GraphAnalysis.of(root);
+
+		assertEquals(82, analysis.size());
+		assertTrue(analysis.getCollisions().contains("source"));
+		assertTrue(analysis.getCollisions().contains("l38"));
+		assertFalse(analysis.getCollisions().contains("l39"));
+	}
+
+	// ----------------- Helper Methods ------------------//
+
+	/**
+	 * Builds a random graph, each node depends on up to three of the nodes
+	 * created before it. The last node in the list depends on at least one
+	 * other node.
+	 */
+	private static List<SignalGraph> randomDag(Random random, int size) {
+		List<SignalGraph> nodes = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			int numDeps = i == 0 ? 0 : random.nextInt(Math.min(i, 3) + 1);
+			if (i == size - 1 && numDeps == 0) {
+				numDeps = 1;
+			}
+			Set<SignalGraph> deps = new HashSet<>();
+			while (deps.size() < numDeps) {
+				deps.add(nodes.get(random.nextInt(i)));
+			}
+			nodes.add(new SignalGraph(Integer.toString(i), deps.toArray(new SignalGraph[deps.size()])));
+		}
+		return nodes;
+	}
+
+	private static Set<String> collisionsFromPaths(SignalGraph graph) {
+		List<SignalChain> allPaths = graph.allPaths();
+		Set<String> collisions = new HashSet<>();
+		for (SignalChain chain1 : allPaths) {
+			for (SignalChain chain2 : allPaths) {
+				if (!chain1.equals(chain2)) {
+					collisions.addAll(chain1.getConflicts(chain2));
+				}
+			}
+		}
+		return collisions;
+	}
+}
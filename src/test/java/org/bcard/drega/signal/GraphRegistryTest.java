@@ -0,0 +1,190 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link GraphRegistry} class.
+ *
+ * @author bcard
+ *
+ */
+public class GraphRegistryTest {
+
+	private ConcurrentMap<String, String> edges;
+
+	private GraphRegistry registry;
+
+	@Before
+	public void setup() {
+		edges = new ConcurrentHashMap<>();
+		registry = new GraphRegistry(edges);
+	}
+
+	@Test
+	public void testUnregisteredSignal() {
+		assertNull(registry.resolve("x"));
+		assertEquals(0, registry.getVersion("x"));
+		assertNull(registry.getDependencies("x"));
+	}
+
+	@Test
+	public void testResolveDiamond() {
+		registry.register("a", none());
+		registry.register("b", deps("a"));
+		registry.register("c", deps("a"));
+		registry.register("z", deps("b", "c"));
+
+		SignalGraph a = new SignalGraph("a");
+		assertEquals(new SignalGraph("z", new SignalGraph("b", a), new SignalGraph("c", a)), registry.resolve("z"));
+	}
+
+	@Test
+	public void testOnlyImmediateEdgesAreStored() {
+		registry.register("a", none());
+		registry.register("b", deps("a"));
+		registry.register("c", deps("b"));
+
+		assertEquals(3, edges.size());
+		assertEquals(deps("b"), registry.getDependencies("c"));
+	}
+
+	@Test
+	public void testMissingAncestor() {
+		registry.register("b", deps("a"));
+		registry.register("c", deps("b"));
+
+		assertNull(registry.resolve("c"));
+
+		registry.register("a", none());
+		assertEquals(new SignalGraph("c", new SignalGraph("b", new SignalGraph("a"))), registry.resolve("c"));
+	}
+
+	@Test
+	public void testGraphsAreCachedAndCanonical() {
+		registry.register("a", none());
+		registry.register("b", deps("a"));
+		registry.register("c", deps("a"));
+
+		SignalGraph b = registry.resolve("b");
+		assertSame(b, registry.resolve("b"));
+		assertSame(b.getDependentSignals().get(0), registry.resolve("c").getDependentSignals().get(0));
+	}
+
+	@Test
+	public void testVersionChangesWithDependencies() {
+		assertEquals(1, registry.register("a", none()));
+		assertEquals(1, registry.register("a", none()));
+		registry.register("x", none());
+		registry.register("b", deps("a"));
+		assertEquals(new SignalGraph("b", new SignalGraph("a")), registry.resolve("b"));
+
+		// b was created again by another registry
+		assertEquals(2, new GraphRegistry(edges).register("b", deps("x")));
+
+		assertEquals(2, registry.getVersion("b"));
+		assertEquals(new SignalGraph("b", new SignalGraph("x")), registry.resolve("b"));
+	}
+
+	@Test
+	public void testChangedAncestorIsNotServedStale() {
+		registry.register("a", none());
+		registry.register("x", none());
+		registry.register("b", deps("a"));
+		registry.register("c", deps("b"));
+		assertEquals(new SignalGraph("c", new SignalGraph("b", new SignalGraph("a"))), registry.resolve("c"));
+
+		// a was created again by another host, c's own entry is unchanged
+		new GraphRegistry(edges).register("a", deps("x"));
+
+		SignalGraph a = new SignalGraph("a", new SignalGraph("x"));
+		assertEquals(new SignalGraph("c", new SignalGraph("b", a)), registry.resolve("c"));
+		assertEquals(new SignalGraph("b", a), registry.resolve("b"));
+	}
+
+	@Test
+	public void testUnchangedAncestorsKeepTheirGraphs() {
+		registry.register("a", none());
+		registry.register("b", deps("a"));
+		registry.register("c", deps("b"));
+		SignalGraph c = registry.resolve("c");
+
+		registry.register("b", deps("a"));
+
+		assertSame(c, registry.resolve("c"));
+	}
+
+	@Test
+	public void testWarmCacheReadsOnlyTheRoot() {
+		final List<Object> reads = new ArrayList<>();
+		edges = new ConcurrentHashMap<String, String>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public String get(Object key) {
+				reads.add(key);
+				return super.get(key);
+			}
+		};
+		registry = new GraphRegistry(edges);
+		registry.register("s0", none());
+		for (int i = 1; i < 100; i++) {
+			registry.register("s" + i, deps("s" + (i - 1)));
+		}
+		SignalGraph graph = registry.resolve("s99");
+		reads.clear();
+
+		assertSame(graph, registry.resolve("s99"));
+		assertEquals(Arrays.<Object> asList(GraphRegistry.GENERATION_KEY, "s99"), reads);
+	}
+
+	@Test
+	public void testLearnFromReceivedGraph() {
+		registry.register("b", deps("x"));
+		SignalGraph x = new SignalGraph("x", new SignalGraph("w"));
+		registry.learn(new SignalGraph("a", x));
+
+		assertEquals(deps("x"), registry.getDependencies("a"));
+		assertEquals(deps("w"), registry.getDependencies("x"));
+		assertEquals(deps("x"), registry.getDependencies("b"));
+		assertEquals(new SignalGraph("b", x), registry.resolve("b"));
+	}
+
+	@Test
+	public void testCycleDoesNotResolve() {
+		registry.register("a", deps("b"));
+		registry.register("b", deps("a"));
+
+		assertNull(registry.resolve("a"));
+	}
+
+	@Test
+	public void testLongChain() {
+		registry.register("s0", none());
+		for (int i = 1; i < 10000; i++) {
+			registry.register("s" + i, deps("s" + (i - 1)));
+		}
+
+		assertEquals("s9998", registry.resolve("s9999").getDependentSignals().get(0).getId());
+	}
+
+	private static List<String> none() {
+		return Collections.emptyList();
+	}
+
+	private static List<String> deps(String... ids) {
+		return Arrays.asList(ids);
+	}
+}
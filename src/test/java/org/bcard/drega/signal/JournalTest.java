@@ -0,0 +1,203 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the {@link Journal} class.
+ *
+ * @author bcard
+ *
+ */
+public class JournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testEmptyDirectoryRecoversNothing() throws IOException {
+		Journal journal = open();
+
+		assertTrue(journal.getRecovered().isEmpty());
+		assertNull(journal.getRecovered("x"));
+		journal.close();
+	}
+
+	@Test
+	public void testReplaysJournal() throws IOException {
+		Journal journal = open();
+		journal.append("x", 5, 1);
+		journal.append("y", 7, 1);
+		journal.append("x", 6, 2);
+		journal.close();
+
+		journal = open();
+		assertEquals(6, journal.getRecovered("x").getValue());
+		assertEquals(2, journal.getRecovered("x").getCounter());
+		assertEquals(7, journal.getRecovered("y").getValue());
+		journal.close();
+	}
+
+	@Test
+	public void testAppendsAfterReplay() throws IOException {
+		Journal journal = open();
+		journal.append("x", 5, 1);
+		journal.close();
+
+		journal = open();
+		journal.append("x", 6, 2);
+		journal.close();
+
+		assertEquals(6, open().getRecovered("x").getValue());
+	}
+
+	@Test
+	public void testSnapshotEmptiesJournal() throws IOException {
+		Journal journal = open();
+		journal.append("x", 5, 1);
+		journal.append("x", 6, 2);
+		journal.snapshot(state("x", 6, 2, "y", 3, 4));
+		assertEquals(0, journal.size());
+		journal.append("x", 7, 3);
+		journal.close();
+
+		journal = open();
+		assertEquals(7, journal.getRecovered("x").getValue());
+		assertEquals(3, journal.getRecovered("y").getValue());
+		assertEquals(4, journal.getRecovered("y").getCounter());
+		journal.close();
+	}
+
+	@Test
+	public void testOlderRecordsDoNotOverwriteSnapshot() throws IOException {
+		Journal journal = open();
+		journal.append("x", 5, 1);
+		journal.close();
+		// as if the snapshot was moved into place but the journal wasn't
+		// emptied before a crash
+		File other = folder.newFolder("other");
+		Journal snapshotter = Journal.open(other, 1024);
+		snapshotter.snapshot(state("x", 9, 4));
+		snapshotter.close();
+		Files.copy(new File(other, "snapshot").toPath(), new File(folder.getRoot(), "snapshot").toPath());
+
+		journal = open();
+		assertEquals(9, journal.getRecovered("x").getValue());
+		journal.close();
+	}
+
+	@Test
+	public void testFullJournal() throws IOException {
+		Journal journal = Journal.open(folder.getRoot(), 64);
+		int appended = 0;
+		while (journal.append("x", appended, appended + 1)) {
+			appended++;
+		}
+		assertTrue(appended > 0);
+		journal.close();
+
+		journal = Journal.open(folder.getRoot(), 64);
+		assertEquals(appended - 1, journal.getRecovered("x").getValue());
+		assertFalse(journal.append("x", 0, 0));
+		journal.close();
+	}
+
+	@Test
+	public void testLongIdsSurviveReplayAndSnapshot() throws IOException {
+		// longer than a signed short, which used to end the journal
+		String id = longId(40000);
+		Journal journal = Journal.open(folder.getRoot(), 64 * 1024);
+		assertTrue(journal.append(id, 5, 1));
+		assertTrue(journal.append("y", 7, 1));
+		journal.close();
+
+		journal = open();
+		assertEquals(5, journal.getRecovered(id).getValue());
+		assertEquals(7, journal.getRecovered("y").getValue());
+		journal.snapshot(journal.getRecovered());
+		journal.close();
+
+		journal = open();
+		assertEquals(5, journal.getRecovered(id).getValue());
+		journal.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLongIdRejected() throws IOException {
+		Journal journal = open();
+		try {
+			journal.append(longId(Journal.MAX_ID_LENGTH + 1), 5, 1);
+		} finally {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void testEmptyIdRejected() throws IOException {
+		Journal journal = open();
+		journal.append("a", 1, 1);
+		try {
+			journal.append("", 5, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		journal.append("b", 2, 1);
+		journal.close();
+
+		Journal reopened = open();
+		assertEquals(2L, reopened.getRecovered("b").getValue());
+		reopened.close();
+	}
+
+	private static String longId(int length) {
+		char[] id = new char[length];
+		Arrays.fill(id, 'x');
+		return new String(id);
+	}
+
+	@Test
+	public void testStopsAtTornRecord() throws IOException {
+		Journal journal = open();
+		journal.append("x", 5, 1);
+		journal.close();
+		// the length of a second record made it to disk but nothing else
+		try (RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), "journal"), "rw")) {
+			file.setLength(4 + 2 + 1 + 8 + 4 + 2 + 1);
+			file.seek(4 + 2 + 1 + 8 + 4);
+			file.writeShort(1);
+		}
+
+		journal = Journal.open(folder.getRoot(), 0);
+		assertEquals(5, journal.getRecovered("x").getValue());
+		journal.close();
+	}
+
+	private Journal open() throws IOException {
+		return Journal.open(folder.getRoot(), 1024);
+	}
+
+	private static Map<String, Journal.Entry> state(Object... idsValuesAndCounters) {
+		Map<String, Journal.Entry> state = new HashMap<>();
+		for (int i = 0; i < idsValuesAndCounters.length; i += 3) {
+			state.put((String) idsValuesAndCounters[i], new Journal.Entry(
+					((Number) idsValuesAndCounters[i + 1]).longValue(), (Integer) idsValuesAndCounters[i + 2]));
+		}
+		return state;
+	}
+}
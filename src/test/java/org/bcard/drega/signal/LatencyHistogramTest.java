@@ -0,0 +1,80 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Tests for the {@link LatencyHistogram} class.
+ *
+ * @author bcard
+ *
+ */
+public class LatencyHistogramTest {
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	@Test
+	public void testEmpty() {
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+	}
+
+	@Test
+	public void testSmallValuesAreExact() {
+		for (int i = 1; i <= 10; i++) {
+			histogram.record(i);
+		}
+
+		assertEquals(10, histogram.getCount());
+		assertEquals(1, histogram.getMin());
+		assertEquals(10, histogram.getMax());
+		assertEquals(5.5, histogram.getMean(), 0.001);
+		assertEquals(5, histogram.getValueAtPercentile(50));
+		assertEquals(9, histogram.getValueAtPercentile(90));
+		assertEquals(10, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testLargeValuesWithinPrecision() {
+		for (long value = 100; value < 100000000000L; value = value * 3 + 7) {
+			histogram.reset();
+			histogram.record(value);
+			histogram.record(value * 2);
+
+			long p50 = histogram.getValueAtPercentile(50);
+			assertTrue(value + " recorded as " + p50, p50 >= value && p50 <= value + value / 16);
+		}
+	}
+
+	@Test
+	public void testBucketsAreContiguous() {
+		for (int index = 0; index < LatencyHistogram.indexOf(LatencyHistogram.MAX_VALUE); index++) {
+			long upper = LatencyHistogram.upperBoundOf(index);
+			assertEquals(index, LatencyHistogram.indexOf(upper));
+			assertEquals(index + 1, LatencyHistogram.indexOf(upper + 1));
+		}
+	}
+
+	@Test
+	public void testOutOfRangeValuesClamped() {
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+
+		assertEquals(0, histogram.getMin());
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+	}
+
+	@Test
+	public void testToJson() {
+		histogram.record(1000);
+
+		JsonObject json = histogram.toJson();
+
+		assertEquals(1L, (long) json.getLong("count"));
+		assertEquals(1000L, (long) json.getLong("p99"));
+	}
+}
@@ -0,0 +1,181 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bcard.drega.signal.Signal.DependencyUpdateHandler;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests for the {@link LocalDispatcher} class.
+ * 
+ * @author bcard
+ * 
+ */
+public class LocalDispatcherTest {
+
+	private final LocalDispatcher dispatcher = new LocalDispatcher();
+
+	private final List<String> delivered = new ArrayList<>();
+
+	@Test
+	public void testUpdatesSentWhileDeliveringAreQueued() {
+		final DependencyUpdateHandler b = recorder("b");
+		final DependencyUpdateHandler c = recorder("c");
+		final DependencyUpdateHandler d = recorder("d");
+		DependencyUpdateHandler a = recorder("a", new Runnable() {
+
+			@Override
+			public void run() {
+				dispatcher.dispatch(b, 1, new SignalChain(), null, null, false);
+				dispatcher.dispatch(c, 1, new SignalChain(), null, null, false);
+				// nothing delivered recursively
+				assertEquals(2, dispatcher.size());
+			}
+		});
+
+		dispatcher.dispatch(a, 1, new SignalChain(), null, null, false);
+		dispatcher.dispatch(d, 1, new SignalChain(), null, null, false);
+
+		assertEquals("[a, b, c, d]", delivered.toString());
+		assertEquals(0, dispatcher.size());
+	}
+
+	@Test
+	public void testQueueGrows() {
+		final DependencyUpdateHandler leaf = recorder("leaf");
+		DependencyUpdateHandler root = recorder("root", new Runnable() {
+
+			@Override
+			public void run() {
+				for (int i = 0; i < 100; i++) {
+					dispatcher.dispatch(leaf, i, new SignalChain(), null, null, false);
+				}
+			}
+		});
+
+		dispatcher.dispatch(root, 0, new SignalChain(), null, null, false);
+
+		assertEquals(101, delivered.size());
+	}
+
+	@Test
+	public void testDeliveredInHeightOrder() {
+		final DependencyUpdateHandler high = recorder("high", 2);
+		final DependencyUpdateHandler low = recorder("low", 1);
+		final DependencyUpdateHandler other = recorder("other", 1);
+		DependencyUpdateHandler source = recorder("source", 0, new Runnable() {
+
+			@Override
+			public void run() {
+				dispatcher.dispatch(high, 1, new SignalChain(), null, null, false);
+				dispatcher.dispatch(low, 1, new SignalChain(), null, null, false);
+				dispatcher.dispatch(other, 1, new SignalChain(), null, null, false);
+			}
+		});
+
+		dispatcher.dispatch(source, 1, new SignalChain(), null, null, false);
+
+		assertEquals("[source, low, other, high]", delivered.toString());
+	}
+
+	@Test
+	public void testPropagateAfterUpdatesForHeight() {
+		final DependencyUpdateHandler join = recorder("join", 2);
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				delivered.add("propagate");
+				return null;
+			}
+		}).when(join).propagate();
+		final DependencyUpdateHandler right = recorder("right", 1, new Runnable() {
+
+			@Override
+			public void run() {
+				dispatcher.dispatch(join, 2, new SignalChain(), null, null, false);
+			}
+		});
+		final DependencyUpdateHandler left = recorder("left", 1, new Runnable() {
+
+			@Override
+			public void run() {
+				dispatcher.dispatch(join, 1, new SignalChain(), null, null, false);
+				dispatcher.schedule(join);
+			}
+		});
+		DependencyUpdateHandler source = recorder("source", 0, new Runnable() {
+
+			@Override
+			public void run() {
+				dispatcher.dispatch(left, 1, new SignalChain(), null, null, false);
+				dispatcher.dispatch(right, 1, new SignalChain(), null, null, false);
+			}
+		});
+
+		dispatcher.dispatch(source, 1, new SignalChain(), null, null, false);
+
+		assertEquals("[source, left, right, join, join, propagate]", delivered.toString());
+		assertEquals(0, dispatcher.size());
+	}
+
+	@Test
+	public void testTickDeliversAfterRunning() {
+		final DependencyUpdateHandler high = recorder("high", 1);
+		final DependencyUpdateHandler low = recorder("low", 0);
+
+		dispatcher.tick(new Runnable() {
+
+			@Override
+			public void run() {
+				dispatcher.dispatch(high, 1, new SignalChain(), null, null, false);
+				dispatcher.dispatch(low, 1, new SignalChain(), null, null, false);
+				delivered.add("ran");
+			}
+		});
+
+		assertEquals("[ran, low, high]", delivered.toString());
+		assertEquals(0, dispatcher.size());
+	}
+
+	private DependencyUpdateHandler recorder(String name) {
+		return recorder(name, null);
+	}
+
+	private DependencyUpdateHandler recorder(String name, int height) {
+		return recorder(name, height, null);
+	}
+
+	private DependencyUpdateHandler recorder(String name, Runnable action) {
+		return recorder(name, 0, action);
+	}
+
+	private DependencyUpdateHandler recorder(final String name, int height, final Runnable action) {
+		DependencyUpdateHandler handler = mock(DependencyUpdateHandler.class);
+		when(handler.getHeight()).thenReturn(height);
+		doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				delivered.add(name);
+				if (action != null) {
+					action.run();
+				}
+				return null;
+			}
+		}).when(handler).receiveLocal(anyLong(), any(SignalChain.class), any(Trace.class), anyList(), anyBoolean());
+		return handler;
+	}
+}
@@ -0,0 +1,136 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link PendingEpochs} class.
+ *
+ * @author bcard
+ *
+ */
+public class PendingEpochsTest {
+
+	private PendingEpochs pending;
+
+	/*
+	 * a = 0
+	 * b = 0
+	 * c = 0
+	 * x = a
+	 * z = x + b + c
+	 */
+	@Before
+	public void setup() {
+		SignalGraph a = new SignalGraph("a");
+		SignalGraph b = new SignalGraph("b");
+		SignalGraph c = new SignalGraph("c");
+		SignalGraph x = new SignalGraph("x", a);
+		SignalGraph z = new SignalGraph("z", x, b, c);
+
+		pending = new PendingEpochs(ConflictSet.of(z));
+	}
+
+	@Test
+	public void testWaitsForEveryAffectedDependency() {
+		Epoch epoch = new Epoch("t", Arrays.asList("a", "b"));
+
+		assertTrue(pending.received(0, epoch));
+		assertFalse(pending.isComplete());
+		assertFalse(pending.received(1, epoch));
+
+		// c isn't part of the transaction
+		assertTrue(pending.isComplete());
+		assertEquals(Arrays.asList(epoch), pending.drain());
+		assertNull(pending.drain());
+	}
+
+	@Test
+	public void testSingleSourceCompleteStraightAway() {
+		Epoch epoch = new Epoch("t", Arrays.asList("c"));
+
+		pending.received(2, epoch);
+
+		assertTrue(pending.isComplete());
+	}
+
+	@Test
+	public void testOverlappingEpochsDrainTogether() {
+		Epoch first = new Epoch("t1", Arrays.asList("a", "b"));
+		Epoch second = new Epoch("t2", Arrays.asList("a", "c"));
+
+		pending.received(0, first);
+		pending.received(0, second);
+		pending.received(1, first);
+		assertFalse(pending.isComplete());
+		pending.received(2, second);
+
+		assertTrue(pending.isComplete());
+		List<Epoch> drained = pending.drain();
+		assertEquals(Arrays.asList(first, second), drained);
+	}
+
+	@Test
+	public void testDrainLeavesIncompleteEpochs() {
+		Epoch first = new Epoch("t1", Arrays.asList("c"));
+		Epoch second = new Epoch("t2", Arrays.asList("a", "b"));
+
+		pending.received(2, first);
+		pending.received(0, second);
+
+		assertEquals(Arrays.asList(first), pending.drain());
+		pending.received(1, second);
+		assertEquals(Arrays.asList(second), pending.drain());
+	}
+
+	@Test
+	public void testAbandon() {
+		Epoch epoch = new Epoch("t", Arrays.asList("a", "b"));
+		pending.received(0, epoch);
+
+		assertTrue(pending.abandon("t"));
+
+		assertTrue(pending.isComplete());
+		assertFalse(pending.abandon("t"));
+		assertEquals(Arrays.asList(epoch), pending.drain());
+	}
+
+	@Test
+	public void testLateUpdateIgnored() {
+		Epoch epoch = new Epoch("t", Arrays.asList("a", "b"));
+		pending.received(0, epoch);
+		pending.abandon("t");
+		pending.drain();
+
+		assertFalse(pending.received(1, epoch));
+
+		assertTrue(pending.isComplete());
+		assertNull(pending.drain());
+	}
+
+	@Test
+	public void testOnlyRecentEpochsRemembered() {
+		Epoch first = new Epoch("t0", Arrays.asList("c"));
+		pending.received(2, first);
+		pending.drain();
+		for (int i = 1; i <= PendingEpochs.FINISHED_LIMIT; i++) {
+			pending.received(2, new Epoch("t" + i, Arrays.asList("c")));
+			pending.drain();
+		}
+
+		assertTrue(pending.received(2, first));
+	}
+
+	@Test
+	public void testAbandonUnknownEpoch() {
+		assertFalse(pending.abandon("missing"));
+	}
+}
@@ -0,0 +1,185 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.shareddata.SharedData;
+
+/**
+ * Tests for {@link Placement}.
+ *
+ * @author bcard
+ *
+ */
+public class PlacementTest {
+
+	private ConcurrentMap<String, String> hosts;
+
+	private ConcurrentMap<String, String> locations;
+
+	private GraphRegistry registry;
+
+	private Placement placement;
+
+	@Before
+	public void setup() {
+		hosts = new ConcurrentHashMap<>();
+		locations = new ConcurrentHashMap<>();
+		registry = new GraphRegistry(new ConcurrentHashMap<String, String>());
+		placement = new Placement(hosts, locations, registry);
+	}
+
+	@Test
+	public void testBuiltOncePerThread() throws InterruptedException {
+		final Vertx vertx = mock(Vertx.class);
+		when(vertx.sharedData()).thenReturn(new SharedData());
+		final Placement[] other = new Placement[1];
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				other[0] = Placement.of(vertx);
+			}
+		});
+
+		Placement placement = Placement.of(vertx);
+		thread.start();
+		thread.join();
+
+		assertSame(placement, Placement.of(vertx));
+		assertNotSame(placement, other[0]);
+		Vertx another = mock(Vertx.class);
+		when(another.sharedData()).thenReturn(new SharedData());
+		assertNotSame(placement, Placement.of(another));
+	}
+
+	@Test
+	public void testChooseWithoutHosts() {
+		assertNull(placement.choose(Arrays.asList("a")));
+	}
+
+	@Test
+	public void testChooseLeastLoadedWithoutDependencies() {
+		placement.putHost("h1", "hosts.h1.create", 3, 3);
+		placement.putHost("h2", "hosts.h2.create", 1, 1);
+
+		assertEquals("h2", placement.choose(Collections.<String> emptyList()));
+	}
+
+	@Test
+	public void testTiesGoToLowestHostId() {
+		placement.putHost("h2", "hosts.h2.create", 0, 0);
+		placement.putHost("h1", "hosts.h1.create", 0, 0);
+
+		assertEquals("h1", placement.choose(Collections.<String> emptyList()));
+	}
+
+	@Test
+	public void testChooseNextToDependencies() {
+		placement.putHost("h1", "hosts.h1.create", 3, 3);
+		placement.putHost("h2", "hosts.h2.create", 2, 2);
+		placement.setLocation("a", "h1");
+
+		assertEquals("h1", placement.choose(Arrays.asList("a")));
+	}
+
+	@Test
+	public void testChooseHostWithMostDependencies() {
+		placement.putHost("h1", "hosts.h1.create", 3, 3);
+		placement.putHost("h2", "hosts.h2.create", 3, 3);
+		placement.setLocation("a", "h1");
+		placement.setLocation("b", "h2");
+		placement.setLocation("c", "h2");
+
+		assertEquals("h2", placement.choose(Arrays.asList("a", "b", "c")));
+	}
+
+	@Test
+	public void testFullHostIsSkipped() {
+		placement.putHost("h1", "hosts.h1.create", 10, 10);
+		placement.putHost("h2", "hosts.h2.create", 2, 2);
+		placement.setLocation("a", "h1");
+
+		// capacity is (12 + 1) / 2 * 1.1 = 7.15
+		assertEquals("h2", placement.choose(Arrays.asList("a")));
+	}
+
+	@Test
+	public void testSingleHostTakesEverySignal() {
+		placement.putHost("h1", "hosts.h1.create", 100, 100);
+
+		assertEquals("h1", placement.choose(Arrays.asList("a")));
+	}
+
+	@Test
+	public void testDependenciesOnRemovedHostsAreIgnored() {
+		placement.putHost("h1", "hosts.h1.create", 4, 4);
+		placement.putHost("h2", "hosts.h2.create", 2, 2);
+		placement.setLocation("a", "h3");
+
+		assertEquals("h2", placement.choose(Arrays.asList("a")));
+	}
+
+	@Test
+	public void testGetAddress() {
+		placement.putHost("h1", "hosts.h1.create", 0, 0);
+
+		assertEquals("hosts.h1.create", placement.getAddress("h1"));
+		assertNull(placement.getAddress("h2"));
+	}
+
+	@Test
+	public void testRemoveHost() {
+		placement.putHost("h1", "hosts.h1.create", 2, 2);
+		placement.setLocation("a", "h1");
+		placement.setLocation("b", "h2");
+
+		placement.removeHost("h1", Arrays.asList("a", "b"));
+
+		assertNull(placement.getAddress("h1"));
+		assertNull(placement.getLocation("a"));
+		// b moved to another host, so it keeps its location
+		assertEquals("h2", placement.getLocation("b"));
+	}
+
+	@Test
+	public void testLoad() {
+		assertEquals(1, Placement.load(0, 0), 0);
+		assertEquals(3, Placement.load(0.5, 3), 0);
+		assertEquals(20, Placement.load(10, 2), 0);
+	}
+
+	@Test
+	public void testReport() {
+		placement.putHost("h1", "hosts.h1.create", 2, 2);
+		placement.putHost("h2", "hosts.h2.create", 1, 1);
+		placement.setLocation("a", "h1");
+		placement.setLocation("b", "h1");
+		placement.setLocation("c", "h2");
+		registry.register("a", Collections.<String> emptyList());
+		registry.register("b", Arrays.asList("a"));
+		registry.register("c", Arrays.asList("a", "b", "x"));
+
+		JsonObject report = placement.report();
+
+		JsonObject h1 = report.getObject("hosts").getObject("h1");
+		assertEquals(2, (int) h1.getInteger("signals"));
+		assertEquals(2, h1.getNumber("load").doubleValue(), 0);
+		assertNull(h1.getString("address"));
+		// x isn't placed, so c -> x isn't counted
+		assertEquals(3, (int) report.getInteger("edges"));
+		assertEquals(2, (int) report.getInteger("crossEdges"));
+		assertEquals(new JsonArray().addString("a -> c").addString("b -> c"), report.getArray("cross"));
+	}
+}
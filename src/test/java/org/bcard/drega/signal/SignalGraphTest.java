@@ -1,6 +1,8 @@
 package org.bcard.drega.signal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import static org.fest.assertions.api.Assertions.*;
@@ -267,6 +269,93 @@ public class SignalGraphTest {
 		assertEquals(expected, allPaths.get(0));
 	}
 	
+	@Test
+	public void testOfReturnsCanonicalGraph() {
+		SignalGraph g2 = SignalGraph.of(id(2), new SignalGraph(id(0)), new SignalGraph(id(1)));
+		SignalGraph g5 = SignalGraph.of(id(2), SignalGraph.of(id(0)), SignalGraph.of(id(1)));
+
+		assertSame(g2, g5);
+		assertSame(SignalGraph.of(id(0)), g2.getDependentSignals().get(0));
+	}
+
+	@Test
+	public void testNotEqualWithDifferentDependencies() {
+		SignalGraph g2 = new SignalGraph(id(2), new SignalGraph(id(0)));
+		SignalGraph g5 = new SignalGraph(id(2), new SignalGraph(id(1)));
+
+		assertFalse(g2.equals(g5));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testDependenciesCannotBeModified() {
+		SignalGraph g1 = new SignalGraph(id(1), new SignalGraph(id(0)));
+
+		g1.getDependentSignals().clear();
+	}
+
+	@Test
+	public void testJsonWritesSharedDependenciesOnce() throws Exception {
+		SignalGraph g0 = new SignalGraph(id(0), new SignalGraph(id(9)));
+		SignalGraph g1 = new SignalGraph(id(1), g0);
+		SignalGraph g2 = new SignalGraph(id(2), g0, g1);
+
+		String json = g2.toJson();
+
+		JSONAssert.assertEquals(
+				"{ " +
+				  "id: '2', " +
+				  "dependencies: [" +
+				    "{ id: '0', dependencies: [ { id: '9' } ] }, " +
+				    "{ id: '1', dependencies: [ { id: '0' } ] } " +
+				  "] " +
+				"}", json, true);
+	}
+
+	@Test
+	public void testToStringWritesSharedDependenciesEveryTime() {
+		SignalGraph g0 = new SignalGraph(id(0), new SignalGraph(id(9)));
+		SignalGraph g1 = new SignalGraph(id(1), g0);
+		SignalGraph g2 = new SignalGraph(id(2), g0, g1);
+
+		String text = g2.toString();
+
+		// 9 is printed under 0 both times 0 appears
+		assertEquals(2, text.split("id:  9").length - 1);
+		assertEquals(2, text.split("id:  0").length - 1);
+	}
+
+	@Test
+	public void testJsonDeserializeSharesNodes() {
+		SignalGraph g0 = new SignalGraph(id(0), new SignalGraph(id(9)));
+		SignalGraph g1 = new SignalGraph(id(1), g0);
+		SignalGraph g2 = new SignalGraph(id(2), g0, g1);
+
+		SignalGraph copy = SignalGraph.fromJson(g2.toJson());
+
+		assertEquals(g2, copy);
+		List<SignalGraph> deps = copy.getDependentSignals();
+		assertSame(deps.get(0), deps.get(1).getDependentSignals().get(0));
+	}
+
+	@Test(timeout = 5000)
+	public void testDeepLattice() {
+		// 40 levels of diamonds, 2^40 paths from the top to the bottom
+		SignalGraph left = SignalGraph.of("source");
+		SignalGraph right = left;
+		for (int level = 0; level < 40; level++) {
+			SignalGraph newLeft = SignalGraph.of("l" + level, left, right);
+			SignalGraph newRight = SignalGraph.of("r" + level, left, right);
+			left = newLeft;
+			right = newRight;
+		}
+		SignalGraph root = SignalGraph.of("root", left, right);
+
+		assertTrue(root.containsId("source"));
+		assertFalse(root.containsId("missing"));
+		assertEquals(root, SignalGraph.fromJson(root.toJson()));
+		assertEquals(root.hashCode(), SignalGraph.fromJson(root.toJson()).hashCode());
+	}
+
 	private static String id(int value) {
 		return Integer.toString(value);
 	}
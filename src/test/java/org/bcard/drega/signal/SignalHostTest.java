@@ -0,0 +1,1422 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.endsWith;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.EventBus;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.eventbus.impl.JsonObjectMessage;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.shareddata.SharedData;
+import org.vertx.java.platform.Container;
+
+/**
+ * Tests for the {@link SignalHost} class.
+ *
+ * @author bcard
+ *
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class SignalHostTest {
+
+	@Mock
+	Vertx vertx;
+
+	@Mock
+	EventBus eventBus;
+
+	@Mock
+	Container container;
+
+	@Mock
+	Logger logger;
+
+	SharedData sharedData = new SharedData();
+
+	private SignalHost host;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		when(vertx.eventBus()).thenReturn(eventBus);
+		when(vertx.sharedData()).thenReturn(sharedData);
+		when(container.logger()).thenReturn(logger);
+		when(container.config()).thenReturn(hostConfig());
+
+		host = new SignalHost();
+		host.setVertx(vertx);
+		host.setContainer(container);
+		host.start(new DefaultFutureResult<Void>());
+	}
+
+	@Test
+	public void testHostIsAdvertised() {
+		assertEquals(SignalHost.createAddress("local"), sharedData.getMap(SignalHost.HOSTS_MAP).get("local"));
+
+		host.stop();
+
+		assertTrue(sharedData.getMap(SignalHost.HOSTS_MAP).isEmpty());
+	}
+
+	@Test
+	public void testHostsWithoutIdsDoNotClash() {
+		JsonObject config = new JsonObject().putBoolean("graphRegistry", false);
+		when(container.config()).thenReturn(config);
+		SignalHost first = new SignalHost();
+		first.setVertx(vertx);
+		first.setContainer(container);
+		first.start(new DefaultFutureResult<Void>());
+		SignalHost second = new SignalHost();
+		second.setVertx(vertx);
+		second.setContainer(container);
+		second.start(new DefaultFutureResult<Void>());
+
+		// local, and the two new ones
+		assertEquals(3, sharedData.getMap(SignalHost.HOSTS_MAP).size());
+		assertEquals(3, Placement.of(vertx).report().getObject("hosts").size());
+
+		first.stop();
+		assertEquals(2, Placement.of(vertx).report().getObject("hosts").size());
+		second.stop();
+	}
+
+	@Test
+	public void testCreateSignal() {
+		Message<JsonObject> reply = create(config("x"));
+
+		verify(reply).reply(eq(ok("x")));
+		assertEquals(1, host.size());
+		assertNotNull(host.getSignal("x"));
+		verify(eventBus).registerHandler(eq("signals.x.get"), any(Handler.class));
+		verify(eventBus, never()).registerHandler(eq("signals.x.increment"), any(Handler.class));
+	}
+
+	@Test
+	public void testOpenRegistersAddresses() {
+		create(config("x"));
+
+		Message<String> reply = open("x");
+		open("x");
+
+		verify(reply).reply(eq(ok("x")));
+		verify(eventBus).registerHandler(eq("signals.x.increment"), any(Handler.class));
+		verify(eventBus).registerHandler(eq("signals.x.print"), any(Handler.class));
+	}
+
+	@Test
+	public void testOpenUnknownSignal() {
+		Message<String> reply = open("x");
+
+		ArgumentCaptor<JsonObject> captor = ArgumentCaptor.forClass(JsonObject.class);
+		verify(reply).reply(captor.capture());
+		assertEquals("error", captor.getValue().getString("status"));
+	}
+
+	@Test
+	public void testOpenAsksHostOfSignal() {
+		create(config("x"));
+		Handler<AsyncResult<Void>> done = mock(Handler.class);
+
+		SignalHost.open(vertx, "x", done);
+
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).send(eq(SignalHost.openAddress("local")), eq("x"),
+				(Handler<Message<JsonObject>>) captor.capture());
+		verify(done, never()).handle(any(AsyncResult.class));
+		captor.getValue().handle(new JsonObjectMessage(true, SignalHost.openAddress("local"), ok("x")));
+		verify(done).handle(any(AsyncResult.class));
+	}
+
+	@Test
+	public void testOpenSignalOutsideOfHosts() {
+		Handler<AsyncResult<Void>> done = mock(Handler.class);
+
+		SignalHost.open(vertx, "x", done);
+
+		verify(done).handle(any(AsyncResult.class));
+		verify(eventBus, never()).send(eq(SignalHost.openAddress("local")), any(String.class),
+				(Handler<Message<JsonObject>>) any(Handler.class));
+	}
+
+	@Test
+	public void testAddressesRegisteredStraightAwayWhenNotLazy() {
+		restart(hostConfig().putBoolean("lazyAddresses", false));
+
+		create(config("x"));
+
+		verify(eventBus).registerHandler(eq("signals.x.increment"), any(Handler.class));
+	}
+
+	@Test
+	public void testDuplicateSignalRejected() {
+		create(config("x"));
+		Message<JsonObject> reply = create(config("x"));
+
+		ArgumentCaptor<JsonObject> captor = ArgumentCaptor.forClass(JsonObject.class);
+		verify(reply).reply(captor.capture());
+		assertEquals("error", captor.getValue().getString("status"));
+		assertEquals(1, host.size());
+	}
+
+	@Test
+	public void testUnexpectedFailureRejected() {
+		// a config field of the wrong type
+		Message<JsonObject> reply = create(config("x").putString("dependencies", "a"));
+
+		ArgumentCaptor<JsonObject> captor = ArgumentCaptor.forClass(JsonObject.class);
+		verify(reply).reply(captor.capture());
+		assertEquals("error", captor.getValue().getString("status"));
+		assertEquals(0, host.size());
+	}
+
+	@Test
+	public void testDependentsShareValueSubscription() {
+		// x runs somewhere else
+		create(config("y", "x"));
+		create(config("z", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 2);
+
+		verify(eventBus, times(1)).registerHandler(eq("signals.x.value"), any(Handler.class));
+	}
+
+	@Test
+	public void testValueUpdateReachesEveryDependent() {
+		create(config("y", "x"));
+		create(config("z", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 2);
+
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).registerHandler(eq("signals.x.value"), captor.capture());
+		Message message = mock(Message.class);
+		when(message.body()).thenReturn(new ValueMessage(5L, new SignalChain(new SignalGraph("x"), 1)).toBuffer());
+		captor.getValue().handle(message);
+
+		assertEquals(5L, host.getSignal("y").value);
+		assertEquals(5L, host.getSignal("z").value);
+		verify(eventBus).publish(eq("signals.y.value"), any(Buffer.class));
+		verify(eventBus).publish(eq("signals.z.value"), any(Buffer.class));
+	}
+
+	@Test
+	public void testLocalDependentsBypassEventBus() {
+		create(config("x"));
+		create(config("y", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 1);
+		create(config("z", "y"));
+		answerGraphRequests("y", new SignalGraph("y", new SignalGraph("x")), 1);
+		get("z");
+
+		increment("x");
+
+		assertEquals(1L, host.getSignal("z").value);
+		verify(eventBus, never()).registerHandler(eq("signals.x.value"), any(Handler.class));
+		verify(eventBus, never()).registerHandler(eq("signals.y.value"), any(Handler.class));
+		// still published for the reader outside of the host
+		verify(eventBus, times(1)).publish(eq("signals.z.value"), any(Buffer.class));
+	}
+
+	@Test
+	public void testLocalDependentsForwardSourceChain() {
+		create(config("x"));
+		create(config("y", "x"));
+		create(config("w", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 2);
+		get("w");
+
+		increment("x");
+
+		ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+		verify(eventBus, times(1)).publish(eq("signals.w.value"), captor.capture());
+		SignalChain chain = ValueMessage.decode(captor.getValue()).getChain();
+		assertEquals(1, chain.size());
+		assertEquals(1, chain.getEventCounterFor("x"));
+	}
+
+	@Test
+	public void testDeepLocalChain() {
+		create(config("s0"));
+		SignalGraph graph = new SignalGraph("s0");
+		for (int i = 1; i < 300; i++) {
+			create(config("s" + i, "s" + (i - 1)));
+			answerGraphRequests("s" + (i - 1), graph, 1);
+			graph = new SignalGraph("s" + i, graph);
+		}
+
+		increment("s0");
+
+		assertEquals(1L, host.getSignal("s299").value);
+	}
+
+	@Test
+	public void testLocalDependentGetsCurrentValue() {
+		JsonObject config = config("x");
+		config.putNumber("initialValue", 7);
+		create(config);
+		increment("x");
+
+		create(config("y", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 1);
+
+		assertEquals(8L, host.getSignal("y").value);
+		// x didn't publish again for the new subscriber
+		verify(eventBus, times(1)).publish(eq("signals.x.value"), any(Buffer.class));
+		verify(eventBus, never()).send(eq("signals.x.get"), anyString(),
+				(Handler<Message<Object>>) any(Handler.class));
+	}
+
+	@Test
+	public void testRemoteDependencyIsAskedForValue() {
+		create(config("y", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 1);
+
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).send(eq("signals.x.get"), eq(""), (Handler<Message<Object>>) captor.capture());
+		Message message = mock(Message.class);
+		when(message.body()).thenReturn(new ValueMessage(3L, new SignalChain(new SignalGraph("x"), 0)).toBuffer());
+		captor.getValue().handle(message);
+
+		assertEquals(3L, host.getSignal("y").value);
+	}
+
+	@Test
+	public void testSampledUpdateIsTraced() {
+		JsonObject config = config("x");
+		config.putNumber("traceSampleRate", 1);
+		create(config);
+		create(config("y", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 1);
+		get("y");
+
+		increment("x");
+
+		ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+		verify(eventBus, times(1)).publish(eq("signals.y.value"), captor.capture());
+		Trace trace = ValueMessage.decode(captor.getValue()).getTrace();
+		assertEquals(3, trace.size());
+		assertEquals("x", trace.getOrigin());
+		assertEquals("x", trace.idAt(1));
+		assertEquals("y", trace.idAt(2));
+
+		SignalMetrics metrics = host.getSignal("y").getMetrics();
+		assertEquals(1, metrics.getEndToEnd().getCount());
+		assertEquals(1, metrics.getQueueing().getCount());
+		assertEquals(1, metrics.getCompute().getCount());
+		assertEquals(1, host.getSignal("x").getMetrics().getCompute().getCount());
+	}
+
+	@Test
+	public void testUpdatesNotSampledByDefault() {
+		create(config("x"));
+		create(config("y", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 1);
+		get("y");
+
+		increment("x");
+
+		ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+		verify(eventBus, times(1)).publish(eq("signals.y.value"), captor.capture());
+		assertNull(ValueMessage.decode(captor.getValue()).getTrace());
+		assertNull(host.getSignal("y").getMetrics().getEndToEnd());
+	}
+
+	@Test
+	public void testGlitchWaitRecorded() {
+		JsonObject config = config("x");
+		config.putNumber("traceSampleRate", 1);
+		create(config);
+		create(config("y", "x"));
+		JsonObject combined = config("z", "y", "x");
+		combined.putString("operator", "ADD");
+		create(combined);
+		answerGraphRequests("x", new SignalGraph("x"), 2);
+		answerGraphRequests("y", new SignalGraph("y", new SignalGraph("x")), 1);
+
+		increment("x");
+
+		assertEquals(2L, host.getSignal("z").value);
+		SignalMetrics metrics = host.getSignal("z").getMetrics();
+		assertEquals(2, metrics.getEndToEnd().getCount());
+		assertEquals(1, metrics.getGlitchWait().getCount());
+		assertEquals(1, metrics.getCompute().getCount());
+	}
+
+	@Test
+	public void testMetricsReply() {
+		create(config("x"));
+		open("x");
+
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).registerHandler(eq("signals.x.metrics"), captor.capture());
+		Message<String> message = mock(Message.class);
+		captor.getValue().handle(message);
+
+		ArgumentCaptor<JsonObject> reply = ArgumentCaptor.forClass(JsonObject.class);
+		verify(message).reply(reply.capture());
+		assertEquals("x", reply.getValue().getString("id"));
+		assertEquals(0L, (long) reply.getValue().getObject("endToEnd").getLong("count"));
+	}
+
+	@Test
+	public void testExpressionSignal() {
+		create(config("a"));
+		create(config("b"));
+		create(expression("z", "(a + b) * 2 - a"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+		answerGraphRequests("b", new SignalGraph("b"), 1);
+
+		increment("a");
+		increment("b");
+		increment("b");
+
+		assertEquals(5L, host.getSignal("z").value);
+	}
+
+	@Test
+	public void testExpressionAvoidsGlitches() {
+		create(config("a"));
+		create(config("b", "a"));
+		create(expression("z", "b * 10 - a"));
+		answerGraphRequests("a", new SignalGraph("a"), 2);
+		answerGraphRequests("b", new SignalGraph("b", new SignalGraph("a")), 1);
+
+		increment("a");
+
+		// b = a so z only ever sees 9 * a
+		ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+		verify(eventBus, times(2)).publish(eq("signals.z.value"), captor.capture());
+		assertEquals(0L, ValueMessage.decode(captor.getAllValues().get(0)).getValue());
+		assertEquals(9L, ValueMessage.decode(captor.getAllValues().get(1)).getValue());
+	}
+
+	@Test
+	public void testSingleVariableExpression() {
+		create(config("a"));
+		create(expression("z", "-a * 3"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+
+		increment("a");
+
+		assertEquals(-3L, host.getSignal("z").value);
+	}
+
+	@Test
+	public void testDivideByZeroKeepsValue() {
+		create(config("a"));
+		create(expression("z", "10 / (a % 2)"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+
+		increment("a");
+		assertEquals(10L, host.getSignal("z").value);
+
+		increment("a");
+		assertEquals(10L, host.getSignal("z").value);
+		verify(logger, times(2)).error(anyString());
+	}
+
+	@Test
+	public void testInvalidExpressionRejected() {
+		Message<JsonObject> reply = create(expression("z", "(a + b"));
+
+		ArgumentCaptor<JsonObject> captor = ArgumentCaptor.forClass(JsonObject.class);
+		verify(reply).reply(captor.capture());
+		assertEquals("error", captor.getValue().getString("status"));
+		assertEquals(0, host.size());
+	}
+
+	@Test
+	public void testPassThroughChainIsFused() {
+		create(config("a"));
+		create(config("b", "a"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+		create(config("c", "b"));
+		answerGraphRequests("b", new SignalGraph("b", new SignalGraph("a")), 1);
+
+		increment("a");
+		increment("a");
+
+		assertTrue(host.getSignal("b").isFused());
+		assertTrue(host.getSignal("c").isFused());
+		assertEquals(2L, host.getSignal("c").value);
+		verify(eventBus, never()).publish(eq("signals.b.value"), any(Buffer.class));
+		verify(eventBus, never()).publish(eq("signals.c.value"), any(Buffer.class));
+		// the elided links pass on the source's counter
+		SignalChain chain = host.getSignal("c").getCurrentValue().getChain();
+		assertEquals(1, chain.size());
+		assertEquals(2, chain.getEventCounterFor("a"));
+	}
+
+	@Test
+	public void testChainSizeDoesNotGrowWithDepth() {
+		create(config("a"));
+		create(config("b"));
+		create(expression("l0", "a + b"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+		answerGraphRequests("b", new SignalGraph("b"), 1);
+		SignalGraph graph = new SignalGraph("l0", new SignalGraph("a"), new SignalGraph("b"));
+		for (int i = 1; i < 20; i++) {
+			create(config("l" + i, "l" + (i - 1)));
+			answerGraphRequests("l" + (i - 1), graph, 1);
+			graph = new SignalGraph("l" + i, graph);
+		}
+
+		increment("a");
+		increment("b");
+
+		SignalChain chain = host.getSignal("l19").getCurrentValue().getChain();
+		assertEquals(2, chain.size());
+		assertEquals(1, chain.getEventCounterFor("a"));
+		assertEquals(1, chain.getEventCounterFor("b"));
+	}
+
+	@Test
+	public void testOutsideReadUnfuses() {
+		create(config("a"));
+		create(config("b", "a"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+		increment("a");
+
+		Message<String> reply = get("b");
+
+		ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+		verify(reply).reply(captor.capture());
+		assertEquals(1L, ValueMessage.decode(captor.getValue()).getValue());
+		assertFalse(host.getSignal("b").isFused());
+
+		increment("a");
+		verify(eventBus, times(1)).publish(eq("signals.b.value"), any(Buffer.class));
+	}
+
+	@Test
+	public void testCombinedSignalsNotFused() {
+		create(config("a"));
+		create(expression("b", "a * 2"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+
+		assertFalse(host.getSignal("b").isFused());
+	}
+
+	@Test
+	public void testFusionCanBeDisabled() {
+		host.stop();
+		JsonObject config = hostConfig();
+		config.putString("id", "nofusion");
+		config.putBoolean("fusion", false);
+		when(container.config()).thenReturn(config);
+		host = new SignalHost();
+		host.setVertx(vertx);
+		host.setContainer(container);
+		host.start(new DefaultFutureResult<Void>());
+
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).registerHandler(eq(SignalHost.createAddress("nofusion")), captor.capture());
+		for (JsonObject signal : new JsonObject[] { config("a"), config("b", "a") }) {
+			Message<JsonObject> message = mock(Message.class);
+			when(message.body()).thenReturn(signal);
+			captor.getValue().handle(message);
+		}
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+
+		assertFalse(host.getSignal("b").isFused());
+	}
+
+	@Test
+	public void testUnchangedUpdatesSuppressed() {
+		create(config("a"));
+		create(config("b", "a"));
+		create(config("c", "a"));
+		answerGraphRequests("a", new SignalGraph("a"), 2);
+		JsonObject z = expression("z", "b - c");
+		z.putBoolean("distinct", true);
+		create(z);
+		answerGraphRequests("b", new SignalGraph("b", new SignalGraph("a")), 1);
+		answerGraphRequests("c", new SignalGraph("c", new SignalGraph("a")), 1);
+
+		increment("a");
+		increment("a");
+
+		assertEquals(0L, host.getSignal("z").value);
+		assertFalse(host.getSignal("z").isInterested());
+		// only the initial value
+		verify(eventBus, times(1)).publish(eq("signals.z.value"), any(Buffer.class));
+	}
+
+	@Test
+	public void testUnchangedUpdatesSentWhenSharedAncestor() {
+		create(config("a"));
+		create(config("b", "a"));
+		create(config("c", "a"));
+		JsonObject z = expression("z", "b - c");
+		z.putBoolean("distinct", true);
+		create(z);
+		// w sees a through z and directly
+		create(expression("w", "z + a"));
+		answerGraphRequests("a", new SignalGraph("a"), 3);
+		answerGraphRequests("b", new SignalGraph("b", new SignalGraph("a")), 1);
+		answerGraphRequests("c", new SignalGraph("c", new SignalGraph("a")), 1);
+		answerGraphRequests("z", new SignalGraph("z", new SignalGraph("b", new SignalGraph("a")),
+				new SignalGraph("c", new SignalGraph("a"))), 1);
+
+		increment("a");
+		increment("a");
+
+		assertTrue(host.getSignal("z").isInterested());
+		assertTrue(host.getSignal("b").isInterested());
+		// without z's counters w would wait on a glitch forever
+		assertEquals(2L, host.getSignal("w").value);
+		assertEquals(2, host.getSignal("z").getCurrentValue().getChain().getEventCounterFor("a"));
+	}
+
+	@Test
+	public void testInterestStopsAtTheFork() {
+		create(config("s0"));
+		create(distinct(expression("s1", "s0 * 0")));
+		answerGraphRequests("s0", chain(0), 1);
+		create(distinct(expression("s2", "s1 + 1")));
+		answerGraphRequests("s1", chain(1), 1);
+		create(distinct(expression("s3", "s2 + 1")));
+		answerGraphRequests("s2", chain(2), 1);
+		create(expression("b", "s3 + 1"));
+		create(expression("c", "s3 + 2"));
+		answerGraphRequests("s3", chain(3), 2);
+		create(expression("z", "b - c"));
+		answerGraphRequests("b", new SignalGraph("b", chain(3)), 1);
+		answerGraphRequests("c", new SignalGraph("c", chain(3)), 1);
+
+		increment("s0");
+		increment("s0");
+
+		assertTrue(host.getSignal("b").isInterested());
+		assertTrue(host.getSignal("c").isInterested());
+		for (String id : new String[] { "s1", "s2", "s3" }) {
+			assertFalse(id, host.getSignal(id).isInterested());
+		}
+		// s1 still drops the unchanged updates, only the initial value is sent
+		verify(eventBus, times(1)).publish(eq("signals.s1.value"), any(Buffer.class));
+		assertEquals(-1L, host.getSignal("z").value);
+	}
+
+	@Test
+	public void testInterestWithdrawnWhenSignalStops() {
+		createDiamond("strict");
+		assertTrue(host.getSignal("b").isInterested());
+
+		host.getSignal("z").stop();
+
+		assertFalse(host.getSignal("b").isInterested());
+		assertFalse(host.getSignal("c").isInterested());
+	}
+
+	@Test
+	public void testLateInterestSendsSuppressedUpdate() {
+		create(config("a"));
+		create(config("b", "a"));
+		create(config("c", "a"));
+		answerGraphRequests("a", new SignalGraph("a"), 2);
+		JsonObject z = expression("z", "b - c");
+		z.putBoolean("distinct", true);
+		create(z);
+		answerGraphRequests("b", new SignalGraph("b", new SignalGraph("a")), 1);
+		answerGraphRequests("c", new SignalGraph("c", new SignalGraph("a")), 1);
+		increment("a");
+
+		host.getSignal("z").setInterest("w", true);
+
+		ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+		verify(eventBus, times(2)).publish(eq("signals.z.value"), captor.capture());
+		assertEquals(1, ValueMessage.decode(captor.getValue()).getChain().getEventCounterFor("a"));
+	}
+
+	@Test
+	public void testBurstOfUpdatesCoalesced() {
+		create(coalesce(config("x"), 10, 100));
+		create(config("y", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 1);
+
+		for (int i = 0; i < 5; i++) {
+			increment("x");
+		}
+
+		assertEquals(5L, host.getSignal("x").value);
+		// the first update goes straight through
+		assertEquals(1L, host.getSignal("y").value);
+		timer(1).handle(0L);
+		assertEquals(5L, host.getSignal("y").value);
+		// one event for the rest of the burst
+		assertEquals(2, host.getSignal("y").getCurrentValue().getChain().getEventCounterFor("x"));
+		verify(eventBus, times(2)).publish(eq("signals.x.value"), any(Buffer.class));
+	}
+
+	@Test
+	public void testCoalescingFlushesFullBatch() {
+		create(coalesce(config("x"), 10, 3));
+		create(config("y", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 1);
+
+		for (int i = 0; i < 4; i++) {
+			increment("x");
+		}
+
+		assertEquals(4L, host.getSignal("y").value);
+		verify(eventBus, times(2)).publish(eq("signals.x.value"), any(Buffer.class));
+	}
+
+	@Test
+	public void testQuietWindowCloses() {
+		create(coalesce(config("x"), 10, 100));
+		create(config("y", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 1);
+		increment("x");
+		timer(1).handle(0L);
+
+		increment("x");
+
+		// sent straight away and opens a new window
+		assertEquals(2L, host.getSignal("y").value);
+		timer(2);
+	}
+
+	@Test
+	public void testIncrementByAmount() {
+		create(config("x"));
+
+		increment("x", 10L);
+
+		assertEquals(10L, host.getSignal("x").value);
+	}
+
+	@Test
+	public void testSetValue() {
+		create(config("x"));
+
+		Message<Long> message = send("signals.x.set", 7L);
+
+		assertEquals(7L, host.getSignal("x").value);
+		verify(message).reply("x");
+	}
+
+	@Test
+	public void testCannotSetDependentSignal() {
+		create(config("x"));
+		create(config("y", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 1);
+
+		Message<Long> message = send("signals.y.set", 7L);
+
+		assertEquals(0L, host.getSignal("y").value);
+		verify(message).fail(eq(0), anyString());
+	}
+
+	@Test
+	public void testBatchSendsOneUpdatePerSignal() {
+		create(config("a"));
+		create(config("b"));
+		create(config("c"));
+		create(expression("z", "a + b"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+		answerGraphRequests("b", new SignalGraph("b"), 1);
+		JsonObject batch = new JsonObject();
+		batch.putObject("values", new JsonObject().putNumber("a", 5));
+		batch.putObject("deltas", new JsonObject().putNumber("a", 2).putNumber("b", 100));
+
+		send(Signal.BATCH_ADDRESS, batch);
+
+		assertEquals(7L, host.getSignal("a").value);
+		assertEquals(100L, host.getSignal("b").value);
+		assertEquals(0L, host.getSignal("c").value);
+		assertEquals(107L, host.getSignal("z").value);
+		verify(eventBus, times(1)).publish(eq("signals.a.value"), any(Buffer.class));
+		verify(eventBus, times(1)).publish(eq("signals.b.value"), any(Buffer.class));
+		verify(eventBus, never()).publish(eq("signals.c.value"), any(Buffer.class));
+	}
+
+	@Test
+	public void testTransactionComputesOnce() {
+		create(config("a"));
+		create(config("b"));
+		create(expression("z", "a + b"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+		answerGraphRequests("b", new SignalGraph("b"), 1);
+
+		send(Signal.BATCH_ADDRESS, transaction("t", "a", "b"));
+
+		assertEquals(3L, host.getSignal("z").value);
+		// the initial value and one for the transaction
+		ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+		verify(eventBus, times(2)).publish(eq("signals.z.value"), captor.capture());
+		ValueMessage update = ValueMessage.decode(captor.getValue());
+		assertEquals(3L, update.getValue());
+		assertEquals("t", update.getEpochs().get(0).getId());
+	}
+
+	@Test
+	public void testTransactionTimerCancelledWhenComplete() {
+		when(vertx.setTimer(eq(Signal.DEFAULT_TRANSACTION_TIMEOUT), any(Handler.class))).thenReturn(42L);
+		create(config("a"));
+		create(config("b"));
+		create(expression("z", "a + b"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+		answerGraphRequests("b", new SignalGraph("b"), 1);
+
+		send(Signal.BATCH_ADDRESS, transaction("t", "a", "b"));
+
+		verify(vertx).cancelTimer(42L);
+	}
+
+	@Test
+	public void testBatchWithoutTransactionComputesOnce() {
+		create(config("a"));
+		create(config("b"));
+		create(expression("z", "a + b"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+		answerGraphRequests("b", new SignalGraph("b"), 1);
+		JsonObject batch = transaction("t", "a", "b");
+		batch.removeField("epoch");
+
+		send(SignalHost.batchAddress("local"), batch);
+
+		assertEquals(3L, host.getSignal("z").value);
+		// the initial value and one for the batch
+		ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+		verify(eventBus, times(2)).publish(eq("signals.z.value"), captor.capture());
+		ValueMessage update = ValueMessage.decode(captor.getValue());
+		assertEquals(3L, update.getValue());
+		assertNull(update.getEpochs());
+	}
+
+	@Test
+	public void testHostTakesBatchesForItsSignals() {
+		create(config("a"));
+		create(config("b"));
+
+		// one handler for the whole host, not one per signal
+		verify(eventBus, times(1)).registerHandler(eq(Signal.BATCH_ADDRESS), any(Handler.class));
+		verify(eventBus, times(1)).registerHandler(eq(SignalHost.batchAddress("local")), any(Handler.class));
+	}
+
+	@Test
+	public void testSendBatchSplitsByHost() {
+		create(config("a"));
+		Placement.of(vertx).setLocation("r", "remote");
+		JsonObject batch = new JsonObject();
+		batch.putObject("values", new JsonObject().putNumber("a", 5).putNumber("v", 1));
+		batch.putObject("deltas", new JsonObject().putNumber("r", 2));
+		batch.putObject("epoch", new Epoch("t", Arrays.asList("a", "r", "v")).toJson());
+
+		SignalHost.sendBatch(vertx, batch);
+
+		ArgumentCaptor<JsonObject> local = ArgumentCaptor.forClass(JsonObject.class);
+		verify(eventBus).send(eq(SignalHost.batchAddress("local")), local.capture());
+		assertEquals(new JsonObject().putNumber("a", 5), local.getValue().getObject("values"));
+		assertEquals(new JsonObject(), local.getValue().getObject("deltas"));
+		assertEquals(batch.getObject("epoch"), local.getValue().getObject("epoch"));
+		ArgumentCaptor<JsonObject> remote = ArgumentCaptor.forClass(JsonObject.class);
+		verify(eventBus).send(eq(SignalHost.batchAddress("remote")), remote.capture());
+		assertEquals(new JsonObject().putNumber("r", 2), remote.getValue().getObject("deltas"));
+		// v isn't placed anywhere
+		ArgumentCaptor<JsonObject> rest = ArgumentCaptor.forClass(JsonObject.class);
+		verify(eventBus).publish(eq(Signal.BATCH_ADDRESS), rest.capture());
+		assertEquals(new JsonObject().putNumber("v", 1), rest.getValue().getObject("values"));
+	}
+
+	@Test
+	public void testTransactionGivesUpOnMissingUpdates() {
+		create(config("a"));
+		create(config("b"));
+		create(expression("z", "a + b"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+		answerGraphRequests("b", new SignalGraph("b"), 1);
+		send("signals.b.block", true);
+
+		send(Signal.BATCH_ADDRESS, transaction("t", "a", "b"));
+
+		assertEquals(0L, host.getSignal("z").value);
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(vertx).setTimer(eq(Signal.DEFAULT_TRANSACTION_TIMEOUT), (Handler<Long>) captor.capture());
+		captor.getValue().handle(0L);
+		assertEquals(1L, host.getSignal("z").value);
+	}
+
+	@Test
+	public void testStrictConsistencyHoldsGlitch() {
+		createDiamond("strict");
+		send("signals.c.block", true);
+
+		increment("a");
+
+		assertEquals(0L, host.getSignal("z").value);
+		verify(vertx, never()).setTimer(eq(Signal.DEFAULT_MAX_STALENESS), any(Handler.class));
+		assertNull(host.getSignal("z").getMetrics().getHeld());
+	}
+
+	@Test
+	public void testBoundedConsistencySendsAfterWait() {
+		createDiamond("bounded");
+		send("signals.c.block", true);
+
+		increment("a");
+		assertEquals(0L, host.getSignal("z").value);
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(vertx).setTimer(eq(Signal.DEFAULT_MAX_STALENESS), (Handler<Long>) captor.capture());
+		captor.getValue().handle(0L);
+
+		Signal z = host.getSignal("z");
+		assertEquals(1L, z.value);
+		assertTrue(z.getCurrentValue().isInconsistent());
+		assertEquals(1, z.getMetrics().getHeld().getCount());
+		assertEquals(1, z.getMetrics().getInconsistentUpdates());
+	}
+
+	@Test
+	public void testBoundedConsistencyClearsBeforeWait() {
+		createDiamond("bounded");
+		send("signals.c.block", true);
+		increment("a");
+		send("signals.c.block", false);
+
+		increment("a");
+
+		Signal z = host.getSignal("z");
+		assertEquals(0L, z.value);
+		assertFalse(z.getCurrentValue().isInconsistent());
+		assertEquals(1, z.getMetrics().getHeld().getCount());
+		assertEquals(0, z.getMetrics().getInconsistentUpdates());
+		verify(vertx).cancelTimer(0L);
+	}
+
+	@Test
+	public void testEventualConsistencyReleasesHeldValue() {
+		createDiamond("strict");
+		send("signals.c.block", true);
+		increment("a");
+
+		send("signals.z.consistency", new JsonObject().putString("level", "eventual"));
+
+		assertEquals(1L, host.getSignal("z").value);
+		assertEquals(1, host.getSignal("z").getMetrics().getHeld().getCount());
+	}
+
+	@Test
+	public void testLocalDiamondIsNeverHeld() {
+		createDiamond("strict");
+		get("z");
+
+		increment("a");
+		increment("a");
+
+		Signal z = host.getSignal("z");
+		assertEquals(0L, z.value);
+		assertNull(z.getMetrics().getHeld());
+	}
+
+	@Test
+	public void testLocalDiamondHasNoGlitchesWhenEventual() {
+		JsonObject z = expression("z", "b * 10 + c");
+		z.putString("consistency", "eventual");
+		create(config("a"));
+		create(expression("b", "a + 1"));
+		create(config("c", "a"));
+		create(z);
+		answerGraphRequests("a", new SignalGraph("a"), 2);
+		answerGraphRequests("b", new SignalGraph("b", new SignalGraph("a")), 1);
+		answerGraphRequests("c", new SignalGraph("c", new SignalGraph("a")), 1);
+		get("z");
+
+		increment("a");
+
+		// b and c are both applied before z recomputes, it never sees 20
+		ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+		verify(eventBus, atLeastOnce()).publish(eq("signals.z.value"), captor.capture());
+		List<Long> published = new ArrayList<>();
+		for (Buffer buffer : captor.getAllValues()) {
+			published.add(ValueMessage.decode(buffer).getValue());
+		}
+		assertFalse(published.contains(20L));
+		assertEquals(21L, host.getSignal("z").value);
+	}
+
+	@Test
+	public void testRecoversSourcesAfterRestart() throws IOException {
+		JsonObject config = journalConfig();
+		restart(config);
+		create(config("a"));
+		increment("a");
+		increment("a", 4);
+
+		host.stop();
+		restart(config);
+		create(config("a"));
+
+		Signal a = host.getSignal("a");
+		assertEquals(5L, a.value);
+		assertEquals(2, a.getEventCounter());
+	}
+
+	@Test
+	public void testRecoversJournalWithoutStopping() throws IOException {
+		JsonObject config = journalConfig();
+		config.putNumber("journalSize", 64);
+		restart(config);
+		create(config("a"));
+		for (int i = 0; i < 10; i++) {
+			// fills the journal a few times
+			increment("a");
+		}
+
+		// as if the host crashed
+		restart(config);
+		create(config("a"));
+
+		assertEquals(10L, host.getSignal("a").value);
+	}
+
+	private JsonObject journalConfig() throws IOException {
+		return hostConfig().putString("journal", folder.newFolder().getPath());
+	}
+
+	/**
+	 * Most tests answer the graph requests between signals themselves, so
+	 * the registry is turned off unless a test is about it.
+	 */
+	private static JsonObject hostConfig() {
+		return new JsonObject().putString("id", "local").putBoolean("graphRegistry", false);
+	}
+
+	/**
+	 * Replaces the host with a new one using the given config.
+	 */
+	private void restart(JsonObject config) {
+		reset(eventBus);
+		when(container.config()).thenReturn(config);
+		host = new SignalHost();
+		host.setVertx(vertx);
+		host.setContainer(container);
+		host.start(new DefaultFutureResult<Void>());
+	}
+
+	@Test
+	public void testLoadTopologyWithoutGraphRequests() throws IOException {
+		createDiamond("strict");
+		String file = folder.newFile().getPath();
+		Message<String> saved = send("hosts.local.save", file);
+		verify(saved).reply(eq(new JsonObject().putString("status", "ok").putNumber("count", 4)));
+
+		restart(hostConfig());
+		Message<String> loaded = send("hosts.local.load", file);
+
+		verify(loaded).reply(eq(new JsonObject().putString("status", "ok").putNumber("count", 4)));
+		verify(eventBus, never()).send(endsWith(".sendGraph"), eq(""),
+				(Handler<Message<JsonObject>>) any(Handler.class));
+		SignalGraph a = new SignalGraph("a");
+		assertEquals(new SignalGraph("z", new SignalGraph("b", a), new SignalGraph("c", a)), host.getSignal("z")
+				.getGraph());
+
+		increment("a");
+		assertEquals(1L, host.getSignal("b").value);
+		assertEquals(1L, host.getSignal("c").value);
+		assertEquals(0L, host.getSignal("z").value);
+		assertNull(host.getSignal("z").getMetrics().getHeld());
+	}
+
+	@Test
+	public void testLoadTopologyReportsExistingSignals() throws IOException {
+		create(config("a"));
+		String file = folder.newFile().getPath();
+		send("hosts.local.save", file);
+
+		Message<String> loaded = send("hosts.local.load", file);
+
+		ArgumentCaptor<JsonObject> captor = ArgumentCaptor.forClass(JsonObject.class);
+		verify(loaded).reply(captor.capture());
+		assertEquals("error", captor.getValue().getString("status"));
+	}
+
+	@Test
+	public void testLoadTopologyReportsUnexpectedFailures() throws IOException {
+		TopologyImage image = new TopologyImage();
+		// a config field of the wrong type
+		image.add(config("x").putString("dependencies", "a"), new SignalGraph("x"));
+		File file = folder.newFile();
+		image.write(file);
+
+		Message<String> loaded = send("hosts.local.load", file.getPath());
+
+		ArgumentCaptor<JsonObject> captor = ArgumentCaptor.forClass(JsonObject.class);
+		verify(loaded).reply(captor.capture());
+		assertEquals("error", captor.getValue().getString("status"));
+		assertEquals(0, host.size());
+	}
+
+	@Test
+	public void testLoadTopologyFromMissingFile() {
+		Message<String> loaded = send("hosts.local.load", folder.getRoot().getPath() + "/missing");
+
+		ArgumentCaptor<JsonObject> captor = ArgumentCaptor.forClass(JsonObject.class);
+		verify(loaded).reply(captor.capture());
+		assertEquals("error", captor.getValue().getString("status"));
+	}
+
+	@Test
+	public void testRegistryReplacesGraphRequests() {
+		restart(new JsonObject().putString("id", "local"));
+		create(config("a"));
+		create(config("b", "a"));
+		create(config("c", "a"));
+		create(expression("z", "b - c"));
+
+		verify(eventBus, never()).send(endsWith(".sendGraph"), eq(""),
+				(Handler<Message<JsonObject>>) any(Handler.class));
+		SignalGraph a = new SignalGraph("a");
+		assertEquals(new SignalGraph("z", new SignalGraph("b", a), new SignalGraph("c", a)), host.getSignal("z")
+				.getGraph());
+		assertEquals(Arrays.asList("b", "c"), host.getRegistry().getDependencies("z"));
+
+		increment("a");
+		assertEquals(1L, host.getSignal("b").value);
+		assertEquals(0L, host.getSignal("z").value);
+	}
+
+	@Test
+	public void testRegistryAsksUnregisteredDependencies() {
+		restart(new JsonObject().putString("id", "local"));
+		// x runs as its own verticle, so it isn't registered. y registers
+		// the graph it gets from x
+		create(config("y", "x"));
+		answerGraphRequests("x", new SignalGraph("x"), 1);
+		create(config("z", "y"));
+
+		verify(eventBus, never()).send(eq("signals.y.sendGraph"), eq(""),
+				(Handler<Message<JsonObject>>) any(Handler.class));
+		assertEquals(new SignalGraph("z", new SignalGraph("y", new SignalGraph("x"))), host.getSignal("z")
+				.getGraph());
+	}
+
+	@Test
+	public void testRegistryIsSharedBetweenHosts() {
+		restart(new JsonObject().putString("id", "local"));
+		create(config("a"));
+		create(config("b", "a"));
+
+		// a second host in the same JVM sees the graphs of the first
+		restart(new JsonObject().putString("id", "other"));
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).registerHandler(eq(SignalHost.createAddress("other")), captor.capture());
+		Message<JsonObject> message = mock(Message.class);
+		when(message.body()).thenReturn(config("c", "b"));
+		captor.getValue().handle(message);
+
+		verify(eventBus, never()).send(endsWith(".sendGraph"), eq(""),
+				(Handler<Message<JsonObject>>) any(Handler.class));
+		assertEquals(new SignalGraph("c", new SignalGraph("b", new SignalGraph("a"))), host.getSignal("c")
+				.getGraph());
+	}
+
+	@Test
+	public void testDeploySignalUsesHost() {
+		Handler<AsyncResult<String>> done = mock(Handler.class);
+
+		SignalHost.deploySignal(container, vertx, config("x"), done);
+
+		verify(eventBus).send(eq(SignalHost.createAddress("local")), eq(config("x")),
+				(Handler<Message<JsonObject>>) any(Handler.class));
+		verify(container, never()).deployVerticle(anyString(), any(JsonObject.class), any(Handler.class));
+	}
+
+	@Test
+	public void testDeploySignalWithoutHostDeploysVerticle() {
+		host.stop();
+		Handler<AsyncResult<String>> done = mock(Handler.class);
+
+		SignalHost.deploySignal(container, vertx, config("x"), done);
+
+		verify(container).deployVerticle(Signal.class.getName(), config("x"), done);
+	}
+
+	@Test
+	public void testDeploySignalFailsBetweenHostsOutsideOfPlacement() {
+		host.stop();
+		restart(hostConfig().putBoolean("placement", false));
+		sharedData.<String, String> getMap(SignalHost.HOSTS_MAP).put("other", SignalHost.createAddress("other"));
+		Handler<AsyncResult<String>> done = mock(Handler.class);
+
+		SignalHost.deploySignal(container, vertx, config("x"), done);
+
+		ArgumentCaptor<AsyncResult> captor = ArgumentCaptor.forClass(AsyncResult.class);
+		verify(done).handle(captor.capture());
+		assertTrue(captor.getValue().failed());
+		verify(eventBus, never()).send(startsWith("hosts."), any(JsonObject.class),
+				(Handler<Message<JsonObject>>) any(Handler.class));
+		verify(container, never()).deployVerticle(anyString(), any(JsonObject.class), any(Handler.class));
+	}
+
+	@Test
+	public void testSaveTopologyFailsBetweenHosts() {
+		sharedData.<String, String> getMap(SignalHost.HOSTS_MAP).put("other", SignalHost.createAddress("other"));
+		Handler<AsyncResult<String>> done = mock(Handler.class);
+
+		SignalHost.saveTopology(vertx, folder.getRoot().getPath() + "/image", done);
+
+		ArgumentCaptor<AsyncResult> captor = ArgumentCaptor.forClass(AsyncResult.class);
+		verify(done).handle(captor.capture());
+		assertTrue(captor.getValue().failed());
+		verify(eventBus, never()).send(endsWith(".save"), anyString(),
+				(Handler<Message<JsonObject>>) any(Handler.class));
+	}
+
+	@Test
+	public void testPlacementRecordsSignals() {
+		create(config("x"));
+		Placement placement = Placement.of(vertx);
+
+		assertEquals("local", placement.getLocation("x"));
+		JsonObject local = placement.report().getObject("hosts").getObject("local");
+		assertEquals(1, (int) local.getInteger("signals"));
+		assertEquals(1, local.getNumber("load").doubleValue(), 0);
+
+		host.stop();
+
+		assertNull(placement.getLocation("x"));
+		assertNull(placement.getAddress("local"));
+	}
+
+	@Test
+	public void testMeasureLoad() {
+		create(config("a"));
+		create(config("b", "a"));
+		answerGraphRequests("a", new SignalGraph("a"), 1);
+
+		// a delivers to b and publishes, b only publishes
+		host.measureLoad(1000);
+		assertEquals(3, host.getLoad(), 0);
+
+		increment("a");
+		increment("a");
+		increment("a");
+		host.measureLoad(1000);
+
+		assertEquals(3 * 2 + 3 * 1, host.getLoad(), 0);
+		JsonObject local = Placement.of(vertx).report().getObject("hosts").getObject("local");
+		assertEquals(9, local.getNumber("load").doubleValue(), 0);
+	}
+
+	@Test
+	public void testDeploySignalFollowsPlacement() {
+		create(config("a"));
+		Placement placement = Placement.of(vertx);
+		placement.putHost("remote", SignalHost.createAddress("remote"), 5, 5);
+		Handler<AsyncResult<String>> done = mock(Handler.class);
+
+		// next to a
+		SignalHost.deploySignal(container, vertx, config("b", "a"), done);
+		verify(eventBus).send(eq(SignalHost.createAddress("local")), eq(config("b", "a")),
+				(Handler<Message<JsonObject>>) any(Handler.class));
+
+		// the least loaded host
+		placement.putHost("remote", SignalHost.createAddress("remote"), 0, 0);
+		SignalHost.deploySignal(container, vertx, config("c"), done);
+		verify(eventBus).send(eq(SignalHost.createAddress("remote")), eq(config("c")),
+				(Handler<Message<JsonObject>>) any(Handler.class));
+	}
+
+	// ------------------ Helper Methods ---------------- //
+
+	private void increment(String id) {
+		open(id);
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).registerHandler(eq("signals." + id + ".increment"), captor.capture());
+		captor.getValue().handle(mock(Message.class));
+	}
+
+	/**
+	 * Creates {@code z = b - c} where {@code b} and {@code c} both pass on the
+	 * value of {@code a}.
+	 */
+	private void createDiamond(String consistency) {
+		create(config("a"));
+		create(config("b", "a"));
+		create(config("c", "a"));
+		answerGraphRequests("a", new SignalGraph("a"), 2);
+		JsonObject z = expression("z", "b - c");
+		z.putString("consistency", consistency);
+		create(z);
+		answerGraphRequests("b", new SignalGraph("b", new SignalGraph("a")), 1);
+		answerGraphRequests("c", new SignalGraph("c", new SignalGraph("a")), 1);
+	}
+
+	private void increment(String id, long amount) {
+		send("signals." + id + ".increment", amount);
+	}
+
+	/**
+	 * Delivers a message to whatever is registered on an address.
+	 */
+	private <T> Message<T> send(String address, T body) {
+		if (address.startsWith("signals.") && !address.equals(Signal.BATCH_ADDRESS)) {
+			open(address.substring("signals.".length(), address.indexOf('.', "signals.".length())));
+		}
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).registerHandler(eq(address), captor.capture());
+		Message<T> message = mock(Message.class);
+		when(message.body()).thenReturn(body);
+		captor.getValue().handle(message);
+		return message;
+	}
+
+	/**
+	 * Asks the host to register every address of a signal.
+	 */
+	private Message<String> open(String id) {
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).registerHandler(eq(SignalHost.openAddress("local")), captor.capture());
+		Message<String> message = mock(Message.class);
+		when(message.body()).thenReturn(id);
+		captor.getValue().handle(message);
+		return message;
+	}
+
+	/**
+	 * Asks a signal for its value from outside of the host.
+	 */
+	private Message<String> get(String id) {
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).registerHandler(eq("signals." + id + ".get"), captor.capture());
+		Message<String> message = mock(Message.class);
+		captor.getValue().handle(message);
+		return message;
+	}
+
+	/**
+	 * Returns the handler of the last coalescing timer, after checking that
+	 * {@code count} timers have been set.
+	 */
+	private Handler<Long> timer(int count) {
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(vertx, times(count)).setTimer(eq(10L), (Handler<Long>) captor.capture());
+		return captor.getValue();
+	}
+
+	private Message<JsonObject> create(JsonObject config) {
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).registerHandler(eq(SignalHost.createAddress("local")), captor.capture());
+		Message<JsonObject> message = mock(Message.class);
+		when(message.body()).thenReturn(config);
+		captor.getValue().handle(message);
+		return message;
+	}
+
+	/**
+	 * Replies to every request for the graph of signal {@code id}.
+	 */
+	private void answerGraphRequests(String id, SignalGraph graph, int count) {
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus, times(count)).send(eq("signals." + id + ".sendGraph"), eq(""),
+				(Handler<Message<JsonObject>>) captor.capture());
+		List<Handler> handlers = captor.getAllValues();
+		for (Handler handler : handlers) {
+			JsonObject json = new JsonObject(graph.toJson());
+			handler.handle(new JsonObjectMessage(true, "signals." + id + ".sendGraph", json));
+		}
+	}
+
+	private static JsonObject config(String id, String... dependencies) {
+		JsonObject config = new JsonObject();
+		config.putString("id", id);
+		config.putNumber("initialValue", 0);
+		if (dependencies.length > 0) {
+			JsonArray array = new JsonArray();
+			for (String dependency : dependencies) {
+				array.addString(dependency);
+			}
+			config.putArray("dependencies", array);
+		}
+		return config;
+	}
+
+	private static JsonObject expression(String id, String expression) {
+		JsonObject config = new JsonObject();
+		config.putString("id", id);
+		config.putString("expression", expression);
+		return config;
+	}
+
+	private static JsonObject distinct(JsonObject config) {
+		config.putBoolean("distinct", true);
+		return config;
+	}
+
+	/**
+	 * The graph of {@code s[length]} in the chain {@code s0 -> s1 -> ...}.
+	 */
+	private static SignalGraph chain(int length) {
+		SignalGraph graph = new SignalGraph("s0");
+		for (int i = 1; i <= length; i++) {
+			graph = new SignalGraph("s" + i, graph);
+		}
+		return graph;
+	}
+
+	private static JsonObject coalesce(JsonObject config, long maxDelay, int maxBatch) {
+		config.putNumber("maxDelay", maxDelay);
+		config.putNumber("maxBatch", maxBatch);
+		return config;
+	}
+
+	/**
+	 * A transaction that adds 1 to the first source, 2 to the second and so
+	 * on.
+	 */
+	private static JsonObject transaction(String id, String... sources) {
+		JsonObject deltas = new JsonObject();
+		for (int i = 0; i < sources.length; i++) {
+			deltas.putNumber(sources[i], i + 1);
+		}
+		JsonObject batch = new JsonObject();
+		batch.putObject("deltas", deltas);
+		batch.putObject("epoch", new Epoch(id, Arrays.asList(sources)).toJson());
+		return batch;
+	}
+
+	private static JsonObject ok(String id) {
+		JsonObject reply = new JsonObject();
+		reply.putString("status", "ok");
+		reply.putString("id", id);
+		return reply;
+	}
+}
@@ -0,0 +1,42 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Tests for the {@link SignalMetrics} class.
+ *
+ * @author bcard
+ *
+ */
+public class SignalMetricsTest {
+
+	private final SignalMetrics metrics = new SignalMetrics();
+
+	@Test
+	public void testToJsonLeavesHistogramsUnset() {
+		JsonObject json = metrics.toJson();
+
+		assertEquals(0L, (long) json.getObject("queueing").getLong("count"));
+		assertEquals(0L, (long) json.getObject("held").getLong("count"));
+		assertNull(metrics.getQueueing());
+		assertNull(metrics.getGlitchWait());
+		assertNull(metrics.getCompute());
+		assertNull(metrics.getEndToEnd());
+		assertNull(metrics.getHeld());
+	}
+
+	@Test
+	public void testToJson() {
+		metrics.recordHeld(1000, true);
+
+		JsonObject json = metrics.toJson();
+
+		assertEquals(1L, (long) json.getObject("held").getLong("count"));
+		assertEquals(1L, (long) json.getLong("inconsistentUpdates"));
+		assertNull(metrics.getQueueing());
+	}
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -27,6 +28,7 @@ import org.mockito.stubbing.Answer;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.eventbus.EventBus;
 import org.vertx.java.core.eventbus.Message;
 import org.vertx.java.core.eventbus.impl.JsonObjectMessage;
@@ -130,9 +132,113 @@ public class SignalTest {
 		stringCaptor.getValue().handle(mockMessage);
 		
 		
+		verify(eventBus).publish(eq("signals."+ID+".value"), eq(createUpdateBuffer(1L, sc(ID, 1))));
+	}
+	
+	@Test
+	public void testPublishJsonCopyWhenJsonFormatRequested() {
+		startSignal();
+		
+		verify(eventBus).registerHandler(eq("signals."+ID+".format"), stringCaptor.capture());
+		Message<String> formatMessage = mock(Message.class);
+		when(formatMessage.body()).thenReturn("json");
+		stringCaptor.getValue().handle(formatMessage);
+		verify(formatMessage).reply("signals."+ID+".value.json");
+		
+		verify(eventBus).registerHandler(eq("signals."+ID+".increment"), stringCaptor.capture());
+		Message<String> mockMessage = mock(Message.class);
+		stringCaptor.getValue().handle(mockMessage);
+		
+		// other readers of .value still get binary
+		verify(eventBus).publish(eq("signals."+ID+".value"), eq(createUpdateBuffer(1L, sc(ID, 1))));
+		verify(eventBus).publish(eq("signals."+ID+".value.json"), eq(createUpdateMsg(1L, sc(ID, 1))));
+	}
+	
+	@Test
+	public void testOwnFormatRequestedUsesValueAddress() {
+		startSignal();
+		
+		verify(eventBus).registerHandler(eq("signals."+ID+".format"), stringCaptor.capture());
+		Message<String> formatMessage = mock(Message.class);
+		when(formatMessage.body()).thenReturn("binary");
+		stringCaptor.getValue().handle(formatMessage);
+		verify(formatMessage).reply("signals."+ID+".value");
+		
+		verify(eventBus).registerHandler(eq("signals."+ID+".increment"), stringCaptor.capture());
+		stringCaptor.getValue().handle(mock(Message.class));
+		
+		verify(eventBus, never()).publish(eq("signals."+ID+".value.binary"), (Object) any());
+	}
+	
+	@Test
+	public void testGetInRequestedFormat() {
+		config.putNumber("initialValue", 5);
+		startSignal();
+		
+		verify(eventBus).registerHandler(eq("signals."+ID+".get"), stringCaptor.capture());
+		Message<String> getMessage = mock(Message.class);
+		when(getMessage.body()).thenReturn("json");
+		stringCaptor.getValue().handle(getMessage);
+		
+		verify(getMessage).reply(eq(createUpdateMsg(5L, sc(ID, 0))));
+	}
+	
+	@Test
+	public void testJsonFormatFromConfig() {
+		config.putString("wireFormat", "json");
+		startSignal();
+		
+		verify(eventBus).registerHandler(eq("signals."+ID+".increment"), stringCaptor.capture());
+		Message<String> mockMessage = mock(Message.class);
+		stringCaptor.getValue().handle(mockMessage);
+		
 		verify(eventBus).publish(eq("signals."+ID+".value"), eq(createUpdateMsg(1L, sc(ID, 1))));
 	}
 	
+	@Test
+	public void testGetRepliesWithCurrentValueOnly() {
+		config.putNumber("initialValue", 5);
+		startSignal();
+		
+		verify(eventBus).registerHandler(eq("signals."+ID+".get"), stringCaptor.capture());
+		Message<String> getMessage = mock(Message.class);
+		stringCaptor.getValue().handle(getMessage);
+		
+		verify(getMessage).reply(eq(createUpdateBuffer(5L, sc(ID, 0))));
+		verify(eventBus, times(0)).publish(eq("signals."+ID+".value"), any(Buffer.class));
+	}
+	
+	@Test
+	public void testGetRepliesWithLastPublishedValue() {
+		Signal signal = startSignal();
+		
+		verify(eventBus).registerHandler(eq("signals."+ID+".increment"), stringCaptor.capture());
+		stringCaptor.getValue().handle(mock(Message.class));
+		verify(eventBus).registerHandler(eq("signals."+ID+".get"), stringCaptor.capture());
+		Message<String> getMessage = mock(Message.class);
+		stringCaptor.getValue().handle(getMessage);
+		stringCaptor.getValue().handle(getMessage);
+		
+		verify(getMessage, times(2)).reply(eq(createUpdateBuffer(1L, sc(ID, 1))));
+		// only the increment was published
+		verify(eventBus, times(1)).publish(eq("signals."+ID+".value"), any(Buffer.class));
+		assertEquals(1, signal.value);
+	}
+	
+	@Test
+	public void testDependencyAskedForInitialValue() {
+		DependencyTrackerTest.putDependencies(config, "a");
+		Signal signal = startSignal();
+		setGraphForSignal("a", new SignalGraph("a"), 0);
+		
+		ArgumentCaptor<Handler> captor = ArgumentCaptor.forClass(Handler.class);
+		verify(eventBus).send(eq("signals.a.get"), eq(""), (Handler<Message<Object>>) captor.capture());
+		JsonObjectMessage reply = new JsonObjectMessage(true, "", createUpdateMsg(4L, sc("a", 0)));
+		captor.getValue().handle(reply);
+		
+		assertEquals(4, signal.value);
+	}
+	
 	@Test
 	public void testReplyWithSimpleGraph() throws Exception {
 		startSignal();
@@ -167,8 +273,7 @@ public class SignalTest {
 		JsonObjectMessage zMsg = new JsonObjectMessage(true, "signals.a.sendGraph", zObj);
 		first.handle(zMsg);
 		
-		SignalGraph graph = new SignalGraph("x");
-		DependencyUpdateHandler handler = signal.new DependencyUpdateHandler("address", graph);
+		DependencyUpdateHandler handler = signal.new DependencyUpdateHandler("address", 0);
 		JsonObject obj = new JsonObject();
 		obj.putNumber("value", 1);
 		SignalChain chain = new SignalChain(new SignalGraph("a"));
@@ -176,7 +281,7 @@ public class SignalTest {
 		obj.putObject("chain", chainObj);
 		
 		JsonObjectMessage msg = new JsonObjectMessage(true, "address", obj);
-		handler.handle(msg);
+		handler.handle((Message) msg);
 		
 		assertEquals(1, signal.value);
 	}
@@ -185,8 +290,7 @@ public class SignalTest {
 	public void testUpdateNotSentWhenGraphNotYetPopulated() {
 		DependencyTrackerTest.putDependencies(config, "a");
 		Signal signal = startSignal();
-		SignalGraph graph = new SignalGraph("x");
-		DependencyUpdateHandler handler = signal.new DependencyUpdateHandler("address", graph);
+		DependencyUpdateHandler handler = signal.new DependencyUpdateHandler("address", 0);
 		JsonObject obj = new JsonObject();
 		obj.putNumber("value", 1);
 		SignalChain chain = new SignalChain(new SignalGraph("a"));
@@ -194,11 +298,26 @@ public class SignalTest {
 		obj.putObject("chain", chainObj);
 		
 		JsonObjectMessage msg = new JsonObjectMessage(true, "address", obj);
-		handler.handle(msg);
+		handler.handle((Message) msg);
 		
-		verify(eventBus, times(0)).publish(eq("signals.x.value"), any());
+		verify(eventBus, times(0)).publish(eq("signals.x.value"), any(Buffer.class));
 	}
-	
+
+	@Test
+	public void testCutShortUpdateLogged() {
+		DependencyTrackerTest.putDependencies(config, "a");
+		Signal signal = startSignal();
+		DependencyUpdateHandler handler = signal.new DependencyUpdateHandler("address", 0);
+		Buffer full = new ValueMessage(1L, new SignalChain(new SignalGraph("a"))).toBuffer();
+		Message<Object> msg = mock(Message.class);
+		when(msg.body()).thenReturn((Object) full.getBuffer(0, full.length() - 1));
+
+		handler.handle(msg);
+
+		verify(logger).error(contains("Ignoring bad update"));
+		verify(eventBus, never()).publish(eq("signals.x.value"), any(Buffer.class));
+	}
+
 	@Test
 	public void testPrintGraph() {
 		startSignal();
@@ -386,7 +505,7 @@ public class SignalTest {
 			
 		});
 		
-		when(eventBus.publish(contains(".value"), any(JsonObject.class))).then(new Answer<Void>() {
+		when(eventBus.publish(contains(".value"), any(Buffer.class))).then(new Answer<Void>() {
 
 			@Override
 			public Void answer(InvocationOnMock invocation) throws Throwable {
@@ -466,6 +585,21 @@ public class SignalTest {
 	private JsonObject createUpdateMsg(long value, SignalCounterPair... ids) {
 		JsonObject obj = new JsonObject();
 		obj.putNumber("value", value);
+		JsonObject chainObj = new JsonObject(createChain(ids).toJson());
+		obj.putObject("chain", chainObj);
+		
+		return obj;
+	}
+	
+	/**
+	 * Same as {@link #createUpdateMsg(long, SignalCounterPair...)} but encoded
+	 * in the binary wire format.
+	 */
+	private Buffer createUpdateBuffer(long value, SignalCounterPair... ids) {
+		return new ValueMessage(value, createChain(ids)).toBuffer();
+	}
+	
+	private SignalChain createChain(SignalCounterPair... ids) {
 		SignalChain chain = new SignalChain(new SignalGraph(ids[0].signal), ids[0].counter);
 		if (ids.length > 1) {
 			for (int i=1; i<ids.length; i++) {
@@ -473,10 +607,7 @@ public class SignalTest {
 				chain.chain(graph, ids[i].counter);
 			}
 		}
-		JsonObject chainObj = new JsonObject(chain.toJson());
-		obj.putObject("chain", chainObj);
-		
-		return obj;
+		return chain;
 	}
 	
 }
@@ -0,0 +1,125 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Tests for the {@link TopologyImage} class.
+ *
+ * @author bcard
+ *
+ */
+public class TopologyImageTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		SignalGraph a = SignalGraph.of("a");
+		SignalGraph z = SignalGraph.of("z", SignalGraph.of("b", a), SignalGraph.of("c", a));
+		TopologyImage image = new TopologyImage();
+		image.add(config("a"), a);
+		image.add(config("z").putString("expression", "b - c"), z);
+
+		TopologyImage read = write(image);
+
+		assertEquals(2, read.size());
+		assertEquals(a, read.getGraph("a"));
+		assertEquals(z, read.getGraph("z"));
+		assertEquals(config("z").putString("expression", "b - c"), read.getConfigs().get(1));
+		assertNull(read.getGraph("b"));
+	}
+
+	@Test
+	public void testLongAndNonAsciiIds() throws IOException {
+		// 48000 bytes of UTF-8, too long for DataOutput.writeUTF
+		StringBuilder builder = new StringBuilder("\u00e9");
+		for (int i = 0; i < 12000; i++) {
+			builder.append("\uD83D\uDE00");
+		}
+		String id = builder.toString();
+		SignalGraph source = SignalGraph.of("s\u00f8urce");
+		SignalGraph graph = SignalGraph.of(id, source);
+		TopologyImage image = new TopologyImage();
+		image.add(config(id), graph);
+
+		TopologyImage read = write(image);
+
+		assertEquals(graph, read.getGraph(id));
+		assertEquals("s\u00f8urce", read.getGraph(id).getDependentSignals().get(0).getId());
+		assertEquals(id, read.getConfigs().get(0).getString("id"));
+	}
+
+	@Test
+	public void testGraphsAreCanonical() throws IOException {
+		SignalGraph a = SignalGraph.of("a");
+		TopologyImage image = new TopologyImage();
+		image.add(config("b"), SignalGraph.of("b", a));
+		image.add(config("c"), SignalGraph.of("c", a));
+
+		TopologyImage read = write(image);
+
+		SignalGraph fromB = read.getGraph("b").getDependentSignals().get(0);
+		SignalGraph fromC = read.getGraph("c").getDependentSignals().get(0);
+		assertSame(fromB, fromC);
+	}
+
+	@Test
+	public void testSignalsAreReadInDependencyOrder() throws IOException {
+		SignalGraph a = SignalGraph.of("a");
+		SignalGraph b = SignalGraph.of("b", a);
+		SignalGraph c = SignalGraph.of("c", b);
+		TopologyImage image = new TopologyImage();
+		image.add(config("c"), c);
+		image.add(config("a"), a);
+		image.add(config("b"), b);
+
+		List<JsonObject> configs = write(image).getConfigs();
+
+		assertEquals("a", configs.get(0).getString("id"));
+		assertEquals("b", configs.get(1).getString("id"));
+		assertEquals("c", configs.get(2).getString("id"));
+	}
+
+	@Test
+	public void testLongChain() throws IOException {
+		SignalGraph graph = SignalGraph.of("s0");
+		for (int i = 1; i < 10000; i++) {
+			graph = SignalGraph.of("s" + i, graph);
+		}
+		TopologyImage image = new TopologyImage();
+		image.add(config("s9999"), graph);
+
+		assertEquals(graph, write(image).getGraph("s9999"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectsOtherFiles() throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), new byte[] { 1, 2, 3, 4 });
+
+		TopologyImage.read(file);
+	}
+
+	private TopologyImage write(TopologyImage image) throws IOException {
+		File file = new File(folder.getRoot(), "image");
+		image.write(file);
+		return TopologyImage.read(file);
+	}
+
+	private static JsonObject config(String id) {
+		return new JsonObject().putString("id", id);
+	}
+}
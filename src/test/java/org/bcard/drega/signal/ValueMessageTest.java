@@ -0,0 +1,238 @@
+package org.bcard.drega.signal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Tests for the {@link ValueMessage} wire codec.
+ *
+ * @author bcard
+ *
+ */
+public class ValueMessageTest {
+
+	@Test
+	public void testBinaryRoundTrip() {
+		ValueMessage msg = new ValueMessage(42L, chain());
+
+		ValueMessage copy = ValueMessage.decode(msg.toBuffer());
+
+		assertEquals(42L, copy.getValue());
+		assertEquals(chain(), copy.getChain());
+	}
+
+	@Test
+	public void testJsonRoundTrip() {
+		ValueMessage msg = new ValueMessage(-7L, chain());
+
+		ValueMessage copy = ValueMessage.decode(msg.toJsonObject());
+
+		assertEquals(-7L, copy.getValue());
+		assertEquals(chain(), copy.getChain());
+	}
+
+	@Test
+	public void testUntracedHasNoFlags() {
+		Buffer buffer = new ValueMessage(1L, chain()).toBuffer();
+
+		assertEquals(0, buffer.getByte(1));
+		assertNull(ValueMessage.decode(buffer).getTrace());
+		assertNull(ValueMessage.decode(new ValueMessage(1L, chain()).toJsonObject()).getTrace());
+	}
+
+	@Test
+	public void testBinaryTraceRoundTrip() {
+		ValueMessage msg = new ValueMessage(3L, chain(), trace());
+
+		Buffer buffer = msg.toBuffer();
+		ValueMessage copy = ValueMessage.decode(buffer);
+
+		assertEquals(ValueMessage.FLAG_TRACED, buffer.getByte(1));
+		assertEquals(3L, copy.getValue());
+		assertEquals(chain(), copy.getChain());
+		assertEquals(trace(), copy.getTrace());
+	}
+
+	@Test
+	public void testJsonTraceRoundTrip() {
+		ValueMessage msg = new ValueMessage(3L, chain(), trace());
+
+		JsonObject json = new JsonObject(msg.toJsonObject().encode());
+		ValueMessage copy = ValueMessage.decode(json);
+
+		assertEquals(chain(), copy.getChain());
+		assertEquals(trace(), copy.getTrace());
+	}
+
+	@Test
+	public void testBinaryEpochsRoundTrip() {
+		ValueMessage msg = new ValueMessage(3L, chain(), trace(), epochs());
+
+		Buffer buffer = msg.toBuffer();
+		ValueMessage copy = ValueMessage.decode(buffer);
+
+		assertEquals(ValueMessage.FLAG_TRACED | ValueMessage.FLAG_EPOCHS, buffer.getByte(1));
+		assertEquals(chain(), copy.getChain());
+		assertEquals(trace(), copy.getTrace());
+		assertEquals(epochs(), copy.getEpochs());
+	}
+
+	@Test
+	public void testBinaryEpochsWithoutTrace() {
+		ValueMessage copy = ValueMessage.decode(new ValueMessage(3L, chain(), null, epochs()).toBuffer());
+
+		assertNull(copy.getTrace());
+		assertEquals(epochs(), copy.getEpochs());
+	}
+
+	@Test
+	public void testJsonEpochsRoundTrip() {
+		ValueMessage msg = new ValueMessage(3L, chain(), null, epochs());
+
+		JsonObject json = new JsonObject(msg.toJsonObject().encode());
+		ValueMessage copy = ValueMessage.decode(json);
+
+		assertEquals(chain(), copy.getChain());
+		assertEquals(epochs(), copy.getEpochs());
+		assertNull(ValueMessage.decode(new ValueMessage(1L, chain()).toJsonObject()).getEpochs());
+	}
+
+	@Test
+	public void testInconsistentRoundTrip() {
+		ValueMessage msg = new ValueMessage(3L, chain(), null, null, true);
+
+		Buffer buffer = msg.toBuffer();
+		assertEquals(ValueMessage.FLAG_INCONSISTENT, buffer.getByte(1));
+		assertTrue(ValueMessage.decode(buffer).isInconsistent());
+		assertTrue(ValueMessage.decode(new JsonObject(msg.toJsonObject().encode())).isInconsistent());
+		assertFalse(ValueMessage.decode(new ValueMessage(3L, chain()).toJsonObject()).isInconsistent());
+	}
+
+	@Test
+	public void testJsonMatchesSignalChainJson() {
+		ValueMessage msg = new ValueMessage(1L, chain());
+
+		JsonObject expected = new JsonObject(chain().toJson());
+		assertEquals(expected, msg.toJsonObject().getObject("chain"));
+	}
+
+	@Test
+	public void testDecodeJsonAfterTransport() {
+		// JSON messages are re-encoded when they cross the cluster
+		JsonObject json = new ValueMessage(3L, chain()).toJsonObject();
+		JsonObject copy = new JsonObject(json.encode());
+
+		assertEquals(chain(), ValueMessage.decode(copy).getChain());
+	}
+
+	@Test
+	public void testBinaryIsSmallerThanJson() {
+		ValueMessage msg = new ValueMessage(1L, chain());
+
+		int binary = msg.toBuffer().length();
+		int json = msg.toJsonObject().encode().length();
+		assertEquals(true, binary < json);
+	}
+
+	@Test
+	public void testNonAsciiIds() {
+		SignalChain chain = new SignalChain(new SignalGraph("été"), 2);
+		ValueMessage copy = ValueMessage.decode(new ValueMessage(1L, chain).toBuffer());
+
+		assertEquals(chain, copy.getChain());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownVersionRejected() {
+		Buffer buffer = new ValueMessage(1L, chain()).toBuffer();
+		buffer.setByte(0, (byte) 99);
+
+		ValueMessage.decode(buffer);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOlderVersionRejected() {
+		// another layout would misread the trace
+		Buffer buffer = new ValueMessage(1L, chain(), Trace.start("a", 5)).toBuffer();
+		buffer.setByte(0, (byte) 1);
+
+		ValueMessage.decode(buffer);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownFlagsRejected() {
+		Buffer buffer = new ValueMessage(1L, chain()).toBuffer();
+		buffer.setByte(1, (byte) 0x40);
+
+		ValueMessage.decode(buffer);
+	}
+
+	@Test
+	public void testTruncatedBufferRejected() {
+		List<Epoch> epochs = Arrays.asList(new Epoch("t", Arrays.asList("a", "b")));
+		Buffer full = new ValueMessage(1L, chain(), Trace.start("a", 5), epochs).toBuffer();
+		for (int length = 0; length < full.length(); length++) {
+			try {
+				ValueMessage.fromBuffer(full.getBuffer(0, length));
+				fail("decoded " + length + " of " + full.length() + " bytes");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadCountRejected() {
+		Buffer buffer = new ValueMessage(1L, chain()).toBuffer();
+		buffer.setInt(10, Integer.MAX_VALUE);
+
+		ValueMessage.decode(buffer);
+	}
+
+	@Test
+	public void testLongestIdEncoded() {
+		char[] id = new char[ValueMessage.MAX_ID_LENGTH];
+		Arrays.fill(id, 'a');
+		SignalChain chain = new SignalChain(new SignalGraph(new String(id)), 1);
+
+		assertEquals(chain, ValueMessage.decode(new ValueMessage(1L, chain).toBuffer()).getChain());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLongIdRejected() {
+		char[] id = new char[ValueMessage.MAX_ID_LENGTH + 1];
+		Arrays.fill(id, 'a');
+
+		new ValueMessage(1L, new SignalChain(new SignalGraph(new String(id)), 1)).toBuffer();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownBodyRejected() {
+		ValueMessage.decode("1");
+	}
+
+	private static SignalChain chain() {
+		SignalChain chain = new SignalChain(new SignalGraph("a"), 1);
+		chain.chain(new SignalGraph("b"), 4);
+		chain.chain(new SignalGraph("c"), 2);
+		return chain;
+	}
+
+	private static List<Epoch> epochs() {
+		return Arrays.asList(new Epoch("t1", Arrays.asList("a", "b")), new Epoch("t2", Arrays.asList("c")));
+	}
+
+	private static Trace trace() {
+		return Trace.start("x", 100L).hop("x", 150L).hop("y", 1L << 40);
+	}
+}
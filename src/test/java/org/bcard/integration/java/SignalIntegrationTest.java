@@ -13,11 +13,11 @@ import org.bcard.drega.command.MapSignal;
 import org.bcard.drega.command.PrintGraph;
 import org.bcard.drega.command.PrintSignal;
 import org.bcard.drega.signal.CombineOperator;
+import org.bcard.drega.signal.ValueMessage;
 import org.junit.Test;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
-import org.vertx.java.core.json.JsonObject;
 import org.vertx.testtools.TestVerticle;
 import org.vertx.testtools.VertxAssert;
 
@@ -182,11 +182,11 @@ public class SignalIntegrationTest extends TestVerticle {
 
 			@Override
 			public void handle(AsyncResult<String> event) {
-				vertx.eventBus().registerHandler("signals.z.value", new Handler<Message<JsonObject>>() {
+				vertx.eventBus().registerHandler("signals.z.value", new Handler<Message<Object>>() {
 
 					@Override
-					public void handle(Message<JsonObject> event) {
-						Long value = event.body().getLong("value");
+					public void handle(Message<Object> event) {
+						Long value = ValueMessage.decode(event.body()).getValue();
 						VertxAssert.assertFalse("Value equals 1", value.equals(Long.valueOf(1L)));
 						VertxAssert.assertFalse("Value equals 3", value.equals(Long.valueOf(3L)));
 						VertxAssert.assertFalse("Value equals 5", value.equals(Long.valueOf(5L)));
@@ -213,11 +213,11 @@ public class SignalIntegrationTest extends TestVerticle {
 
 			@Override
 			public void handle(AsyncResult<String> event) {
-				vertx.eventBus().registerHandler("signals.z.value", new Handler<Message<JsonObject>>() {
+				vertx.eventBus().registerHandler("signals.z.value", new Handler<Message<Object>>() {
 
 					@Override
-					public void handle(Message<JsonObject> event) {
-						Long value = event.body().getLong("value");
+					public void handle(Message<Object> event) {
+						Long value = ValueMessage.decode(event.body()).getValue();
 						if (value.equals(Long.valueOf(1)) || 
 							value.equals(Long.valueOf(3)) || 
 							value.equals(Long.valueOf(5))) {
@@ -329,11 +329,11 @@ public class SignalIntegrationTest extends TestVerticle {
 	}
 
 	private void assertValueWillBe(final Long value, String id) {
-		vertx.eventBus().registerHandler("signals."+id+".value", new Handler<Message<JsonObject>>() {
+		vertx.eventBus().registerHandler("signals."+id+".value", new Handler<Message<Object>>() {
 
 			@Override
-			public void handle(Message<JsonObject> event) {
-				Long msgVal = event.body().getLong("value");
+			public void handle(Message<Object> event) {
+				Long msgVal = ValueMessage.decode(event.body()).getValue();
 				if (!msgVal.equals(value)) {
 					return;
 				}